@@ -26,6 +26,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
@@ -36,11 +37,19 @@ import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.thread.Sweeper;
 
+/**
+ * <p>A {@link ConnectionPool} for multiplexed connections.</p>
+ * <p>Requests are balanced across the open connections: each request is sent
+ * on the connection with the least expected wait, estimated from its number
+ * of active requests and its observed latency, that is the average time
+ * between the activation and the release of the connection for a request.</p>
+ */
 public class MultiplexConnectionPool extends AbstractConnectionPool implements ConnectionPool.Multiplexable, Sweeper.Sweepable
 {
     private static final Logger LOG = Log.getLogger(MultiplexConnectionPool.class);
 
     private final ReentrantLock lock = new ReentrantLock();
+    private final long epoch = System.nanoTime();
     private final HttpDestination destination;
     private final Deque<Holder> idleConnections;
     private final Map<Connection, Holder> muxedConnections;
@@ -150,31 +159,11 @@ public class MultiplexConnectionPool extends AbstractConnectionPool implements C
         lock();
         try
         {
-            while (true)
-            {
-                if (muxedConnections.isEmpty())
-                {
-                    holder = idleConnections.poll();
-                    if (holder == null)
-                        return null;
-                    muxedConnections.put(holder.connection, holder);
-                }
-                else
-                {
-                    holder = muxedConnections.values().iterator().next();
-                }
-
-                if (holder.count < maxMultiplex)
-                {
-                    ++holder.count;
-                    break;
-                }
-                else
-                {
-                    muxedConnections.remove(holder.connection);
-                    busyConnections.put(holder.connection, holder);
-                }
-            }
+            holder = select();
+            if (holder == null)
+                return null;
+            ++holder.count;
+            holder.started += System.nanoTime() - epoch;
         }
         finally
         {
@@ -184,6 +173,66 @@ public class MultiplexConnectionPool extends AbstractConnectionPool implements C
         return active(holder.connection);
     }
 
+    /**
+     * <p>Selects the connection with the least expected wait, that is the number
+     * of its active requests plus one, times its observed latency.</p>
+     * <p>The latency of a connection that has not been used yet is assumed to be
+     * the max latency of the other connections, so that "cold" connections are
+     * used last.</p>
+     *
+     * @return the selected connection, or null if all connections are busy
+     */
+    private Holder select()
+    {
+        long maxLatency = 1;
+        for (Iterator<Holder> iterator = muxedConnections.values().iterator(); iterator.hasNext();)
+        {
+            Holder holder = iterator.next();
+            if (holder.count < maxMultiplex)
+            {
+                maxLatency = Math.max(maxLatency, holder.latency);
+            }
+            else
+            {
+                iterator.remove();
+                busyConnections.put(holder.connection, holder);
+            }
+        }
+        for (Holder holder : idleConnections)
+            maxLatency = Math.max(maxLatency, holder.latency);
+
+        // On equal waits, prefer the connections already in use.
+        Holder result = null;
+        long minWait = Long.MAX_VALUE;
+        for (Holder holder : muxedConnections.values())
+        {
+            long wait = holder.expectedWait(maxLatency);
+            if (wait < minWait)
+            {
+                result = holder;
+                minWait = wait;
+            }
+        }
+        boolean idle = false;
+        for (Holder holder : idleConnections)
+        {
+            long wait = holder.expectedWait(maxLatency);
+            if (wait < minWait)
+            {
+                result = holder;
+                minWait = wait;
+                idle = true;
+            }
+        }
+
+        if (idle)
+        {
+            idleConnections.remove(result);
+            muxedConnections.put(result.connection, result);
+        }
+        return result;
+    }
+
     @Override
     public boolean release(Connection connection)
     {
@@ -196,6 +245,7 @@ public class MultiplexConnectionPool extends AbstractConnectionPool implements C
             holder = muxedConnections.get(connection);
             if (holder != null)
             {
+                holder.released(System.nanoTime() - epoch);
                 int count = --holder.count;
                 if (count == 0)
                 {
@@ -212,6 +262,7 @@ public class MultiplexConnectionPool extends AbstractConnectionPool implements C
                 holder = busyConnections.remove(connection);
                 if (holder != null)
                 {
+                    holder.released(System.nanoTime() - epoch);
                     int count = --holder.count;
                     if (!closed)
                     {
@@ -396,16 +447,37 @@ public class MultiplexConnectionPool extends AbstractConnectionPool implements C
     {
         private final Connection connection;
         private int count;
+        // The sum of the activation times of the active requests.
+        private long started;
+        // The moving average of the request latency, in nanoseconds.
+        private long latency;
 
         private Holder(Connection connection)
         {
             this.connection = connection;
         }
 
+        private long expectedWait(long maxLatency)
+        {
+            return (count + 1) * (latency > 0 ? latency : maxLatency);
+        }
+
+        private void released(long now)
+        {
+            if (count <= 0)
+                return;
+            // Requests may complete in any order, so the
+            // latency is sampled from their average start.
+            long start = started / count;
+            started = count == 1 ? 0 : started - start;
+            long sample = Math.max(1, now - start);
+            latency = latency == 0 ? sample : latency + (sample - latency) / 8;
+        }
+
         @Override
         public String toString()
         {
-            return String.format("%s[%d]", connection, count);
+            return String.format("%s[%d,%dus]", connection, count, TimeUnit.NANOSECONDS.toMicros(latency));
         }
     }
 }
@@ -0,0 +1,351 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.QuotedStringTokenizer;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * A streaming parser of multipart/form-data content.
+ * <p>
+ * Unlike {@link MultiPartFormInputStream}, this parser does not buffer part content
+ * in memory or temporary files. The content of each part is passed to the
+ * {@link Listener} as slices of the buffers given to {@link #parse(ByteBuffer, boolean, Callback)},
+ * so that it may be written directly to its destination (for example with a
+ * {@link java.nio.channels.FileChannel}) without intermediate copies.
+ * <p>
+ * Content slices are only valid until the {@link Callback} passed with them is completed.
+ * Parsing is suspended until then, which allows the listener to apply backpressure
+ * on the source of the content.
+ */
+public class MultiPartStreamParser
+{
+    private static final Logger LOG = Log.getLogger(MultiPartStreamParser.class);
+
+    private final Listener _listener;
+    private final MultiPartParser _parser;
+    private Callback _callback;
+    private boolean _pending;
+    private Part _part;
+    private long _size;
+    private long _maxRequestSize = -1;
+
+    /**
+     * @param contentType the multipart/form-data content type, including its boundary parameter
+     * @param listener the listener of parts and their content
+     */
+    public MultiPartStreamParser(String contentType, Listener listener)
+    {
+        if (contentType == null || !StringUtil.asciiToLowerCase(contentType).startsWith("multipart/form-data"))
+            throw new IllegalArgumentException("Not multipart/form-data: " + contentType);
+        _listener = listener;
+        _parser = new MultiPartParser(new Handler(), getBoundary(contentType));
+    }
+
+    /**
+     * @return the maximum number of bytes of content to parse, or -1 for no limit
+     */
+    public long getMaxRequestSize()
+    {
+        return _maxRequestSize;
+    }
+
+    /**
+     * @param maxRequestSize the maximum number of bytes of content to parse, or -1 for no limit
+     */
+    public void setMaxRequestSize(long maxRequestSize)
+    {
+        _maxRequestSize = maxRequestSize;
+    }
+
+    /**
+     * @return the total number of bytes of content consumed so far
+     */
+    public long getSize()
+    {
+        return _size;
+    }
+
+    /**
+     * @return true if all the parts have been parsed
+     */
+    public boolean isComplete()
+    {
+        return _parser.getState() == MultiPartParser.State.END;
+    }
+
+    /**
+     * Parse content until either the buffer is consumed or an event is passed
+     * to the listener together with the callback.
+     * <p>
+     * If this method returns true, the listener owns the callback and the buffer must
+     * not be modified, nor this method called again, until the callback is completed.
+     * Any content remaining in the buffer must then be passed to this method again.
+     *
+     * @param buffer an array backed buffer of content
+     * @param last whether this is the last buffer of content
+     * @param callback the callback to pass to the listener with part content
+     * @return true if the callback was passed to the listener
+     * @throws BadMessageException if the content is not valid multipart/form-data
+     */
+    public boolean parse(ByteBuffer buffer, boolean last, Callback callback)
+    {
+        if (_maxRequestSize > 0 && _size + buffer.remaining() > _maxRequestSize)
+            throw new BadMessageException(HttpStatus.PAYLOAD_TOO_LARGE_413, "Request exceeds maxRequestSize (" + _maxRequestSize + ")");
+
+        _callback = callback;
+        _pending = false;
+        int remaining = buffer.remaining();
+        try
+        {
+            _parser.parse(buffer, last);
+        }
+        finally
+        {
+            _size += remaining - buffer.remaining();
+            _callback = null;
+        }
+
+        if (last && !_pending && BufferUtil.isEmpty(buffer) && !isComplete())
+        {
+            if (_parser.getState() == MultiPartParser.State.PREAMBLE)
+                throw new BadMessageException("Missing initial multi part boundary");
+            throw new BadMessageException("Incomplete Multipart");
+        }
+        return _pending;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,size=%d,part=%s}", getClass().getSimpleName(), hashCode(), _parser, _size, _part);
+    }
+
+    private static String getBoundary(String contentType)
+    {
+        int bstart = contentType.indexOf("boundary=");
+        if (bstart < 0)
+            return "";
+        int bend = contentType.indexOf(";", bstart);
+        bend = (bend < 0 ? contentType.length() : bend);
+        return QuotedStringTokenizer.unquote(value(contentType.substring(bstart, bend)).trim());
+    }
+
+    private static String value(String nameEqualsValue)
+    {
+        int idx = nameEqualsValue.indexOf('=');
+        String value = nameEqualsValue.substring(idx + 1).trim();
+        return QuotedStringTokenizer.unquoteOnly(value);
+    }
+
+    private class Handler implements MultiPartParser.Handler
+    {
+        private HttpFields _fields = new HttpFields();
+
+        @Override
+        public void startPart()
+        {
+            _part = null;
+            _fields = new HttpFields();
+        }
+
+        @Override
+        public void parsedField(String name, String value)
+        {
+            _fields.add(name, value);
+        }
+
+        @Override
+        public boolean headerComplete()
+        {
+            String disposition = _fields.get("Content-Disposition");
+            if (disposition == null)
+                throw new BadMessageException("Missing content-disposition");
+
+            boolean formData = false;
+            String name = null;
+            String fileName = null;
+            QuotedStringTokenizer tok = new QuotedStringTokenizer(disposition, ";", false, true);
+            while (tok.hasMoreTokens())
+            {
+                String t = tok.nextToken().trim();
+                String tl = StringUtil.asciiToLowerCase(t);
+                if (tl.startsWith("form-data"))
+                    formData = true;
+                else if (tl.startsWith("name="))
+                    name = value(t);
+                else if (tl.startsWith("filename="))
+                    fileName = value(t);
+            }
+
+            if (!formData)
+                throw new BadMessageException("Part not form-data");
+            if (name == null)
+                throw new BadMessageException("No name in part");
+
+            _part = new Part(name, fileName, _fields);
+            if (LOG.isDebugEnabled())
+                LOG.debug("headerComplete {} {}", _part, MultiPartStreamParser.this);
+            _listener.onPartBegin(_part);
+            return false;
+        }
+
+        @Override
+        public boolean content(ByteBuffer content, boolean last)
+        {
+            if (_part == null)
+                return false;
+            if (last)
+                _part._complete = true;
+            _pending = true;
+            _listener.onPartContent(_part, content, last, _callback);
+            return true;
+        }
+
+        @Override
+        public boolean messageComplete()
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("messageComplete {}", MultiPartStreamParser.this);
+            _listener.onComplete();
+            return true;
+        }
+
+        @Override
+        public void earlyEOF()
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Early EOF {}", MultiPartStreamParser.this);
+        }
+    }
+
+    /**
+     * The headers of a part of multipart/form-data content.
+     */
+    public static class Part
+    {
+        private final String _name;
+        private final String _fileName;
+        private final HttpFields _fields;
+        private boolean _complete;
+
+        private Part(String name, String fileName, HttpFields fields)
+        {
+            _name = name;
+            _fileName = fileName;
+            _fields = fields;
+        }
+
+        /**
+         * @return the name of the form field of the part
+         */
+        public String getName()
+        {
+            return _name;
+        }
+
+        /**
+         * @return the submitted file name of the part, or null if the part is not a file
+         */
+        public String getFileName()
+        {
+            return _fileName;
+        }
+
+        /**
+         * @return the Content-Type of the part, or null
+         */
+        public String getContentType()
+        {
+            return _fields.get(HttpHeader.CONTENT_TYPE);
+        }
+
+        /**
+         * @return the headers of the part
+         */
+        public HttpFields getFields()
+        {
+            return _fields;
+        }
+
+        /**
+         * @return true if all the content of the part has been parsed
+         */
+        public boolean isComplete()
+        {
+            return _complete;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x{name=%s,file=%s}", getClass().getSimpleName(), hashCode(), _name, _fileName);
+        }
+    }
+
+    /**
+     * Listener of the parts of multipart/form-data content.
+     */
+    public interface Listener
+    {
+        /**
+         * Called when the headers of a part have been parsed.
+         *
+         * @param part the part
+         */
+        default void onPartBegin(Part part)
+        {
+        }
+
+        /**
+         * Called with a slice of the content of a part.
+         * <p>
+         * The content is only valid until the callback is completed, and parsing does not
+         * continue until then.
+         *
+         * @param part the part
+         * @param content a (possibly empty) slice of content
+         * @param last true if this is the last content of the part
+         * @param callback the callback to complete once the content has been consumed
+         */
+        void onPartContent(Part part, ByteBuffer content, boolean last, Callback callback);
+
+        /**
+         * Called when all the parts have been parsed.
+         */
+        default void onComplete()
+        {
+        }
+
+        /**
+         * Called if parsing of the content failed.
+         *
+         * @param failure the cause of the failure
+         */
+        default void onFailure(Throwable failure)
+        {
+        }
+    }
+}
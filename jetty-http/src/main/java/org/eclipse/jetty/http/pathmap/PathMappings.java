@@ -48,6 +48,8 @@ public class PathMappings<E> implements Iterable<MappedResource<E>>, Dumpable
 {
     private static final Logger LOG = Log.getLogger(PathMappings.class);
     private final Set<MappedResource<E>> _mappings = new TreeSet<>();
+    private final Set<MappedResource<E>> _unindexed = new TreeSet<>();
+    private final UriTemplateSegmentTrie<E> _templates = new UriTemplateSegmentTrie<>();
     
     private Trie<MappedResource<E>> _exactMap=new ArrayTernaryTrie<>(false);
     private Trie<MappedResource<E>> _prefixMap=new ArrayTernaryTrie<>(false);
@@ -80,13 +82,26 @@ public class PathMappings<E> implements Iterable<MappedResource<E>>, Dumpable
     public void reset()
     {
         _mappings.clear();
+        _unindexed.clear();
+        _templates.clear();
         _prefixMap.clear();
         _suffixMap.clear();
     }
     
     public void removeIf(Predicate<MappedResource<E>> predicate)
     {
-        _mappings.removeIf(predicate);
+        if (_mappings.removeIf(predicate))
+        {
+            _unindexed.removeIf(predicate);
+            rebuildTemplates();
+        }
+    }
+
+    private void rebuildTemplates()
+    {
+        _templates.clear();
+        for (MappedResource<E> mr : _mappings)
+            _templates.add(mr);
     }
     
     /**
@@ -124,63 +139,24 @@ public class PathMappings<E> implements Iterable<MappedResource<E>>, Dumpable
     public MappedResource<E> getMatch(String path)
     {
         PathSpecGroup last_group=null;
+
+        // The first matching uri-template mapping, found by walking the segment trie,
+        // so that only the mappings that are not indexed by the trie are searched below.
+        final MappedResource<E> template=_templates.getMatch(path);
         
-        // Search all the mappings
-        for (MappedResource<E> mr : _mappings)
+        // Search the other mappings, up to the template match
+        for (MappedResource<E> mr : _unindexed)
         {
+            if (template!=null && template.compareTo(mr)<0)
+                break;
+
             PathSpecGroup group=mr.getPathSpec().getGroup();
             if (group!=last_group)
             {
                 // New group in list, so let's look for an optimization
-                switch(group)
-                {
-                    case EXACT:
-                    {
-                        int i= path.length();
-                        final Trie<MappedResource<E>> exact_map=_exactMap;
-                        while(i>=0)
-                        {
-                            MappedResource<E> candidate=exact_map.getBest(path,0,i);
-                            if (candidate==null)
-                                break;
-                            if (candidate.getPathSpec().matches(path))
-                                return candidate;
-                            i=candidate.getPathSpec().getPrefix().length()-1;
-                        }
-                        break;
-                    }
-                        
-                    case PREFIX_GLOB:
-                    {
-                        int i= path.length();
-                        final Trie<MappedResource<E>> prefix_map=_prefixMap;
-                        while(i>=0)
-                        {
-                            MappedResource<E> candidate=prefix_map.getBest(path,0,i);
-                            if (candidate==null)
-                                break;
-                            if (candidate.getPathSpec().matches(path))
-                                return candidate;
-                            i=candidate.getPathSpec().getPrefix().length()-1;
-                        }
-                        break;
-                    }
-                        
-                    case SUFFIX_GLOB:
-                    {
-                        int i=0;
-                        final Trie<MappedResource<E>> suffix_map=_suffixMap;
-                        while ((i=path.indexOf('.',i+1))>0)
-                        {
-                            MappedResource<E> candidate=suffix_map.get(path,i+1,path.length()-i-1);
-                            if (candidate!=null && candidate.getPathSpec().matches(path))
-                                return candidate;
-                        }
-                        break;
-                    }
-                    
-                    default:
-                }
+                MappedResource<E> candidate=getGroupMatch(group,path);
+                if (candidate!=null)
+                    return candidate;
             }
             
             if (mr.getPathSpec().matches(path))
@@ -188,7 +164,67 @@ public class PathMappings<E> implements Iterable<MappedResource<E>>, Dumpable
             
             last_group=group;
         }
-        
+
+        if (template!=null && template.getPathSpec().getGroup()!=last_group)
+        {
+            MappedResource<E> candidate=getGroupMatch(template.getPathSpec().getGroup(),path);
+            if (candidate!=null)
+                return candidate;
+        }
+        return template;
+    }
+
+    private MappedResource<E> getGroupMatch(PathSpecGroup group, String path)
+    {
+        switch(group)
+        {
+            case EXACT:
+            {
+                int i= path.length();
+                final Trie<MappedResource<E>> exact_map=_exactMap;
+                while(i>=0)
+                {
+                    MappedResource<E> candidate=exact_map.getBest(path,0,i);
+                    if (candidate==null)
+                        break;
+                    if (candidate.getPathSpec().matches(path))
+                        return candidate;
+                    i=candidate.getPathSpec().getPrefix().length()-1;
+                }
+                break;
+            }
+                
+            case PREFIX_GLOB:
+            {
+                int i= path.length();
+                final Trie<MappedResource<E>> prefix_map=_prefixMap;
+                while(i>=0)
+                {
+                    MappedResource<E> candidate=prefix_map.getBest(path,0,i);
+                    if (candidate==null)
+                        break;
+                    if (candidate.getPathSpec().matches(path))
+                        return candidate;
+                    i=candidate.getPathSpec().getPrefix().length()-1;
+                }
+                break;
+            }
+                
+            case SUFFIX_GLOB:
+            {
+                int i=0;
+                final Trie<MappedResource<E>> suffix_map=_suffixMap;
+                while ((i=path.indexOf('.',i+1))>0)
+                {
+                    MappedResource<E> candidate=suffix_map.get(path,i+1,path.length()-i-1);
+                    if (candidate!=null && candidate.getPathSpec().matches(path))
+                        return candidate;
+                }
+                break;
+            }
+            
+            default:
+        }
         return null;
     }
 
@@ -248,6 +284,8 @@ public class PathMappings<E> implements Iterable<MappedResource<E>>, Dumpable
         }
         
         boolean added =_mappings.add(entry);
+        if (added && !_templates.add(entry))
+            _unindexed.add(entry);
         if (LOG.isDebugEnabled())
             LOG.debug("{} {} to {}",added?"Added":"Ignored",entry,this);
         return added;
@@ -259,13 +297,16 @@ public class PathMappings<E> implements Iterable<MappedResource<E>>, Dumpable
         switch (pathSpec.group)
         {
             case EXACT:
-                _exactMap.remove(pathSpec.getPrefix());
+                if (pathSpec.getPrefix()!=null)
+                    _exactMap.remove(pathSpec.getPrefix());
                 break;
             case PREFIX_GLOB:
-                _prefixMap.remove(pathSpec.getPrefix());
+                if (pathSpec.getPrefix()!=null)
+                    _prefixMap.remove(pathSpec.getPrefix());
                 break;
             case SUFFIX_GLOB:
-                _suffixMap.remove(pathSpec.getSuffix());
+                if (pathSpec.getSuffix()!=null)
+                    _suffixMap.remove(pathSpec.getSuffix());
                 break;
         }
         
@@ -280,6 +321,13 @@ public class PathMappings<E> implements Iterable<MappedResource<E>>, Dumpable
                 break;
             }
         }
+        if (removed)
+        {
+            if (UriTemplateSegmentTrie.isIndexable(pathSpec))
+                rebuildTemplates();
+            else
+                _unindexed.removeIf(mr -> mr.getPathSpec().equals(pathSpec));
+        }
         if (LOG.isDebugEnabled())
             LOG.debug("{} {} to {}",removed?"Removed":"Ignored",pathSpec,this);
         return removed;
@@ -48,6 +48,8 @@ public class UriTemplatePathSpec extends RegexPathSpec
                                                     "!$&'()*+,;="; // sub-delims
     /** Allowed Symbols in a URI Template variable */
     private static final String VARIABLE_SYMBOLS="-._";
+    /** Regex symbols that are passed through unescaped from a literal segment */
+    private static final String REGEX_UNESCAPED="^$+?()|";
     private static final Set<String> FORBIDDEN_SEGMENTS;
 
     static
@@ -59,6 +61,9 @@ public class UriTemplatePathSpec extends RegexPathSpec
     }
 
     private String variables[];
+    /** The literal path segments, with null for variable segments, or null if not usable by {@link UriTemplateSegmentTrie} */
+    private String segments[];
+    private boolean trailingSlash;
 
     public UriTemplatePathSpec(String rawSpec)
     {
@@ -72,6 +77,8 @@ public class UriTemplatePathSpec extends RegexPathSpec
             super.pathDepth = 1;
             this.specLength = 1;
             this.variables = new String[0];
+            this.segments = new String[0];
+            this.trailingSlash = true;
             this.group = PathSpecGroup.EXACT;
             return;
         }
@@ -108,6 +115,8 @@ public class UriTemplatePathSpec extends RegexPathSpec
         // split up into path segments (ignoring the first slash that will always be empty)
         String segments[] = rawSpec.substring(1).split("/");
         char segmentSignature[] = new char[segments.length];
+        String literals[] = new String[segments.length];
+        boolean literal = true;
         this.pathDepth = segments.length;
         for (int i = 0; i < segments.length; i++)
         {
@@ -171,6 +180,7 @@ public class UriTemplatePathSpec extends RegexPathSpec
             {
                 // valid path segment
                 segmentSignature[i] = 'e'; // exact
+                literals[i] = segment;
                 // build regex
                 regex.append('/');
                 // escape regex special characters
@@ -180,6 +190,11 @@ public class UriTemplatePathSpec extends RegexPathSpec
                     {
                         regex.append('\\');
                     }
+                    else if (REGEX_UNESCAPED.indexOf(c) >= 0)
+                    {
+                        // segment is interpreted as a regex, so cannot be compared literally
+                        literal = false;
+                    }
                     regex.append(c);
                 }
             }
@@ -189,6 +204,7 @@ public class UriTemplatePathSpec extends RegexPathSpec
         if(rawSpec.charAt(rawSpec.length()-1) == '/')
         {
             regex.append('/');
+            this.trailingSlash = true;
         }
 
         regex.append('$');
@@ -197,6 +213,7 @@ public class UriTemplatePathSpec extends RegexPathSpec
 
         int varcount = varNames.size();
         this.variables = varNames.toArray(new String[varcount]);
+        this.segments = literal ? literals : null;
 
         // Convert signature to group
         String sig = String.valueOf(segmentSignature);
@@ -338,4 +355,23 @@ public class UriTemplatePathSpec extends RegexPathSpec
     {
         return this.variables;
     }
+
+    /**
+     * Get the path segments of this spec for segment based matching.
+     *
+     * @return the literal path segments with null entries for variable segments,
+     * or null if the spec contains segments that can only be matched by its regex
+     */
+    String[] getSegments()
+    {
+        return this.segments;
+    }
+
+    /**
+     * @return true if the spec ends with a '/' (which is not a segment of its own)
+     */
+    boolean hasTrailingSlash()
+    {
+        return this.trailingSlash;
+    }
 }
@@ -0,0 +1,185 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http.pathmap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A trie of {@link UriTemplatePathSpec} path segments.
+ * <p>
+ * All the URI Template specs of a {@link PathMappings} are combined into a single
+ * tree of literal and variable segments, so that finding the best match for a path
+ * costs a walk of the path segments rather than a regex match per mapping.
+ * <p>
+ * Each node remembers the mapping that sorts first in its subtree. Literal children
+ * are walked first, and a child is only walked if its subtree may hold a mapping that
+ * sorts before the best match found so far, so the result is the mapping that sorts
+ * first of all those that match, which is the same as would be found by testing every
+ * spec in order. Since a node is at most visited once per path, the cost of a walk is
+ * bounded by the number of nodes matching a prefix of the path.
+ *
+ * @param <E> the type of mapping endpoint
+ */
+class UriTemplateSegmentTrie<E>
+{
+    private Node<E> _root = new Node<>();
+    private int _size;
+
+    /**
+     * @param pathSpec the path spec to test
+     * @return true if the path spec can be added to the trie
+     */
+    static boolean isIndexable(PathSpec pathSpec)
+    {
+        return pathSpec instanceof UriTemplatePathSpec && ((UriTemplatePathSpec)pathSpec).getSegments() != null;
+    }
+
+    public boolean isEmpty()
+    {
+        return _size == 0;
+    }
+
+    public int size()
+    {
+        return _size;
+    }
+
+    public void clear()
+    {
+        _root = new Node<>();
+        _size = 0;
+    }
+
+    /**
+     * @param resource the mapped resource to add
+     * @return true if added, false if its path spec is not {@link #isIndexable(PathSpec) indexable}
+     */
+    public boolean add(MappedResource<E> resource)
+    {
+        if (!isIndexable(resource.getPathSpec()))
+            return false;
+
+        UriTemplatePathSpec spec = (UriTemplatePathSpec)resource.getPathSpec();
+        Node<E> node = _root;
+        node._first = best(node._first, resource);
+        for (String segment : spec.getSegments())
+        {
+            if (segment == null)
+            {
+                if (node._variable == null)
+                    node._variable = new Node<>();
+                node = node._variable;
+            }
+            else
+            {
+                if (node._literals == null)
+                    node._literals = new HashMap<>();
+                node = node._literals.computeIfAbsent(segment, s -> new Node<>());
+            }
+            node._first = best(node._first, resource);
+        }
+
+        if (spec.hasTrailingSlash())
+            node._slashMatch = best(node._slashMatch, resource);
+        else
+            node._match = best(node._match, resource);
+        _size++;
+        return true;
+    }
+
+    /**
+     * Get the best matching resource for a path.
+     *
+     * @param path the path to match, which may include a query
+     * @return the first (in search order) mapped resource that matches, or null
+     */
+    public MappedResource<E> getMatch(String path)
+    {
+        if (_size == 0)
+            return null;
+        int end = path.indexOf('?');
+        if (end < 0)
+            end = path.length();
+        return match(_root, path, 0, end, null);
+    }
+
+    /**
+     * @param node the node to walk
+     * @param path the path to match
+     * @param offset the offset of the path segment to match against the children of the node
+     * @param end the end of the path
+     * @param best the best match found so far, or null
+     * @return the better of the given best match and the best match in the subtree of the node
+     */
+    private MappedResource<E> match(Node<E> node, String path, int offset, int end, MappedResource<E> best)
+    {
+        // Nothing in this subtree sorts before the best match so far
+        if (node._first == null || best != null && best.compareTo(node._first) <= 0)
+            return best;
+
+        if (offset == end)
+            return best(best, node._match);
+        if (path.charAt(offset) != '/')
+            return best;
+        if (offset + 1 == end)
+            return best(best, node._slashMatch);
+
+        int next = path.indexOf('/', offset + 1);
+        if (next < 0 || next > end)
+            next = end;
+        // Neither literal nor variable segments may be empty
+        if (next == offset + 1)
+            return best;
+
+        if (node._literals != null)
+        {
+            Node<E> child = node._literals.get(path.substring(offset + 1, next));
+            if (child != null)
+                best = match(child, path, next, end, best);
+        }
+        if (node._variable != null)
+            best = match(node._variable, path, next, end, best);
+        return best;
+    }
+
+    private static <E> MappedResource<E> best(MappedResource<E> a, MappedResource<E> b)
+    {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[size=%d]", getClass().getSimpleName(), _size);
+    }
+
+    private static class Node<E>
+    {
+        private Map<String, Node<E>> _literals;
+        private Node<E> _variable;
+        private MappedResource<E> _match;
+        private MappedResource<E> _slashMatch;
+        private MappedResource<E> _first;
+    }
+}
@@ -0,0 +1,209 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.junit.Test;
+
+public class MultiPartStreamParserTest
+{
+    private static final String CONTENT_TYPE = "multipart/form-data; boundary=\"AaB03x\"";
+
+    private static final String CONTENT = "preamble\r\n" +
+        "--AaB03x\r\n" +
+        "Content-Disposition: form-data; name=\"field1\"\r\n" +
+        "\r\n" +
+        "Joe Blow\r\n" +
+        "--AaB03x\r\n" +
+        "Content-Disposition: form-data; name=\"file1\"; filename=\"file1.txt\"\r\n" +
+        "Content-Type: text/plain\r\n" +
+        "\r\n" +
+        "contents of file1.txt with a\r\n--partial boundary\r\n" +
+        "--AaB03x--\r\n" +
+        "epilogue";
+
+    @Test
+    public void testParts()
+    {
+        CapturingListener listener = new CapturingListener();
+        MultiPartStreamParser parser = new MultiPartStreamParser(CONTENT_TYPE, listener);
+
+        parseAll(parser, listener, BufferUtil.toBuffer(CONTENT));
+        assertFalse(listener.complete);
+        parseAll(parser, listener, BufferUtil.EMPTY_BUFFER, true);
+
+        assertTrue(listener.complete);
+        assertTrue(parser.isComplete());
+        assertThat(listener.content.size(), is(2));
+        assertThat(listener.content.get("field1"), is("Joe Blow"));
+        assertThat(listener.content.get("file1"), is("contents of file1.txt with a\r\n--partial boundary"));
+        assertThat(listener.parts.get(0).getFileName(), nullValue());
+        assertThat(listener.parts.get(1).getFileName(), is("file1.txt"));
+        assertThat(listener.parts.get(1).getContentType(), is("text/plain"));
+        assertTrue(listener.parts.get(1).isComplete());
+        assertThat(parser.getSize(), is((long)CONTENT.length()));
+    }
+
+    @Test
+    public void testSplitBuffers()
+    {
+        byte[] bytes = CONTENT.getBytes(StandardCharsets.ISO_8859_1);
+        for (int split = 1; split < 16; split++)
+        {
+            CapturingListener listener = new CapturingListener();
+            MultiPartStreamParser parser = new MultiPartStreamParser(CONTENT_TYPE, listener);
+
+            int offset = 0;
+            while (offset < bytes.length)
+            {
+                int length = Math.min(bytes.length - offset, ThreadLocalRandom.current().nextInt(split) + 1);
+                parseAll(parser, listener, ByteBuffer.wrap(bytes, offset, length));
+                offset += length;
+            }
+            parseAll(parser, listener, BufferUtil.EMPTY_BUFFER, true);
+
+            assertTrue(listener.complete);
+            assertThat(listener.content.get("field1"), is("Joe Blow"));
+            assertThat(listener.content.get("file1"), is("contents of file1.txt with a\r\n--partial boundary"));
+        }
+    }
+
+    @Test
+    public void testPendingCallbackSuspendsParsing()
+    {
+        List<Callback> callbacks = new ArrayList<>();
+        MultiPartStreamParser parser = new MultiPartStreamParser(CONTENT_TYPE, (part, content, last, callback) -> callbacks.add(callback));
+
+        ByteBuffer buffer = BufferUtil.toBuffer(CONTENT);
+        Callback callback = Callback.NOOP;
+        assertTrue(parser.parse(buffer, false, callback));
+        assertThat(callbacks.size(), is(1));
+        assertTrue(buffer.hasRemaining());
+        assertFalse(parser.isComplete());
+    }
+
+    @Test
+    public void testIncomplete()
+    {
+        CapturingListener listener = new CapturingListener();
+        MultiPartStreamParser parser = new MultiPartStreamParser(CONTENT_TYPE, listener);
+        try
+        {
+            parseAll(parser, listener, BufferUtil.toBuffer(CONTENT.substring(0, CONTENT.indexOf("contents"))), true);
+            fail();
+        }
+        catch (BadMessageException e)
+        {
+            assertThat(e.getReason(), is("Incomplete Multipart"));
+        }
+    }
+
+    @Test
+    public void testMaxRequestSize()
+    {
+        CapturingListener listener = new CapturingListener();
+        MultiPartStreamParser parser = new MultiPartStreamParser(CONTENT_TYPE, listener);
+        parser.setMaxRequestSize(CONTENT.length() - 1);
+        try
+        {
+            parseAll(parser, listener, BufferUtil.toBuffer(CONTENT));
+            fail();
+        }
+        catch (BadMessageException e)
+        {
+            assertThat(e.getCode(), is(HttpStatus.PAYLOAD_TOO_LARGE_413));
+        }
+    }
+
+    @Test
+    public void testNotMultiPart()
+    {
+        try
+        {
+            new MultiPartStreamParser("text/plain", new CapturingListener());
+            fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    private void parseAll(MultiPartStreamParser parser, CapturingListener listener, ByteBuffer buffer)
+    {
+        parseAll(parser, listener, buffer, false);
+    }
+
+    private void parseAll(MultiPartStreamParser parser, CapturingListener listener, ByteBuffer buffer, boolean last)
+    {
+        do
+        {
+            // The listener completes its callbacks immediately
+            parser.parse(buffer, last, Callback.NOOP);
+        }
+        while (buffer.hasRemaining());
+    }
+
+    private static class CapturingListener implements MultiPartStreamParser.Listener
+    {
+        private final List<MultiPartStreamParser.Part> parts = new ArrayList<>();
+        private final Map<String, String> content = new LinkedHashMap<>();
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private boolean complete;
+
+        @Override
+        public void onPartBegin(MultiPartStreamParser.Part part)
+        {
+            parts.add(part);
+            out.reset();
+        }
+
+        @Override
+        public void onPartContent(MultiPartStreamParser.Part part, ByteBuffer content, boolean last, Callback callback)
+        {
+            out.write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+            if (last)
+                this.content.put(part.getName(), new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+            callback.succeeded();
+        }
+
+        @Override
+        public void onComplete()
+        {
+            complete = true;
+        }
+    }
+}
@@ -234,6 +234,131 @@ public class PathMappingsTest
         assertTrue("match \"\"", new ServletPathSpec("").matches("/"));
     }
 
+    /**
+     * Test that the uri-template segment trie finds the same match as
+     * testing every mapping in search order.
+     */
+    @Test
+    public void testUriTemplateTrieMatchesSearchOrder()
+    {
+        PathMappings<String> p = new PathMappings<>();
+
+        p.put(new UriTemplatePathSpec("/"),"root");
+        p.put(new UriTemplatePathSpec("/a/{var}/c"),"endpointA");
+        p.put(new UriTemplatePathSpec("/a/b/c"),"endpointB");
+        p.put(new UriTemplatePathSpec("/a/{var1}/{var2}"),"endpointC");
+        p.put(new UriTemplatePathSpec("/{var1}/d"),"endpointD");
+        p.put(new UriTemplatePathSpec("/b/{var2}"),"endpointE");
+        p.put(new UriTemplatePathSpec("/b/{var2}/"),"endpointF");
+        p.put(new UriTemplatePathSpec("/c+d/{var}"),"endpointG");
+        p.put(new RegexPathSpec("^/a/b/.*$"),"regexA");
+        p.put(new ServletPathSpec("/b/*"),"servletB");
+        p.put(new ServletPathSpec("*.txt"),"servletTxt");
+
+        String[] paths = {"/","/a/b/c","/a/d/c","/a/x/y","/a/b/y","/b/d","/b/d/","/b/d?q=1",
+            "/x/d","/x/d/","/cd/x","/ccd/x","/c+d/x","/a//c","/a/b/c/d","/b","/x/y.txt","/a/b/c.txt"};
+        for (String path : paths)
+        {
+            MappedResource<String> expected = null;
+            for (MappedResource<String> mr : p)
+            {
+                if (mr.getPathSpec().matches(path))
+                {
+                    expected = mr;
+                    break;
+                }
+            }
+            assertEquals(".getMatch(\""+path+"\")",expected,p.getMatch(path));
+        }
+
+        assertTrue(p.remove(new UriTemplatePathSpec("/a/b/c")));
+        assertMatch(p,"/a/b/c","endpointA");
+        p.removeIf(mr -> mr.getResource().equals("endpointA"));
+        assertMatch(p,"/a/b/c","regexA");
+        p.reset();
+        assertEquals(null,p.getMatch("/a/b/c"));
+    }
+
+    /**
+     * Test that the uri-template segment trie finds the same match as testing
+     * every mapping in search order when every segment may be literal or variable.
+     */
+    @Test
+    public void testUriTemplateTrieLiteralAndVariableBranches()
+    {
+        PathMappings<String> p = new PathMappings<>();
+        int depth = 8;
+        for (int i = 0; i < (1 << depth); i++)
+        {
+            StringBuilder spec = new StringBuilder();
+            for (int d = 0; d < depth; d++)
+                spec.append((i & (1 << d)) == 0 ? "/a" : "/{v" + d + "}");
+            p.put(new UriTemplatePathSpec(spec.toString()),spec.toString());
+        }
+        p.put(new RegexPathSpec("^/a/a/b/.*$"),"regex");
+
+        String[] paths = {"/a/a/a/a/a/a/a/a","/b/a/a/a/a/a/a/a","/a/a/a/a/a/a/a/b","/b/b/b/b/b/b/b/b",
+            "/a/a/b/a/a/a/a/a","/a/b/a/b/a/b/a/b","/a/a/a/a/a/a/a","/a/a/a/a/a/a/a/a/a"};
+        for (String path : paths)
+        {
+            MappedResource<String> expected = null;
+            for (MappedResource<String> mr : p)
+            {
+                if (mr.getPathSpec().matches(path))
+                {
+                    expected = mr;
+                    break;
+                }
+            }
+            assertEquals(".getMatch(\""+path+"\")",expected,p.getMatch(path));
+        }
+    }
+
+    /**
+     * Test the precedence of overlapping servlet, regex and uri-template specs of the same group.
+     * A servlet spec found by the prefix or suffix trie on entering a group wins over the other
+     * specs of that group, otherwise the first matching spec in search order wins. Uri-template
+     * specs have no spec length, so they are last in the search order of their group.
+     */
+    @Test
+    public void testSameGroupPrecedence()
+    {
+        PathMappings<String> p = new PathMappings<>();
+
+        // PREFIX_GLOB
+        p.put(new UriTemplatePathSpec("/a/b/{var}"),"templatePrefix");
+        p.put(new RegexPathSpec("^/a/b/.*$"),"regexPrefix");
+        p.put(new RegexPathSpec("^/c/.*$"),"regexC");
+        p.put(new ServletPathSpec("/a/*"),"servletPrefix");
+
+        // SUFFIX_GLOB
+        p.put(new UriTemplatePathSpec("/{var}/x.txt"),"templateSuffix");
+        p.put(new RegexPathSpec("^.*/y\\.txt$"),"regexSuffix");
+        p.put(new ServletPathSpec("*.txt"),"servletSuffix");
+        p.put(new UriTemplatePathSpec("/{var}/x.doc"),"templateDoc");
+        p.put(new RegexPathSpec("^.*/y\\.doc$"),"regexDoc");
+
+        // EXACT
+        p.put(new UriTemplatePathSpec("/e/f"),"templateExact");
+        p.put(new RegexPathSpec("^/e/f$"),"regexExact");
+
+        assertMatch(p,"/a/b/c","servletPrefix");
+        assertMatch(p,"/a/b","servletPrefix");
+        assertMatch(p,"/c/d","regexC");
+        assertMatch(p,"/q/x.txt","servletSuffix");
+        assertMatch(p,"/q/y.txt","servletSuffix");
+        assertMatch(p,"/q/x.doc","templateDoc");
+        assertMatch(p,"/q/y.doc","regexDoc");
+        assertMatch(p,"/e/f","regexExact");
+
+        p.remove(new ServletPathSpec("/a/*"));
+        assertMatch(p,"/a/b/c","regexPrefix");
+        p.remove(new RegexPathSpec("^/a/b/.*$"));
+        assertMatch(p,"/a/b/c","templatePrefix");
+        p.remove(new RegexPathSpec("^/e/f$"));
+        assertMatch(p,"/e/f","templateExact");
+    }
+
     /**
      * See JIRA issue: JETTY-88.
      * @throws Exception failed test
@@ -134,6 +134,7 @@ public class HTTP2Client extends ContainerLifeCycle
     private int maxFrameLength = Frame.DEFAULT_MAX_LENGTH;
     private int maxConcurrentPushedStreams = 32;
     private int maxSettingsKeys = SettingsFrame.DEFAULT_MAX_KEYS;
+    private boolean adaptiveHpackIndexing;
     private FlowControlStrategy.Factory flowControlStrategyFactory = () -> new BufferingFlowControlStrategy(0.5F);
 
     @Override
@@ -372,6 +373,17 @@ public class HTTP2Client extends ContainerLifeCycle
         this.maxSettingsKeys = maxSettingsKeys;
     }
 
+    @ManagedAttribute("Whether the HPACK encoder indexes fields depending on the cardinality of their values")
+    public boolean isAdaptiveHpackIndexing()
+    {
+        return adaptiveHpackIndexing;
+    }
+
+    public void setAdaptiveHpackIndexing(boolean adaptiveHpackIndexing)
+    {
+        this.adaptiveHpackIndexing = adaptiveHpackIndexing;
+    }
+
     public void connect(InetSocketAddress address, Session.Listener listener, Promise<Session> promise)
     {
         connect(null, address, listener, promise);
@@ -0,0 +1,172 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.AutoTuningFlowControlStrategy;
+import org.eclipse.jetty.http2.FlowControlStrategy;
+import org.eclipse.jetty.http2.HTTP2Session;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.api.server.ServerSessionListener;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.WindowUpdateFrame;
+import org.eclipse.jetty.http2.generator.Generator;
+import org.eclipse.jetty.io.ByteArrayEndPoint;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AutoTuningFlowControlStrategyTest extends FlowControlStrategyTest
+{
+    @Override
+    protected FlowControlStrategy newFlowControlStrategy()
+    {
+        return new AutoTuningFlowControlStrategy(1024 * 1024, 512 * 1024, 0.5F);
+    }
+
+    @Test
+    public void testWindowsGrowWhenConsumingBigContent() throws Exception
+    {
+        int length = 16 * 1024 * 1024;
+        start(new ServerSessionListener.Adapter()
+        {
+            @Override
+            public Stream.Listener onNewStream(Stream stream, HeadersFrame requestFrame)
+            {
+                MetaData.Response metaData = new MetaData.Response(HttpVersion.HTTP_2, 200, new HttpFields());
+                HeadersFrame responseFrame = new HeadersFrame(stream.getId(), metaData, null, false);
+                Callback.Completable completable = new Callback.Completable();
+                stream.headers(responseFrame, completable);
+                completable.thenRun(() ->
+                {
+                    DataFrame dataFrame = new DataFrame(stream.getId(), ByteBuffer.allocate(length), true);
+                    stream.data(dataFrame, Callback.NOOP);
+                });
+                return null;
+            }
+        });
+
+        Session session = newClient(new Session.Listener.Adapter());
+        AtomicInteger received = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        MetaData.Request metaData = newRequest("GET", new HttpFields());
+        session.newStream(new HeadersFrame(metaData, null, true), new Promise.Adapter<>(), new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                received.addAndGet(frame.remaining());
+                callback.succeeded();
+                if (frame.isEndStream())
+                    latch.countDown();
+            }
+        });
+
+        Assert.assertTrue(latch.await(15, TimeUnit.SECONDS));
+        Assert.assertEquals(length, received.get());
+
+        AutoTuningFlowControlStrategy flowControl = (AutoTuningFlowControlStrategy)((HTTP2Session)session).getFlowControlStrategy();
+        Assert.assertThat(flowControl.getRoundTripTime(), Matchers.greaterThan(0L));
+        Assert.assertThat(flowControl.getSessionRecvWindow(), Matchers.greaterThan(FlowControlStrategy.DEFAULT_WINDOW_SIZE));
+        Assert.assertThat(flowControl.getSessionRecvWindow(), Matchers.lessThanOrEqualTo(flowControl.getMaxSessionRecvWindow()));
+        Assert.assertThat(flowControl.getInitialStreamRecvWindow(), Matchers.greaterThan(FlowControlStrategy.DEFAULT_WINDOW_SIZE));
+        Assert.assertThat(flowControl.getInitialStreamRecvWindow(), Matchers.lessThanOrEqualTo(flowControl.getMaxStreamRecvWindow()));
+    }
+
+    @Test
+    public void testWindowsDoNotGrowWhenNotConsuming() throws Exception
+    {
+        start(new ServerSessionListener.Adapter()
+        {
+            @Override
+            public Stream.Listener onNewStream(Stream stream, HeadersFrame requestFrame)
+            {
+                MetaData.Response metaData = new MetaData.Response(HttpVersion.HTTP_2, 200, new HttpFields());
+                HeadersFrame responseFrame = new HeadersFrame(stream.getId(), metaData, null, false);
+                Callback.Completable completable = new Callback.Completable();
+                stream.headers(responseFrame, completable);
+                completable.thenRun(() ->
+                {
+                    DataFrame dataFrame = new DataFrame(stream.getId(), ByteBuffer.allocate(1024 * 1024), true);
+                    stream.data(dataFrame, Callback.NOOP);
+                });
+                return null;
+            }
+        });
+
+        Session session = newClient(new Session.Listener.Adapter());
+        AtomicInteger received = new AtomicInteger();
+        MetaData.Request metaData = newRequest("GET", new HttpFields());
+        session.newStream(new HeadersFrame(metaData, null, true), new Promise.Adapter<>(), new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                // Do not consume the data.
+                received.addAndGet(frame.remaining());
+            }
+        });
+
+        Thread.sleep(1000);
+
+        // The application applies backpressure, so the windows must not grow.
+        Assert.assertEquals(FlowControlStrategy.DEFAULT_WINDOW_SIZE, received.get());
+        AutoTuningFlowControlStrategy flowControl = (AutoTuningFlowControlStrategy)((HTTP2Session)session).getFlowControlStrategy();
+        Assert.assertEquals(FlowControlStrategy.DEFAULT_WINDOW_SIZE, flowControl.getSessionRecvWindow());
+        Assert.assertEquals(FlowControlStrategy.DEFAULT_WINDOW_SIZE, flowControl.getInitialStreamRecvWindow());
+    }
+
+    @Test
+    public void testSessionRecvWindowIsNotTheRemainingWindow() throws Exception
+    {
+        start(new ServerSessionListener.Adapter());
+
+        AutoTuningFlowControlStrategy flowControl = (AutoTuningFlowControlStrategy)newFlowControlStrategy();
+        HTTP2ClientSession session = new HTTP2ClientSession(new ScheduledExecutorScheduler(), new ByteArrayEndPoint(),
+                new Generator(new MappedByteBufferPool()), new Session.Listener.Adapter(), flowControl);
+
+        // Data arrives before the initial session window enlargement has been sent.
+        int received = 10 * 1024;
+        flowControl.onDataReceived(session, null, received);
+        int enlargement = 100 * 1024;
+        session.updateRecvWindow(enlargement);
+        flowControl.windowUpdate(session, null, new WindowUpdateFrame(0, enlargement));
+        Assert.assertEquals(FlowControlStrategy.DEFAULT_WINDOW_SIZE + enlargement, flowControl.getSessionRecvWindow());
+
+        // Returning the consumed bytes does not enlarge the window.
+        flowControl.onDataConsumed(session, null, received);
+        session.updateRecvWindow(received);
+        flowControl.windowUpdate(session, null, new WindowUpdateFrame(0, received));
+        Assert.assertEquals(FlowControlStrategy.DEFAULT_WINDOW_SIZE + enlargement, flowControl.getSessionRecvWindow());
+        Assert.assertEquals(FlowControlStrategy.DEFAULT_WINDOW_SIZE + enlargement, session.getRecvWindow());
+    }
+}
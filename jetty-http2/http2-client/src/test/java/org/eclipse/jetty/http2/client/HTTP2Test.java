@@ -48,6 +48,8 @@ import org.eclipse.jetty.http2.frames.GoAwayFrame;
 import org.eclipse.jetty.http2.frames.HeadersFrame;
 import org.eclipse.jetty.http2.frames.SettingsFrame;
 import org.eclipse.jetty.http2.parser.ServerParser;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.HttpChannelPoolStatistics;
 import org.eclipse.jetty.http2.server.RawHTTP2ServerConnectionFactory;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.HttpConfiguration;
@@ -93,6 +95,48 @@ public class HTTP2Test extends AbstractTest
         Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testRecycledHttpChannels() throws Exception
+    {
+        start(new EmptyHttpServlet());
+        HTTP2ServerConnectionFactory connectionFactory = connector.getConnectionFactory(HTTP2ServerConnectionFactory.class);
+        connectionFactory.setMaxPooledHttpChannels(1);
+        HttpChannelPoolStatistics statistics = connectionFactory.getHttpChannelPoolStatistics();
+
+        Session session = newClient(new Session.Listener.Adapter());
+
+        for (int i = 0; i < 3; ++i)
+        {
+            MetaData.Request metaData = newRequest("GET", new HttpFields());
+            CountDownLatch latch = new CountDownLatch(1);
+            session.newStream(new HeadersFrame(metaData, null, true), new Promise.Adapter<>(), new Stream.Listener.Adapter()
+            {
+                @Override
+                public void onHeaders(Stream stream, HeadersFrame frame)
+                {
+                    if (frame.isEndStream())
+                        latch.countDown();
+                }
+            });
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            // The channel is recycled after the response has been sent.
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (statistics.getPooled() != 1 && System.nanoTime() < end)
+                Thread.sleep(10);
+            Assert.assertEquals(1, statistics.getPooled());
+        }
+
+        Assert.assertEquals(1, statistics.getMisses());
+        Assert.assertEquals(2, statistics.getHits());
+
+        session.close(ErrorCode.NO_ERROR.code, null, Callback.NOOP);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (statistics.getPooled() != 0 && System.nanoTime() < end)
+            Thread.sleep(10);
+        Assert.assertEquals(0, statistics.getPooled());
+    }
+
     @Test
     public void testRequestNoContentResponseEmptyContent() throws Exception
     {
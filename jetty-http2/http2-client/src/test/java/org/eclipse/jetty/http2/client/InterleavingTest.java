@@ -34,6 +34,7 @@ import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.HTTP2Session;
 import org.eclipse.jetty.http2.ISession;
 import org.eclipse.jetty.http2.api.Session;
 import org.eclipse.jetty.http2.api.Stream;
@@ -195,6 +196,113 @@ public class InterleavingTest extends AbstractTest
         });
     }
 
+    @Test
+    public void testInterleavingWithDataQuantum() throws Exception
+    {
+        int maxFrameSize = Frame.DEFAULT_MAX_LENGTH + 1;
+        int dataQuantum = 2 * maxFrameSize;
+        CountDownLatch serverStreamsLatch = new CountDownLatch(2);
+        List<Stream> serverStreams = new ArrayList<>();
+        start(new ServerSessionListener.Adapter()
+        {
+            @Override
+            public Stream.Listener onNewStream(Stream stream, HeadersFrame frame)
+            {
+                ((HTTP2Session)stream.getSession()).setDataQuantum(dataQuantum);
+                serverStreams.add(stream);
+                serverStreamsLatch.countDown();
+                return null;
+            }
+        });
+
+        // Large enough windows so that flow control does not stall.
+        int recvWindow = 1024 * 1024;
+        client.setInitialSessionRecvWindow(recvWindow);
+        client.setInitialStreamRecvWindow(recvWindow);
+        Session session = newClient(new Session.Listener.Adapter()
+        {
+            @Override
+            public Map<Integer, Integer> onPreface(Session session)
+            {
+                Map<Integer, Integer> settings = new HashMap<>();
+                settings.put(SettingsFrame.MAX_FRAME_SIZE, maxFrameSize);
+                return settings;
+            }
+        });
+
+        BlockingQueue<DataFrameCallback> dataFrames = new LinkedBlockingDeque<>();
+        Stream.Listener streamListener = new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                dataFrames.offer(new DataFrameCallback(frame, callback));
+            }
+        };
+
+        for (int i = 0; i < 2; ++i)
+        {
+            FuturePromise<Stream> streamPromise = new FuturePromise<>();
+            session.newStream(new HeadersFrame(newRequest("GET", new HttpFields()), null, true), streamPromise, streamListener);
+            streamPromise.get(5, TimeUnit.SECONDS);
+        }
+
+        Assert.assertTrue(serverStreamsLatch.await(5, TimeUnit.SECONDS));
+
+        Stream serverStream1 = serverStreams.get(0);
+        Stream serverStream2 = serverStreams.get(1);
+        MetaData.Response response1 = new MetaData.Response(HttpVersion.HTTP_2, HttpStatus.OK_200, new HttpFields(), 0);
+        serverStream1.headers(new HeadersFrame(serverStream1.getId(), response1, null, false), Callback.NOOP);
+
+        byte[] content = new byte[8 * dataQuantum];
+        new Random().nextBytes(content);
+
+        MetaData.Response response2 = new MetaData.Response(HttpVersion.HTTP_2, HttpStatus.OK_200, new HttpFields(), 0);
+        serverStream2.headers(new HeadersFrame(serverStream2.getId(), response2, null, false), new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                // Write data for both streams from within the callback so that they get queued together.
+                serverStream1.data(new DataFrame(serverStream1.getId(), ByteBuffer.wrap(content), true), NOOP);
+                serverStream2.data(new DataFrame(serverStream2.getId(), ByteBuffer.wrap(content), true), NOOP);
+            }
+        });
+
+        // Each stream generates up to the data quantum in turn,
+        // that is more than one frame at a time.
+        List<StreamLength> groups = new ArrayList<>();
+        int finished = 0;
+        while (finished < 2)
+        {
+            DataFrameCallback dataFrameCallback = dataFrames.poll(5, TimeUnit.SECONDS);
+            if (dataFrameCallback == null)
+                Assert.fail();
+
+            DataFrame dataFrame = dataFrameCallback.frame;
+            int streamId = dataFrame.getStreamId();
+            int length = dataFrame.remaining();
+            int last = groups.size() - 1;
+            if (last >= 0 && groups.get(last).stream == streamId)
+                groups.set(last, new StreamLength(streamId, groups.get(last).length + length));
+            else
+                groups.add(new StreamLength(streamId, length));
+            if (dataFrame.isEndStream())
+                ++finished;
+            dataFrameCallback.callback.succeeded();
+        }
+
+        Log.getLogger(getClass()).debug("interleaved lengths = {}", groups);
+        int maxLength = 0;
+        for (StreamLength group : groups)
+        {
+            Assert.assertThat(group.length, Matchers.lessThanOrEqualTo(dataQuantum));
+            maxLength = Math.max(maxLength, group.length);
+        }
+        Assert.assertThat(groups.size(), Matchers.greaterThan(2));
+        Assert.assertThat(maxLength, Matchers.greaterThan(maxFrameSize));
+    }
+
     private static class DataFrameCallback
     {
         private final DataFrame frame;
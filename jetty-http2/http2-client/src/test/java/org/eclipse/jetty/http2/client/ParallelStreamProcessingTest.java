@@ -0,0 +1,163 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.FutureCallback;
+import org.eclipse.jetty.util.FuturePromise;
+import org.eclipse.jetty.util.IO;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelStreamProcessingTest extends AbstractTest
+{
+    private void start() throws Exception
+    {
+        start(new HttpServlet()
+        {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+            {
+                IO.copy(request.getInputStream(), response.getOutputStream());
+                HttpFields trailers = ((Request)request).getTrailers();
+                if (trailers != null)
+                    response.setHeader("X-Trailer", trailers.get("X-Trailer"));
+            }
+        });
+        connector.getConnectionFactory(HTTP2ServerConnectionFactory.class).setParallelStreamProcessing(true);
+    }
+
+    @Test
+    public void testConcurrentStreamsContentInOrder() throws Exception
+    {
+        start();
+
+        Session session = newClient(new Session.Listener.Adapter());
+
+        int streams = 16;
+        int frames = 32;
+        int length = 512;
+        Random random = new Random();
+        CountDownLatch latch = new CountDownLatch(streams);
+        List<byte[]> contents = new ArrayList<>();
+        List<ByteArrayOutputStream> responses = new ArrayList<>();
+        List<Stream> clientStreams = new ArrayList<>();
+        for (int i = 0; i < streams; ++i)
+        {
+            byte[] content = new byte[frames * length];
+            random.nextBytes(content);
+            contents.add(content);
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            responses.add(response);
+
+            MetaData.Request request = newRequest("POST", new HttpFields());
+            FuturePromise<Stream> promise = new FuturePromise<>();
+            session.newStream(new HeadersFrame(request, null, false), promise, new Stream.Listener.Adapter()
+            {
+                @Override
+                public void onData(Stream stream, DataFrame frame, Callback callback)
+                {
+                    ByteBuffer data = frame.getData();
+                    byte[] bytes = new byte[data.remaining()];
+                    data.get(bytes);
+                    response.write(bytes, 0, bytes.length);
+                    callback.succeeded();
+                    if (frame.isEndStream())
+                        latch.countDown();
+                }
+            });
+            clientStreams.add(promise.get(5, TimeUnit.SECONDS));
+        }
+
+        // Interleave the DATA frames of the streams.
+        for (int f = 0; f < frames; ++f)
+        {
+            for (int i = 0; i < streams; ++i)
+            {
+                Stream stream = clientStreams.get(i);
+                ByteBuffer data = ByteBuffer.wrap(contents.get(i), f * length, length);
+                FutureCallback callback = new FutureCallback();
+                stream.data(new DataFrame(stream.getId(), data, f == frames - 1), callback);
+                callback.get(5, TimeUnit.SECONDS);
+            }
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < streams; ++i)
+            Assert.assertTrue(Arrays.equals(contents.get(i), responses.get(i).toByteArray()));
+    }
+
+    @Test
+    public void testTrailersAfterContent() throws Exception
+    {
+        start();
+
+        Session session = newClient(new Session.Listener.Adapter());
+
+        byte[] content = new byte[4096];
+        new Random().nextBytes(content);
+        CountDownLatch latch = new CountDownLatch(1);
+        MetaData.Request request = newRequest("POST", new HttpFields());
+        FuturePromise<Stream> promise = new FuturePromise<>();
+        session.newStream(new HeadersFrame(request, null, false), promise, new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onHeaders(Stream stream, HeadersFrame frame)
+            {
+                MetaData.Response response = (MetaData.Response)frame.getMetaData();
+                if ("value".equals(response.getFields().get("X-Trailer")))
+                    latch.countDown();
+            }
+        });
+        Stream stream = promise.get(5, TimeUnit.SECONDS);
+
+        FutureCallback callback = new FutureCallback();
+        stream.data(new DataFrame(stream.getId(), ByteBuffer.wrap(content), false), callback);
+        callback.get(5, TimeUnit.SECONDS);
+        HttpFields trailers = new HttpFields();
+        trailers.put("X-Trailer", "value");
+        stream.headers(new HeadersFrame(stream.getId(), new MetaData(HttpVersion.HTTP_2, trailers), null, true), Callback.NOOP);
+
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+}
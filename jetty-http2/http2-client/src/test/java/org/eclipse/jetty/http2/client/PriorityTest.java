@@ -18,20 +18,31 @@
 
 package org.eclipse.jetty.http2.client;
 
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.FlowControlStrategy;
+import org.eclipse.jetty.http2.HTTP2Flusher;
+import org.eclipse.jetty.http2.HTTP2Session;
 import org.eclipse.jetty.http2.api.Session;
 import org.eclipse.jetty.http2.api.Stream;
 import org.eclipse.jetty.http2.api.server.ServerSessionListener;
+import org.eclipse.jetty.http2.frames.DataFrame;
 import org.eclipse.jetty.http2.frames.HeadersFrame;
 import org.eclipse.jetty.http2.frames.PriorityFrame;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.FuturePromise;
 import org.eclipse.jetty.util.Promise;
+import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -181,4 +192,107 @@ public class PriorityTest extends AbstractTest
 
         Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
     }
+
+    @Test
+    public void testUrgentStreamIsNotDelayedByBulkStream() throws Exception
+    {
+        int bulkLength = 1024 * 1024;
+        int urgentLength = 128 * 1024;
+        CountDownLatch urgentQueued = new CountDownLatch(1);
+        AtomicReference<Session> serverSessionRef = new AtomicReference<>();
+        start(new ServerSessionListener.Adapter()
+        {
+            @Override
+            public Stream.Listener onNewStream(Stream stream, HeadersFrame frame)
+            {
+                serverSessionRef.set(stream.getSession());
+                boolean urgent = frame.getPriority().getWeight() > 16;
+                MetaData.Response metaData = new MetaData.Response(HttpVersion.HTTP_2, 200, new HttpFields());
+                HeadersFrame responseFrame = new HeadersFrame(stream.getId(), metaData, null, false);
+                stream.headers(responseFrame, new Callback()
+                {
+                    @Override
+                    public void succeeded()
+                    {
+                        ByteBuffer content = ByteBuffer.allocate(urgent ? urgentLength : bulkLength);
+                        stream.data(new DataFrame(stream.getId(), content, true), Callback.NOOP);
+                        if (urgent)
+                            urgentQueued.countDown();
+                    }
+                });
+                return null;
+            }
+        });
+        // Only the session flow control window limits the streams.
+        client.setInitialStreamRecvWindow(16 * 1024 * 1024);
+
+        Session session = newClient(new Session.Listener.Adapter());
+
+        // The bulk stream exhausts the session flow control window, as its data is not consumed.
+        Queue<Callback> heldCallbacks = new ConcurrentLinkedQueue<>();
+        AtomicBoolean released = new AtomicBoolean();
+        AtomicInteger bulkBytes = new AtomicInteger();
+        AtomicInteger bulkBytesAfterRelease = new AtomicInteger();
+        CountDownLatch bulkStalled = new CountDownLatch(FlowControlStrategy.DEFAULT_WINDOW_SIZE);
+        CountDownLatch bulkLatch = new CountDownLatch(1);
+        MetaData bulkRequest = newRequest("GET", "/bulk", new HttpFields());
+        session.newStream(new HeadersFrame(bulkRequest, new PriorityFrame(0, 1, false), true), new Promise.Adapter<>(), new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                int length = frame.remaining();
+                bulkBytes.addAndGet(length);
+                if (released.get())
+                {
+                    bulkBytesAfterRelease.addAndGet(length);
+                    callback.succeeded();
+                }
+                else
+                {
+                    heldCallbacks.offer(callback);
+                    for (int i = 0; i < length; ++i)
+                        bulkStalled.countDown();
+                }
+                if (frame.isEndStream())
+                    bulkLatch.countDown();
+            }
+        });
+        Assert.assertTrue(bulkStalled.await(5, TimeUnit.SECONDS));
+
+        // The urgent stream is queued behind the bulk stream in the server.
+        CountDownLatch urgentLatch = new CountDownLatch(1);
+        AtomicInteger bulkBytesBeforeUrgentCompleted = new AtomicInteger(-1);
+        MetaData urgentRequest = newRequest("GET", "/urgent", new HttpFields());
+        session.newStream(new HeadersFrame(urgentRequest, new PriorityFrame(0, 256, false), true), new Promise.Adapter<>(), new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                callback.succeeded();
+                if (frame.isEndStream())
+                {
+                    bulkBytesBeforeUrgentCompleted.set(bulkBytesAfterRelease.get());
+                    urgentLatch.countDown();
+                }
+            }
+        });
+        Assert.assertTrue(urgentQueued.await(5, TimeUnit.SECONDS));
+
+        // Consume the bulk data, so that both streams compete for the session window.
+        released.set(true);
+        Callback callback;
+        while ((callback = heldCallbacks.poll()) != null)
+            callback.succeeded();
+
+        Assert.assertTrue(urgentLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(bulkLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(bulkLength, bulkBytes.get());
+        // With round robin scheduling the bulk stream would have sent as much as the urgent stream.
+        Assert.assertThat(bulkBytesBeforeUrgentCompleted.get(), Matchers.lessThan(urgentLength / 4));
+
+        // The server flusher stalled while the bulk data was not consumed.
+        HTTP2Flusher flusher = ((HTTP2Session)serverSessionRef.get()).getBean(HTTP2Flusher.class);
+        Assert.assertThat(flusher.getStallCount(), Matchers.greaterThan(0L));
+    }
 }
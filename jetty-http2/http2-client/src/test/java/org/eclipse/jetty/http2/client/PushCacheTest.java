@@ -0,0 +1,253 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.client;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HostPortHttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpScheme;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.FlowControlStrategy;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.PushPromiseFrame;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.http2.server.PushCache;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Promise;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PushCacheTest extends AbstractTest
+{
+    private final String primaryResource = "/primary.html";
+    private final String secondaryResource = "/secondary.png";
+    private final PushCache pushCache = new PushCache();
+    private final AtomicReference<String> secondaryCookie = new AtomicReference<>();
+
+    private void start(int secondaryLength) throws Exception
+    {
+        start(new HttpServlet()
+        {
+            @Override
+            protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+            {
+                if (request.getRequestURI().endsWith(secondaryResource))
+                {
+                    secondaryCookie.set(request.getHeader("Cookie"));
+                    if (request.getHeader("If-None-Match") != null)
+                        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    else
+                        response.getOutputStream().write(new byte[secondaryLength]);
+                }
+                else
+                    response.getOutputStream().print("<html><head></head><body>PRIMARY</body></html>");
+            }
+        });
+        connector.getConnectionFactory(HTTP2ServerConnectionFactory.class).setPushCache(pushCache);
+    }
+
+    private String secondaryKey()
+    {
+        return "localhost:" + connector.getLocalPort() + servletPath + secondaryResource;
+    }
+
+    private String newURI(String pathInfo)
+    {
+        return "http://localhost:" + connector.getLocalPort() + servletPath + pathInfo;
+    }
+
+    private int request(Session session, MetaData.Request request) throws Exception
+    {
+        AtomicInteger pushes = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        session.newStream(new HeadersFrame(request, null, true), new Promise.Adapter<>(), new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onHeaders(Stream stream, HeadersFrame frame)
+            {
+                if (frame.isEndStream())
+                    latch.countDown();
+            }
+
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                callback.succeeded();
+                if (frame.isEndStream())
+                    latch.countDown();
+            }
+
+            @Override
+            public Stream.Listener onPush(Stream stream, PushPromiseFrame frame)
+            {
+                pushes.incrementAndGet();
+                return new Adapter()
+                {
+                    @Override
+                    public void onData(Stream stream, DataFrame frame, Callback callback)
+                    {
+                        callback.succeeded();
+                    }
+                };
+            }
+        });
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return pushes.get();
+    }
+
+    private void warmUp(Session session) throws Exception
+    {
+        warmUp(session, new HttpFields());
+    }
+
+    private void warmUp(Session session, HttpFields fields) throws Exception
+    {
+        Assert.assertEquals(0, request(session, newRequest("GET", primaryResource, new HttpFields())));
+        fields.put(HttpHeader.REFERER, newURI(primaryResource));
+        Assert.assertEquals(0, request(session, newRequest("GET", secondaryResource, fields)));
+    }
+
+    @Test
+    public void testPushOncePerSession() throws Exception
+    {
+        int length = 1024;
+        start(length);
+
+        warmUp(newClient(new Session.Listener.Adapter()));
+
+        // A new session gets the secondary resource pushed.
+        Session session = newClient(new Session.Listener.Adapter());
+        Assert.assertEquals(1, request(session, newRequest("GET", primaryResource, new HttpFields())));
+        Assert.assertEquals(1, pushCache.getPushes());
+        Assert.assertTrue(pushCache.getPushCache().get(secondaryKey()).startsWith("length=" + length));
+
+        // The same session does not get the secondary resource pushed again.
+        Assert.assertEquals(0, request(session, newRequest("GET", primaryResource, new HttpFields())));
+        Assert.assertEquals(1, pushCache.getPushes());
+        Assert.assertEquals(1, pushCache.getCacheHits());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pushCache.getCompletes() < 1 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        Assert.assertEquals(1, pushCache.getCompletes());
+        Assert.assertEquals(0, pushCache.getResets());
+    }
+
+    @Test
+    public void testAssociationsArePerAuthority() throws Exception
+    {
+        start(1024);
+
+        warmUp(newClient(new Session.Listener.Adapter()));
+
+        // The same path on another authority has no associated resources.
+        Session session = newClient(new Session.Listener.Adapter());
+        HostPortHttpField authority = new HostPortHttpField("127.0.0.1:" + connector.getLocalPort());
+        MetaData.Request request = new MetaData.Request("GET", HttpScheme.HTTP, authority, servletPath + primaryResource, HttpVersion.HTTP_2, new HttpFields());
+        Assert.assertEquals(0, request(session, request));
+        Assert.assertEquals(0, pushCache.getPushes());
+
+        Assert.assertEquals(1, request(session, newRequest("GET", primaryResource, new HttpFields())));
+        Assert.assertEquals(1, pushCache.getPushes());
+    }
+
+    @Test
+    public void testPushKeepsCookies() throws Exception
+    {
+        start(1024);
+        pushCache.setCookieName("pushed");
+
+        warmUp(newClient(new Session.Listener.Adapter()));
+        secondaryCookie.set(null);
+
+        Session session = newClient(new Session.Listener.Adapter());
+        HttpFields fields = new HttpFields();
+        fields.put(HttpHeader.COOKIE, "JSESSIONID=abc");
+        Assert.assertEquals(1, request(session, newRequest("GET", primaryResource, fields)));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pushCache.getCompletes() < 1 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        Assert.assertEquals("JSESSIONID=abc", secondaryCookie.get());
+    }
+
+    @Test
+    public void testNoPushWithCookieHint() throws Exception
+    {
+        start(1024);
+        pushCache.setCookieName("pushed");
+
+        warmUp(newClient(new Session.Listener.Adapter()));
+
+        Session session = newClient(new Session.Listener.Adapter());
+        HttpFields fields = new HttpFields();
+        fields.put(HttpHeader.COOKIE, "a=b; pushed=1");
+        Assert.assertEquals(0, request(session, newRequest("GET", primaryResource, fields)));
+        Assert.assertEquals(0, pushCache.getPushes());
+        Assert.assertEquals(1, pushCache.getCacheHits());
+    }
+
+    @Test
+    public void testNoPushBeyondFlowControlWindow() throws Exception
+    {
+        // Larger than the session flow control window.
+        start(128 * 1024);
+
+        warmUp(newClient(new Session.Listener.Adapter()));
+
+        Session session = newClient(new Session.Listener.Adapter());
+        Assert.assertEquals(0, request(session, newRequest("GET", primaryResource, new HttpFields())));
+        Assert.assertEquals(0, pushCache.getPushes());
+        Assert.assertEquals(1, pushCache.getThrottles());
+    }
+
+    @Test
+    public void testUnknownLengthCountsStreamWindow() throws Exception
+    {
+        start(1024);
+        // The stream window is larger than the session window.
+        client.setInitialStreamRecvWindow(2 * FlowControlStrategy.DEFAULT_WINDOW_SIZE);
+
+        // The secondary resource is not modified, so its length is unknown.
+        HttpFields fields = new HttpFields();
+        fields.put(HttpHeader.IF_NONE_MATCH, "\"etag\"");
+        warmUp(newClient(new Session.Listener.Adapter()), fields);
+        Assert.assertTrue(pushCache.getPushCache().get(secondaryKey()).startsWith("length=-1"));
+
+        Session session = newClient(new Session.Listener.Adapter());
+        Assert.assertEquals(0, request(session, newRequest("GET", primaryResource, new HttpFields())));
+        Assert.assertEquals(0, pushCache.getPushes());
+        Assert.assertEquals(1, pushCache.getThrottles());
+    }
+}
@@ -0,0 +1,242 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.FlowControlStrategy;
+import org.eclipse.jetty.http2.HTTP2Session;
+import org.eclipse.jetty.http2.IStream;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.api.server.ServerSessionListener;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.GoAwayFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.http2.server.RawHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.FuturePromise;
+import org.eclipse.jetty.util.Promise;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SlowConsumerTest extends AbstractTest
+{
+    private void start(RawHTTP2ServerConnectionFactory connectionFactory, int streamRecvWindow) throws Exception
+    {
+        prepareServer(connectionFactory);
+        server.start();
+
+        prepareClient();
+        client.setInitialStreamRecvWindow(streamRecvWindow);
+        client.start();
+    }
+
+    private ServerSessionListener newServerListener(int length, AtomicReference<IStream> serverStream, CountDownLatch failureLatch)
+    {
+        return new ServerSessionListener.Adapter()
+        {
+            @Override
+            public Stream.Listener onNewStream(Stream stream, HeadersFrame frame)
+            {
+                serverStream.set((IStream)stream);
+                MetaData.Response response = new MetaData.Response(HttpVersion.HTTP_2, HttpStatus.OK_200, new HttpFields());
+                stream.headers(new HeadersFrame(stream.getId(), response, null, false), new Callback()
+                {
+                    @Override
+                    public void succeeded()
+                    {
+                        stream.data(new DataFrame(stream.getId(), ByteBuffer.allocate(length), true), new Callback()
+                        {
+                            @Override
+                            public void failed(Throwable x)
+                            {
+                                failureLatch.countDown();
+                            }
+                        });
+                    }
+                });
+                return null;
+            }
+        };
+    }
+
+    private void newStream(Session session, Stream.Listener listener) throws Exception
+    {
+        MetaData.Request request = newRequest("GET", new HttpFields());
+        FuturePromise<Stream> promise = new FuturePromise<>();
+        session.newStream(new HeadersFrame(request, null, true), promise, listener);
+        promise.get(5, TimeUnit.SECONDS);
+    }
+
+    private HTTP2Session awaitStalled(AtomicReference<IStream> serverStream, int stalledStreams, long queuedBytes) throws Exception
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true)
+        {
+            IStream stream = serverStream.get();
+            HTTP2Session session = stream == null ? null : (HTTP2Session)stream.getSession();
+            // The queued bytes are updated when the write of the DATA
+            // frame completes, possibly after the stream is stalled.
+            if (session != null && session.getStalledStreamCount() == stalledStreams && session.getQueuedBytes() == queuedBytes)
+                return session;
+            if (System.nanoTime() > deadline)
+                Assert.fail("Stalled streams != " + stalledStreams + " or queued bytes != " + queuedBytes + " for " + session);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testStalledStreamIsReset() throws Exception
+    {
+        int window = 1024;
+        int length = 8 * window;
+        long maxStallTime = 1000;
+        AtomicReference<IStream> serverStream = new AtomicReference<>();
+        CountDownLatch failureLatch = new CountDownLatch(1);
+        RawHTTP2ServerConnectionFactory connectionFactory = new RawHTTP2ServerConnectionFactory(new HttpConfiguration(), newServerListener(length, serverStream, failureLatch));
+        connectionFactory.setMaxStreamStallTime(maxStallTime);
+        start(connectionFactory, window);
+
+        Session session = newClient(new Session.Listener.Adapter());
+        CountDownLatch resetLatch = new CountDownLatch(1);
+        newStream(session, new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                // Do not consume the data, so that the stream stalls.
+            }
+
+            @Override
+            public void onReset(Stream stream, ResetFrame frame)
+            {
+                if (frame.getError() == ErrorCode.ENHANCE_YOUR_CALM_ERROR.code)
+                    resetLatch.countDown();
+            }
+        });
+
+        HTTP2Session serverSession = awaitStalled(serverStream, 1, length - window);
+        Assert.assertEquals(length - window, serverStream.get().getQueuedBytes());
+        Assert.assertTrue(serverStream.get().getStallTime() >= 0);
+
+        Assert.assertTrue(resetLatch.await(5 * maxStallTime, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(failureLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, serverSession.getQueuedBytes());
+        Assert.assertFalse(serverSession.isClosed());
+    }
+
+    @Test
+    public void testSessionStallDoesNotResetStream() throws Exception
+    {
+        int window = FlowControlStrategy.DEFAULT_WINDOW_SIZE;
+        int length = 2 * window;
+        long maxStallTime = 500;
+        AtomicReference<IStream> serverStream = new AtomicReference<>();
+        CountDownLatch failureLatch = new CountDownLatch(1);
+        RawHTTP2ServerConnectionFactory connectionFactory = new RawHTTP2ServerConnectionFactory(new HttpConfiguration(), newServerListener(length, serverStream, failureLatch));
+        connectionFactory.setMaxStreamStallTime(maxStallTime);
+        prepareServer(connectionFactory);
+        server.start();
+        prepareClient();
+        // The stream window is larger than the session window,
+        // so that only the session window is exhausted.
+        client.setInitialSessionRecvWindow(window);
+        client.setInitialStreamRecvWindow(2 * length);
+        client.start();
+
+        Session session = newClient(new Session.Listener.Adapter());
+        CountDownLatch resetLatch = new CountDownLatch(1);
+        newStream(session, new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                // Do not consume the data, so that the session stalls.
+            }
+
+            @Override
+            public void onReset(Stream stream, ResetFrame frame)
+            {
+                resetLatch.countDown();
+            }
+        });
+
+        HTTP2Session serverSession = awaitStalled(serverStream, 0, length - window);
+        Assert.assertTrue(serverSession.getSessionStallTime() >= 0);
+        Assert.assertEquals(-1, serverStream.get().getStallTime());
+
+        Assert.assertFalse(resetLatch.await(3 * maxStallTime, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, failureLatch.getCount());
+        Assert.assertFalse(serverStream.get().isReset());
+    }
+
+    @Test
+    public void testMaxQueuedBytesExceededClosesSession() throws Exception
+    {
+        int window = 1024;
+        int length = 8 * window;
+        AtomicReference<IStream> serverStream = new AtomicReference<>();
+        CountDownLatch failureLatch = new CountDownLatch(1);
+        RawHTTP2ServerConnectionFactory connectionFactory = new RawHTTP2ServerConnectionFactory(new HttpConfiguration(), newServerListener(length, serverStream, failureLatch));
+        connectionFactory.setMaxSessionQueuedBytes(length);
+        start(connectionFactory, window);
+
+        CountDownLatch closeLatch = new CountDownLatch(1);
+        Session session = newClient(new Session.Listener.Adapter()
+        {
+            @Override
+            public void onClose(Session session, GoAwayFrame frame)
+            {
+                if (frame.getError() == ErrorCode.ENHANCE_YOUR_CALM_ERROR.code)
+                    closeLatch.countDown();
+            }
+        });
+        Stream.Listener listener = new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onData(Stream stream, DataFrame frame, Callback callback)
+            {
+                // Do not consume the data, so that the stream stalls.
+            }
+        };
+
+        // The first stream stalls within the memory budget.
+        newStream(session, listener);
+        HTTP2Session serverSession = awaitStalled(serverStream, 1, length - window);
+        Assert.assertFalse(serverSession.isClosed());
+
+        // The second stream exceeds the memory budget.
+        newStream(session, listener);
+
+        Assert.assertTrue(closeLatch.await(5, TimeUnit.SECONDS));
+        // The stalled stream has been reset.
+        Assert.assertTrue(failureLatch.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,243 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.http2.frames.Frame;
+import org.eclipse.jetty.http2.frames.PingFrame;
+import org.eclipse.jetty.http2.frames.SettingsFrame;
+import org.eclipse.jetty.http2.frames.WindowUpdateFrame;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+
+/**
+ * <p>A {@link BufferingFlowControlStrategy} that grows the receive windows
+ * to match the bandwidth-delay product of the connection.</p>
+ * <p>When data is consumed, a PING frame is sent to the other peer and
+ * the bytes consumed by the application are counted until the PING reply
+ * arrives, so that each sample measures the round-trip time and the bytes
+ * consumed in a round-trip. When a sample is close to the receive window,
+ * the window is the bottleneck and it is doubled, sending a WINDOW_UPDATE
+ * frame for the session window and a SETTINGS frame with a larger
+ * {@link SettingsFrame#INITIAL_WINDOW_SIZE} for the stream windows.</p>
+ * <p>Windows are not grown when the throughput decreases, as that indicates
+ * that the round-trip time increased because of queueing in the network,
+ * and never grow beyond the configured max receive windows, that bound
+ * the memory that the other peer can make this peer buffer.</p>
+ * <p>Since samples are driven by consumed bytes, applications that do not
+ * read data still apply backpressure and the windows do not grow.</p>
+ */
+@ManagedObject
+public class AutoTuningFlowControlStrategy extends BufferingFlowControlStrategy
+{
+    private final long pingPayload = ThreadLocalRandom.current().nextLong();
+    private final AtomicLong pingTime = new AtomicLong();
+    private final AtomicInteger consumed = new AtomicInteger();
+    private final AtomicInteger sessionRecvWindow = new AtomicInteger(DEFAULT_WINDOW_SIZE);
+    private final AtomicLong sessionRecvDebt = new AtomicLong();
+    private final Set<WindowUpdateFrame> growthFrames = ConcurrentHashMap.newKeySet();
+    private final int maxSessionRecvWindow;
+    private final int maxStreamRecvWindow;
+    private volatile long roundTripTime;
+    private volatile long bandwidth;
+    private volatile long maxBandwidth;
+
+    public AutoTuningFlowControlStrategy(float bufferRatio)
+    {
+        this(16 * 1024 * 1024, 8 * 1024 * 1024, bufferRatio);
+    }
+
+    /**
+     * @param maxSessionRecvWindow the max size the session receive window can grow to
+     * @param maxStreamRecvWindow the max size the stream receive windows can grow to
+     * @param bufferRatio the ratio between the receive buffer and the consume buffer
+     */
+    public AutoTuningFlowControlStrategy(int maxSessionRecvWindow, int maxStreamRecvWindow, float bufferRatio)
+    {
+        super(bufferRatio);
+        this.maxSessionRecvWindow = maxSessionRecvWindow;
+        this.maxStreamRecvWindow = maxStreamRecvWindow;
+    }
+
+    @ManagedAttribute(value = "The max size the session receive window can grow to", readonly = true)
+    public int getMaxSessionRecvWindow()
+    {
+        return maxSessionRecvWindow;
+    }
+
+    @ManagedAttribute(value = "The max size the stream receive windows can grow to", readonly = true)
+    public int getMaxStreamRecvWindow()
+    {
+        return maxStreamRecvWindow;
+    }
+
+    @ManagedAttribute(value = "The advertised size of the session receive window", readonly = true)
+    public int getSessionRecvWindow()
+    {
+        return sessionRecvWindow.get();
+    }
+
+    @ManagedAttribute(value = "The last round-trip time sample, in microseconds", readonly = true)
+    public long getRoundTripTime()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(roundTripTime);
+    }
+
+    @ManagedAttribute(value = "The last throughput sample, in bytes per second", readonly = true)
+    public long getBandwidth()
+    {
+        return bandwidth;
+    }
+
+    @Override
+    public void onDataConsumed(ISession session, IStream stream, int length)
+    {
+        if (length > 0)
+        {
+            // Consumed bytes are returned to the session window by a later WINDOW_UPDATE.
+            sessionRecvDebt.addAndGet(length);
+            if (canGrow() && pingTime.compareAndSet(0, System.nanoTime()))
+            {
+                consumed.set(0);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Sampling round-trip for {}", session);
+                session.ping(new PingFrame(pingPayload, false), Callback.NOOP);
+            }
+            else
+            {
+                consumed.addAndGet(length);
+            }
+        }
+        super.onDataConsumed(session, stream, length);
+    }
+
+    @Override
+    public boolean onPingReply(ISession session, PingFrame frame)
+    {
+        if (frame.getPayloadAsLong() != pingPayload)
+            return false;
+
+        long begin = pingTime.get();
+        if (begin == 0)
+            return true;
+        long rtt = Math.max(1, System.nanoTime() - begin);
+        int sample = consumed.get();
+        roundTripTime = rtt;
+        long bw = sample * TimeUnit.SECONDS.toNanos(1) / rtt;
+        bandwidth = bw;
+        boolean congested = bw < maxBandwidth * 3 / 4;
+        if (bw > maxBandwidth)
+            maxBandwidth = bw;
+        if (LOG.isDebugEnabled())
+            LOG.debug("Sampled {} bytes consumed in {} us, {} B/s{} for {}", sample, TimeUnit.NANOSECONDS.toMicros(rtt), bw, congested ? " (congested)" : "", session);
+
+        if (!congested)
+        {
+            // A sample close to the window means that the window limited the throughput.
+            int target = (int)Math.min(Integer.MAX_VALUE, 2L * sample);
+
+            int sessionWindow = sessionRecvWindow.get();
+            if (sample >= sessionWindow * 2 / 3)
+            {
+                int newSessionWindow = Math.min(target, maxSessionRecvWindow);
+                int delta = newSessionWindow - sessionWindow;
+                if (delta > 0 && sessionRecvWindow.compareAndSet(sessionWindow, newSessionWindow))
+                {
+                    session.updateRecvWindow(delta);
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Growing session recv window {} -> {} for {}", sessionWindow, newSessionWindow, session);
+                    WindowUpdateFrame windowFrame = new WindowUpdateFrame(0, delta);
+                    growthFrames.add(windowFrame);
+                    session.frames(null, Callback.NOOP, windowFrame, Frame.EMPTY_ARRAY);
+                }
+            }
+
+            int streamWindow = getInitialStreamRecvWindow();
+            if (sample >= streamWindow * 2 / 3)
+            {
+                int newStreamWindow = Math.min(target, maxStreamRecvWindow);
+                if (newStreamWindow > streamWindow)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Growing stream recv window {} -> {} for {}", streamWindow, newStreamWindow, session);
+                    SettingsFrame settingsFrame = new SettingsFrame(Collections.singletonMap(SettingsFrame.INITIAL_WINDOW_SIZE, newStreamWindow), false);
+                    session.frames(null, Callback.NOOP, settingsFrame, Frame.EMPTY_ARRAY);
+                }
+            }
+        }
+
+        // Allow another sample.
+        pingTime.set(0);
+        return true;
+    }
+
+    private boolean canGrow()
+    {
+        return sessionRecvWindow.get() < maxSessionRecvWindow || getInitialStreamRecvWindow() < maxStreamRecvWindow;
+    }
+
+    @Override
+    public void windowUpdate(ISession session, IStream stream, WindowUpdateFrame frame)
+    {
+        super.windowUpdate(session, stream, frame);
+        // Track the session window enlarged by others, for example by the
+        // initial session window configuration. The remaining window varies
+        // with the data in flight, so the part of the update that returns
+        // consumed bytes is told apart from the part that enlarges the window.
+        if (frame.getStreamId() == 0 && !growthFrames.remove(frame))
+        {
+            int delta = frame.getWindowDelta();
+            while (true)
+            {
+                long debt = sessionRecvDebt.get();
+                long returned = Math.min(delta, debt);
+                if (sessionRecvDebt.compareAndSet(debt, debt - returned))
+                {
+                    int enlargement = (int)(delta - returned);
+                    if (enlargement > 0)
+                        sessionRecvWindow.addAndGet(enlargement);
+                    break;
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[ratio=%.2f,sessionWindow=%d/%d,streamWindow=%d/%d,rtt=%dus,bandwidth=%dB/s]",
+                getClass().getSimpleName(),
+                hashCode(),
+                getBufferRatio(),
+                getSessionRecvWindow(),
+                getMaxSessionRecvWindow(),
+                getInitialStreamRecvWindow(),
+                getMaxStreamRecvWindow(),
+                getRoundTripTime(),
+                getBandwidth());
+    }
+}
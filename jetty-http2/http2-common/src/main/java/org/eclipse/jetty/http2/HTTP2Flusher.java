@@ -21,37 +21,57 @@ package org.eclipse.jetty.http2;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.http2.frames.Frame;
+import org.eclipse.jetty.http2.frames.FrameType;
 import org.eclipse.jetty.http2.frames.WindowUpdateFrame;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IteratingCallback;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
-
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+
+/**
+ * <p>Generates and writes the frames of a {@link HTTP2Session}.</p>
+ * <p>Frames are submitted by many threads via lock-free queues, and
+ * are then processed by a single thread at a time.</p>
+ * <p>DATA frames of streams with the same urgency are interleaved in
+ * round-robin, each stream generating up to the session's
+ * {@link HTTP2Session#getDataQuantum() data quantum} bytes per pass.</p>
+ */
+@ManagedObject
 public class HTTP2Flusher extends IteratingCallback implements Dumpable
 {
     private static final Logger LOG = Log.getLogger(HTTP2Flusher.class);
     private static final ByteBuffer[] EMPTY_BYTE_BUFFERS = new ByteBuffer[0];
 
-    private final Queue<WindowEntry> windows = new ArrayDeque<>();
-    private final Deque<Entry> entries = new ArrayDeque<>();
+    private final Queue<WindowEntry> windows = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> prependedEntries = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Throwable> terminated = new AtomicReference<>();
     private final Queue<Entry> pendingEntries = new ArrayDeque<>();
     private final Set<Entry> processedEntries = new HashSet<>();
+    private final Set<IStream> dataStreams = new HashSet<>();
+    private final SampleStatistic stalls = new SampleStatistic();
     private final HTTP2Session session;
     private final ByteBufferPool.Lease lease;
-    private Throwable terminated;
     private Entry stalledEntry;
+    private long stalledSince;
 
     public HTTP2Flusher(HTTP2Session session)
     {
@@ -61,70 +81,99 @@ public class HTTP2Flusher extends IteratingCallback implements Dumpable
 
     public void window(IStream stream, WindowUpdateFrame frame)
     {
-        Throwable closed;
-        synchronized (this)
+        if (terminated.get() == null)
         {
-            closed = terminated;
-            if (closed == null)
-                windows.offer(new WindowEntry(stream, frame));
-        }
-        // Flush stalled data.
-        if (closed == null)
+            windows.offer(new WindowEntry(stream, frame));
+            // Flush stalled data.
             iterate();
+        }
     }
 
     public boolean prepend(Entry entry)
     {
-        Throwable closed;
-        synchronized (this)
-        {
-            closed = terminated;
-            if (closed == null)
-            {
-                entries.offerFirst(entry);
-                if (LOG.isDebugEnabled())
-                    LOG.debug("Prepended {}, entries={}", entry, entries.size());
-            }
-        }
-        if (closed == null)
-            return true;
-        closed(entry, closed);
-        return false;
+        boolean queued = offer(prependedEntries, entry);
+        if (queued && LOG.isDebugEnabled())
+            LOG.debug("Prepended {}, entries={}", entry, getFrameQueueSize());
+        return queued;
     }
 
     public boolean append(Entry entry)
     {
-        Throwable closed;
-        synchronized (this)
+        boolean queued = offer(entries, entry);
+        if (queued && LOG.isDebugEnabled())
+            LOG.debug("Appended {}, entries={}", entry, getFrameQueueSize());
+        return queued;
+    }
+
+    private boolean offer(Queue<Entry> queue, Entry entry)
+    {
+        Throwable closed = terminated.get();
+        if (closed == null)
         {
-            closed = terminated;
-            if (closed == null)
-            {
-                entries.offer(entry);
-                if (LOG.isDebugEnabled())
-                    LOG.debug("Appended {}, entries={}", entry, entries.size());
-            }
+            queue.offer(entry);
+            // The flusher may have been terminated concurrently, and the
+            // queue drained: if the entry is still queued, fail it here,
+            // otherwise it has been taken and will be completed by others.
+            closed = terminated.get();
+            if (closed == null || !queue.remove(entry))
+                return true;
         }
-        if (closed == null)
-            return true;
         closed(entry, closed);
         return false;
     }
 
-    private int getWindowQueueSize()
+    /**
+     * <p>The queue is lock-free, so its size is computed by traversing it:
+     * the value is approximate under concurrent updates and costs O(n).</p>
+     *
+     * @return the approximate number of queued window updates
+     */
+    @ManagedAttribute(value = "The approximate number of queued window updates", readonly = true)
+    public int getWindowQueueSize()
     {
-        synchronized (this)
-        {
-            return windows.size();
-        }
+        return windows.size();
     }
 
+    /**
+     * <p>The queues are lock-free, so their size is computed by traversing them:
+     * the value is approximate under concurrent updates and costs O(n).</p>
+     *
+     * @return the approximate number of queued frames
+     */
+    @ManagedAttribute(value = "The approximate number of queued frames", readonly = true)
     public int getFrameQueueSize()
     {
-        synchronized (this)
-        {
-            return entries.size();
-        }
+        return prependedEntries.size() + entries.size();
+    }
+
+    @ManagedAttribute(value = "The number of frames pending to be generated", readonly = true)
+    public int getPendingFrameCount()
+    {
+        return pendingEntries.size();
+    }
+
+    @ManagedAttribute(value = "The number of times the flusher stalled with pending frames", readonly = true)
+    public long getStallCount()
+    {
+        return stalls.getCount();
+    }
+
+    @ManagedAttribute(value = "The total time, in milliseconds, the flusher stalled with pending frames", readonly = true)
+    public long getStallTimeTotal()
+    {
+        return stalls.getTotal();
+    }
+
+    @ManagedAttribute(value = "The max time, in milliseconds, the flusher stalled with pending frames", readonly = true)
+    public long getStallTimeMax()
+    {
+        return stalls.getMax();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        stalls.reset();
     }
 
     @Override
@@ -133,19 +182,19 @@ public class HTTP2Flusher extends IteratingCallback implements Dumpable
         if (LOG.isDebugEnabled())
             LOG.debug("Flushing {}", session);
 
-        synchronized (this)
-        {
-            if (terminated != null)
-                throw terminated;
+        Throwable closed = terminated.get();
+        if (closed != null)
+            throw closed;
 
-            WindowEntry windowEntry;
-            while ((windowEntry = windows.poll()) != null)
-                windowEntry.perform();
+        WindowEntry windowEntry;
+        while ((windowEntry = windows.poll()) != null)
+            windowEntry.perform();
 
-            Entry entry;
-            while ((entry = entries.poll()) != null)
-                pendingEntries.offer(entry);
-        }
+        Entry entry;
+        while ((entry = prependedEntries.poll()) != null)
+            pendingEntries.offer(entry);
+        while ((entry = entries.poll()) != null)
+            pendingEntries.offer(entry);
 
         if (pendingEntries.isEmpty())
         {
@@ -156,67 +205,34 @@ public class HTTP2Flusher extends IteratingCallback implements Dumpable
 
         while (true)
         {
-            boolean progress = false;
-
             if (pendingEntries.isEmpty())
                 break;
 
-            Iterator<Entry> pending = pendingEntries.iterator();
-            while (pending.hasNext())
+            // Frames other than DATA are generated in order, then DATA
+            // frames are generated for the most urgent streams that can
+            // make progress, see IStream.setUrgency(int).
+            boolean progress;
+            try
             {
-                Entry entry = pending.next();
-                if (LOG.isDebugEnabled())
-                    LOG.debug("Processing {}", entry);
-
-                // If the stream has been reset or removed,
-                // don't send the frame and fail it here.
-                if (entry.isStale())
-                {
-                    if (LOG.isDebugEnabled())
-                        LOG.debug("Stale {}", entry);
-                    entry.failed(new EofException("reset"));
-                    pending.remove();
-                    continue;
-                }
-
-                try
-                {
-                    if (entry.generate(lease))
-                    {
-                        if (LOG.isDebugEnabled())
-                            LOG.debug("Generated {} frame bytes for {}", entry.getFrameBytesGenerated(), entry);
-
-                        progress = true;
-
-                        processedEntries.add(entry);
-
-                        if (entry.getDataBytesRemaining() == 0)
-                            pending.remove();
-                    }
-                    else
-                    {
-                        if (session.getSendWindow() <= 0 && stalledEntry == null)
-                        {
-                            stalledEntry = entry;
-                            if (LOG.isDebugEnabled())
-                                LOG.debug("Flow control stalled at {}", entry);
-                            // Continue to process control frames.
-                        }
-                    }
-                }
-                catch (Throwable failure)
-                {
-                    // Failure to generate the entry is catastrophic.
-                    if (LOG.isDebugEnabled())
-                        LOG.debug("Failure generating " + entry, failure);
-                    failed(failure);
-                    return Action.SUCCEEDED;
-                }
+                progress = processControlEntries();
+                progress |= processDataEntries();
+            }
+            catch (Throwable failure)
+            {
+                // Failure to generate an entry is catastrophic.
+                failed(failure);
+                return Action.SUCCEEDED;
             }
 
             if (!progress)
                 break;
 
+            if (stalledSince != 0)
+            {
+                stalls.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stalledSince));
+                stalledSince = 0;
+            }
+
             if (stalledEntry != null)
                 break;
 
@@ -232,6 +248,9 @@ public class HTTP2Flusher extends IteratingCallback implements Dumpable
         List<ByteBuffer> byteBuffers = lease.getByteBuffers();
         if (byteBuffers.isEmpty())
         {
+            // All the pending entries are stalled by flow control.
+            if (!pendingEntries.isEmpty() && stalledSince == 0)
+                stalledSince = System.nanoTime();
             finish();
             return Action.IDLE;
         }
@@ -249,6 +268,184 @@ public class HTTP2Flusher extends IteratingCallback implements Dumpable
         return Action.SCHEDULED;
     }
 
+    /**
+     * <p>Generates the pending entries that are not DATA frames, in order.</p>
+     * <p>A HEADERS or PUSH_PROMISE entry is skipped if a DATA entry of the
+     * same stream precedes it, so that the content of a stream is never
+     * reordered with respect to its headers and trailers; protocol frames
+     * such as WINDOW_UPDATE, RST_STREAM and PRIORITY are not held back.</p>
+     *
+     * @return whether progress was made
+     * @throws Throwable if an entry could not be generated
+     */
+    private boolean processControlEntries() throws Throwable
+    {
+        boolean progress = false;
+        dataStreams.clear();
+        Iterator<Entry> pending = pendingEntries.iterator();
+        while (pending.hasNext())
+        {
+            Entry entry = pending.next();
+            if (removeStale(entry, pending))
+                continue;
+
+            if (entry.isData())
+            {
+                dataStreams.add(entry.stream);
+                continue;
+            }
+
+            if (entry.stream != null && !entry.isProtocol() && dataStreams.contains(entry.stream))
+                continue;
+
+            progress |= generate(entry, pending);
+        }
+        return progress;
+    }
+
+    /**
+     * <p>Generates DATA frames for the pending DATA entries of the most urgent
+     * streams that can make progress.</p>
+     * <p>At a given urgency, each incremental stream generates frames up to
+     * the data quantum in round-robin, while only the first non incremental
+     * stream that can make progress does.
+     * Less urgent streams only generate frames when all the more urgent
+     * streams are flow control stalled.</p>
+     *
+     * @return whether progress was made
+     * @throws Throwable if an entry could not be generated
+     */
+    private boolean processDataEntries() throws Throwable
+    {
+        int urgencies = 0;
+        for (Entry entry : pendingEntries)
+        {
+            if (entry.isData())
+                urgencies |= 1 << entry.stream.getUrgency();
+        }
+
+        int quantum = session.getDataQuantum();
+        while (urgencies != 0)
+        {
+            int urgency = Integer.numberOfTrailingZeros(urgencies);
+            urgencies &= ~(1 << urgency);
+
+            boolean progress = false;
+            boolean exclusive = false;
+            Iterator<Entry> pending = pendingEntries.iterator();
+            while (pending.hasNext())
+            {
+                Entry entry = pending.next();
+                if (!entry.isData() || entry.stream.getUrgency() != urgency)
+                    continue;
+                if (removeStale(entry, pending))
+                    continue;
+
+                boolean incremental = entry.stream.isIncremental();
+                if (!incremental && exclusive)
+                    continue;
+
+                if (generateData(entry, pending, quantum))
+                {
+                    progress = true;
+                    if (!incremental)
+                        exclusive = true;
+                }
+            }
+
+            if (progress)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * <p>Generates DATA frames for the given entry, in deficit round-robin:
+     * the entry earns the quantum at every pass and spends the data bytes
+     * it generates, so that streams get a fair share of bytes regardless
+     * of their frame sizes.</p>
+     */
+    private boolean generateData(Entry entry, Iterator<Entry> pending, int quantum) throws Throwable
+    {
+        boolean progress = false;
+        entry.deficit += quantum;
+        while (entry.deficit > 0)
+        {
+            int remaining = entry.getDataBytesRemaining();
+            if (!generate(entry, pending))
+            {
+                // No credit is accumulated while flow control stalled.
+                entry.deficit = 0;
+                break;
+            }
+            progress = true;
+            int dataRemaining = entry.getDataBytesRemaining();
+            entry.deficit -= remaining - dataRemaining;
+            if (dataRemaining == 0)
+                break;
+            // Don't try again if flow control stalled, otherwise
+            // this entry would be recorded as the stalled one and
+            // would generate first at the next flush.
+            if (session.getSendWindow() <= 0 || entry.stream.updateSendWindow(0) <= 0)
+            {
+                entry.deficit = 0;
+                break;
+            }
+        }
+        return progress;
+    }
+
+    private boolean removeStale(Entry entry, Iterator<Entry> pending)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Processing {}", entry);
+
+        // If the stream has been reset or removed,
+        // don't send the frame and fail it here.
+        if (entry.isStale())
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Stale {}", entry);
+            entry.failed(new EofException("reset"));
+            pending.remove();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean generate(Entry entry, Iterator<Entry> pending) throws Throwable
+    {
+        try
+        {
+            if (entry.generate(lease))
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Generated {} frame bytes for {}", entry.getFrameBytesGenerated(), entry);
+
+                processedEntries.add(entry);
+
+                if (entry.getDataBytesRemaining() == 0)
+                    pending.remove();
+                return true;
+            }
+
+            if (session.getSendWindow() <= 0 && stalledEntry == null)
+            {
+                stalledEntry = entry;
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Flow control stalled at {}", entry);
+                // Continue to process control frames.
+            }
+            return false;
+        }
+        catch (Throwable failure)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Failure generating " + entry, failure);
+            throw failure;
+        }
+    }
+
     void onFlushed(long bytes) throws IOException
     {
         // A single EndPoint write may be flushed multiple times (for example with SSL).
@@ -303,27 +500,27 @@ public class HTTP2Flusher extends IteratingCallback implements Dumpable
     {
         lease.recycle();
 
-        Throwable closed;
-        Set<Entry> allEntries;
-        synchronized (this)
-        {
-            closed = terminated;
-            terminated = x;
-            if (LOG.isDebugEnabled())
-                LOG.debug(String.format("%s, entries processed/pending/queued=%d/%d/%d",
-                        closed != null ? "Closing" : "Failing",
-                        processedEntries.size(),
-                        pendingEntries.size(),
-                        entries.size()), x);
-            allEntries = new HashSet<>(entries);
-            entries.clear();
-        }
+        Throwable closed = terminated.getAndSet(x);
+        if (LOG.isDebugEnabled())
+            LOG.debug(String.format("%s, entries processed/pending/queued=%d/%d/%d",
+                    closed != null ? "Closing" : "Failing",
+                    processedEntries.size(),
+                    pendingEntries.size(),
+                    getFrameQueueSize()), x);
+
+        Set<Entry> allEntries = new HashSet<>();
+        Entry entry;
+        while ((entry = prependedEntries.poll()) != null)
+            allEntries.add(entry);
+        while ((entry = entries.poll()) != null)
+            allEntries.add(entry);
+        windows.clear();
 
         allEntries.addAll(processedEntries);
         processedEntries.clear();
         allEntries.addAll(pendingEntries);
         pendingEntries.clear();
-        allEntries.forEach(entry -> entry.failed(x));
+        allEntries.forEach(e -> e.failed(x));
 
         // If the failure came from within the
         // flusher, we need to close the connection.
@@ -333,14 +530,9 @@ public class HTTP2Flusher extends IteratingCallback implements Dumpable
 
     void terminate(Throwable cause)
     {
-        Throwable closed;
-        synchronized (this)
-        {
-            closed = terminated;
-            terminated = cause;
-            if (LOG.isDebugEnabled())
-                LOG.debug("{}", closed != null ? "Terminated" : "Terminating");
-        }
+        Throwable closed = terminated.getAndSet(cause);
+        if (LOG.isDebugEnabled())
+            LOG.debug("{}", closed != null ? "Terminated" : "Terminating");
         if (closed == null)
             iterate();
     }
@@ -365,18 +557,21 @@ public class HTTP2Flusher extends IteratingCallback implements Dumpable
     @Override
     public String toString()
     {
-        return String.format("%s[window_queue=%d,frame_queue=%d,processed/pending=%d/%d]",
+        return String.format("%s[window_queue=%d,frame_queue=%d,processed/pending=%d/%d,stalls=%d/%dms]",
                 super.toString(),
                 getWindowQueueSize(),
                 getFrameQueueSize(),
                 processedEntries.size(),
-                pendingEntries.size());
+                pendingEntries.size(),
+                getStallCount(),
+                getStallTimeTotal());
     }
 
     public static abstract class Entry extends Callback.Nested
     {
         protected final Frame frame;
         protected final IStream stream;
+        private int deficit;
 
         protected Entry(Frame frame, IStream stream, Callback callback)
         {
@@ -407,6 +602,11 @@ public class HTTP2Flusher extends IteratingCallback implements Dumpable
             super.failed(x);
         }
 
+        private boolean isData()
+        {
+            return frame.getType() == FrameType.DATA && stream != null;
+        }
+
         private boolean isStale()
         {
             return !isProtocol() && stream != null && stream.isReset();
@@ -81,6 +81,7 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
     private final AtomicInteger recvWindow = new AtomicInteger();
     private final AtomicReference<CloseState> closed = new AtomicReference<>(CloseState.NOT_CLOSED);
     private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong queuedBytes = new AtomicLong();
     private final Scheduler scheduler;
     private final EndPoint endPoint;
     private final Generator generator;
@@ -92,8 +93,12 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
     private long streamIdleTimeout;
     private int initialSessionRecvWindow;
     private int writeThreshold;
+    private int dataQuantum;
+    private long maxQueuedBytes;
+    private long maxStreamStallTime;
     private boolean pushEnabled;
     private long idleTime;
+    private volatile long sessionStalledSince;
     private GoAwayFrame closeFrame;
 
     public HTTP2Session(Scheduler scheduler, EndPoint endPoint, Generator generator, Session.Listener listener, FlowControlStrategy flowControl, int initialStreamId)
@@ -112,10 +117,14 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
         this.sendWindow.set(FlowControlStrategy.DEFAULT_WINDOW_SIZE);
         this.recvWindow.set(FlowControlStrategy.DEFAULT_WINDOW_SIZE);
         this.writeThreshold = 32 * 1024;
+        this.dataQuantum = Frame.DEFAULT_MAX_LENGTH;
+        this.maxQueuedBytes = -1;
+        this.maxStreamStallTime = -1;
         this.pushEnabled = true; // SPEC: by default, push is enabled.
         this.idleTime = System.nanoTime();
         addBean(flowControl);
         addBean(flusher);
+        addBean(generator.getHpackEncoder());
     }
 
     @Override
@@ -202,6 +211,58 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
         this.writeThreshold = writeThreshold;
     }
 
+    @ManagedAttribute("The max number of DATA bytes a stream generates before yielding to other streams")
+    public int getDataQuantum()
+    {
+        return dataQuantum;
+    }
+
+    public void setDataQuantum(int dataQuantum)
+    {
+        if (dataQuantum <= 0)
+            throw new IllegalArgumentException("Invalid data quantum " + dataQuantum);
+        this.dataQuantum = dataQuantum;
+    }
+
+    @ManagedAttribute("The max number of DATA bytes queued to be sent before the session is closed, or -1 for no limit")
+    public long getMaxQueuedBytes()
+    {
+        return maxQueuedBytes;
+    }
+
+    /**
+     * <p>Sets the memory budget of this session, in number of DATA bytes
+     * queued to be sent.</p>
+     * <p>When the budget is exceeded, typically because the remote peer
+     * does not read, the streams stalled by flow control are reset and
+     * the session is closed.</p>
+     *
+     * @param maxQueuedBytes the max number of queued DATA bytes, or -1 for no limit
+     */
+    public void setMaxQueuedBytes(long maxQueuedBytes)
+    {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    @ManagedAttribute("The max time, in milliseconds, a stream may be stalled by flow control before it is reset, or -1 for no limit")
+    public long getMaxStreamStallTime()
+    {
+        return maxStreamStallTime;
+    }
+
+    /**
+     * <p>Sets the max time a stream may have DATA bytes to send, but be
+     * unable to send them because flow control stalled.</p>
+     * <p>Streams stalled for longer are reset, so that the resources
+     * held by their queued DATA frames are released.</p>
+     *
+     * @param maxStreamStallTime the max stall time in milliseconds, or -1 for no limit
+     */
+    public void setMaxStreamStallTime(long maxStreamStallTime)
+    {
+        this.maxStreamStallTime = maxStreamStallTime;
+    }
+
     public EndPoint getEndPoint()
     {
         return endPoint;
@@ -279,6 +340,11 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
     {
         if (LOG.isDebugEnabled())
             LOG.debug("Received {}", frame);
+
+        // Dependencies are not tracked, the weight only sets the urgency of the stream.
+        IStream stream = getStream(frame.getStreamId());
+        if (stream != null)
+            stream.setUrgency(HTTP2Stream.toUrgency(frame.getWeight()));
     }
 
     @Override
@@ -391,7 +457,8 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
 
         if (frame.isReply())
         {
-            notifyPing(this, frame);
+            if (!flowControl.onPingReply(this, frame))
+                notifyPing(this, frame);
         }
         else
         {
@@ -740,6 +807,71 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
     {
         // We want to generate as late as possible to allow re-prioritization.
         frame(new DataEntry(frame, stream, callback), true);
+
+        long maxQueued = getMaxQueuedBytes();
+        if (maxQueued >= 0)
+        {
+            long queued = getQueuedBytes();
+            if (queued > maxQueued)
+                onMaxQueuedBytesExceeded(queued);
+        }
+    }
+
+    private void queued(IStream stream, long bytes)
+    {
+        stream.updateQueuedBytes(bytes);
+        queuedBytes.addAndGet(bytes);
+    }
+
+    private void onMaxQueuedBytesExceeded(long queued)
+    {
+        if (closed.get() != CloseState.NOT_CLOSED)
+            return;
+        if (LOG.isDebugEnabled())
+            LOG.debug("Max queued bytes exceeded {}/{} for {}", queued, getMaxQueuedBytes(), this);
+        // Reset the streams that cannot make progress, so that
+        // their queued DATA frames are failed and their buffers
+        // released, then stop the creation of new streams.
+        for (IStream stream : streams.values())
+        {
+            if (stream.getStallTime() >= 0)
+                stream.reset(new ResetFrame(stream.getId(), ErrorCode.ENHANCE_YOUR_CALM_ERROR.code), Callback.NOOP);
+        }
+        close(ErrorCode.ENHANCE_YOUR_CALM_ERROR.code, "max_queued_bytes_exceeded", Callback.NOOP);
+    }
+
+    private void onStreamStalled(IStream stream)
+    {
+        if (stream.updateStall(true))
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Stalled {}", stream);
+            long maxStallTime = getMaxStreamStallTime();
+            if (maxStallTime >= 0)
+                scheduler.schedule(() -> onStreamStallExpired(stream, maxStallTime), maxStallTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void updateSessionStall(boolean stalled)
+    {
+        // Only called by the flusher thread.
+        if (stalled == (sessionStalledSince != 0))
+            return;
+        if (LOG.isDebugEnabled())
+            LOG.debug("{} {}", stalled ? "Stalled" : "Unstalled", this);
+        // Avoid the (unlikely) zero value, that means not stalled.
+        sessionStalledSince = stalled ? System.nanoTime() | 1 : 0;
+    }
+
+    private void onStreamStallExpired(IStream stream, long maxStallTime)
+    {
+        // The stream may have been unstalled and stalled again,
+        // in which case this check is for the previous stall.
+        if (stream.getStallTime() < maxStallTime || stream.isReset())
+            return;
+        if (LOG.isDebugEnabled())
+            LOG.debug("Max stall time {}ms exceeded for {}", maxStallTime, stream);
+        stream.reset(new ResetFrame(stream.getId(), ErrorCode.ENHANCE_YOUR_CALM_ERROR.code), Callback.NOOP);
     }
 
     private void frame(HTTP2Flusher.Entry entry, boolean flush)
@@ -864,6 +996,42 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
         return streams.get(streamId);
     }
 
+    @ManagedAttribute(value = "The number of DATA bytes queued to be sent", readonly = true)
+    public long getQueuedBytes()
+    {
+        return queuedBytes.get();
+    }
+
+    @ManagedAttribute(value = "The number of streams with DATA bytes to send that are stalled by flow control", readonly = true)
+    public int getStalledStreamCount()
+    {
+        int result = 0;
+        for (IStream stream : streams.values())
+        {
+            if (stream.getStallTime() >= 0)
+                ++result;
+        }
+        return result;
+    }
+
+    /**
+     * <p>The session is stalled when it has DATA bytes to send, but the
+     * session flow control window is exhausted, so that no stream can
+     * send DATA bytes regardless of its own flow control window.</p>
+     * <p>Session stalls are not counted as stream stalls, so they do not
+     * cause streams to be reset after the {@link #getMaxStreamStallTime()
+     * max stream stall time}; the {@link #getMaxQueuedBytes() memory budget}
+     * still applies.</p>
+     *
+     * @return the time, in milliseconds, this session has been stalled, or -1 if it is not stalled
+     */
+    @ManagedAttribute(value = "The time, in milliseconds, the session flow control window has been stalled, or -1", readonly = true)
+    public long getSessionStallTime()
+    {
+        long since = sessionStalledSince;
+        return since == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
     @ManagedAttribute(value = "The flow control send window", readonly = true)
     public int getSendWindow()
     {
@@ -1367,6 +1535,7 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
         private int frameRemaining;
         private int dataBytes;
         private int dataRemaining;
+        private int dataQueued;
 
         private DataEntry(DataFrame frame, IStream stream, Callback callback)
         {
@@ -1377,6 +1546,8 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
             // the flow control window exhausting, since in that case
             // we would have to count the padding only once.
             dataRemaining = frame.remaining();
+            dataQueued = dataRemaining;
+            queued(stream, dataQueued);
         }
 
         @Override
@@ -1400,7 +1571,20 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
             int streamSendWindow = stream.updateSendWindow(0);
             int window = Math.min(streamSendWindow, sessionSendWindow);
             if (window <= 0 && dataRemaining > 0)
+            {
+                if (sessionSendWindow <= 0)
+                    updateSessionStall(true);
+                // The stream is stalled only by its own window: when only
+                // the session window is exhausted, all streams are waiting.
+                if (streamSendWindow <= 0)
+                    onStreamStalled(stream);
+                else
+                    stream.updateStall(false);
                 return false;
+            }
+            stream.updateStall(false);
+            if (sessionSendWindow > 0)
+                updateSessionStall(false);
 
             int length = Math.min(dataRemaining, window);
 
@@ -1446,6 +1630,8 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
             frameRemaining = 0;
 
             flowControl.onDataSent(stream, dataBytes);
+            dataQueued -= dataBytes;
+            queued(stream, -dataBytes);
             dataBytes = 0;
 
             // Do we have more to send ?
@@ -1459,6 +1645,14 @@ public abstract class HTTP2Session extends ContainerLifeCycle implements ISessio
                 super.succeeded();
             }
         }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            queued(stream, -dataQueued);
+            dataQueued = 0;
+            super.failed(x);
+        }
     }
 
     private static class PromiseCallback<C> implements Callback
@@ -26,6 +26,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.http.HttpFields;
@@ -36,6 +37,7 @@ import org.eclipse.jetty.http2.frames.DataFrame;
 import org.eclipse.jetty.http2.frames.FailureFrame;
 import org.eclipse.jetty.http2.frames.Frame;
 import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.PriorityFrame;
 import org.eclipse.jetty.http2.frames.PushPromiseFrame;
 import org.eclipse.jetty.http2.frames.ResetFrame;
 import org.eclipse.jetty.http2.frames.WindowUpdateFrame;
@@ -51,6 +53,7 @@ import org.eclipse.jetty.util.thread.Scheduler;
 public class HTTP2Stream extends IdleTimeout implements IStream, Callback, Dumpable
 {
     private static final Logger LOG = Log.getLogger(HTTP2Stream.class);
+    public static final int DEFAULT_URGENCY = 3;
 
     private final AtomicReference<Object> attachment = new AtomicReference<>();
     private final AtomicReference<ConcurrentMap<String, Object>> attributes = new AtomicReference<>();
@@ -58,6 +61,7 @@ public class HTTP2Stream extends IdleTimeout implements IStream, Callback, Dumpa
     private final AtomicReference<Callback> writing = new AtomicReference<>();
     private final AtomicInteger sendWindow = new AtomicInteger();
     private final AtomicInteger recvWindow = new AtomicInteger();
+    private final AtomicLong queuedBytes = new AtomicLong();
     private final long timeStamp = System.nanoTime();
     private final ISession session;
     private final int streamId;
@@ -66,6 +70,9 @@ public class HTTP2Stream extends IdleTimeout implements IStream, Callback, Dumpa
     private Listener listener;
     private boolean remoteReset;
     private long dataLength;
+    private volatile int urgency = DEFAULT_URGENCY;
+    private volatile boolean incremental = true;
+    private volatile long stalledSince;
 
     public HTTP2Stream(Scheduler scheduler, ISession session, int streamId, boolean local)
     {
@@ -82,6 +89,47 @@ public class HTTP2Stream extends IdleTimeout implements IStream, Callback, Dumpa
         return streamId;
     }
 
+    @Override
+    public int getUrgency()
+    {
+        return urgency;
+    }
+
+    @Override
+    public void setUrgency(int urgency)
+    {
+        if (urgency < 0 || urgency > 7)
+            throw new IllegalArgumentException("Invalid urgency " + urgency);
+        this.urgency = urgency;
+    }
+
+    @Override
+    public boolean isIncremental()
+    {
+        return incremental;
+    }
+
+    @Override
+    public void setIncremental(boolean incremental)
+    {
+        this.incremental = incremental;
+    }
+
+    /**
+     * <p>Maps a HTTP/2 priority weight to an urgency.</p>
+     * <p>The default weight of 16 maps to the {@link #DEFAULT_URGENCY default urgency};
+     * each doubling of the weight makes the stream one level more urgent, and each
+     * halving one level less urgent.</p>
+     *
+     * @param weight the HTTP/2 priority weight, from 1 to 256
+     * @return the corresponding urgency
+     */
+    static int toUrgency(int weight)
+    {
+        int log2 = 31 - Integer.numberOfLeadingZeros(Math.max(1, weight));
+        return Math.max(0, Math.min(7, DEFAULT_URGENCY + 4 - log2));
+    }
+
     @Override
     public Object getAttachment()
     {
@@ -275,6 +323,9 @@ public class HTTP2Stream extends IdleTimeout implements IStream, Callback, Dumpa
 
     private void onHeaders(HeadersFrame frame, Callback callback)
     {
+        PriorityFrame priority = frame.getPriority();
+        if (priority != null)
+            setUrgency(toUrgency(priority.getWeight()));
         if (updateClose(frame.isEndStream(), CloseState.Event.RECEIVED))
             session.removeStream(this);
         MetaData metaData = frame.getMetaData();
@@ -495,6 +546,36 @@ public class HTTP2Stream extends IdleTimeout implements IStream, Callback, Dumpa
         return recvWindow.getAndAdd(delta);
     }
 
+    @Override
+    public long updateQueuedBytes(long delta)
+    {
+        return queuedBytes.getAndAdd(delta);
+    }
+
+    @Override
+    public long getQueuedBytes()
+    {
+        return queuedBytes.get();
+    }
+
+    @Override
+    public boolean updateStall(boolean stalled)
+    {
+        // Only called by the flusher thread.
+        if (stalled == (stalledSince != 0))
+            return false;
+        // Avoid the (unlikely) zero value, that means not stalled.
+        stalledSince = stalled ? System.nanoTime() | 1 : 0;
+        return true;
+    }
+
+    @Override
+    public long getStallTime()
+    {
+        long since = stalledSince;
+        return since == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since);
+    }
+
     @Override
     public void close()
     {
@@ -627,12 +708,14 @@ public class HTTP2Stream extends IdleTimeout implements IStream, Callback, Dumpa
     @Override
     public String toString()
     {
-        return String.format("%s@%x#%d{sendWindow=%s,recvWindow=%s,reset=%b,%s,age=%d,attachment=%s}",
+        return String.format("%s@%x#%d{sendWindow=%s,recvWindow=%s,queued=%d,stalled=%dms,reset=%b,%s,age=%d,attachment=%s}",
                 getClass().getSimpleName(),
                 hashCode(),
                 getId(),
                 sendWindow,
                 recvWindow,
+                getQueuedBytes(),
+                getStallTime(),
                 isReset(),
                 closeState,
                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timeStamp),
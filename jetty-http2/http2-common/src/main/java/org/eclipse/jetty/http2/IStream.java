@@ -103,6 +103,34 @@ public interface IStream extends Stream, Closeable
      */
     public int updateRecvWindow(int delta);
 
+    /**
+     * <p>Updates the number of DATA bytes queued to be sent for this stream.</p>
+     *
+     * @param delta the delta value (positive or negative) to add to the queued bytes
+     * @return the previous number of queued bytes
+     */
+    public long updateQueuedBytes(long delta);
+
+    /**
+     * @return the number of DATA bytes queued to be sent for this stream
+     */
+    public long getQueuedBytes();
+
+    /**
+     * <p>Updates whether this stream has DATA bytes to send,
+     * but cannot send them because flow control stalled.</p>
+     *
+     * @param stalled whether this stream is stalled
+     * @return whether the stall state of this stream changed
+     */
+    public boolean updateStall(boolean stalled);
+
+    /**
+     * @return the time, in milliseconds, this stream has been stalled, or -1 if it is not stalled
+     * @see #updateStall(boolean)
+     */
+    public long getStallTime();
+
     /**
      * <p>Marks this stream as not idle so that the
      * {@link #getIdleTimeout() idle timeout} is postponed.</p>
@@ -114,4 +142,35 @@ public interface IStream extends Stream, Closeable
      * @see #isClosed()
      */
     boolean isRemotelyClosed();
+
+    /**
+     * @return the urgency of this stream, from 0 (most urgent) to 7 (least urgent)
+     * @see #setUrgency(int)
+     */
+    public int getUrgency();
+
+    /**
+     * <p>Sets the urgency of this stream.</p>
+     * <p>DATA frames of streams with a lower urgency value are sent
+     * before DATA frames of streams with a higher urgency value.</p>
+     *
+     * @param urgency the urgency, from 0 (most urgent) to 7 (least urgent)
+     */
+    public void setUrgency(int urgency);
+
+    /**
+     * @return whether the DATA frames of this stream may be interleaved with
+     * those of other incremental streams of the same urgency
+     * @see #setIncremental(boolean)
+     */
+    public boolean isIncremental();
+
+    /**
+     * <p>Sets whether this stream is incremental.</p>
+     * <p>Incremental streams of the same urgency share the connection in
+     * round robin, while non incremental streams are sent one at a time.</p>
+     *
+     * @param incremental whether this stream is incremental
+     */
+    public void setIncremental(boolean incremental);
 }
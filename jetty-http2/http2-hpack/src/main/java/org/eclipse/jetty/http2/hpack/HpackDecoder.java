@@ -20,6 +20,8 @@
 package org.eclipse.jetty.http2.hpack;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpHeader;
@@ -32,6 +34,11 @@ import org.eclipse.jetty.util.log.Logger;
 /**
  * Hpack Decoder
  * <p>This is not thread safe and may only be called by 1 thread at a time.</p>
+ * <p>Literal names and values are decoded into a reusable byte array, and
+ * a field is only created if it is not already available, either as the
+ * table entry referenced by the name index, or in a small cache of the
+ * literal fields previously decoded, so that the headers repeated on a
+ * long-lived connection are decoded without allocations.</p>
  */
 public class HpackDecoder
 {
@@ -39,8 +46,13 @@ public class HpackDecoder
     public final static HttpField.LongValueHttpField CONTENT_LENGTH_0 =
             new HttpField.LongValueHttpField(HttpHeader.CONTENT_LENGTH,0L);
 
+    private static final int FIELD_CACHE_SIZE = 128;
+    private static final int MAX_CACHED_FIELD_LENGTH = 256;
+
     private final HpackContext _context;
     private final MetaDataBuilder _builder;
+    private final HttpField[] _fieldCache = new HttpField[FIELD_CACHE_SIZE];
+    private byte[] _octets = new byte[MAX_CACHED_FIELD_LENGTH];
     private int _localMaxDynamicTableSize;
 
     /**
@@ -161,77 +173,68 @@ public class HpackDecoder
                 boolean huffmanName=false;
 
                 // decode the name
+                HttpField nameField=null;
+                int nameLength;
                 if (name_index>0)
                 {
                     Entry name_entry=_context.get(name_index);
-                    name=name_entry.getHttpField().getName();
-                    header=name_entry.getHttpField().getHeader();
+                    nameField=name_entry.getHttpField();
+                    name=nameField.getName();
+                    header=nameField.getHeader();
+                    nameLength=toOctets(name);
                 }
                 else
                 {
                     huffmanName = (buffer.get()&0x80)==0x80;
                     int length = NBitInteger.decode(buffer,7);
                     _builder.checkSize(length,huffmanName);
-                    if (huffmanName)
-                        name=Huffman.decode(buffer,length);
-                    else
-                        name=toASCIIString(buffer,length);
-                    for (int i=0;i<name.length();i++)
+                    nameLength=decodeOctets(buffer,length,huffmanName,0);
+                    name=null;
+                    header=null;
+                    for (int i=0;i<nameLength;i++)
                     {
-                        char c=name.charAt(i);
+                        byte c=_octets[i];
                         if (c>='A'&&c<='Z')
                         {
-                            _builder.streamException("Uppercase header name %s",name);
+                            _builder.streamException("Uppercase header name %s",toString(0,nameLength));
                             break;
                         }
                     }
-                    header=HttpHeader.CACHE.get(name);
                 }
 
                 // decode the value
                 boolean huffmanValue = (buffer.get()&0x80)==0x80;
                 int length = NBitInteger.decode(buffer,7);
                 _builder.checkSize(length,huffmanValue);
-                if (huffmanValue)
-                    value=Huffman.decode(buffer,length);
-                else
-                    value=toASCIIString(buffer,length);
+                int valueLength=decodeOctets(buffer,length,huffmanValue,nameLength);
 
-                // Make the new field
-                HttpField field;
-                if (header==null)
+                // Reuse the field of the name entry or a cached field, if the value is the same.
+                HttpField field=null;
+                if (nameField!=null && matches(nameField.getValue(),nameLength,valueLength))
+                    field=nameField;
+
+                // Fields that must never be indexed are not cached.
+                boolean cacheable=f!=1 && nameLength+valueLength<=MAX_CACHED_FIELD_LENGTH;
+                int slot=0;
+                if (field==null && cacheable)
                 {
-                    // just make a normal field and bypass header name lookup
-                    field = new HttpField(null,name,value);
+                    slot=hash(nameLength+valueLength)&(FIELD_CACHE_SIZE-1);
+                    HttpField cached=_fieldCache[slot];
+                    if (cached!=null && matches(cached.getName(),0,nameLength) && matches(cached.getValue(),nameLength,valueLength))
+                        field=cached;
                 }
-                else
+
+                if (field==null)
                 {
-                    // might be worthwhile to create a value HttpField if it is indexed
-                    // and/or of a type that may be looked up multiple times.
-                    switch(header)
+                    if (name==null)
                     {
-                        case C_STATUS:
-                            if (indexed)
-                                field = new HttpField.IntValueHttpField(header,name,value);
-                            else
-                                field = new HttpField(header,name,value);
-                            break;
-
-                        case C_AUTHORITY:
-                            field = new AuthorityHttpField(value);
-                            break;
-
-                        case CONTENT_LENGTH:
-                            if ("0".equals(value))
-                                field = CONTENT_LENGTH_0;
-                            else
-                                field = new HttpField.LongValueHttpField(header,name,value);
-                            break;
-
-                        default:
-                            field = new HttpField(header,name,value);
-                            break;
+                        name=toString(0,nameLength);
+                        header=HttpHeader.CACHE.get(name);
                     }
+                    value=toString(nameLength,valueLength);
+                    field=newHttpField(header,name,value,indexed);
+                    if (cacheable)
+                        _fieldCache[slot]=field;
                 }
 
                 if (LOG.isDebugEnabled())
@@ -256,6 +259,101 @@ public class HpackDecoder
         return _builder.build();
     }
 
+    private HttpField newHttpField(HttpHeader header, String name, String value, boolean indexed)
+    {
+        if (header==null)
+        {
+            // just make a normal field and bypass header name lookup
+            return new HttpField(null,name,value);
+        }
+
+        // might be worthwhile to create a value HttpField if it is indexed
+        // and/or of a type that may be looked up multiple times.
+        switch(header)
+        {
+            case C_STATUS:
+                if (indexed)
+                    return new HttpField.IntValueHttpField(header,name,value);
+                return new HttpField(header,name,value);
+
+            case C_AUTHORITY:
+                return new AuthorityHttpField(value);
+
+            case CONTENT_LENGTH:
+                if ("0".equals(value))
+                    return CONTENT_LENGTH_0;
+                return new HttpField.LongValueHttpField(header,name,value);
+
+            default:
+                return new HttpField(header,name,value);
+        }
+    }
+
+    /**
+     * Decodes a literal string into the octets array, at the given offset.
+     * @return the length of the decoded string
+     */
+    private int decodeOctets(ByteBuffer buffer, int length, boolean huffman, int offset) throws HpackException.CompressionException
+    {
+        ensureOctets(offset+(huffman?Huffman.maxDecodedLength(length):length));
+        if (huffman)
+            return Huffman.decode(buffer,length,_octets,offset);
+
+        int position=buffer.position();
+        int start=buffer.arrayOffset()+position;
+        byte[] array=buffer.array();
+        for (int i=0;i<length;i++)
+            _octets[offset+i]=(byte)(0x7f&array[start+i]);
+        buffer.position(position+length);
+        return length;
+    }
+
+    /**
+     * Copies the given name into the octets array, at offset 0.
+     * @return the length of the name
+     */
+    private int toOctets(String name)
+    {
+        int length=name.length();
+        ensureOctets(length);
+        for (int i=0;i<length;i++)
+            _octets[i]=(byte)name.charAt(i);
+        return length;
+    }
+
+    private void ensureOctets(int length)
+    {
+        if (length>_octets.length)
+            _octets=Arrays.copyOf(_octets,Math.max(length,2*_octets.length));
+    }
+
+    private boolean matches(String string, int offset, int length)
+    {
+        if (string==null)
+            return length==0;
+        if (string.length()!=length)
+            return false;
+        for (int i=0;i<length;i++)
+        {
+            if (string.charAt(i)!=(_octets[offset+i]&0xFF))
+                return false;
+        }
+        return true;
+    }
+
+    private int hash(int length)
+    {
+        int hash=0;
+        for (int i=0;i<length;i++)
+            hash=31*hash+_octets[i];
+        return hash^(hash>>>16);
+    }
+
+    private String toString(int offset, int length)
+    {
+        return new String(_octets,offset,length,StandardCharsets.ISO_8859_1);
+    }
+
     public static String toASCIIString(ByteBuffer buffer,int length)
     {
         StringBuilder builder = new StringBuilder(length);
@@ -21,6 +21,8 @@ package org.eclipse.jetty.http2.hpack;
 
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -38,9 +40,23 @@ import org.eclipse.jetty.util.ArrayTrie;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.Trie;
 import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
+/**
+ * Hpack Encoder
+ * <p>This is not thread safe and may only be called by 1 thread at a time.</p>
+ * <p>By default, whether a field is added to the dynamic table is decided by
+ * static rules on its header and size. In {@link #setAdaptiveIndexing(boolean)
+ * adaptive indexing} mode, the encoder also tracks the recent values of each
+ * field name, so that the fields whose values keep changing (such as request
+ * ids) do not churn the dynamic table, while the fields whose values repeat
+ * are indexed.</p>
+ */
+@ManagedObject
 public class HpackEncoder
 {
     public static final Logger LOG = Log.getLogger(HpackEncoder.class);
@@ -88,12 +104,24 @@ public class HpackEncoder
         specialHopHeaders.put("te", true);
     }
 
+    private static final int MAX_TRACKED_NAMES = 64;
+    private static final int TRACKED_VALUES = 8;
+    private static final int MIN_COUNTED_VALUES = 4;
+    private static final int MAX_COUNTED_VALUES = 64;
+
     private final HpackContext _context;
     private final boolean _debug;
     private int _remoteMaxDynamicTableSize;
     private int _localMaxDynamicTableSize;
     private int _maxHeaderListSize;
     private int _headerListSize;
+    private final Map<String,Cardinality> _cardinalities = new HashMap<>();
+    private boolean _adaptiveIndexing;
+    private long _fields;
+    private long _staticHits;
+    private long _dynamicHits;
+    private long _unencodedBytes;
+    private long _encodedBytes;
 
     public HpackEncoder()
     {
@@ -129,6 +157,73 @@ public class HpackEncoder
         _maxHeaderListSize = maxHeaderListSize;
     }
 
+    @ManagedAttribute("Whether fields are indexed depending on the cardinality of their values")
+    public boolean isAdaptiveIndexing()
+    {
+        return _adaptiveIndexing;
+    }
+
+    public void setAdaptiveIndexing(boolean adaptiveIndexing)
+    {
+        _adaptiveIndexing = adaptiveIndexing;
+        if (!adaptiveIndexing)
+            _cardinalities.clear();
+    }
+
+    @ManagedAttribute(value="The number of fields encoded",readonly=true)
+    public long getEncodedFields()
+    {
+        return _fields;
+    }
+
+    @ManagedAttribute(value="The number of fields encoded as a static table index",readonly=true)
+    public long getStaticTableHits()
+    {
+        return _staticHits;
+    }
+
+    @ManagedAttribute(value="The number of fields encoded as a dynamic table index",readonly=true)
+    public long getDynamicTableHits()
+    {
+        return _dynamicHits;
+    }
+
+    @ManagedAttribute(value="The ratio of fields encoded as a dynamic table index",readonly=true)
+    public double getDynamicTableHitRatio()
+    {
+        long fields=_fields;
+        return fields==0?0:(double)_dynamicHits/fields;
+    }
+
+    @ManagedAttribute(value="The number of octets of the names and values of the fields encoded",readonly=true)
+    public long getUnencodedBytes()
+    {
+        return _unencodedBytes;
+    }
+
+    @ManagedAttribute(value="The number of octets the fields were encoded to",readonly=true)
+    public long getEncodedBytes()
+    {
+        return _encodedBytes;
+    }
+
+    @ManagedAttribute(value="The ratio of encoded octets to unencoded octets",readonly=true)
+    public double getCompressionRatio()
+    {
+        long unencoded=_unencodedBytes;
+        return unencoded==0?0:(double)_encodedBytes/unencoded;
+    }
+
+    @ManagedOperation(value="Resets the statistics",impact="ACTION")
+    public void resetStatistics()
+    {
+        _fields=0;
+        _staticHits=0;
+        _dynamicHits=0;
+        _unencodedBytes=0;
+        _encodedBytes=0;
+    }
+
     public HpackContext getHpackContext()
     {
         return _context;
@@ -232,8 +327,10 @@ public class HpackEncoder
         
         int field_size = field.getName().length() + field.getValue().length();
         _headerListSize+=field_size+32;
-        
-        final int p=_debug?buffer.position():-1;
+        _fields++;
+        _unencodedBytes+=field_size;
+
+        final int p=buffer.position();
 
         String encoding=null;
 
@@ -244,12 +341,14 @@ public class HpackEncoder
             // Known field entry, so encode it as indexed
             if (entry.isStatic())
             {
+                _staticHits++;
                 buffer.put(((StaticEntry)entry).getEncodedField());
                 if (_debug)
                     encoding="IdxFieldS1";
             }
             else
             {
+                _dynamicHits++;
                 int index=_context.index(entry);
                 buffer.put((byte)0x80);
                 NBitInteger.encode(buffer,7,index);
@@ -281,7 +380,7 @@ public class HpackEncoder
                         encoding=indexed?"PreEncodedIdx":"PreEncoded";
                 }
                 // has the custom header name been seen before?
-                else if (name==null)
+                else if (name==null && isIndexable(field,true))
                 {
                     // unknown name and value, so let's index this just in case it is
                     // the first time we have seen a custom name or a custom field.
@@ -292,6 +391,15 @@ public class HpackEncoder
                     if (_debug)
                         encoding="LitHuffNHuffVIdx";
                 }
+                else if (name!=null && isIndexable(field,false))
+                {
+                    // known custom name and unknown value, but the value is repeating.
+                    indexed=true;
+                    encodeName(buffer,(byte)0x40,6,field.getName(),name);
+                    encodeValue(buffer,true,field.getValue());
+                    if (_debug)
+                        encoding="LitIdxNHuffVIdx";
+                }
                 else
                 {
                     // known custom name, but unknown value.
@@ -342,6 +450,17 @@ public class HpackEncoder
                     if (_debug)
                         encoding="LitIdxNS"+(1+NBitInteger.octectsNeeded(4,_context.index(name)))+"HuffV!Idx";
                 }
+                else if (!isIndexable(field,true))
+                {
+                    // Non indexed because the values of the field keep changing
+                    indexed=false;
+                    boolean huffman=!__DO_NOT_HUFFMAN.contains(header);
+                    encodeName(buffer,(byte)0x00,4,header.asString(),name);
+                    encodeValue(buffer,huffman,field.getValue());
+                    if (_debug)
+                        encoding=((name==null)?"LitHuffN":("LitIdxN"+(name.isStatic()?"S":"")+(1+NBitInteger.octectsNeeded(4,_context.index(name)))))+
+                                (huffman?"HuffV!Idx":"LitV!Idx");
+                }
                 else
                 {
                     // indexed
@@ -360,14 +479,45 @@ public class HpackEncoder
                 _context.add(field);
         }
 
+        int e=buffer.position();
+        _encodedBytes+=e-p;
         if (_debug)
         {
-            int e=buffer.position();
             if (LOG.isDebugEnabled())
                 LOG.debug("encode {}:'{}' to '{}'",encoding,field,TypeUtil.toHexString(buffer.array(),buffer.arrayOffset()+p,e-p));
         }
     }
 
+    /**
+     * @param field a field that is not in the tables
+     * @param index whether the static rules would index the field
+     * @return whether the field should be indexed
+     */
+    private boolean isIndexable(HttpField field, boolean index)
+    {
+        if (!_adaptiveIndexing)
+            return index;
+
+        HttpHeader header=field.getHeader();
+        String name=header==null?StringUtil.asciiToLowerCase(field.getName()):header.asString();
+        Cardinality cardinality=_cardinalities.get(name);
+        if (cardinality==null)
+        {
+            if (_cardinalities.size()>=MAX_TRACKED_NAMES)
+                return index;
+            cardinality=new Cardinality();
+            _cardinalities.put(name,cardinality);
+        }
+
+        // A value seen recently is likely to repeat again.
+        if (cardinality.onValue(field.getValue()))
+            return true;
+        // A field whose values keep changing would only churn the dynamic table.
+        if (cardinality.isHighCardinality())
+            return false;
+        return index;
+    }
+
     private void encodeName(ByteBuffer buffer, byte mask, int bits, String name, Entry entry)
     {
         buffer.put(mask);
@@ -408,4 +558,50 @@ public class HpackEncoder
             }
         }
     }
+
+    /**
+     * <p>Tracks the recent values of a field name.</p>
+     */
+    private static class Cardinality
+    {
+        private final int[] _hashes=new int[TRACKED_VALUES];
+        private int _size;
+        private int _next;
+        private int _values;
+        private int _distinct;
+
+        /**
+         * @param value the value of the field
+         * @return whether the value is one of the recent values
+         */
+        private boolean onValue(String value)
+        {
+            // Decay the counts, so that the cardinality adapts to changes.
+            if (_values==MAX_COUNTED_VALUES)
+            {
+                _values/=2;
+                _distinct/=2;
+            }
+            _values++;
+
+            int hash=value.hashCode();
+            for (int i=0;i<_size;i++)
+            {
+                if (_hashes[i]==hash)
+                    return true;
+            }
+
+            _distinct++;
+            _hashes[_next]=hash;
+            _next=(_next+1)%TRACKED_VALUES;
+            if (_size<TRACKED_VALUES)
+                _size++;
+            return false;
+        }
+
+        private boolean isHighCardinality()
+        {
+            return _values>=MIN_COUNTED_VALUES && 2*_distinct>_values;
+        }
+    }
 }
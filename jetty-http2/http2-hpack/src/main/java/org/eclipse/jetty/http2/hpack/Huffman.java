@@ -19,6 +19,7 @@
 package org.eclipse.jetty.http2.hpack;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class Huffman
 {
@@ -288,60 +289,82 @@ public class Huffman
 
     static final int[][] LCCODES = new int[CODES.length][];
     static final char EOS = 256;
-    
-    // Huffman decode tree stored in a flattened char array for good 
-    // locality of reference.
-    static final char[] tree;
-    static final char[] rowsym;
-    static final byte[] rowbits;
 
-    // Build the Huffman lookup tree and LC TABLE
-    static 
+    // The decoder is a finite state machine that consumes 4 bits at a time.
+    // The states are the internal nodes of the Huffman tree, with the root as
+    // state 0. Since the shortest code is 5 bits long, a transition emits at
+    // most one symbol. A transition is encoded as the next state in the low
+    // 16 bits, the emitted symbol in the next 8 bits, and the flags below.
+    private static final int FSM_EMIT = 1<<30;
+    private static final int FSM_FAIL = 1<<31;
+    static final int[] FSM;
+
+    // How a string may end in each state: the padding must be a prefix of EOS
+    // that is strictly shorter than 8 bits.
+    private static final byte PADDING_VALID = 0;
+    private static final byte PADDING_INCORRECT = 1;
+    private static final byte PADDING_TOO_LONG = 2;
+    static final byte[] PADDING;
+
+    // Build the decoder state machine and LC TABLE
+    static
     {
         System.arraycopy(CODES,0,LCCODES,0,CODES.length);
         for (int i='A';i<='Z';i++)
             LCCODES[i]=LCCODES['a'+i-'A'];
-        
-        int r=0;
-        for (int i=0;i<CODES.length;i++)
-            r+=(CODES[i][1]+7)/8;
-        tree=new char[r*256];
-        rowsym=new char[r];
-        rowbits=new byte[r];
 
-        r=0;
-        for (int sym = 0; sym < CODES.length; sym++) 
+        // Build the Huffman tree: internal nodes have non negative ids,
+        // leaves are encoded as -1-symbol.
+        int nodes=CODES.length-1;
+        int[][] children=new int[nodes][2];
+        int[] depth=new int[nodes];
+        boolean[] ones=new boolean[nodes];
+        ones[0]=true;
+        int next=1;
+        for (int sym=0;sym<CODES.length;sym++)
         {
-            int code = CODES[sym][0];
-            int len = CODES[sym][1];
-
-            int current = 0;
-
-            while (len > 8) 
+            int code=CODES[sym][0];
+            int len=CODES[sym][1];
+            int node=0;
+            for (int i=len-1;i>0;i--)
             {
-                len -= 8;
-                int i = ((code >>> len) & 0xFF);
-
-                int t=current*256+i;
-                current = tree[t];
-                if (current == 0)
+                int bit=(code>>>i)&1;
+                if (children[node][bit]==0)
                 {
-                    tree[t] = (char)++r;
-                    current=r;
+                    int child=next++;
+                    depth[child]=depth[node]+1;
+                    ones[child]=ones[node]&&bit==1;
+                    children[node][bit]=child;
                 }
+                node=children[node][bit];
             }
+            children[node][code&1]=-1-sym;
+        }
 
-            int terminal = ++r;
-            rowsym[r]=(char)sym;
-            int b = len & 0x07;
-            int terminalBits = b == 0?8:b;
-
-            rowbits[r]=(byte)terminalBits;
-            int shift = 8 - len;
-            int start = current*256 + ((code << shift) & 0xFF);
-            int end = start + (1<<shift);
-            for (int i = start; i < end; i++)
-                tree[i]=(char)terminal;
+        FSM=new int[nodes*16];
+        PADDING=new byte[nodes];
+        for (int state=0;state<nodes;state++)
+        {
+            PADDING[state]=depth[state]>=8?PADDING_TOO_LONG:ones[state]?PADDING_VALID:PADDING_INCORRECT;
+            for (int nibble=0;nibble<16;nibble++)
+            {
+                int node=state;
+                int transition=0;
+                for (int i=3;i>=0;i--)
+                {
+                    node=children[node][(nibble>>>i)&1];
+                    if (node<0)
+                    {
+                        int sym=-1-node;
+                        if (sym==EOS)
+                            transition|=FSM_FAIL;
+                        else
+                            transition|=FSM_EMIT|(sym<<16);
+                        node=0;
+                    }
+                }
+                FSM[state*16+nibble]=transition|node;
+            }
         }
     }
 
@@ -351,11 +374,36 @@ public class Huffman
     }
 
     public static String decode(ByteBuffer buffer,int length) throws HpackException.CompressionException
-    {        
-        StringBuilder out = new StringBuilder(length*2);
-        int node = 0;
-        int current = 0;
-        int bits = 0;
+    {
+        byte[] out = new byte[maxDecodedLength(length)];
+        int decoded = decode(buffer,length,out,0);
+        return new String(out,0,decoded,StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @param length the length of an encoded string
+     * @return the max number of octets the encoded string decodes to
+     */
+    public static int maxDecodedLength(int length)
+    {
+        // The shortest code is 5 bits long.
+        return length*8/5;
+    }
+
+    /**
+     * <p>Decodes a Huffman encoded string into the given array, without allocations.</p>
+     *
+     * @param buffer the buffer containing the encoded string
+     * @param length the length of the encoded string
+     * @param out the array to decode into, with at least {@link #maxDecodedLength(int)} octets from the offset
+     * @param offset the offset in the array to decode into
+     * @return the number of decoded octets
+     * @throws HpackException.CompressionException if the encoded string is invalid
+     */
+    public static int decode(ByteBuffer buffer,int length,byte[] out,int offset) throws HpackException.CompressionException
+    {
+        int index = offset;
+        int state = 0;
 
         byte[] array = buffer.array();
         int position=buffer.position();
@@ -363,62 +411,34 @@ public class Huffman
         int end=start+length;
         buffer.position(position+length);
 
-
         for (int i=start; i<end; i++)
         {
             int b = array[i]&0xFF;
-            current = (current << 8) | b;
-            bits += 8;
-            while (bits >= 8) 
-            {
-                int c = (current >>> (bits - 8)) & 0xFF;
-                node = tree[node*256+c];
-                if (rowbits[node]!=0) 
-                {
-                    if(rowsym[node] == EOS)
-                        throw new HpackException.CompressionException("EOS in content");
-
-                    // terminal node
-                    out.append(rowsym[node]);
-                    bits -= rowbits[node];
-                    node = 0;
-                } 
-                else 
-                {
-                    // non-terminal node
-                    bits -= 8;
-                }
-            }
-        }
 
-        while (bits > 0) 
-        {
-            int c = (current << (8 - bits)) & 0xFF;
-            int lastNode = node;
-            node = tree[node*256+c];
+            int transition = FSM[(state<<4)|(b>>>4)];
+            if ((transition&FSM_FAIL)!=0)
+                throw new HpackException.CompressionException("EOS in content");
+            if ((transition&FSM_EMIT)!=0)
+                out[index++]=(byte)(transition>>>16);
 
-            if (rowbits[node]==0 || rowbits[node] > bits)
-            {
-                int requiredPadding = 0;
-                for(int i=0; i<bits; i++)
-                    requiredPadding = (requiredPadding << 1) | 1;
+            transition = FSM[((transition&0xFFFF)<<4)|(b&0x0F)];
+            if ((transition&FSM_FAIL)!=0)
+                throw new HpackException.CompressionException("EOS in content");
+            if ((transition&FSM_EMIT)!=0)
+                out[index++]=(byte)(transition>>>16);
 
-                if((c>>(8-bits)) != requiredPadding)
-                    throw new HpackException.CompressionException("Incorrect padding");
-
-                node = lastNode;
-                break;
-            }
-
-            out.append(rowsym[node]);
-            bits -= rowbits[node];
-            node = 0;
+            state = transition&0xFFFF;
         }
 
-        if(node != 0)
-            throw new HpackException.CompressionException("Bad termination");
-
-        return out.toString();
+        switch (PADDING[state])
+        {
+            case PADDING_VALID:
+                return index-offset;
+            case PADDING_INCORRECT:
+                throw new HpackException.CompressionException("Incorrect padding");
+            default:
+                throw new HpackException.CompressionException("Bad termination");
+        }
     }
 
     public static int octetsNeeded(String s)
@@ -477,13 +497,24 @@ public class Huffman
             current |= code;
             n += bits;
 
-            while (n >= 8) 
+            // Codes are at most 30 bits long, so at most 61 bits are
+            // accumulated before 32 of them are written at once.
+            if (n >= 32)
             {
-                n -= 8;
+                n -= 32;
+                array[p++]=(byte)(current >> (n+24));
+                array[p++]=(byte)(current >> (n+16));
+                array[p++]=(byte)(current >> (n+8));
                 array[p++]=(byte)(current >> n);
             }
         }
 
+        while (n >= 8)
+        {
+            n -= 8;
+            array[p++]=(byte)(current >> n);
+        }
+
         if (n > 0) 
         {
           current <<= (8 - n);
@@ -20,9 +20,11 @@
 package org.eclipse.jetty.http2.hpack;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 
 import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpScheme;
 import org.eclipse.jetty.http.MetaData;
@@ -582,4 +584,55 @@ public class HpackDecoderTest
             Assert.assertThat(ex.getMessage(), Matchers.containsString("Bad termination"));
         }
     }
+
+    @Test
+    public void testRepeatedLiteralFieldsAreReused() throws Exception
+    {
+        HpackDecoder decoder = new HpackDecoder(4096, 8192);
+
+        // Literal without indexing, new name "x-custom: value"; literal without indexing,
+        // indexed name "user-agent: jetty"; literal never indexed, new name "x-secret: value".
+        String encoded = "82868441" + "83" + "49509F" +
+                "00" + "08" + TypeUtil.toHexString("x-custom".getBytes(StandardCharsets.ISO_8859_1)) + "05" + TypeUtil.toHexString("value".getBytes(StandardCharsets.ISO_8859_1)) +
+                "0F2B" + "05" + TypeUtil.toHexString("jetty".getBytes(StandardCharsets.ISO_8859_1)) +
+                "10" + "08" + TypeUtil.toHexString("x-secret".getBytes(StandardCharsets.ISO_8859_1)) + "05" + TypeUtil.toHexString("value".getBytes(StandardCharsets.ISO_8859_1));
+
+        MetaData.Request request1 = (MetaData.Request)decoder.decode(ByteBuffer.wrap(TypeUtil.fromHexString(encoded)));
+        MetaData.Request request2 = (MetaData.Request)decoder.decode(ByteBuffer.wrap(TypeUtil.fromHexString(encoded)));
+
+        assertEquals("test", request2.getURI().getHost());
+        HttpFields fields1 = request1.getFields();
+        HttpFields fields2 = request2.getFields();
+        assertEquals(3, fields2.size());
+        assertEquals(new HttpField("x-custom", "value"), fields2.getField(0));
+        assertEquals(new HttpField(HttpHeader.USER_AGENT, "jetty"), fields2.getField(1));
+        assertEquals(HttpHeader.USER_AGENT, fields2.getField(1).getHeader());
+        assertEquals(new HttpField("x-secret", "value"), fields2.getField(2));
+
+        // Repeated fields are not allocated again, unless they must never be indexed.
+        Assert.assertSame(fields1.getField(0), fields2.getField(0));
+        Assert.assertSame(fields1.getField(1), fields2.getField(1));
+        Assert.assertNotSame(fields1.getField(2), fields2.getField(2));
+    }
+
+    @Test
+    public void testRepeatedLiteralNameWithDifferentValues() throws Exception
+    {
+        HpackDecoder decoder = new HpackDecoder(4096, 8192);
+
+        for (int i = 0; i < 256; ++i)
+        {
+            String value = "value-" + i;
+            String encoded = "82868441" + "83" + "49509F" +
+                    "00" + "08" + TypeUtil.toHexString("x-custom".getBytes(StandardCharsets.ISO_8859_1)) +
+                    TypeUtil.toHexString(new byte[]{(byte)value.length()}) + TypeUtil.toHexString(value.getBytes(StandardCharsets.ISO_8859_1)) +
+                    "0F2B" + "86" + "A8EB10649CBF";
+
+            MetaData.Request request = (MetaData.Request)decoder.decode(ByteBuffer.wrap(TypeUtil.fromHexString(encoded)));
+
+            HttpFields fields = request.getFields();
+            assertEquals(value, fields.get("x-custom"));
+            assertEquals("no-cache", fields.get(HttpHeader.USER_AGENT));
+        }
+    }
 }
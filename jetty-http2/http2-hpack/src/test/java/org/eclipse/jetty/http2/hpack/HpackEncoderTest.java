@@ -273,4 +273,80 @@ public class HpackEncoderTest
         
 
     }
+
+    @Test
+    public void testAdaptiveIndexingDoesNotIndexChangingValues() throws Exception
+    {
+        HpackEncoder staticEncoder = new HpackEncoder(4096);
+        HpackEncoder adaptiveEncoder = new HpackEncoder(4096);
+        adaptiveEncoder.setAdaptiveIndexing(true);
+        HpackDecoder decoder = new HpackDecoder(4096,8192);
+
+        for (int i=0;i<20;i++)
+        {
+            HttpFields fields = new HttpFields();
+            fields.add("x-tenant","acme");
+            fields.add("x-request-id","request-"+i);
+            fields.add(HttpHeader.COOKIE,"session="+i);
+            encode(staticEncoder,fields);
+            Assert.assertEquals(fields,decoder.decode(encode(adaptiveEncoder,fields)).getFields());
+        }
+
+        Assert.assertEquals(20,count(staticEncoder.getHpackContext(),"cookie"));
+        assertThat(count(adaptiveEncoder.getHpackContext(),"cookie"),Matchers.lessThan(5));
+        Assert.assertEquals(1,count(adaptiveEncoder.getHpackContext(),"x-tenant"));
+        Assert.assertEquals(1,count(adaptiveEncoder.getHpackContext(),"x-request-id"));
+        Assert.assertEquals(60,adaptiveEncoder.getEncodedFields());
+        Assert.assertEquals(19,adaptiveEncoder.getDynamicTableHits());
+        assertThat(adaptiveEncoder.getCompressionRatio(),Matchers.lessThan(1.0));
+    }
+
+    @Test
+    public void testAdaptiveIndexingIndexesRepeatingValues() throws Exception
+    {
+        HpackEncoder staticEncoder = new HpackEncoder(4096);
+        HpackEncoder adaptiveEncoder = new HpackEncoder(4096);
+        adaptiveEncoder.setAdaptiveIndexing(true);
+        HpackDecoder decoder = new HpackDecoder(4096,8192);
+
+        for (int i=0;i<20;i++)
+        {
+            HttpFields fields = new HttpFields();
+            fields.add("x-variant",i%2==0?"blue":"green");
+            encode(staticEncoder,fields);
+            Assert.assertEquals(fields,decoder.decode(encode(adaptiveEncoder,fields)).getFields());
+        }
+
+        // Without adaptive indexing, only the first value is indexed.
+        Assert.assertEquals(1,count(staticEncoder.getHpackContext(),"x-variant"));
+        Assert.assertEquals(9,staticEncoder.getDynamicTableHits());
+        Assert.assertEquals(2,count(adaptiveEncoder.getHpackContext(),"x-variant"));
+        Assert.assertEquals(17,adaptiveEncoder.getDynamicTableHits());
+        assertThat(adaptiveEncoder.getDynamicTableHitRatio(),Matchers.greaterThan(staticEncoder.getDynamicTableHitRatio()));
+        assertThat(adaptiveEncoder.getEncodedBytes(),Matchers.lessThan(staticEncoder.getEncodedBytes()));
+
+        adaptiveEncoder.resetStatistics();
+        Assert.assertEquals(0,adaptiveEncoder.getEncodedFields());
+        Assert.assertEquals(0,adaptiveEncoder.getDynamicTableHitRatio(),0);
+    }
+
+    private ByteBuffer encode(HpackEncoder encoder, HttpFields fields)
+    {
+        ByteBuffer buffer = BufferUtil.allocate(4096);
+        int pos = BufferUtil.flipToFill(buffer);
+        encoder.encode(buffer,new MetaData(HttpVersion.HTTP_2,fields));
+        BufferUtil.flipToFlush(buffer,pos);
+        return buffer;
+    }
+
+    private int count(HpackContext context, String name)
+    {
+        int count=0;
+        for (int i=1;i<=context.size();i++)
+        {
+            if (name.equalsIgnoreCase(context.get(HpackContext.STATIC_SIZE+i).getHttpField().getName()))
+                count++;
+        }
+        return count;
+    }
 }
@@ -18,8 +18,12 @@
 
 package org.eclipse.jetty.http2.hpack;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Locale;
+import java.util.Random;
 
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.TypeUtil;
@@ -93,5 +97,148 @@ public class HuffmanTest
         }
     }
 
+    @Test
+    public void testDecodeAllSymbols() throws Exception
+    {
+        byte[] symbols=new byte[256];
+        for (int i=0;i<symbols.length;i++)
+            symbols[i]=(byte)i;
+        byte[] encoded=encode(symbols);
+
+        byte[] decoded=new byte[Huffman.maxDecodedLength(encoded.length)];
+        int length=Huffman.decode(ByteBuffer.wrap(encoded),encoded.length,decoded,0);
+        Assert.assertArrayEquals(symbols,Arrays.copyOf(decoded,length));
+    }
+
+    @Test
+    public void testDecodeAgainstCodeTable() throws Exception
+    {
+        Random random=new Random();
+        for (int i=0;i<10000;i++)
+        {
+            // Mostly valid encodings, and some random garbage.
+            byte[] encoded;
+            if (i%4==0)
+            {
+                encoded=new byte[random.nextInt(16)];
+                random.nextBytes(encoded);
+            }
+            else
+            {
+                byte[] symbols=new byte[random.nextInt(64)];
+                random.nextBytes(symbols);
+                encoded=encode(symbols);
+            }
+
+            String expected;
+            try
+            {
+                expected=decodeBitByBit(encoded);
+            }
+            catch (HpackException.CompressionException x)
+            {
+                expected=x.getMessage();
+            }
 
+            String actual;
+            try
+            {
+                actual=Huffman.decode(ByteBuffer.wrap(encoded));
+            }
+            catch (HpackException.CompressionException x)
+            {
+                actual=x.getMessage();
+            }
+
+            Assert.assertEquals(TypeUtil.toHexString(encoded),expected,actual);
+        }
+    }
+
+    @Test
+    public void testEncodeAgainstCodeTable() throws Exception
+    {
+        Random random=new Random();
+        for (int i=0;i<10000;i++)
+        {
+            byte[] symbols=new byte[random.nextInt(64)];
+            for (int j=0;j<symbols.length;j++)
+                symbols[j]=(byte)(' '+random.nextInt(128-' '));
+            String value=new String(symbols,StandardCharsets.ISO_8859_1);
+
+            byte[] expected=encode(symbols);
+            ByteBuffer buf = BufferUtil.allocate(1024);
+            int pos=BufferUtil.flipToFill(buf);
+            Huffman.encode(buf,value);
+            BufferUtil.flipToFlush(buf,pos);
+
+            Assert.assertEquals(value,TypeUtil.toHexString(expected),TypeUtil.toHexString(BufferUtil.toArray(buf)));
+            Assert.assertEquals(value,expected.length,Huffman.octetsNeeded(value));
+        }
+    }
+
+    /**
+     * Encodes one bit at a time, directly from the code table.
+     */
+    private static byte[] encode(byte[] symbols)
+    {
+        ByteArrayOutputStream out=new ByteArrayOutputStream();
+        int current=0;
+        int bits=0;
+        for (byte symbol : symbols)
+        {
+            int[] code=Huffman.CODES[symbol&0xFF];
+            for (int i=code[1]-1;i>=0;i--)
+            {
+                current=(current<<1)|((code[0]>>>i)&1);
+                if (++bits==8)
+                {
+                    out.write(current);
+                    current=0;
+                    bits=0;
+                }
+            }
+        }
+        if (bits>0)
+            out.write((current<<(8-bits))|(0xFF>>>bits));
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes one bit at a time, matching the bits read against the code table.
+     */
+    private static String decodeBitByBit(byte[] encoded) throws HpackException.CompressionException
+    {
+        StringBuilder builder=new StringBuilder();
+        int code=0;
+        int bits=0;
+        boolean ones=true;
+        for (byte b : encoded)
+        {
+            for (int i=7;i>=0;i--)
+            {
+                int bit=(b>>>i)&1;
+                code=(code<<1)|bit;
+                ones&=bit==1;
+                bits++;
+                for (int sym=0;sym<Huffman.CODES.length;sym++)
+                {
+                    if (Huffman.CODES[sym][1]==bits && Huffman.CODES[sym][0]==code)
+                    {
+                        if (sym==Huffman.EOS)
+                            throw new HpackException.CompressionException("EOS in content");
+                        builder.append((char)sym);
+                        code=0;
+                        bits=0;
+                        ones=true;
+                        break;
+                    }
+                }
+            }
+        }
+        if (bits>=8)
+            throw new HpackException.CompressionException("Bad termination");
+        if (!ones)
+            throw new HpackException.CompressionException("Incorrect padding");
+        return builder.toString();
+    }
 }
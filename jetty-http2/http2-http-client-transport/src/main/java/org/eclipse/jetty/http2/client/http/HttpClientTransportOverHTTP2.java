@@ -21,7 +21,12 @@ package org.eclipse.jetty.http2.client.http;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicMarkableReference;
 
@@ -42,17 +47,25 @@ import org.eclipse.jetty.http2.frames.GoAwayFrame;
 import org.eclipse.jetty.http2.frames.SettingsFrame;
 import org.eclipse.jetty.io.ClientConnectionFactory;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
 import org.eclipse.jetty.util.Promise;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.ssl.X509;
 
 @ManagedObject("The HTTP/2 client transport")
 public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
 {
+    private static final Logger LOG = Log.getLogger(HttpClientTransportOverHTTP2.class);
+
+    private final Map<InetSocketAddress, Queue<HttpConnectionOverHTTP2>> coalescableConnections = new ConcurrentHashMap<>();
     private final HTTP2Client client;
     private ClientConnectionFactory connectionFactory;
     private boolean useALPN = true;
+    private boolean connectionCoalescing;
 
     public HttpClientTransportOverHTTP2(HTTP2Client client)
     {
@@ -86,6 +99,27 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
         this.useALPN = useALPN;
     }
 
+    @ManagedAttribute(value = "Whether connections are reused for origins with the same address and certificate")
+    public boolean isConnectionCoalescing()
+    {
+        return connectionCoalescing;
+    }
+
+    /**
+     * <p>Sets whether a connection to an {@code https} origin is reused for requests to
+     * other {@code https} origins, as specified by RFC 7540 section 9.1.1, when the other
+     * origin resolves to the same address and the server certificate of the connection
+     * is valid for the other origin's host.</p>
+     * <p>Coalescing reduces the number of connections opened to servers that are known by
+     * several host names, but requires that the server is authoritative for all of them.</p>
+     *
+     * @param connectionCoalescing whether connections are reused for other origins
+     */
+    public void setConnectionCoalescing(boolean connectionCoalescing)
+    {
+        this.connectionCoalescing = connectionCoalescing;
+    }
+
     @Override
     protected void doStart() throws Exception
     {
@@ -113,6 +147,7 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
     @Override
     protected void doStop() throws Exception
     {
+        coalescableConnections.clear();
         super.doStop();
         removeBean(client);
     }
@@ -131,9 +166,21 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
         client.setConnectBlocking(httpClient.isConnectBlocking());
         client.setBindAddress(httpClient.getBindAddress());
 
-        SessionListenerPromise listenerPromise = new SessionListenerPromise(context);
-
         HttpDestinationOverHTTP2 destination = (HttpDestinationOverHTTP2)context.get(HTTP_DESTINATION_CONTEXT_KEY);
+        if (isCoalescable(destination))
+        {
+            HttpConnectionOverHTTP2 connection = coalesce(address, destination);
+            if (connection != null)
+            {
+                @SuppressWarnings("unchecked")
+                Promise<Connection> promise = (Promise<Connection>)context.get(HTTP_CONNECTION_PROMISE_CONTEXT_KEY);
+                promise.succeeded(connection);
+                return;
+            }
+        }
+
+        SessionListenerPromise listenerPromise = new SessionListenerPromise(address, context);
+
         SslContextFactory sslContextFactory = null;
         if (HttpScheme.HTTPS.is(destination.getScheme()))
             sslContextFactory = httpClient.getSslContextFactory();
@@ -165,6 +212,86 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
         return new HttpConnectionOverHTTP2(destination, session);
     }
 
+    protected HttpConnectionOverHTTP2 newHttpConnection(HttpDestination destination, HttpConnectionOverHTTP2 connection)
+    {
+        return new HttpConnectionOverHTTP2(destination, connection);
+    }
+
+    private boolean isCoalescable(HttpDestination destination)
+    {
+        return isConnectionCoalescing() && destination.getProxy() == null && HttpScheme.HTTPS.is(destination.getScheme());
+    }
+
+    /**
+     * @param address the address the destination resolved to
+     * @param destination the destination that needs a new connection
+     * @return a new connection to the destination sharing an existing session, or null
+     */
+    private HttpConnectionOverHTTP2 coalesce(InetSocketAddress address, HttpDestination destination)
+    {
+        Queue<HttpConnectionOverHTTP2> connections = coalescableConnections.get(address);
+        if (connections == null)
+            return null;
+        for (HttpConnectionOverHTTP2 connection : connections)
+        {
+            if (connection.getSession().isClosed())
+            {
+                deregister(address, connection);
+                continue;
+            }
+            if (!isCoalescable(connection, destination))
+                continue;
+            HttpConnectionOverHTTP2 result = newHttpConnection(destination, connection);
+            if (LOG.isDebugEnabled())
+                LOG.debug("Coalesced {} with {}", result, connection);
+            return result;
+        }
+        return null;
+    }
+
+    private void deregister(InetSocketAddress address, HttpConnectionOverHTTP2 connection)
+    {
+        coalescableConnections.computeIfPresent(address, (key, connections) ->
+        {
+            connections.remove(connection);
+            return connections.isEmpty() ? null : connections;
+        });
+    }
+
+    private boolean isCoalescable(HttpConnectionOverHTTP2 connection, HttpDestination destination)
+    {
+        // The destination needs more connections than
+        // the ones already sharing the session.
+        for (HttpConnectionOverHTTP2 sessionConnection : connection.getSessionConnections())
+        {
+            if (sessionConnection.getHttpDestination() == destination)
+                return false;
+        }
+
+        HTTP2Session session = (HTTP2Session)connection.getSession();
+        int maxStreams = session.getMaxLocalStreams();
+        if (maxStreams >= 0 && session.getStreamCount() >= maxStreams)
+            return false;
+
+        EndPoint endPoint = session.getEndPoint();
+        if (!(endPoint instanceof SslConnection.DecryptedEndPoint))
+            return false;
+        try
+        {
+            SslConnection sslConnection = ((SslConnection.DecryptedEndPoint)endPoint).getSslConnection();
+            Certificate[] certificates = sslConnection.getSSLEngine().getSession().getPeerCertificates();
+            if (certificates.length == 0 || !(certificates[0] instanceof X509Certificate))
+                return false;
+            return new X509(null, (X509Certificate)certificates[0]).matches(destination.getHost());
+        }
+        catch (Throwable x)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Could not verify certificate of " + connection, x);
+            return false;
+        }
+    }
+
     protected void onClose(HttpConnectionOverHTTP2 connection, GoAwayFrame frame)
     {
         connection.close();
@@ -173,10 +300,12 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
     private class SessionListenerPromise extends Session.Listener.Adapter implements Promise<Session>
     {
         private final AtomicMarkableReference<HttpConnectionOverHTTP2> connection = new AtomicMarkableReference<>(null, false);
+        private final InetSocketAddress address;
         private final Map<String, Object> context;
 
-        private SessionListenerPromise(Map<String, Object> context)
+        private SessionListenerPromise(InetSocketAddress address, Map<String, Object> context)
         {
+            this.address = address;
             this.context = context;
         }
 
@@ -210,16 +339,33 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
         {
             Map<Integer, Integer> settings = frame.getSettings();
             if (settings.containsKey(SettingsFrame.MAX_CONCURRENT_STREAMS))
-                destination().setMaxRequestsPerConnection(settings.get(SettingsFrame.MAX_CONCURRENT_STREAMS));
+            {
+                int maxConcurrentStreams = settings.get(SettingsFrame.MAX_CONCURRENT_STREAMS);
+                HttpConnectionOverHTTP2 connection = this.connection.getReference();
+                if (connection == null)
+                {
+                    destination().setMaxRequestsPerConnection(maxConcurrentStreams);
+                }
+                else
+                {
+                    for (HttpConnectionOverHTTP2 sessionConnection : connection.getSessionConnections())
+                        ((HttpDestinationOverHTTP2)sessionConnection.getHttpDestination()).setMaxRequestsPerConnection(maxConcurrentStreams);
+                }
+            }
             if (!connection.isMarked())
                 onServerPreface(session);
         }
 
         private void onServerPreface(Session session)
         {
-            HttpConnectionOverHTTP2 connection = newHttpConnection(destination(), session);
+            HttpDestinationOverHTTP2 destination = destination();
+            HttpConnectionOverHTTP2 connection = newHttpConnection(destination, session);
             if (this.connection.compareAndSet(null, connection, false, true))
+            {
+                if (isCoalescable(destination))
+                    coalescableConnections.computeIfAbsent(address, key -> new ConcurrentLinkedQueue<>()).offer(connection);
                 connectionPromise().succeeded(connection);
+            }
         }
 
         @Override
@@ -227,9 +373,12 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
         {
             if (failConnectionPromise(new ClosedChannelException()))
                 return;
-            HttpConnectionOverHTTP2 connection = this.connection.getReference();
+            HttpConnectionOverHTTP2 connection = removeConnection();
             if (connection != null)
-                HttpClientTransportOverHTTP2.this.onClose(connection, frame);
+            {
+                for (HttpConnectionOverHTTP2 sessionConnection : connection.getSessionConnections())
+                    HttpClientTransportOverHTTP2.this.onClose(sessionConnection, frame);
+            }
         }
 
         @Override
@@ -240,7 +389,14 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
                 return true;
             HttpConnectionOverHTTP2 connection = this.connection.getReference();
             if (connection != null)
-                return connection.onIdleTimeout(idleTimeout);
+            {
+                // Each idle connection closes itself; the session
+                // is closed only if all the connections were idle.
+                boolean result = true;
+                for (HttpConnectionOverHTTP2 sessionConnection : connection.getSessionConnections())
+                    result &= sessionConnection.onIdleTimeout(idleTimeout);
+                return result;
+            }
             return true;
         }
 
@@ -249,9 +405,20 @@ public class HttpClientTransportOverHTTP2 extends AbstractHttpClientTransport
         {
             if (failConnectionPromise(failure))
                 return;
+            HttpConnectionOverHTTP2 connection = removeConnection();
+            if (connection != null)
+            {
+                for (HttpConnectionOverHTTP2 sessionConnection : connection.getSessionConnections())
+                    sessionConnection.close(failure);
+            }
+        }
+
+        private HttpConnectionOverHTTP2 removeConnection()
+        {
             HttpConnectionOverHTTP2 connection = this.connection.getReference();
             if (connection != null)
-                connection.close(failure);
+                deregister(address, connection);
+            return connection;
         }
 
         private boolean failConnectionPromise(Throwable failure)
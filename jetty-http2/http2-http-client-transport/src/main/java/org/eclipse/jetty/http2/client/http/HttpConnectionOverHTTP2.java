@@ -19,6 +19,7 @@
 package org.eclipse.jetty.http2.client.http;
 
 import java.nio.channels.AsynchronousCloseException;
+import java.util.Collections;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -35,6 +36,7 @@ import org.eclipse.jetty.client.HttpRequest;
 import org.eclipse.jetty.client.SendFailure;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.HTTP2Session;
 import org.eclipse.jetty.http2.api.Session;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.thread.Sweeper;
@@ -44,13 +46,35 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
     private final Set<HttpChannel> activeChannels = ConcurrentHashMap.newKeySet();
     private final Queue<HttpChannelOverHTTP2> idleChannels = new ConcurrentLinkedQueue<>();
     private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean exhausted = new AtomicBoolean();
     private final AtomicInteger sweeps = new AtomicInteger();
     private final Session session;
+    private final Set<HttpConnectionOverHTTP2> sessionConnections;
 
     public HttpConnectionOverHTTP2(HttpDestination destination, Session session)
+    {
+        this(destination, session, ConcurrentHashMap.newKeySet());
+    }
+
+    /**
+     * <p>Creates a connection to the given destination that shares the session
+     * of the given connection, which is connected to another origin.</p>
+     *
+     * @param destination the destination of this connection
+     * @param connection the connection whose session is shared
+     * @see HttpClientTransportOverHTTP2#setConnectionCoalescing(boolean)
+     */
+    public HttpConnectionOverHTTP2(HttpDestination destination, HttpConnectionOverHTTP2 connection)
+    {
+        this(destination, connection.getSession(), connection.sessionConnections);
+    }
+
+    private HttpConnectionOverHTTP2(HttpDestination destination, Session session, Set<HttpConnectionOverHTTP2> sessionConnections)
     {
         super(destination);
         this.session = session;
+        this.sessionConnections = sessionConnections;
+        sessionConnections.add(this);
     }
 
     public Session getSession()
@@ -58,9 +82,31 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
         return session;
     }
 
+    /**
+     * @return the connections, possibly to different origins, that share the session of this connection
+     */
+    public Set<HttpConnectionOverHTTP2> getSessionConnections()
+    {
+        return Collections.unmodifiableSet(sessionConnections);
+    }
+
     @Override
     protected SendFailure send(HttpExchange exchange)
     {
+        if (isSessionExhausted())
+        {
+            // The session is shared with other origins and has no more
+            // streams available, so this connection cannot be used anymore
+            // by its destination, which will retry on another connection.
+            getHttpDestination().remove(this);
+            // Close it once its in-flight exchanges are completed, so
+            // that it is also removed from the connections of the session.
+            exhausted.set(true);
+            if (activeChannels.isEmpty())
+                close();
+            return new SendFailure(new IllegalStateException("Max local stream count exceeded for " + this), true);
+        }
+
         HttpRequest request = exchange.getRequest();
         request.version(HttpVersion.HTTP_2);
         normalizeRequest(request);
@@ -72,6 +118,15 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
         return send(channel, exchange);
     }
 
+    private boolean isSessionExhausted()
+    {
+        if (sessionConnections.size() < 2 || !(session instanceof HTTP2Session))
+            return false;
+        HTTP2Session http2Session = (HTTP2Session)session;
+        int maxStreams = http2Session.getMaxLocalStreams();
+        return maxStreams >= 0 && http2Session.getStreamCount() >= maxStreams;
+    }
+
     protected HttpChannelOverHTTP2 acquireHttpChannel()
     {
         HttpChannelOverHTTP2 channel = idleChannels.poll();
@@ -96,7 +151,10 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
                 channel.destroy();
             else
                 idleChannels.offer(channel);
-            getHttpDestination().release(this);
+            if (exhausted.get() && activeChannels.isEmpty())
+                close();
+            else
+                getHttpDestination().release(this);
         }
         else
         {
@@ -104,13 +162,19 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
         }
     }
 
+    /**
+     * <p>Closes this connection if it has been idle for the given idle timeout.</p>
+     *
+     * @param idleTimeout the idle timeout in milliseconds
+     * @return whether this connection was idle and has been closed
+     */
     @Override
     public boolean onIdleTimeout(long idleTimeout)
     {
         boolean close = super.onIdleTimeout(idleTimeout);
         if (close)
             close(new TimeoutException("idle_timeout"));
-        return false;
+        return close;
     }
 
     @Override
@@ -127,7 +191,10 @@ public class HttpConnectionOverHTTP2 extends HttpConnection implements Sweeper.S
 
             abort(failure);
 
-            session.close(ErrorCode.NO_ERROR.code, failure.getMessage(), Callback.NOOP);
+            // Close the session only when the other connections sharing it are closed.
+            sessionConnections.remove(this);
+            if (sessionConnections.isEmpty())
+                session.close(ErrorCode.NO_ERROR.code, failure.getMessage(), Callback.NOOP);
             
             HttpChannel channel = idleChannels.poll();
             while (channel!=null)
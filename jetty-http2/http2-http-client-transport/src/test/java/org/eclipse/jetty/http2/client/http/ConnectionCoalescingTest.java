@@ -0,0 +1,283 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.client.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpScheme;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http2.HTTP2Cipher;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.server.HTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.SecureRequestCustomizer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.SslConnectionFactory;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.toolchain.test.TestTracker;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.SocketAddressResolver;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ConnectionCoalescingTest
+{
+    @Rule
+    public TestTracker tracker = new TestTracker();
+    private Server server;
+    private ServerConnector connector;
+    private HttpClient client;
+    private final List<HttpConnectionOverHTTP2> connections = new CopyOnWriteArrayList<>();
+
+    private void start(int maxConcurrentStreams, boolean coalescing, Handler handler) throws Exception
+    {
+        QueuedThreadPool serverThreads = new QueuedThreadPool();
+        serverThreads.setName("server");
+        server = new Server(serverThreads);
+        HttpConfiguration httpsConfig = new HttpConfiguration();
+        httpsConfig.addCustomizer(new SecureRequestCustomizer());
+        HTTP2ServerConnectionFactory h2 = new HTTP2ServerConnectionFactory(httpsConfig);
+        h2.setMaxConcurrentStreams(maxConcurrentStreams);
+        SslContextFactory serverSslContextFactory = new SslContextFactory();
+        serverSslContextFactory.setKeyStorePath("src/test/resources/keystore_san.jks");
+        serverSslContextFactory.setKeyStorePassword("storepwd");
+        serverSslContextFactory.setUseCipherSuitesOrder(true);
+        serverSslContextFactory.setCipherComparator(HTTP2Cipher.COMPARATOR);
+        SslConnectionFactory ssl = new SslConnectionFactory(serverSslContextFactory, h2.getProtocol());
+        connector = new ServerConnector(server, 1, 1, ssl, h2);
+        server.addConnector(connector);
+        server.setHandler(handler);
+        server.start();
+
+        QueuedThreadPool clientThreads = new QueuedThreadPool();
+        clientThreads.setName("client");
+        HttpClientTransportOverHTTP2 transport = new HttpClientTransportOverHTTP2(new HTTP2Client())
+        {
+            @Override
+            protected HttpConnectionOverHTTP2 newHttpConnection(HttpDestination destination, Session session)
+            {
+                HttpConnectionOverHTTP2 connection = super.newHttpConnection(destination, session);
+                connections.add(connection);
+                return connection;
+            }
+
+            @Override
+            protected HttpConnectionOverHTTP2 newHttpConnection(HttpDestination destination, HttpConnectionOverHTTP2 connection)
+            {
+                HttpConnectionOverHTTP2 result = super.newHttpConnection(destination, connection);
+                connections.add(result);
+                return result;
+            }
+        };
+        transport.setUseALPN(false);
+        transport.setConnectionCoalescing(coalescing);
+        client = new HttpClient(transport, new SslContextFactory(true));
+        client.setExecutor(clientThreads);
+        // All host names resolve to the same address.
+        client.setSocketAddressResolver(new SocketAddressResolver()
+        {
+            @Override
+            public void resolve(String host, int port, Promise<List<InetSocketAddress>> promise)
+            {
+                promise.succeeded(Collections.singletonList(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+            }
+        });
+        client.start();
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        if (client != null)
+            client.stop();
+        if (server != null)
+            server.stop();
+    }
+
+    private ContentResponse send(String host) throws Exception
+    {
+        ContentResponse response = client.newRequest(host, connector.getLocalPort())
+                .scheme(HttpScheme.HTTPS.asString())
+                .timeout(5, TimeUnit.SECONDS)
+                .send();
+        Assert.assertEquals(HttpStatus.OK_200, response.getStatus());
+        return response;
+    }
+
+    @Test
+    public void testCoalescingWithSameAddressAndCertificate() throws Exception
+    {
+        start(128, true, new RemotePortHandler());
+
+        String port1 = send("www.example.com").getContentAsString();
+        String port2 = send("api.example.com").getContentAsString();
+
+        Assert.assertEquals(port1, port2);
+        Assert.assertEquals(2, client.getDestinations().size());
+    }
+
+    @Test
+    public void testNoCoalescingWhenCertificateDoesNotMatch() throws Exception
+    {
+        start(128, true, new RemotePortHandler());
+
+        String port1 = send("www.example.com").getContentAsString();
+        String port2 = send("www.example.org").getContentAsString();
+
+        Assert.assertNotEquals(port1, port2);
+    }
+
+    @Test
+    public void testNoCoalescingByDefault() throws Exception
+    {
+        start(128, false, new RemotePortHandler());
+
+        String port1 = send("www.example.com").getContentAsString();
+        String port2 = send("api.example.com").getContentAsString();
+
+        Assert.assertNotEquals(port1, port2);
+    }
+
+    @Test
+    public void testNoCoalescingWhenSessionHasNoStreamsAvailable() throws Exception
+    {
+        CountDownLatch requestLatch = new CountDownLatch(1);
+        CountDownLatch responseLatch = new CountDownLatch(1);
+        start(1, true, new WaitHandler(requestLatch, responseLatch));
+
+        String port1 = send("www.example.com").getContentAsString();
+
+        CountDownLatch latch = new CountDownLatch(1);
+        client.newRequest("www.example.com", connector.getLocalPort())
+                .scheme(HttpScheme.HTTPS.asString())
+                .path("/wait")
+                .send(result ->
+                {
+                    if (result.isSucceeded() && result.getResponse().getStatus() == HttpStatus.OK_200)
+                        latch.countDown();
+                });
+        Assert.assertTrue(requestLatch.await(5, TimeUnit.SECONDS));
+
+        // The only stream of the session is in use, so a new connection is opened.
+        String port2 = send("api.example.com").getContentAsString();
+        Assert.assertNotEquals(port1, port2);
+
+        responseLatch.countDown();
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExhaustedCoalescedConnectionIsClosed() throws Exception
+    {
+        CountDownLatch requestLatch = new CountDownLatch(1);
+        CountDownLatch responseLatch = new CountDownLatch(1);
+        start(1, true, new WaitHandler(requestLatch, responseLatch));
+
+        String port1 = send("www.example.com").getContentAsString();
+        String port2 = send("api.example.com").getContentAsString();
+        Assert.assertEquals(port1, port2);
+        Assert.assertEquals(2, connections.size());
+        HttpConnectionOverHTTP2 connection = connections.get(0);
+        HttpConnectionOverHTTP2 coalesced = connections.get(1);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        client.newRequest("www.example.com", connector.getLocalPort())
+                .scheme(HttpScheme.HTTPS.asString())
+                .path("/wait")
+                .send(result ->
+                {
+                    if (result.isSucceeded() && result.getResponse().getStatus() == HttpStatus.OK_200)
+                        latch.countDown();
+                });
+        Assert.assertTrue(requestLatch.await(5, TimeUnit.SECONDS));
+
+        // The coalesced connection has no streams available, so it is
+        // closed and the request is retried on a new connection.
+        String port3 = send("api.example.com").getContentAsString();
+        Assert.assertNotEquals(port1, port3);
+        Assert.assertTrue(coalesced.isClosed());
+        Assert.assertFalse(connection.isClosed());
+        Assert.assertEquals(Collections.singleton(connection), connection.getSessionConnections());
+
+        responseLatch.countDown();
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private static class WaitHandler extends RemotePortHandler
+    {
+        private final CountDownLatch requestLatch;
+        private final CountDownLatch responseLatch;
+
+        private WaitHandler(CountDownLatch requestLatch, CountDownLatch responseLatch)
+        {
+            this.requestLatch = requestLatch;
+            this.responseLatch = responseLatch;
+        }
+
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+        {
+            try
+            {
+                if ("/wait".equals(target))
+                {
+                    requestLatch.countDown();
+                    responseLatch.await(5, TimeUnit.SECONDS);
+                }
+                super.handle(target, baseRequest, request, response);
+            }
+            catch (InterruptedException x)
+            {
+                throw new ServletException(x);
+            }
+        }
+    }
+
+    private static class RemotePortHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+        {
+            baseRequest.setHandled(true);
+            response.getWriter().print(request.getRemotePort());
+        }
+    }
+}
@@ -29,6 +29,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.IntStream;
 
 import javax.servlet.http.HttpServletRequest;
@@ -41,6 +42,7 @@ import org.eclipse.jetty.client.HttpResponseException;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http2.api.Session;
 import org.eclipse.jetty.http2.api.Stream;
@@ -400,6 +402,83 @@ public class MaxConcurrentStreamsTest extends AbstractTest
         Assert.assertTrue(latch.await(2 * timeout, TimeUnit.MILLISECONDS));
     }
 
+    @Test
+    public void testRequestsAreBalancedAcrossConnections() throws Exception
+    {
+        int maxStreams = 2;
+        AtomicReference<CountDownLatch> requestLatch = new AtomicReference<>();
+        AtomicReference<CountDownLatch> responseLatch = new AtomicReference<>();
+        start(maxStreams, new EmptyServerHandler()
+        {
+            @Override
+            protected void service(String target, Request jettyRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+            {
+                try
+                {
+                    requestLatch.get().countDown();
+                    responseLatch.get().await(5, TimeUnit.SECONDS);
+                    response.getWriter().print(request.getRemotePort());
+                }
+                catch (InterruptedException x)
+                {
+                    throw new IOException(x);
+                }
+            }
+        });
+        client.setMaxConnectionsPerDestination(2);
+
+        // Open two connections, each with the same observed latency.
+        requestLatch.set(new CountDownLatch(1));
+        responseLatch.set(new CountDownLatch(1));
+        CountDownLatch latch = new CountDownLatch(2 * maxStreams);
+        Response.CompleteListener listener = result ->
+        {
+            if (result.isSucceeded())
+                latch.countDown();
+        };
+        client.newRequest("localhost", connector.getLocalPort()).path("/0").send(listener);
+        Assert.assertTrue(requestLatch.get().await(5, TimeUnit.SECONDS));
+        requestLatch.set(new CountDownLatch(2 * maxStreams - 1));
+        for (int i = 1; i < 2 * maxStreams; ++i)
+            client.newRequest("localhost", connector.getLocalPort()).path("/" + i).send(listener);
+        Assert.assertTrue(requestLatch.get().await(5, TimeUnit.SECONDS));
+        sleep(500);
+        responseLatch.get().countDown();
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        // Wait for the server to clean up the streams.
+        sleep(1000);
+
+        // Two concurrent requests must not be sent on the same connection.
+        requestLatch.set(new CountDownLatch(2));
+        responseLatch.set(new CountDownLatch(1));
+        List<String> ports = new ArrayList<>();
+        CountDownLatch balancedLatch = new CountDownLatch(2);
+        for (int i = 0; i < 2; ++i)
+        {
+            client.newRequest("localhost", connector.getLocalPort())
+                    .path("/balanced/" + i)
+                    .send(new BufferingResponseListener()
+                    {
+                        @Override
+                        public void onComplete(Result result)
+                        {
+                            if (result.isSucceeded())
+                            {
+                                synchronized (ports)
+                                {
+                                    ports.add(getContentAsString());
+                                }
+                                balancedLatch.countDown();
+                            }
+                        }
+                    });
+        }
+        Assert.assertTrue(requestLatch.get().await(5, TimeUnit.SECONDS));
+        responseLatch.get().countDown();
+        Assert.assertTrue(balancedLatch.await(5, TimeUnit.SECONDS));
+        Assert.assertNotEquals(ports.get(0), ports.get(1));
+    }
+
     private void primeConnection() throws Exception
     {
         // Prime the connection so that the maxConcurrentStream setting arrives to the client.
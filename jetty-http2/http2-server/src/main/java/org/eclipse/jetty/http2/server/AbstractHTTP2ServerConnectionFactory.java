@@ -45,6 +45,7 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
 {
     private final Connection.Listener connectionListener = new ConnectionListener();
     private final HttpConfiguration httpConfiguration;
+    private final HttpChannelPoolStatistics httpChannelPoolStatistics = new HttpChannelPoolStatistics();
     private int maxDynamicTableSize = 4096;
     private int initialSessionRecvWindow = 1024 * 1024;
     private int initialStreamRecvWindow = 512 * 1024;
@@ -52,8 +53,15 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
     private int maxHeaderBlockFragment = 0;
     private int maxFrameLength = Frame.DEFAULT_MAX_LENGTH;
     private int maxSettingsKeys = SettingsFrame.DEFAULT_MAX_KEYS;
+    private int dataQuantum = Frame.DEFAULT_MAX_LENGTH;
+    private boolean adaptiveHpackIndexing;
+    private long maxSessionQueuedBytes = -1;
+    private long maxStreamStallTime = -1;
     private FlowControlStrategy.Factory flowControlStrategyFactory = () -> new BufferingFlowControlStrategy(0.5F);
     private long streamIdleTimeout;
+    private int maxPooledHttpChannels;
+    private boolean parallelStreamProcessing;
+    private PushCache pushCache;
 
     public AbstractHTTP2ServerConnectionFactory(@Name("config") HttpConfiguration httpConfiguration)
     {
@@ -68,6 +76,7 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
                 throw new IllegalArgumentException("Unsupported HTTP2 Protocol variant: "+p);
         this.httpConfiguration = Objects.requireNonNull(httpConfiguration);
         addBean(httpConfiguration);
+        addBean(httpChannelPoolStatistics);
         setInputBufferSize(Frame.DEFAULT_MAX_LENGTH + Frame.HEADER_LENGTH);
     }
 
@@ -169,6 +178,112 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
         this.maxSettingsKeys = maxSettingsKeys;
     }
 
+    @ManagedAttribute("The max number of DATA bytes a stream generates before yielding to other streams")
+    public int getDataQuantum()
+    {
+        return dataQuantum;
+    }
+
+    public void setDataQuantum(int dataQuantum)
+    {
+        if (dataQuantum <= 0)
+            throw new IllegalArgumentException("Invalid data quantum " + dataQuantum);
+        this.dataQuantum = dataQuantum;
+    }
+
+    @ManagedAttribute("Whether the HPACK encoder indexes fields depending on the cardinality of their values")
+    public boolean isAdaptiveHpackIndexing()
+    {
+        return adaptiveHpackIndexing;
+    }
+
+    public void setAdaptiveHpackIndexing(boolean adaptiveHpackIndexing)
+    {
+        this.adaptiveHpackIndexing = adaptiveHpackIndexing;
+    }
+
+    @ManagedAttribute("The max number of DATA bytes queued to be sent before a session is closed, or -1 for no limit")
+    public long getMaxSessionQueuedBytes()
+    {
+        return maxSessionQueuedBytes;
+    }
+
+    public void setMaxSessionQueuedBytes(long maxSessionQueuedBytes)
+    {
+        this.maxSessionQueuedBytes = maxSessionQueuedBytes;
+    }
+
+    @ManagedAttribute("The max time, in milliseconds, a stream may be stalled by flow control before it is reset, or -1 for no limit")
+    public long getMaxStreamStallTime()
+    {
+        return maxStreamStallTime;
+    }
+
+    public void setMaxStreamStallTime(long maxStreamStallTime)
+    {
+        this.maxStreamStallTime = maxStreamStallTime;
+    }
+
+    @ManagedAttribute("The max number of completed channels recycled per connection, 0 for none or -1 for no limit")
+    public int getMaxPooledHttpChannels()
+    {
+        return maxPooledHttpChannels;
+    }
+
+    /**
+     * <p>Sets the max number of completed {@link HttpChannelOverHTTP2}s that each connection keeps
+     * to serve further streams, together with their request, response, input and output, so that
+     * they are not allocated for every stream.</p>
+     *
+     * @param maxPooledHttpChannels the max number of channels recycled per connection,
+     * 0 (the default) for no recycling or negative for no limit
+     */
+    public void setMaxPooledHttpChannels(int maxPooledHttpChannels)
+    {
+        this.maxPooledHttpChannels = maxPooledHttpChannels;
+    }
+
+    /**
+     * @return the statistics of the channels recycled by all the connections of this factory
+     */
+    public HttpChannelPoolStatistics getHttpChannelPoolStatistics()
+    {
+        return httpChannelPoolStatistics;
+    }
+
+    @ManagedAttribute("Whether the frames of different streams are processed in parallel by the executor")
+    public boolean isParallelStreamProcessing()
+    {
+        return parallelStreamProcessing;
+    }
+
+    /**
+     * @param parallelStreamProcessing whether the frames of different streams are processed in parallel
+     * @see HTTP2ServerConnection#setParallelStreamProcessing(boolean)
+     */
+    public void setParallelStreamProcessing(boolean parallelStreamProcessing)
+    {
+        this.parallelStreamProcessing = parallelStreamProcessing;
+    }
+
+    public PushCache getPushCache()
+    {
+        return pushCache;
+    }
+
+    /**
+     * <p>Sets the cache of secondary resources, learned from the {@code Referer}
+     * header of requests, that connections push when a primary resource is requested.</p>
+     *
+     * @param pushCache the push cache shared by all the connections of this factory,
+     * or null (the default) to disable learned pushes
+     */
+    public void setPushCache(PushCache pushCache)
+    {
+        updateBean(this.pushCache, pushCache);
+        this.pushCache = pushCache;
+    }
+
     /**
      * @return -1
      * @deprecated feature removed, no replacement
@@ -213,6 +328,7 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
         ServerSessionListener listener = newSessionListener(connector, endPoint);
 
         Generator generator = new Generator(connector.getByteBufferPool(), getMaxDynamicTableSize(), getMaxHeaderBlockFragment());
+        generator.getHpackEncoder().setAdaptiveIndexing(isAdaptiveHpackIndexing());
         FlowControlStrategy flowControl = getFlowControlStrategyFactory().newFlowControlStrategy();
         HTTP2ServerSession session = new HTTP2ServerSession(connector.getScheduler(), endPoint, generator, listener, flowControl);
         session.setMaxLocalStreams(getMaxConcurrentStreams());
@@ -227,13 +343,20 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
         session.setStreamIdleTimeout(streamIdleTimeout);
         session.setInitialSessionRecvWindow(getInitialSessionRecvWindow());
         session.setWriteThreshold(getHttpConfiguration().getOutputBufferSize());
+        session.setDataQuantum(getDataQuantum());
+        session.setMaxQueuedBytes(getMaxSessionQueuedBytes());
+        session.setMaxStreamStallTime(getMaxStreamStallTime());
 
         ServerParser parser = newServerParser(connector, session);
         parser.setMaxFrameLength(getMaxFrameLength());
         parser.setMaxSettingsKeys(getMaxSettingsKeys());
 
-        HTTP2Connection connection = new HTTP2ServerConnection(connector.getByteBufferPool(), connector.getExecutor(),
+        HTTP2ServerConnection connection = new HTTP2ServerConnection(connector.getByteBufferPool(), connector.getExecutor(),
                         endPoint, httpConfiguration, parser, session, getInputBufferSize(), listener);
+        connection.setMaxPooledHttpChannels(getMaxPooledHttpChannels());
+        connection.setHttpChannelPoolStatistics(httpChannelPoolStatistics);
+        connection.setParallelStreamProcessing(isParallelStreamProcessing());
+        connection.setPushCache(getPushCache());
         connection.addListener(connectionListener);
         return configure(connection, connector, endPoint);
     }
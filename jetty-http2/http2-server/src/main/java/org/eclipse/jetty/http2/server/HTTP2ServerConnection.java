@@ -24,20 +24,30 @@ import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import org.eclipse.jetty.http.BadMessageException;
 import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.http.MetaData;
 import org.eclipse.jetty.http.MetaData.Request;
+import org.eclipse.jetty.http2.AbstractFlowControlStrategy;
 import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.FlowControlStrategy;
 import org.eclipse.jetty.http2.HTTP2Connection;
+import org.eclipse.jetty.http2.HTTP2Session;
 import org.eclipse.jetty.http2.ISession;
 import org.eclipse.jetty.http2.IStream;
 import org.eclipse.jetty.http2.api.Stream;
@@ -46,6 +56,7 @@ import org.eclipse.jetty.http2.frames.DataFrame;
 import org.eclipse.jetty.http2.frames.Frame;
 import org.eclipse.jetty.http2.frames.HeadersFrame;
 import org.eclipse.jetty.http2.frames.PrefaceFrame;
+import org.eclipse.jetty.http2.frames.PushPromiseFrame;
 import org.eclipse.jetty.http2.frames.ResetFrame;
 import org.eclipse.jetty.http2.frames.SettingsFrame;
 import org.eclipse.jetty.http2.parser.ServerParser;
@@ -53,13 +64,16 @@ import org.eclipse.jetty.http2.parser.SettingsBodyParser;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.HttpConfiguration;
 import org.eclipse.jetty.util.B64Code;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.CountingCallback;
+import org.eclipse.jetty.util.Promise;
 import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.util.thread.TryExecutor;
 
 public class HTTP2ServerConnection extends HTTP2Connection implements Connection.UpgradeTo
 {
@@ -91,9 +105,23 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
     private final List<Frame> upgradeFrames = new ArrayList<>();
     private final AtomicLong totalRequests = new AtomicLong();
     private final AtomicLong totalResponses = new AtomicLong();
+    private final AtomicLong pushedBytes = new AtomicLong();
+    private final Map<String, Boolean> pushedResources = new LinkedHashMap<String, Boolean>(16, 0.75F, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+        {
+            // Remember as many pushed resources as the push cache knows.
+            PushCache pushCache = getPushCache();
+            return pushCache == null || size() > pushCache.getMaxResources();
+        }
+    };
     private final ServerSessionListener listener;
     private final HttpConfiguration httpConfig;
-    private boolean recycleHttpChannels;
+    private int maxPooledHttpChannels;
+    private boolean parallelStreamProcessing;
+    private HttpChannelPoolStatistics channelPoolStatistics = new HttpChannelPoolStatistics();
+    private PushCache pushCache;
 
     public HTTP2ServerConnection(ByteBufferPool byteBufferPool, Executor executor, EndPoint endPoint, HttpConfiguration httpConfig, ServerParser parser, ISession session, int inputBufferSize, ServerSessionListener listener)
     {
@@ -122,12 +150,80 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
 
     public boolean isRecycleHttpChannels()
     {
-        return recycleHttpChannels;
+        return maxPooledHttpChannels != 0;
     }
 
+    /**
+     * @param recycleHttpChannels whether completed channels are recycled without a bound
+     * @see #setMaxPooledHttpChannels(int)
+     */
     public void setRecycleHttpChannels(boolean recycleHttpChannels)
     {
-        this.recycleHttpChannels = recycleHttpChannels;
+        setMaxPooledHttpChannels(recycleHttpChannels ? -1 : 0);
+    }
+
+    public int getMaxPooledHttpChannels()
+    {
+        return maxPooledHttpChannels;
+    }
+
+    /**
+     * @param maxPooledHttpChannels the max number of completed channels kept to serve further streams
+     * of this connection, 0 for no recycling or negative for no limit
+     */
+    public void setMaxPooledHttpChannels(int maxPooledHttpChannels)
+    {
+        this.maxPooledHttpChannels = maxPooledHttpChannels;
+    }
+
+    public boolean isParallelStreamProcessing()
+    {
+        return parallelStreamProcessing;
+    }
+
+    /**
+     * <p>Sets whether the request headers, content, trailers and failures of different
+     * streams are processed in parallel by the executor, rather than by the thread
+     * that parses the frames.</p>
+     * <p>The frames of each stream are still processed in order, one at a time.
+     * When no executor thread is immediately available, the frames are processed
+     * by the thread that parses them.
+     * The HPACK decoding of the header blocks is always performed by the thread
+     * that parses the frames, since the HPACK dynamic table is shared by all
+     * the streams of the connection.</p>
+     *
+     * @param parallelStreamProcessing whether the frames of different streams are processed in parallel
+     */
+    public void setParallelStreamProcessing(boolean parallelStreamProcessing)
+    {
+        this.parallelStreamProcessing = parallelStreamProcessing;
+    }
+
+    public HttpChannelPoolStatistics getHttpChannelPoolStatistics()
+    {
+        return channelPoolStatistics;
+    }
+
+    /**
+     * @param statistics the statistics to update, usually shared by all the connections of a connection factory
+     */
+    public void setHttpChannelPoolStatistics(HttpChannelPoolStatistics statistics)
+    {
+        this.channelPoolStatistics = Objects.requireNonNull(statistics);
+    }
+
+    public PushCache getPushCache()
+    {
+        return pushCache;
+    }
+
+    /**
+     * @param pushCache the cache of learned associated resources to push, usually shared
+     * by all the connections of a connection factory, or null to disable learned pushes
+     */
+    public void setPushCache(PushCache pushCache)
+    {
+        this.pushCache = pushCache;
     }
 
     @Override
@@ -148,6 +244,17 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
         produce();
     }
 
+    @Override
+    public void onClose()
+    {
+        super.onClose();
+        synchronized (this)
+        {
+            channelPoolStatistics.onPooled(-channels.size());
+            channels.clear();
+        }
+    }
+
     private void notifyAccept(ISession session)
     {
         try
@@ -165,9 +272,19 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
         if (LOG.isDebugEnabled())
             LOG.debug("Processing {} on {}", frame, stream);
         HttpChannelOverHTTP2 channel = provideHttpChannel(connector, stream);
-        Runnable task = channel.onRequest(frame);
-        if (task != null)
-            offerTask(task, false);
+        PushCache pushCache = getPushCache();
+        if (pushCache != null)
+            pushAssociated(pushCache, connector, stream, frame);
+        if (isParallelStreamProcessing())
+        {
+            process(channel, stream, () -> channel.onRequest(frame), null);
+        }
+        else
+        {
+            Runnable task = channel.onRequest(frame);
+            if (task != null)
+                offerTask(task, false);
+        }
     }
 
     public void onData(IStream stream, DataFrame frame, Callback callback)
@@ -177,9 +294,16 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
         HttpChannelOverHTTP2 channel = (HttpChannelOverHTTP2)stream.getAttachment();
         if (channel != null)
         {
-            Runnable task = channel.onRequestContent(frame, callback);
-            if (task != null)
-                offerTask(task, false);
+            if (isParallelStreamProcessing())
+            {
+                process(channel, stream, () -> channel.onRequestContent(frame, callback), () -> callback.failed(new IOException("channel_not_found")));
+            }
+            else
+            {
+                Runnable task = channel.onRequestContent(frame, callback);
+                if (task != null)
+                    offerTask(task, false);
+            }
         }
         else
         {
@@ -194,9 +318,16 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
         HttpChannelOverHTTP2 channel = (HttpChannelOverHTTP2)stream.getAttachment();
         if (channel != null)
         {
-            Runnable task = channel.onRequestTrailers(frame);
-            if (task != null)
-                offerTask(task, false);
+            if (isParallelStreamProcessing())
+            {
+                process(channel, stream, () -> channel.onRequestTrailers(frame), null);
+            }
+            else
+            {
+                Runnable task = channel.onRequestTrailers(frame);
+                if (task != null)
+                    offerTask(task, false);
+            }
         }
     }
 
@@ -216,9 +347,16 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
         HttpChannelOverHTTP2 channel = (HttpChannelOverHTTP2)stream.getAttachment();
         if (channel != null)
         {
-            Runnable task = channel.onFailure(failure, callback);
-            if (task != null)
-                offerTask(task, true);
+            if (isParallelStreamProcessing())
+            {
+                process(channel, stream, () -> channel.onFailure(failure, callback), callback::succeeded);
+            }
+            else
+            {
+                Runnable task = channel.onFailure(failure, callback);
+                if (task != null)
+                    offerTask(task, true);
+            }
         }
         else
         {
@@ -260,20 +398,252 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
     }
 
     public void push(Connector connector, IStream stream, MetaData.Request request)
+    {
+        push(connector, stream, request, -1);
+    }
+
+    private void push(Connector connector, IStream stream, MetaData.Request request, long pushLength)
     {
         if (LOG.isDebugEnabled())
             LOG.debug("Processing push {} on {}", request, stream);
         HttpChannelOverHTTP2 channel = provideHttpChannel(connector, stream);
+        if (channel instanceof ServerHttpChannelOverHTTP2)
+            ((ServerHttpChannelOverHTTP2)channel).pushLength = pushLength;
         Runnable task = channel.onPushRequest(request);
         if (task != null)
             offerTask(task, true);
     }
 
+    private void pushAssociated(PushCache pushCache, Connector connector, IStream stream, HeadersFrame frame)
+    {
+        MetaData metaData = frame.getMetaData();
+        if (!metaData.isRequest())
+            return;
+        MetaData.Request request = (MetaData.Request)metaData;
+        if (!HttpMethod.GET.is(request.getMethod()))
+            return;
+        HttpURI uri = request.getURI();
+        String path = uri.getPath();
+        if (path == null)
+            return;
+
+        // Iterating over fields is more efficient than multiple gets.
+        String cookieName = pushCache.getCookieName();
+        boolean cached = false;
+        String referrer = null;
+        HttpFields fields = new HttpFields(request.getFields().size() + 1);
+        for (HttpField field : request.getFields())
+        {
+            HttpHeader header = field.getHeader();
+            if (header == null)
+            {
+                fields.add(field);
+                continue;
+            }
+            switch (header)
+            {
+                case IF_MATCH:
+                case IF_MODIFIED_SINCE:
+                case IF_NONE_MATCH:
+                case IF_UNMODIFIED_SINCE:
+                    cached = true;
+                    break;
+                case REFERER:
+                    referrer = field.getValue();
+                    break;
+                case COOKIE:
+                    // Keep the cookies, so that resources behind a session can be pushed;
+                    // no push is made at all if the push hint cookie is present.
+                    if (cookieName != null && hasCookie(field.getValue(), cookieName))
+                        cached = true;
+                    fields.add(field);
+                    break;
+                case IF_RANGE:
+                case RANGE:
+                case EXPECT:
+                case AUTHORIZATION:
+                    break;
+                default:
+                    fields.add(field);
+                    break;
+            }
+        }
+
+        String authority = uri.getAuthority();
+        Map<String, Long> associated = pushCache.onRequest(authority, path, referrerPath(uri, referrer));
+        if (associated.isEmpty() || !frame.isEndStream() || !getSession().isPushEnabled())
+            return;
+
+        if (cached)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Not pushing {} for {}, cached by the client", associated.keySet(), path);
+            pushCache.onCacheHit(associated.size());
+            return;
+        }
+
+        // Limit the pushed bytes to what the session flow control window can accept.
+        HTTP2Session session = (HTTP2Session)getSession();
+        long limit = session.getSendWindow() - session.getQueuedBytes();
+        fields.put(HttpHeader.REFERER, uri.toString());
+        for (Map.Entry<String, Long> entry : associated.entrySet())
+        {
+            String pushPath = entry.getKey();
+            String pushKey = PushCache.key(authority, pushPath);
+            if (!addPushedResource(pushKey))
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Not pushing {} for {}, already pushed", pushPath, path);
+                pushCache.onCacheHit(1);
+                continue;
+            }
+            long length = entry.getValue();
+            // The length is unknown if the resource has not yet been served
+            // with a 200, so assume the push fills its stream window.
+            if (length < 0)
+                length = getInitialStreamSendWindow(session);
+            if (!reservePushBytes(limit, length))
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Not pushing {} for {}, length {} exceeds limit {}", pushPath, path, length, limit);
+                removePushedResource(pushKey);
+                pushCache.onThrottle();
+                continue;
+            }
+            HttpURI pushURI = new HttpURI(uri.getScheme(), uri.getHost(), uri.getPort(), pushPath);
+            push(pushCache, connector, stream, new MetaData.Request(HttpMethod.GET.asString(), pushURI, HttpVersion.HTTP_2, fields), length);
+        }
+    }
+
+    private void push(PushCache pushCache, Connector connector, IStream stream, MetaData.Request request, long length)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("Pushing {} on {}", request, stream);
+        stream.push(new PushPromiseFrame(stream.getId(), 0, request), new Promise<Stream>()
+        {
+            @Override
+            public void succeeded(Stream pushStream)
+            {
+                pushCache.onPush();
+                push(connector, (IStream)pushStream, request, length);
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                pushedBytes.addAndGet(-length);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Could not push " + request, x);
+            }
+        }, new Stream.Listener.Adapter()
+        {
+            @Override
+            public void onReset(Stream pushStream, ResetFrame frame, Callback callback)
+            {
+                pushCache.onPushReset();
+                onStreamFailure((IStream)pushStream, new EofException("Reset " + ErrorCode.toString(frame.getError(), null)), callback);
+            }
+        });
+    }
+
+    private boolean addPushedResource(String key)
+    {
+        synchronized (pushedResources)
+        {
+            return pushedResources.put(key, Boolean.TRUE) == null;
+        }
+    }
+
+    private void removePushedResource(String key)
+    {
+        synchronized (pushedResources)
+        {
+            pushedResources.remove(key);
+        }
+    }
+
+    /**
+     * Reserve the bytes of a push, so that concurrent primary requests cannot together exceed the limit.
+     *
+     * @param limit the maximum number of pushed bytes that may be outstanding
+     * @param length the number of bytes to push
+     * @return true if the bytes were reserved, false if the push would exceed the limit
+     */
+    private boolean reservePushBytes(long limit, long length)
+    {
+        while (true)
+        {
+            long pushed = pushedBytes.get();
+            if (pushed + length > limit)
+                return false;
+            if (pushedBytes.compareAndSet(pushed, pushed + length))
+                return true;
+        }
+    }
+
+    private int getInitialStreamSendWindow(HTTP2Session session)
+    {
+        FlowControlStrategy flowControl = session.getFlowControlStrategy();
+        if (flowControl instanceof AbstractFlowControlStrategy)
+            return ((AbstractFlowControlStrategy)flowControl).getInitialStreamSendWindow();
+        return FlowControlStrategy.DEFAULT_WINDOW_SIZE;
+    }
+
+    private String referrerPath(HttpURI uri, String referrer)
+    {
+        if (referrer == null)
+            return null;
+        HttpURI referrerURI = new HttpURI(referrer);
+        String host = referrerURI.getHost();
+        if (host != null && !host.equalsIgnoreCase(uri.getHost()))
+            return null;
+        int port = referrerURI.getPort();
+        if (port > 0 && uri.getPort() > 0 && port != uri.getPort())
+            return null;
+        String path = referrerURI.getPath();
+        return path == null ? "/" : path;
+    }
+
+    private static boolean hasCookie(String cookies, String name)
+    {
+        for (String cookie : cookies.split(";"))
+        {
+            cookie = cookie.trim();
+            if (cookie.length() > name.length() && cookie.startsWith(name) && cookie.charAt(name.length()) == '=')
+                return true;
+        }
+        return false;
+    }
+
+    private void process(HttpChannelOverHTTP2 channel, IStream stream, Supplier<Runnable> action, Runnable unbound)
+    {
+        if (channel instanceof ServerHttpChannelOverHTTP2)
+        {
+            ((ServerHttpChannelOverHTTP2)channel).frames.offer(() ->
+            {
+                // The channel may have completed and been recycled
+                // while the frames of its stream were queued.
+                if (stream.getAttachment() == channel)
+                    return action.get();
+                if (unbound != null)
+                    unbound.run();
+                return null;
+            });
+        }
+        else
+        {
+            Runnable task = action.get();
+            if (task != null)
+                offerTask(task, false);
+        }
+    }
+
     private HttpChannelOverHTTP2 provideHttpChannel(Connector connector, IStream stream)
     {
         HttpChannelOverHTTP2 channel = pollHttpChannel();
         if (channel != null)
         {
+            channelPoolStatistics.onHit();
             channel.getHttpTransport().setStream(stream);
             if (LOG.isDebugEnabled())
                 LOG.debug("Recycling channel {} for {}", channel, this);
@@ -283,6 +653,7 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
             HttpTransportOverHTTP2 transport = new HttpTransportOverHTTP2(connector, this);
             transport.setStream(stream);
             channel = newServerHttpChannelOverHTTP2(connector, httpConfig, transport);
+            channelPoolStatistics.onMiss();
             if (LOG.isDebugEnabled())
                 LOG.debug("Creating channel {} for {}", channel, this);
         }
@@ -301,8 +672,15 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
         {
             synchronized (this)
             {
-                channels.offer(channel);
+                int max = getMaxPooledHttpChannels();
+                if (max < 0 || channels.size() < max)
+                {
+                    channels.offer(channel);
+                    channelPoolStatistics.onPooled(1);
+                    return;
+                }
             }
+            channelPoolStatistics.onDiscard();
         }
     }
 
@@ -312,7 +690,10 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
         {
             synchronized (this)
             {
-                return channels.poll();
+                HttpChannelOverHTTP2 channel = channels.poll();
+                if (channel != null)
+                    channelPoolStatistics.onPooled(-1);
+                return channel;
             }
         }
         else
@@ -357,6 +738,9 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
 
     protected class ServerHttpChannelOverHTTP2 extends HttpChannelOverHTTP2 implements Closeable
     {
+        private final StreamFrames frames = new StreamFrames();
+        private long pushLength = -1;
+
         public ServerHttpChannelOverHTTP2(Connector connector, HttpConfiguration configuration, EndPoint endPoint, HttpTransportOverHTTP2 transport)
         {
             super(connector, configuration, endPoint, transport);
@@ -373,11 +757,30 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
         public void onCompleted()
         {
             totalResponses.incrementAndGet();
+            PushCache pushCache = getPushCache();
+            if (pushCache != null)
+                onPushCompleted(pushCache);
             super.onCompleted();
             if (!getStream().isReset())
                 recycle();
         }
 
+        private void onPushCompleted(PushCache pushCache)
+        {
+            if (getResponse().getStatus() == HttpStatus.OK_200 && HttpMethod.GET.is(getRequest().getMethod()))
+            {
+                HttpURI uri = getRequest().getHttpURI();
+                pushCache.onResponse(uri.getAuthority(), uri.getPath(), getBytesWritten());
+            }
+            if (pushLength >= 0)
+            {
+                pushedBytes.addAndGet(-pushLength);
+                pushLength = -1;
+                if (!getStream().isReset())
+                    pushCache.onPushComplete();
+            }
+        }
+
         @Override
         public void recycle()
         {
@@ -398,4 +801,62 @@ public class HTTP2ServerConnection extends HTTP2Connection implements Connection
             consumeInput();
         }
     }
+
+    /**
+     * <p>The frames of a stream, processed in order by the executor, one at a time.</p>
+     * <p>The tasks produced by processing the frames, typically the request
+     * handling, are not run here but offered to the execution strategy,
+     * so that a blocked request handling does not prevent the processing
+     * of further frames of the same stream.</p>
+     */
+    private class StreamFrames implements Runnable
+    {
+        private final Queue<Supplier<Runnable>> actions = new ArrayDeque<>();
+        private boolean processing;
+
+        private void offer(Supplier<Runnable> action)
+        {
+            synchronized (this)
+            {
+                actions.offer(action);
+                if (processing)
+                    return;
+                processing = true;
+            }
+            // Process the frames in the caller thread if no thread
+            // is immediately available, so that the processing of
+            // the frames (and therefore flow control) is not delayed.
+            Executor executor = getExecutor();
+            if (executor instanceof TryExecutor)
+            {
+                if (!((TryExecutor)executor).tryExecute(this))
+                    run();
+            }
+            else
+            {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                Supplier<Runnable> action;
+                synchronized (this)
+                {
+                    action = actions.poll();
+                    if (action == null)
+                    {
+                        processing = false;
+                        return;
+                    }
+                }
+                Runnable task = action.get();
+                if (task != null)
+                    offerTask(task, true);
+            }
+        }
+    }
 }
@@ -66,6 +66,13 @@ public class HttpChannelOverHTTP2 extends HttpChannel implements Closeable, Writ
         return getHttpTransport().getStream();
     }
 
+    @Override
+    public long getStreamId()
+    {
+        IStream stream = getStream();
+        return stream == null ? -1 : stream.getId();
+    }
+
     @Override
     public boolean isExpecting100Continue()
     {
@@ -0,0 +1,106 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+
+/**
+ * <p>Statistics of the recycling of {@link HttpChannelOverHTTP2} instances,
+ * together with their request, response, input and output, by all the
+ * {@link HTTP2ServerConnection}s of a connection factory.</p>
+ */
+@ManagedObject("HTTP/2 channel pool statistics")
+public class HttpChannelPoolStatistics
+{
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    @ManagedAttribute("The number of streams served by a recycled channel")
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    @ManagedAttribute("The number of streams for which a new channel was created")
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    @ManagedAttribute("The number of completed channels not recycled because the pool was full")
+    public long getDiscards()
+    {
+        return discards.sum();
+    }
+
+    @ManagedAttribute("The number of channels currently pooled")
+    public int getPooled()
+    {
+        return pooled.get();
+    }
+
+    @ManagedAttribute("The ratio of streams served by a recycled channel")
+    public double getHitRatio()
+    {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void reset()
+    {
+        hits.reset();
+        misses.reset();
+        discards.reset();
+    }
+
+    void onHit()
+    {
+        hits.increment();
+    }
+
+    void onMiss()
+    {
+        misses.increment();
+    }
+
+    void onDiscard()
+    {
+        discards.increment();
+    }
+
+    void onPooled(int delta)
+    {
+        pooled.addAndGet(delta);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{hits=%d,misses=%d,discards=%d,pooled=%d}", getClass().getSimpleName(), hashCode(), getHits(), getMisses(), getDiscards(), getPooled());
+    }
+}
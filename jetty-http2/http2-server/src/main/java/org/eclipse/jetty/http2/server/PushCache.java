@@ -0,0 +1,343 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>A bounded cache of secondary resources associated to primary resources,
+ * learned from the {@code Referer} header of the requests of HTTP/2 sessions.</p>
+ * <p>Similarly to {@code PushCacheFilter}, a secondary resource is associated
+ * to a primary resource when it is requested within the
+ * {@link #getAssociatePeriod() associate period} from the request of the
+ * primary resource; further requests for the primary resource push the
+ * associated secondary resources.</p>
+ * <p>Differently from {@code PushCacheFilter}, the memory used by this cache
+ * is bounded: at most {@link #getMaxResources()} resources are remembered,
+ * and each resource has at most {@link #getMaxAssociations()} associated
+ * resources, evicting the least recently used ones.
+ * Resources are remembered per authority, so that a connection factory
+ * serving multiple virtual hosts does not associate their resources.
+ * The content length of each resource is remembered as well, so that
+ * {@link HTTP2ServerConnection} can limit the pushed bytes to what the
+ * session flow control window can accept.</p>
+ * <p>Instances of this class are typically shared by all the connections
+ * of a connection factory, see
+ * {@link AbstractHTTP2ServerConnectionFactory#setPushCache(PushCache)}.</p>
+ */
+@ManagedObject("HTTP/2 push cache based on the HTTP 'Referer' header")
+public class PushCache
+{
+    private static final Logger LOG = Log.getLogger(PushCache.class);
+
+    private final LongAdder pushes = new LongAdder();
+    private final LongAdder completes = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder throttles = new LongAdder();
+    private final Map<String, Resource> resources = new LinkedHashMap<String, Resource>(16, 0.75F, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resource> eldest)
+        {
+            return size() > getMaxResources();
+        }
+    };
+    private long associatePeriod = 4000;
+    private int maxResources = 1024;
+    private int maxAssociations = 16;
+    private String cookieName;
+
+    @ManagedAttribute("The period in ms within which a secondary resource is associated to a primary resource")
+    public long getAssociatePeriod()
+    {
+        return associatePeriod;
+    }
+
+    public void setAssociatePeriod(long associatePeriod)
+    {
+        this.associatePeriod = associatePeriod;
+    }
+
+    @ManagedAttribute("The max number of resources remembered")
+    public int getMaxResources()
+    {
+        return maxResources;
+    }
+
+    public void setMaxResources(int maxResources)
+    {
+        this.maxResources = maxResources;
+    }
+
+    @ManagedAttribute("The max number of secondary resources associated to a primary resource")
+    public int getMaxAssociations()
+    {
+        return maxAssociations;
+    }
+
+    public void setMaxAssociations(int maxAssociations)
+    {
+        this.maxAssociations = maxAssociations;
+    }
+
+    @ManagedAttribute("The name of the cookie that hints that the client already has the secondary resources")
+    public String getCookieName()
+    {
+        return cookieName;
+    }
+
+    /**
+     * <p>Sets the name of the cookie that, when sent by the client, hints
+     * that the client has already cached the secondary resources.</p>
+     * <p>Applications typically set this cookie, with an expiration similar
+     * to that of the cached secondary resources, in the response of the
+     * primary resource, so that only the first visits trigger pushes.</p>
+     *
+     * @param cookieName the cookie name, or null to ignore cookies
+     */
+    public void setCookieName(String cookieName)
+    {
+        this.cookieName = cookieName;
+    }
+
+    @ManagedAttribute("The number of resources pushed")
+    public long getPushes()
+    {
+        return pushes.sum();
+    }
+
+    @ManagedAttribute("The number of pushed resources completely sent")
+    public long getCompletes()
+    {
+        return completes.sum();
+    }
+
+    @ManagedAttribute("The number of pushed resources reset by the client")
+    public long getResets()
+    {
+        return resets.sum();
+    }
+
+    @ManagedAttribute("The number of resources not pushed because the client already had them")
+    public long getCacheHits()
+    {
+        return cacheHits.sum();
+    }
+
+    @ManagedAttribute("The number of resources not pushed because the flow control window was exhausted")
+    public long getThrottles()
+    {
+        return throttles.sum();
+    }
+
+    @ManagedAttribute("The ratio of pushed resources completely sent")
+    public double getAcceptRatio()
+    {
+        long pushes = getPushes();
+        return pushes == 0 ? 0 : (double)getCompletes() / pushes;
+    }
+
+    @ManagedAttribute("The ratio of pushed resources reset by the client")
+    public double getResetRatio()
+    {
+        long pushes = getPushes();
+        return pushes == 0 ? 0 : (double)getResets() / pushes;
+    }
+
+    @ManagedAttribute("The push cache contents")
+    public Map<String, String> getPushCache()
+    {
+        Map<String, String> result = new HashMap<>();
+        synchronized (this)
+        {
+            for (Map.Entry<String, Resource> entry : resources.entrySet())
+            {
+                Resource resource = entry.getValue();
+                result.put(entry.getKey(), String.format("length=%d: %s", resource.contentLength, resource.associated.keySet()));
+            }
+        }
+        return result;
+    }
+
+    @ManagedOperation(value = "Clears the push cache contents", impact = "ACTION")
+    public void clearPushCache()
+    {
+        synchronized (this)
+        {
+            resources.clear();
+        }
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void reset()
+    {
+        pushes.reset();
+        completes.reset();
+        resets.reset();
+        cacheHits.reset();
+        throttles.reset();
+    }
+
+    /**
+     * @param authority the authority of the resource, or null
+     * @param path the path of the resource
+     * @return the key of the resource in this cache
+     */
+    static String key(String authority, String path)
+    {
+        return authority == null ? path : authority + path;
+    }
+
+    /**
+     * <p>Records a request for the given resource, possibly associating it
+     * to the given referrer resource of the same authority.</p>
+     *
+     * @param authority the authority of the requested resource, or null
+     * @param path the path of the requested resource
+     * @param referrer the path of the referrer resource, or null
+     * @return the paths of the associated resources to push, mapped to their content length or -1 if unknown
+     */
+    Map<String, Long> onRequest(String authority, String path, String referrer)
+    {
+        long now = System.nanoTime();
+        String key = key(authority, path);
+        synchronized (this)
+        {
+            if (referrer != null && !referrer.equals(path))
+            {
+                Resource primary = resources.get(key(authority, referrer));
+                if (primary != null)
+                {
+                    if (now - primary.timestamp < TimeUnit.MILLISECONDS.toNanos(getAssociatePeriod()))
+                    {
+                        if (primary.associated.put(path, Boolean.TRUE) == null && LOG.isDebugEnabled())
+                            LOG.debug("Associated {} to {}", path, referrer);
+                    }
+                    else
+                    {
+                        if (LOG.isDebugEnabled())
+                            LOG.debug("Not associated {} to {}, outside associate period of {}ms", path, referrer, getAssociatePeriod());
+                    }
+                }
+            }
+
+            Resource resource = resources.get(key);
+            if (resource == null)
+            {
+                resource = new Resource();
+                resources.put(key, resource);
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Cached resource {}", key);
+            }
+            resource.timestamp = now;
+
+            if (resource.associated.isEmpty())
+                return Collections.emptyMap();
+
+            Map<String, Long> result = new LinkedHashMap<>();
+            for (String associated : resource.associated.keySet())
+            {
+                Resource secondary = resources.get(key(authority, associated));
+                result.put(associated, secondary == null ? -1 : secondary.contentLength);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * <p>Records the content length of a successful response for the given resource.</p>
+     *
+     * @param authority the authority of the resource, or null
+     * @param path the path of the resource
+     * @param contentLength the number of content bytes of the response
+     */
+    void onResponse(String authority, String path, long contentLength)
+    {
+        String key = key(authority, path);
+        synchronized (this)
+        {
+            Resource resource = resources.get(key);
+            if (resource != null)
+                resource.contentLength = contentLength;
+        }
+    }
+
+    void onPush()
+    {
+        pushes.increment();
+    }
+
+    void onPushComplete()
+    {
+        completes.increment();
+    }
+
+    void onPushReset()
+    {
+        resets.increment();
+    }
+
+    void onCacheHit(int count)
+    {
+        cacheHits.add(count);
+    }
+
+    void onThrottle()
+    {
+        throttles.increment();
+    }
+
+    @Override
+    public String toString()
+    {
+        int size;
+        synchronized (this)
+        {
+            size = resources.size();
+        }
+        return String.format("%s@%x{resources=%d,pushes=%d,completes=%d,resets=%d,cacheHits=%d,throttles=%d}",
+                getClass().getSimpleName(), hashCode(), size, getPushes(), getCompletes(), getResets(), getCacheHits(), getThrottles());
+    }
+
+    private class Resource
+    {
+        private final Map<String, Boolean> associated = new LinkedHashMap<String, Boolean>(16, 0.75F, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+            {
+                return size() > getMaxAssociations();
+            }
+        };
+        private long timestamp;
+        private long contentLength = -1;
+    }
+}
@@ -72,6 +72,12 @@ import org.junit.Test;
 
 public class HTTP2ServerTest extends AbstractServerTest
 {
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDataQuantum() throws Exception
+    {
+        new HTTP2ServerConnectionFactory(new HttpConfiguration()).setDataQuantum(0);
+    }
+
     @Test
     public void testNoPrefaceBytes() throws Exception
     {
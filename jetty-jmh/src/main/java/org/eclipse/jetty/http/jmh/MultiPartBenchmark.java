@@ -19,8 +19,12 @@
 package org.eclipse.jetty.http.jmh;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -33,8 +37,11 @@ import javax.servlet.MultipartConfigElement;
 import javax.servlet.http.Part;
 
 import org.eclipse.jetty.http.MultiPartFormInputStream;
+import org.eclipse.jetty.http.MultiPartStreamParser;
 import org.eclipse.jetty.http.MultiPartCaptureTest.MultipartExpectations;
 import org.eclipse.jetty.toolchain.test.IO;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Level;
@@ -113,7 +120,7 @@ public class MultiPartBenchmark
     }
     
     
-    @Param({"UTIL", "HTTP"})
+    @Param({"UTIL", "HTTP", "STREAM"})
     public static String parserType;
     
     @Setup(Level.Trial)
@@ -193,6 +200,15 @@ public class MultiPartBenchmark
                 }
                 break;
                 
+                case "STREAM":
+                {
+                    long size = streamParts(in, _contentType, outputDir);
+                    if (size != (long)_numSections * _numBytesPerSection)
+                        throw new IllegalStateException("Incorrect Parsing");
+                    count += size;
+                }
+                break;
+                
                 default:
                     throw new IllegalStateException("Unknown parserType Parameter");
             }
@@ -258,6 +274,11 @@ public class MultiPartBenchmark
                         }
                     }
                     break;
+                    case "STREAM":
+                    {
+                        count += streamParts(in, multipartExpectations.contentType, outputDir);
+                    }
+                    break;
                     default:
                         throw new IllegalStateException("Unknown parserType Parameter");
                 }
@@ -267,6 +288,91 @@ public class MultiPartBenchmark
         return count;
     }
     
+    /**
+     * Parse with the streaming parser, writing each part directly from the parsed
+     * buffer slices to a file with a {@link FileChannel}.
+     */
+    private long streamParts(InputStream in, String contentType, Path outputDir) throws IOException
+    {
+        StreamingListener listener = new StreamingListener(outputDir);
+        MultiPartStreamParser parser = new MultiPartStreamParser(contentType, listener);
+        ByteBuffer buffer = BufferUtil.allocate(16 * 1024);
+        try
+        {
+            while (true)
+            {
+                int len = in.read(buffer.array(), buffer.arrayOffset(), buffer.capacity());
+                if (len < 0)
+                {
+                    parser.parse(BufferUtil.EMPTY_BUFFER, true, Callback.NOOP);
+                    break;
+                }
+                buffer.position(0);
+                buffer.limit(len);
+                // The listener writes synchronously, so the callback is always complete
+                while (buffer.hasRemaining())
+                    parser.parse(buffer, false, Callback.NOOP);
+            }
+        }
+        finally
+        {
+            listener.close();
+        }
+        return listener.size;
+    }
+    
+    private static class StreamingListener implements MultiPartStreamParser.Listener
+    {
+        private final Path outputDir;
+        private FileChannel channel;
+        private long size;
+        
+        private StreamingListener(Path outputDir)
+        {
+            this.outputDir = outputDir;
+        }
+        
+        @Override
+        public void onPartBegin(MultiPartStreamParser.Part part)
+        {
+            try
+            {
+                Path file = Files.createTempFile(outputDir, "MultiPart", "");
+                file.toFile().deleteOnExit();
+                channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        @Override
+        public void onPartContent(MultiPartStreamParser.Part part, ByteBuffer content, boolean last, Callback callback)
+        {
+            try
+            {
+                while (content.hasRemaining())
+                    size += channel.write(content);
+                if (last)
+                    close();
+                callback.succeeded();
+            }
+            catch (IOException e)
+            {
+                callback.failed(e);
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        private void close() throws IOException
+        {
+            if (channel != null)
+                channel.close();
+            channel = null;
+        }
+    }
+    
     public static void main(String[] args) throws RunnerException
     {
         Options opt = new OptionsBuilder()
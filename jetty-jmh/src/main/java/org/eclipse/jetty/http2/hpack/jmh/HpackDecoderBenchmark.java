@@ -0,0 +1,110 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.hpack.jmh;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HostPortHttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpScheme;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.hpack.HpackDecoder;
+import org.eclipse.jetty.http2.hpack.HpackEncoder;
+import org.eclipse.jetty.util.BufferUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+@State(Scope.Thread)
+@Warmup(iterations = 7, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 7, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+public class HpackDecoderBenchmark
+{
+    /**
+     * With a dynamic table, repeated requests are encoded as indexed fields;
+     * without, every field is sent as a literal and must be decoded again.
+     */
+    @Param({"0", "4096"})
+    public int dynamicTableSize;
+
+    private HpackDecoder _decoder;
+    private ByteBuffer _encoded;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception
+    {
+        HttpFields fields = new HttpFields();
+        fields.put(HttpHeader.USER_AGENT, "Mozilla/5.0 (X11; Linux x86_64; rv:60.0) Gecko/20100101 Firefox/60.0");
+        fields.put(HttpHeader.ACCEPT, "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        fields.put(HttpHeader.ACCEPT_LANGUAGE, "en-US,en;q=0.5");
+        fields.put(HttpHeader.ACCEPT_ENCODING, "gzip, deflate, br");
+        fields.put(HttpHeader.COOKIE, "JSESSIONID=node01abcdefghijklmnopqrstuvwxyz0.node0");
+        fields.put("x-request-source", "jmh");
+        MetaData.Request request = new MetaData.Request("GET", HttpScheme.HTTPS, new HostPortHttpField("www.example.com:8443"),
+                "/context/path/resource?query=value", HttpVersion.HTTP_2, fields);
+
+        HpackEncoder encoder = new HpackEncoder(dynamicTableSize, dynamicTableSize);
+        _decoder = new HpackDecoder(dynamicTableSize, 8192);
+
+        // The first request populates the dynamic tables, the following requests are all the same.
+        ByteBuffer buffer = BufferUtil.allocate(8192);
+        int pos = BufferUtil.flipToFill(buffer);
+        encoder.encode(buffer, request);
+        BufferUtil.flipToFlush(buffer, pos);
+        _decoder.decode(buffer);
+
+        _encoded = BufferUtil.allocate(8192);
+        pos = BufferUtil.flipToFill(_encoded);
+        encoder.encode(_encoded, request);
+        BufferUtil.flipToFlush(_encoded, pos);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    public MetaData testDecode() throws Exception
+    {
+        return _decoder.decode(_encoded.slice());
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(HpackDecoderBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,117 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http2.hpack.jmh;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http2.hpack.Huffman;
+import org.eclipse.jetty.util.BufferUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+@State(Scope.Thread)
+@Warmup(iterations = 7, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 7, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+public class HuffmanBenchmark
+{
+    /**
+     * Header values typical of browser requests and server responses.
+     */
+    private static final String[] VALUES =
+    {
+        "www.example.com",
+        "/static/js/app.min.js?v=3.14.15",
+        "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/67.0.3396.99 Safari/537.36",
+        "text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,image/apng,*/*;q=0.8",
+        "gzip, deflate, br",
+        "en-GB,en-US;q=0.9,en;q=0.8",
+        "_ga=GA1.2.1234567890.1531234567; _gid=GA1.2.987654321.1531234567; JSESSIONID=node0x1y2z3abcdefg0.node0",
+        "https://www.example.com/search?q=jetty+http2&source=hp",
+        "max-age=0, no-cache, no-store, must-revalidate",
+        "Mon, 21 Oct 2013 20:13:21 GMT",
+        "W/\"5b3f7a5c-1e4b\"",
+        "text/css;charset=utf-8",
+    };
+
+    private byte[][] _encoded;
+    private byte[] _decoded;
+    private ByteBuffer _buffer;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception
+    {
+        _encoded = new byte[VALUES.length][];
+        for (int i = 0; i < VALUES.length; ++i)
+        {
+            ByteBuffer buffer = BufferUtil.allocate(Huffman.octetsNeeded(VALUES[i]));
+            int pos = BufferUtil.flipToFill(buffer);
+            Huffman.encode(buffer, VALUES[i]);
+            BufferUtil.flipToFlush(buffer, pos);
+            _encoded[i] = BufferUtil.toArray(buffer);
+        }
+        _decoded = new byte[1024];
+        _buffer = BufferUtil.allocate(1024);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    public int testDecode() throws Exception
+    {
+        int decoded = 0;
+        for (byte[] encoded : _encoded)
+            decoded += Huffman.decode(ByteBuffer.wrap(encoded), encoded.length, _decoded, 0);
+        return decoded;
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    public int testEncode() throws Exception
+    {
+        int encoded = 0;
+        for (String value : VALUES)
+        {
+            BufferUtil.clearToFill(_buffer);
+            Huffman.encode(_buffer, value);
+            encoded += _buffer.position();
+        }
+        return encoded;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(HuffmanBenchmark.class.getSimpleName())
+                .forks(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,149 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+@State(Scope.Benchmark)
+@Warmup(iterations = 7, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 7, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+public class ContextHandlerCollectionBenchmark
+{
+    @Param({"10", "100", "2000"})
+    public static int contexts;
+
+    @Param({"EXACT", "WILDCARD"})
+    public static String hostType;
+
+    private Server _server;
+    private ContextHandlerCollection _collection;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception
+    {
+        _server = new Server();
+        _server.addConnector(new LocalConnector(_server));
+        _collection = new ContextHandlerCollection();
+        for (int i = 0; i < contexts; i++)
+        {
+            // Only route the request, as ContextHandler.checkContext would
+            ContextHandler context = new ContextHandler()
+            {
+                @Override
+                public void doScope(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+                {
+                    if (checkVirtualHost(baseRequest) && checkContextPath(target))
+                        baseRequest.setHandled(true);
+                }
+            };
+            context.setContextPath(i % 2 == 0 ? "/" : "/ctx");
+            if ("EXACT".equals(hostType))
+                context.setVirtualHosts(new String[]{"www" + i + ".example.com", "alias" + i + ".example.com"});
+            else
+                context.setVirtualHosts(new String[]{"*.domain" + i + ".example.com"});
+            _collection.addHandler(context);
+        }
+        _server.setHandler(_collection);
+        _server.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopTrial() throws Exception
+    {
+        _server.stop();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState
+    {
+        private Request[] _requests;
+
+        @Setup(Level.Trial)
+        public void setupTrial(ContextHandlerCollectionBenchmark benchmark)
+        {
+            _requests = new Request[64];
+            for (int i = 0; i < _requests.length; i++)
+            {
+                int context = ThreadLocalRandom.current().nextInt(contexts);
+                String host = "EXACT".equals(hostType) ? "alias" + context + ".example.com" : "vhost.domain" + context + ".example.com";
+                String path = context % 2 == 0 ? "/index.html" : "/ctx/index.html";
+                HttpChannel channel = new HttpChannel(benchmark._server.getConnectors()[0], new HttpConfiguration(), null, null);
+                Request request = channel.getRequest();
+                request.setMetaData(new MetaData.Request("GET", new HttpURI("http://" + host + path), HttpVersion.HTTP_1_1, new HttpFields()));
+                _requests[i] = request;
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean testRoute(ThreadState state) throws Exception
+    {
+        Request request = state._requests[ThreadLocalRandom.current().nextInt(state._requests.length)];
+        request.setHandled(false);
+        _collection.handle(request.getPathInfo(), request, request, null);
+        return request.isHandled();
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+                .include(ContextHandlerCollectionBenchmark.class.getSimpleName())
+                .warmupIterations(10)
+                .measurementIterations(10)
+                .forks(1)
+                .threads(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+}
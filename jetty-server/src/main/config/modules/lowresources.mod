@@ -32,3 +32,18 @@ etc/jetty-lowresources.xml
 
 ## Accept new connections while in low resources
 # jetty.lowresources.accepting=true
+
+## Reject new requests with a 503 while in low resources
+# jetty.lowresources.rejecting=false
+
+## The Retry-After of rejected requests (in seconds)
+# jetty.lowresources.retryAfter=1
+
+## Max time a task may wait in the thread pool queue before being in low resources mode (in milliseconds)
+# jetty.lowresources.maxQueueLatency=0
+
+## Max time a selector may take to process an update before its connector is in low resources mode (in milliseconds)
+# jetty.lowresources.maxSelectorLag=0
+
+## Max fraction of time spent in garbage collection before being in low resources mode
+# jetty.lowresources.maxGcPauseRatio=0
@@ -38,6 +38,12 @@ etc/jetty.xml
 ## Max response content write length that is buffered (in bytes)
 # jetty.httpConfig.outputAggregationSize=8192
 
+## Max time that flushed response content may be delayed to be sent in larger chunks (in ms, 0 to disable)
+# jetty.httpConfig.outputFlushDelay=0
+
+## Max flushed response content that may be delayed (in bytes)
+# jetty.httpConfig.outputFlushDelaySize=8192
+
 ## Max request headers size (in bytes)
 # jetty.httpConfig.requestHeaderSize=8192
 
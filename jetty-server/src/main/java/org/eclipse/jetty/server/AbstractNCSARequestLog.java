@@ -63,6 +63,7 @@ public abstract class AbstractNCSARequestLog extends AbstractLifeCycle implement
     private String _logDateFormat = "dd/MMM/yyyy:HH:mm:ss Z";
     private Locale _logLocale = Locale.getDefault();
     private String _logTimeZone = "GMT";
+    private RequestLogFormat _logFormat;
 
     /* ------------------------------------------------------------ */
 
@@ -83,6 +84,21 @@ public abstract class AbstractNCSARequestLog extends AbstractLifeCycle implement
 
     /* ------------------------------------------------------------ */
 
+    /**
+     * Write a formatted requestEntry out.
+     * <p>The builder is reused by the calling thread once this method returns, so
+     * implementations that do not override this method receive a {@link String} copy
+     * via {@link #write(String)}.</p>
+     * @param requestEntry the request entry
+     * @throws IOException if unable to write the entry
+     */
+    protected void write(StringBuilder requestEntry) throws IOException
+    {
+        write(requestEntry.toString());
+    }
+
+    /* ------------------------------------------------------------ */
+
     private void append(StringBuilder buf,String s)
     {
         if (s==null || s.length()==0)
@@ -110,6 +126,14 @@ public abstract class AbstractNCSARequestLog extends AbstractLifeCycle implement
             StringBuilder buf = _buffers.get();
             buf.setLength(0);
 
+            RequestLogFormat logFormat = _logFormat;
+            if (logFormat != null)
+            {
+                logFormat.format(buf, request, response);
+                write(buf);
+                return;
+            }
+
             if (_logServer)
             {
                 append(buf,request.getServerName());
@@ -213,8 +237,7 @@ public abstract class AbstractNCSARequestLog extends AbstractLifeCycle implement
                 }
             }
 
-            String log = buf.toString();
-            write(log);
+            write(buf);
         }
         catch (IOException e)
         {
@@ -414,6 +437,28 @@ public abstract class AbstractNCSARequestLog extends AbstractLifeCycle implement
         return _extended;
     }
 
+    /**
+     * Set a structured log format to use instead of the NCSA format.
+     * <p>When set, the NCSA specific options such as {@link #setExtended(boolean)}
+     * and {@link #setLogCookies(boolean)} are ignored.</p>
+     *
+     * @param logFormat the log format, or null to log in the NCSA format
+     */
+    public void setLogFormat(RequestLogFormat logFormat)
+    {
+        _logFormat = logFormat;
+    }
+
+    /**
+     * Retrieve the structured log format.
+     *
+     * @return the log format, or null if entries are logged in the NCSA format
+     */
+    public RequestLogFormat getLogFormat()
+    {
+        return _logFormat;
+    }
+
     /**
      * Set up request logging and open log file.
      *
@@ -436,6 +481,9 @@ public abstract class AbstractNCSARequestLog extends AbstractLifeCycle implement
         else
             _ignorePathMap = null;
 
+        if (_logFormat != null)
+            _logFormat.compile();
+
         super.doStart();
     }
 
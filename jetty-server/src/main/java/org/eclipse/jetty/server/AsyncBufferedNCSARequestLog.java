@@ -0,0 +1,547 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+
+/* ------------------------------------------------------------ */
+/**
+ * An asynchronously writing NCSA Request Log that never blocks the request thread.
+ * <p>
+ * Each entry is formatted by {@link AbstractNCSARequestLog} into its per-thread
+ * {@link StringBuilder}, then encoded as UTF-8 directly from that builder into a direct
+ * {@link ByteBuffer} owned by a slot of a bounded, lock-free ring, so no {@link String}
+ * is created per line. A single writer thread drains published slots in batches and
+ * writes them with a gathering {@link FileChannel#write(ByteBuffer[], int, int)}.
+ * </p>
+ * <p>
+ * If the ring is full the entry is dropped and counted rather than blocking the
+ * request; see {@link #getDroppedEntries()}. The log file is not rolled over: external
+ * rotation tools may move the file and then invoke {@link #reopen()}.
+ * </p>
+ * <p>
+ * When stopped, the writer waits up to half the {@link #getStopTimeout() stop timeout}
+ * for entries that were claimed but not yet published; such entries are then abandoned
+ * and counted as dropped.
+ * </p>
+ */
+@ManagedObject("Asynchronous buffered NCSA request log")
+public class AsyncBufferedNCSARequestLog extends AbstractNCSARequestLog
+{
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.ISO_8859_1);
+
+    private final AtomicLong _head = new AtomicLong();
+    private final AtomicLong _dropped = new AtomicLong();
+    private final AtomicLong _written = new AtomicLong();
+    private String _filename;
+    private boolean _append = true;
+    private int _capacity = 1024;
+    private int _maxBatchSize = 64;
+    private int _entryBufferSize = 512;
+    private volatile AtomicLongArray _sequences;
+    private volatile ByteBuffer[] _slots;
+    private long _tail;
+    private volatile FileChannel _channel;
+    private volatile boolean _waiting;
+    private volatile boolean _closing;
+    private volatile long _abandonTime;
+    private volatile boolean _reopen;
+    private Thread _thread;
+
+    public AsyncBufferedNCSARequestLog()
+    {
+        this(null);
+    }
+
+    public AsyncBufferedNCSARequestLog(String filename)
+    {
+        _filename = filename;
+        setExtended(true);
+        setLogTimeZone("GMT");
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("the log file name")
+    public String getFilename()
+    {
+        return _filename;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param filename the log file name; it must be set before the log is started
+     */
+    public void setFilename(String filename)
+    {
+        _filename = filename;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("existing log files are appended to")
+    public boolean isAppend()
+    {
+        return _append;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param append true to append to an existing log file, false to truncate it
+     */
+    public void setAppend(boolean append)
+    {
+        _append = append;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of entries that may be queued before entries are dropped")
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param capacity the number of entries that may be queued, rounded up to a power of two
+     */
+    public void setCapacity(int capacity)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity " + capacity);
+        _capacity = Integer.highestOneBit(capacity - 1) << 1;
+        if (_capacity == 0)
+            _capacity = 1;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("maximum number of entries written by a single gathering write")
+    public int getMaxBatchSize()
+    {
+        return _maxBatchSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        if (maxBatchSize <= 0)
+            throw new IllegalArgumentException("maxBatchSize " + maxBatchSize);
+        _maxBatchSize = maxBatchSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("initial size in bytes of the buffer of each queue slot")
+    public int getEntryBufferSize()
+    {
+        return _entryBufferSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param entryBufferSize the initial size of each slot buffer, which grows to fit longer entries
+     */
+    public void setEntryBufferSize(int entryBufferSize)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        _entryBufferSize = entryBufferSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of entries dropped because the queue was full")
+    public long getDroppedEntries()
+    {
+        return _dropped.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of entries written to the log file")
+    public long getWrittenEntries()
+    {
+        return _written.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of entries waiting to be written")
+    public int getQueueSize()
+    {
+        return (int)Math.max(0, _head.get() - _tail);
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation(value = "reset the dropped and written entry counts", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _dropped.set(0);
+        _written.set(0);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Reopen the log file, so that a file moved away by an external rotation tool is recreated.
+     * <p>The file is reopened by the writer thread before it writes the next batch.</p>
+     */
+    @ManagedOperation(value = "reopen the log file", impact = "ACTION")
+    public void reopen()
+    {
+        _reopen = true;
+        Thread thread = _thread;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected boolean isEnabled()
+    {
+        return _channel != null;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void write(String requestEntry) throws IOException
+    {
+        offer(requestEntry);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void write(StringBuilder requestEntry) throws IOException
+    {
+        offer(requestEntry);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Claim a free slot, encode the entry into its buffer and publish it to the writer.
+     * @param entry the entry to log
+     * @return true if the entry was queued, false if it was dropped
+     */
+    protected boolean offer(CharSequence entry)
+    {
+        // Read the sequences before the slots, as they are assigned in the opposite order
+        // by doStart(), and either may be nulled by a concurrent doStop().
+        AtomicLongArray sequences = _sequences;
+        ByteBuffer[] slots = _slots;
+        if (sequences == null || slots == null || _closing)
+            return false;
+
+        int mask = slots.length - 1;
+        long position;
+        while (true)
+        {
+            position = _head.get();
+            long sequence = sequences.get((int)position & mask);
+            if (sequence < position)
+            {
+                // The writer has not yet released this slot: the queue is full.
+                _dropped.incrementAndGet();
+                return false;
+            }
+            if (sequence == position && _head.compareAndSet(position, position + 1))
+                break;
+        }
+
+        int index = (int)position & mask;
+        ByteBuffer buffer = slots[index];
+        int required = encodedLength(entry) + LINE_SEPARATOR.length;
+        if (buffer.capacity() < required)
+        {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(required) << 1);
+            slots[index] = buffer;
+        }
+        buffer.clear();
+        encode(entry, buffer);
+        buffer.put(LINE_SEPARATOR);
+        buffer.flip();
+        sequences.set(index, position + 1);
+
+        if (_waiting)
+            LockSupport.unpark(_thread);
+        return true;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static int encodedLength(CharSequence entry)
+    {
+        int length = entry.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++)
+        {
+            char c = entry.charAt(i);
+            if (c >= 0x80)
+                bytes += c < 0x800 ? 1 : 2;
+        }
+        return bytes;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void encode(CharSequence entry, ByteBuffer buffer)
+    {
+        int length = entry.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = entry.charAt(i);
+            if (c < 0x80)
+            {
+                buffer.put((byte)c);
+            }
+            else if (c < 0x800)
+            {
+                buffer.put((byte)(0xC0 | (c >> 6)));
+                buffer.put((byte)(0x80 | (c & 0x3F)));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(entry.charAt(i + 1)))
+            {
+                // A surrogate pair encodes to 4 bytes, within the 6 reserved for its two chars.
+                int code = Character.toCodePoint(c, entry.charAt(++i));
+                buffer.put((byte)(0xF0 | (code >> 18)));
+                buffer.put((byte)(0x80 | ((code >> 12) & 0x3F)));
+                buffer.put((byte)(0x80 | ((code >> 6) & 0x3F)));
+                buffer.put((byte)(0x80 | (code & 0x3F)));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                buffer.put((byte)'?');
+                buffer.put((byte)'?');
+                buffer.put((byte)'?');
+            }
+            else
+            {
+                buffer.put((byte)(0xE0 | (c >> 12)));
+                buffer.put((byte)(0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte)(0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Write all published entries, in batches of at most {@link #getMaxBatchSize()}.
+     * @param slots the slots of the ring
+     * @param sequences the sequences of the ring
+     * @param batch the array used to gather the buffers
+     * @return the number of entries written
+     */
+    private int drain(ByteBuffer[] slots, AtomicLongArray sequences, ByteBuffer[] batch) throws IOException
+    {
+        int mask = slots.length - 1;
+        int drained = 0;
+        while (true)
+        {
+            int count = 0;
+            long tail = _tail;
+            while (count < batch.length && sequences.get((int)(tail + count) & mask) == tail + count + 1)
+            {
+                batch[count] = slots[(int)(tail + count) & mask];
+                count++;
+            }
+            if (count == 0)
+                return drained;
+
+            try
+            {
+                FileChannel channel = _channel;
+                if (channel == null)
+                    throw new ClosedChannelException();
+                int offset = 0;
+                while (offset < count)
+                {
+                    channel.write(batch, offset, count - offset);
+                    while (offset < count && !batch[offset].hasRemaining())
+                        offset++;
+                }
+                _written.addAndGet(count);
+            }
+            finally
+            {
+                // Release the slots even if the write failed, so that producers are not stalled.
+                for (int i = 0; i < count; i++)
+                {
+                    batch[i] = null;
+                    sequences.set((int)(tail + i) & mask, tail + i + slots.length);
+                }
+                _tail = tail + count;
+            }
+            drained += count;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Skip the claimed slots, up to the first published one, whose entries were not published in time.
+     * @param slots the slots of the ring
+     * @param sequences the sequences of the ring
+     * @return the number of entries abandoned
+     */
+    private int abandon(ByteBuffer[] slots, AtomicLongArray sequences)
+    {
+        int mask = slots.length - 1;
+        int abandoned = 0;
+        long tail = _tail;
+        while (tail < _head.get() && sequences.get((int)tail & mask) != tail + 1)
+        {
+            sequences.set((int)tail & mask, tail + slots.length);
+            tail++;
+            abandoned++;
+        }
+        _tail = tail;
+        _dropped.addAndGet(abandoned);
+        return abandoned;
+    }
+
+    /* ------------------------------------------------------------ */
+    private FileChannel open(boolean truncate) throws IOException
+    {
+        Path path = Paths.get(_filename);
+        if (truncate)
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected synchronized void doStart() throws Exception
+    {
+        if (_filename == null)
+            throw new IllegalStateException("No filename");
+
+        _slots = new ByteBuffer[_capacity];
+        _sequences = new AtomicLongArray(_capacity);
+        for (int i = 0; i < _capacity; i++)
+        {
+            _slots[i] = ByteBuffer.allocateDirect(_entryBufferSize);
+            _sequences.set(i, i);
+        }
+        _head.set(0);
+        _tail = 0;
+        _closing = false;
+        _reopen = false;
+        _channel = open(!_append);
+        LOG.info("Opened " + _filename);
+
+        _thread = new Thread(new Writer(), "AsyncBufferedNCSARequestLog@" + Integer.toString(hashCode(), 16));
+        _thread.setDaemon(true);
+        _thread.start();
+        super.doStart();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected synchronized void doStop() throws Exception
+    {
+        long stopTimeout = Math.max(1, getStopTimeout());
+        _abandonTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stopTimeout) / 2;
+        _closing = true;
+        Thread thread = _thread;
+        if (thread != null)
+        {
+            LockSupport.unpark(thread);
+            thread.join(stopTimeout);
+            if (thread.isAlive())
+                LOG.warn("Stopped {} while still writing {} entries", this, getQueueSize());
+        }
+        _thread = null;
+        FileChannel channel = _channel;
+        _channel = null;
+        if (channel != null)
+            channel.close();
+        _sequences = null;
+        _slots = null;
+        super.doStop();
+    }
+
+    /* ------------------------------------------------------------ */
+    private class Writer implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            // The arrays are nulled by doStop(), which may not wait for this thread to exit.
+            ByteBuffer[] slots = _slots;
+            AtomicLongArray sequences = _sequences;
+            ByteBuffer[] batch = new ByteBuffer[_maxBatchSize];
+            while (true)
+            {
+                try
+                {
+                    if (_reopen)
+                    {
+                        _reopen = false;
+                        // The log may not have been opened, or may have been closed by doStop().
+                        FileChannel channel = _channel;
+                        if (channel != null)
+                        {
+                            _channel = open(false);
+                            channel.close();
+                        }
+                    }
+
+                    if (drain(slots, sequences, batch) > 0)
+                        continue;
+
+                    if (_closing)
+                    {
+                        // Entries claimed before closing may still be publishing,
+                        // but a producer that failed to publish must not block stop.
+                        if (_head.get() == _tail)
+                            return;
+                        if (System.nanoTime() - _abandonTime >= 0)
+                        {
+                            int abandoned = abandon(slots, sequences);
+                            if (abandoned > 0)
+                                LOG.warn("Abandoned {} unpublished entries of {}", abandoned, AsyncBufferedNCSARequestLog.this);
+                        }
+                        else
+                        {
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                        }
+                        continue;
+                    }
+
+                    _waiting = true;
+                    if (sequences.get((int)_tail & (slots.length - 1)) != _tail + 1 && !_closing && !_reopen)
+                        LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                    _waiting = false;
+                }
+                catch (IOException e)
+                {
+                    LOG.warn(e);
+                    if (_closing && _channel == null)
+                        return;
+                }
+            }
+        }
+    }
+}
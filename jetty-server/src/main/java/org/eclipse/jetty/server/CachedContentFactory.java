@@ -19,19 +19,23 @@
 package org.eclipse.jetty.server;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.eclipse.jetty.http.CompressedContentFormat;
 import org.eclipse.jetty.http.DateGenerator;
@@ -44,11 +48,34 @@ import org.eclipse.jetty.http.PreEncodedHttpField;
 import org.eclipse.jetty.http.PrecompressedHttpContent;
 import org.eclipse.jetty.http.ResourceHttpContent;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.PathWatcher;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.resource.ResourceFactory;
 
+/**
+ * A cache of {@link HttpContent} for static resources.
+ * <p>
+ * Cached entries are evicted with the CLOCK algorithm: a hit only sets a referenced flag on the
+ * entry, and eviction takes entries from a queue in insertion order, giving referenced entries a
+ * second chance, so both hits and evictions are constant time. When the cache is full, a new entry
+ * is only admitted if a {@link FrequencySketch} estimates that its key has been requested at least as
+ * often as the entry it would evict (TinyLFU), so that scans of rarely requested files do not
+ * flush the hot files from the cache.
+ * </p>
+ * <p>
+ * By default a cache hit checks the last modified time and length of the resource to validate the
+ * cached content. Alternatively the content may be validated at most once every
+ * {@link #setRevalidationInterval(long) revalidation interval}, or the cache may be
+ * {@link #setPathWatcher(PathWatcher) invalidated by the events} of a {@link PathWatcher}, so that hits
+ * on file resources do not access the file system at all.
+ * </p>
+ */
+@ManagedObject("Static content cache")
 public class CachedContentFactory implements HttpContent.ContentFactory
 {
     private static final Logger LOG = Log.getLogger(CachedContentFactory.class);
@@ -63,6 +90,18 @@ public class CachedContentFactory implements HttpContent.ContentFactory
     private final boolean _etags;
     private final CompressedContentFormat[] _precompressedFormats;
     private final boolean _useFileMappedBuffer;
+    private final Queue<CachedHttpContent> _clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger _clockSize = new AtomicInteger();
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _evictions = new LongAdder();
+    private final LongAdder _rejections = new LongAdder();
+    private volatile FrequencySketch _sketch;
+    private boolean _admissionFilter = true;
+    private long _revalidationNanos;
+    private final ConcurrentMap<Path, CachedHttpContent> _watchedFiles = new ConcurrentHashMap<>();
+    private final PathWatcher.Listener _invalidator = this::invalidate;
+    private PathWatcher _pathWatcher;
 
     private int _maxCachedFileSize = 128 * 1024 * 1024;
     private int _maxCachedFiles = 2048;
@@ -89,18 +128,119 @@ public class CachedContentFactory implements HttpContent.ContentFactory
         _useFileMappedBuffer = useFileMappedBuffer;
         _etags = etags;
         _precompressedFormats = precompressedFormats;
+        _sketch = new FrequencySketch(_maxCachedFiles);
     }
 
+    @ManagedAttribute("size in bytes of the cached content")
     public int getCachedSize()
     {
         return _cachedSize.get();
     }
 
+    @ManagedAttribute("number of cached files")
     public int getCachedFiles()
     {
         return _cachedFiles.get();
     }
 
+    @ManagedAttribute("number of requests served from the cache")
+    public long getHits()
+    {
+        return _hits.sum();
+    }
+
+    @ManagedAttribute("number of requests not served from the cache")
+    public long getMisses()
+    {
+        return _misses.sum();
+    }
+
+    @ManagedAttribute("number of entries evicted from the cache")
+    public long getEvictions()
+    {
+        return _evictions.sum();
+    }
+
+    @ManagedAttribute("number of entries not admitted to the full cache")
+    public long getRejections()
+    {
+        return _rejections.sum();
+    }
+
+    @ManagedOperation(value="resets the cache statistics", impact="ACTION")
+    public void resetStatistics()
+    {
+        _hits.reset();
+        _misses.reset();
+        _evictions.reset();
+        _rejections.reset();
+    }
+
+    /**
+     * @return true if new entries are only admitted to a full cache when they are requested
+     * at least as frequently as the entry they would evict.
+     */
+    @ManagedAttribute("whether the frequency based admission filter is used")
+    public boolean isAdmissionFilter()
+    {
+        return _admissionFilter;
+    }
+
+    /**
+     * @param admissionFilter true if new entries are only admitted to a full cache when they are
+     * requested at least as frequently as the entry they would evict.
+     */
+    public void setAdmissionFilter(boolean admissionFilter)
+    {
+        _admissionFilter = admissionFilter;
+    }
+
+    /**
+     * @return the minimum interval in ms between validations of cached content against its resource,
+     * or 0 if cached content is validated on every hit.
+     */
+    @ManagedAttribute("minimum interval in ms between validations of cached content")
+    public long getRevalidationInterval()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_revalidationNanos);
+    }
+
+    /**
+     * @param interval the minimum interval in ms between validations of cached content against its resource,
+     * or 0 if cached content is validated on every hit.
+     */
+    public void setRevalidationInterval(long interval)
+    {
+        _revalidationNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+    }
+
+    /**
+     * @return the PathWatcher whose events invalidate cached file content, or null
+     */
+    public PathWatcher getPathWatcher()
+    {
+        return _pathWatcher;
+    }
+
+    /**
+     * Invalidate cached content from the events of a {@link PathWatcher} rather than by validating it on
+     * each hit. Cached content of file resources is then not validated, so the watcher must watch all the
+     * directories from which content is cached, including sub directories.
+     * The lifecycle of the watcher is the responsibility of the caller.
+     *
+     * @param pathWatcher the PathWatcher whose events invalidate cached file content, or null
+     */
+    public void setPathWatcher(PathWatcher pathWatcher)
+    {
+        if (_pathWatcher != null)
+            _pathWatcher.removeListener(_invalidator);
+        flushCache();
+        _pathWatcher = pathWatcher;
+        if (_pathWatcher != null)
+            _pathWatcher.addListener(_invalidator);
+    }
+
+    @ManagedAttribute("maximum size in bytes of a cached file")
     public int getMaxCachedFileSize()
     {
         return _maxCachedFileSize;
@@ -112,6 +252,7 @@ public class CachedContentFactory implements HttpContent.ContentFactory
         shrinkCache();
     }
 
+    @ManagedAttribute("maximum size in bytes of the cached content")
     public int getMaxCacheSize()
     {
         return _maxCacheSize;
@@ -126,6 +267,7 @@ public class CachedContentFactory implements HttpContent.ContentFactory
     /**
      * @return the max number of cached files.
      */
+    @ManagedAttribute("maximum number of cached files")
     public int getMaxCachedFiles()
     {
         return _maxCachedFiles;
@@ -137,6 +279,7 @@ public class CachedContentFactory implements HttpContent.ContentFactory
     public void setMaxCachedFiles(int maxCachedFiles)
     {
         _maxCachedFiles = maxCachedFiles;
+        _sketch = new FrequencySketch(maxCachedFiles);
         shrinkCache();
     }
 
@@ -145,6 +288,7 @@ public class CachedContentFactory implements HttpContent.ContentFactory
         return _useFileMappedBuffer;
     }
 
+    @ManagedOperation(value="flushes the cache", impact="ACTION")
     public void flushCache()
     {
         while (_cache.size() > 0)
@@ -156,6 +300,9 @@ public class CachedContentFactory implements HttpContent.ContentFactory
                     content.invalidate();
             }
         }
+        _clock.clear();
+        _clockSize.set(0);
+        _watchedFiles.clear();
     }
 
     @Deprecated
@@ -179,10 +326,16 @@ public class CachedContentFactory implements HttpContent.ContentFactory
     @Override
     public HttpContent getContent(String pathInContext, int maxBufferSize) throws IOException
     {
+        _sketch.increment(pathInContext);
+
         // Is the content in this cache?
         CachedHttpContent content = _cache.get(pathInContext);
         if (content != null && (content).isValid())
+        {
+            _hits.increment();
             return content;
+        }
+        _misses.increment();
 
         // try loading the content from our factory.
         Resource resource = _factory.getResource(pathInContext);
@@ -225,7 +378,7 @@ public class CachedContentFactory implements HttpContent.ContentFactory
             return new ResourceHttpContent(resource, _mimeTypes.getMimeByExtension(resource.toString()), getMaxCachedFileSize());
 
         // Will it fit in the cache?
-        if (isCacheable(resource))
+        if (isCacheable(resource) && isAdmitted(pathInContext, resource))
         {
             CachedHttpContent content;
 
@@ -251,6 +404,8 @@ public class CachedContentFactory implements HttpContent.ContentFactory
                                 compressedContent.invalidate();
                                 compressedContent = added;
                             }
+                            else
+                                added(compressedContent);
                         }
                     }
                     if (compressedContent != null)
@@ -268,6 +423,8 @@ public class CachedContentFactory implements HttpContent.ContentFactory
                 content.invalidate();
                 content = added;
             }
+            else
+                added(content);
 
             return content;
         }
@@ -299,34 +456,143 @@ public class CachedContentFactory implements HttpContent.ContentFactory
         return new ResourceHttpContent(resource, mt, maxBufferSize);
     }
 
+    /**
+     * @param pathInContext the path of the resource
+     * @param resource the cacheable resource
+     * @return true if the resource may be added to the cache
+     */
+    private boolean isAdmitted(String pathInContext, Resource resource)
+    {
+        if (!_admissionFilter)
+            return true;
+
+        // Is the cache full?
+        if (_cachedFiles.get() < _maxCachedFiles && _cachedSize.get() + resource.length() <= _maxCacheSize)
+            return true;
+
+        // Admit if at least as popular as the next eviction candidate
+        CachedHttpContent victim = _clock.peek();
+        if (victim == null || _sketch.frequency(pathInContext) >= _sketch.frequency(victim._key))
+            return true;
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("{} not admitted, victim {}", pathInContext, victim);
+        _rejections.increment();
+        return false;
+    }
+
+    private void added(CachedHttpContent content)
+    {
+        addToClock(content);
+        if (_pathWatcher != null)
+            watch(content);
+    }
+
+    private void watch(CachedHttpContent content)
+    {
+        try
+        {
+            File file = content._resource.getFile();
+            if (file == null)
+                return;
+            Path path = file.toPath().toAbsolutePath();
+            _watchedFiles.put(path, content);
+            content._path = path;
+
+            // Check for a change that may have been missed before the file was watched
+            if (content.isModified())
+            {
+                if (_cache.remove(content._key, content))
+                    content.invalidate();
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.ignore(e);
+        }
+    }
+
+    private void invalidate(PathWatcher.PathWatchEvent event)
+    {
+        Path path = event.getPath().toAbsolutePath();
+        invalidate(path);
+
+        // A new or removed precompressed file changes the content of the uncompressed file
+        String name = path.getFileName().toString();
+        for (CompressedContentFormat format : _precompressedFormats)
+        {
+            if (name.endsWith(format._extension))
+                invalidate(path.resolveSibling(name.substring(0, name.length() - format._extension.length())));
+        }
+
+        // Deleting a directory may not report the files within it
+        if (event.getType() == PathWatcher.PathWatchEventType.DELETED)
+        {
+            for (Path watched : _watchedFiles.keySet())
+            {
+                if (watched.startsWith(path))
+                    invalidate(watched);
+            }
+        }
+    }
+
+    private void invalidate(Path path)
+    {
+        CachedHttpContent content = _watchedFiles.get(path);
+        if (content != null)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("invalidated {}", content);
+            if (_cache.remove(content._key, content))
+                content.invalidate();
+            else
+                _watchedFiles.remove(path, content);
+        }
+    }
+
+    private void addToClock(CachedHttpContent content)
+    {
+        _clock.add(content);
+
+        // Entries removed by validation are left in the queue, so purge them if they accumulate
+        if (_clockSize.incrementAndGet() > 2 * _cache.size() + 16)
+        {
+            _clock.removeIf(c -> _cache.get(c._key) != c);
+            _clockSize.set(_clock.size());
+        }
+    }
+
     private void shrinkCache()
     {
+        int secondChances = 0;
+
         // While we need to shrink
         while (_cache.size() > 0 && (_cachedFiles.get() > _maxCachedFiles || _cachedSize.get() > _maxCacheSize))
         {
-            // Scan the entire cache and generate an ordered list by last accessed time.
-            SortedSet<CachedHttpContent> sorted = new TreeSet<>((c1, c2) ->
-            {
-                if (c1._lastAccessed < c2._lastAccessed)
-                    return -1;
-
-                if (c1._lastAccessed > c2._lastAccessed)
-                    return 1;
+            CachedHttpContent content = _clock.poll();
+            if (content == null)
+                break;
 
-                if (c1._contentLengthValue < c2._contentLengthValue)
-                    return -1;
+            // Skip entries that have already been removed from the cache
+            if (_cache.get(content._key) != content)
+            {
+                _clockSize.decrementAndGet();
+                continue;
+            }
 
-                return c1._key.compareTo(c2._key);
-            });
-            sorted.addAll(_cache.values());
+            // Give recently referenced entries a second chance, unless every entry has had one
+            if (content._referenced && secondChances++ <= _cache.size())
+            {
+                content._referenced = false;
+                _clock.add(content);
+                continue;
+            }
 
-            // Invalidate least recently used first
-            for (CachedHttpContent content : sorted)
+            _clockSize.decrementAndGet();
+            if (_cache.remove(content._key, content))
             {
-                if (_cachedFiles.get() <= _maxCachedFiles && _cachedSize.get() <= _maxCacheSize)
-                    break;
-                if (content == _cache.remove(content.getKey()))
-                    content.invalidate();
+                content.invalidate();
+                _evictions.increment();
             }
         }
     }
@@ -398,7 +664,9 @@ public class CachedContentFactory implements HttpContent.ContentFactory
         private final AtomicReference<ByteBuffer> _indirectBuffer = new AtomicReference<>();
         private final AtomicReference<ByteBuffer> _directBuffer = new AtomicReference<>();
         private final AtomicReference<ByteBuffer> _mappedBuffer = new AtomicReference<>();
-        private volatile long _lastAccessed;
+        private volatile boolean _referenced;
+        private volatile long _validated;
+        private volatile Path _path;
 
         CachedHttpContent(String pathInContext, Resource resource, Map<CompressedContentFormat, CachedHttpContent> precompressedResources)
         {
@@ -416,13 +684,12 @@ public class CachedContentFactory implements HttpContent.ContentFactory
                     : new PreEncodedHttpField(HttpHeader.LAST_MODIFIED, DateGenerator.formatDate(_lastModifiedValue));
 
             _contentLengthValue = exists ? (int)resource.length() : 0;
+            _validated = System.nanoTime();
             _contentLength = new PreEncodedHttpField(HttpHeader.CONTENT_LENGTH, Long.toString(_contentLengthValue));
 
             if (_cachedFiles.incrementAndGet() > _maxCachedFiles)
                 shrinkCache();
 
-            _lastAccessed = System.currentTimeMillis();
-
             _etag = CachedContentFactory.this._etags ? new PreEncodedHttpField(HttpHeader.ETAG, resource.getWeakETag()) : null;
 
             if (precompressedResources != null)
@@ -469,9 +736,10 @@ public class CachedContentFactory implements HttpContent.ContentFactory
 
         boolean isValid()
         {
-            if (_lastModifiedValue == _resource.lastModified() && _contentLengthValue == _resource.length())
+            if (_path != null || !isStale() || !isModified())
             {
-                _lastAccessed = System.currentTimeMillis();
+                if (!_referenced)
+                    _referenced = true;
                 return true;
             }
 
@@ -480,8 +748,28 @@ public class CachedContentFactory implements HttpContent.ContentFactory
             return false;
         }
 
+        private boolean isStale()
+        {
+            if (_revalidationNanos <= 0)
+                return true;
+            long now = System.nanoTime();
+            if (now - _validated < _revalidationNanos)
+                return false;
+            _validated = now;
+            return true;
+        }
+
+        private boolean isModified()
+        {
+            return _lastModifiedValue != _resource.lastModified() || _contentLengthValue != _resource.length();
+        }
+
         protected void invalidate()
         {
+            Path path = _path;
+            if (path != null)
+                _watchedFiles.remove(path, this);
+
             ByteBuffer indirect = _indirectBuffer.getAndSet(null);
             if (indirect != null)
                 _cachedSize.addAndGet(-BufferUtil.length(indirect));
@@ -684,7 +972,8 @@ public class CachedContentFactory implements HttpContent.ContentFactory
 
         public boolean isValid()
         {
-            return _precompressedContent.isValid() && _content.isValid() && _content.getResource().lastModified() <= _precompressedContent.getResource().lastModified();
+            // The last modified values are those of the validated resources
+            return _precompressedContent.isValid() && _content.isValid() && _content._lastModifiedValue <= _precompressedContent._lastModifiedValue;
         }
 
         @Override
@@ -0,0 +1,116 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server;
+
+/**
+ * A compact, approximate frequency sketch used as the TinyLFU admission filter of
+ * {@link CachedContentFactory}.
+ * <p>
+ * This is a count-min sketch of 4 bit counters, 16 to a {@code long}, with 4 hash functions.
+ * When the number of increments reaches a sample size proportional to the table size,
+ * all counters are halved so that the sketch ages out historic popularity.
+ * The sketch is not synchronized: concurrent lost updates only reduce its accuracy.
+ * </p>
+ */
+class FrequencySketch
+{
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] _table;
+    private final int _mask;
+    private final int _sampleSize;
+    private int _size;
+
+    /**
+     * @param maximum the maximum number of entries of the cache using the sketch
+     */
+    FrequencySketch(int maximum)
+    {
+        int length = Integer.highestOneBit(Math.max(16, Math.min(maximum, 1 << 24)) - 1) << 1;
+        _table = new long[length];
+        _mask = length - 1;
+        _sampleSize = 10 * length;
+    }
+
+    /**
+     * @param key the key to estimate the frequency of
+     * @return the estimated frequency of the key, between 0 and 15
+     */
+    int frequency(Object key)
+    {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < 4; i++)
+        {
+            int shift = offset(hash, i) << 2;
+            frequency = Math.min(frequency, (int)((_table[index(hash, i)] >>> shift) & 0xFL));
+        }
+        return frequency;
+    }
+
+    /**
+     * @param key the key to count an access to
+     */
+    void increment(Object key)
+    {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < 4; i++)
+        {
+            int index = index(hash, i);
+            long mask = 0xFL << (offset(hash, i) << 2);
+            if ((_table[index] & mask) != mask)
+            {
+                _table[index] += 1L << (offset(hash, i) << 2);
+                added = true;
+            }
+        }
+
+        if (added && ++_size >= _sampleSize)
+            reset();
+    }
+
+    private void reset()
+    {
+        for (int i = 0; i < _table.length; i++)
+            _table[i] = (_table[i] >>> 1) & RESET_MASK;
+        _size = _size / 2;
+    }
+
+    private int index(int hash, int i)
+    {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int)h & _mask;
+    }
+
+    private static int offset(int hash, int i)
+    {
+        return (hash >>> (i << 3)) & 0xF;
+    }
+
+    private static int spread(int x)
+    {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
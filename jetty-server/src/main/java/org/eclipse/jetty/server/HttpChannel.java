@@ -140,6 +140,14 @@ public class HttpChannel implements Runnable, HttpOutput.Interceptor
         return _written;
     }
 
+    /**
+     * @return the id of the protocol stream carrying the current exchange, or -1 if the protocol has no streams
+     */
+    public long getStreamId()
+    {
+        return -1;
+    }
+
     /**
      * @return the number of requests handled by this connection
      */
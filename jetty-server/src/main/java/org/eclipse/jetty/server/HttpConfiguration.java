@@ -55,6 +55,8 @@ public class HttpConfiguration
     private final Trie<Boolean> _formEncodedMethods = new TreeTrie<>();
     private int _outputBufferSize=32*1024;
     private int _outputAggregationSize=_outputBufferSize/4;
+    private long _outputFlushDelay;
+    private int _outputFlushDelaySize=_outputBufferSize/4;
     private int _requestHeaderSize=8*1024;
     private int _responseHeaderSize=8*1024;
     private int _headerCacheSize=4*1024;
@@ -118,6 +120,8 @@ public class HttpConfiguration
             _formEncodedMethods.put(s,Boolean.TRUE);
         _outputBufferSize=config._outputBufferSize;
         _outputAggregationSize=config._outputAggregationSize;
+        _outputFlushDelay=config._outputFlushDelay;
+        _outputFlushDelaySize=config._outputFlushDelaySize;
         _requestHeaderSize=config._requestHeaderSize;
         _responseHeaderSize=config._responseHeaderSize;
         _headerCacheSize=config._headerCacheSize;
@@ -174,6 +178,18 @@ public class HttpConfiguration
         return _outputAggregationSize;
     }
 
+    @ManagedAttribute("The maximum time in ms that flushed HTTP/1 response content may be delayed to be aggregated")
+    public long getOutputFlushDelay()
+    {
+        return _outputFlushDelay;
+    }
+
+    @ManagedAttribute("The maximum size in bytes of flushed HTTP/1 response content that may be delayed to be aggregated")
+    public int getOutputFlushDelaySize()
+    {
+        return _outputFlushDelaySize;
+    }
+
     @ManagedAttribute("The maximum allowed size in bytes for a HTTP request header")
     public int getRequestHeaderSize()
     {
@@ -375,6 +391,34 @@ public class HttpConfiguration
         _outputAggregationSize = outputAggregationSize;
     }
 
+    /**
+     * Set the maximum time that flushed response content may be delayed before being sent
+     * to the client on a HTTP/1 connection.
+     * <p>
+     * When an application repeatedly writes and flushes small amounts of content (for example
+     * a streaming JSON API), each flush is normally sent as its own chunk and TCP segment.
+     * With a delay, flushed content of committed responses is aggregated until either the
+     * delay expires, more than {@link #getOutputFlushDelaySize()} bytes are flushed, or the
+     * response completes, so that it is sent with fewer, fuller chunks and segments.
+     *
+     * @param outputFlushDelay the delay in ms, or 0 to send flushed content immediately
+     */
+    public void setOutputFlushDelay(long outputFlushDelay)
+    {
+        _outputFlushDelay = outputFlushDelay;
+    }
+
+    /**
+     * Set the maximum size of flushed response content that is aggregated while the
+     * {@link #setOutputFlushDelay(long) output flush delay} has not expired.
+     *
+     * @param outputFlushDelaySize the max size in bytes of delayed content
+     */
+    public void setOutputFlushDelaySize(int outputFlushDelaySize)
+    {
+        _outputFlushDelaySize = outputFlushDelaySize;
+    }
+
     /**
      * <p>Larger headers will allow for more and/or larger cookies plus larger form content encoded 
      * in a URL. However, larger headers consume more memory and can make a server more vulnerable to denial of service
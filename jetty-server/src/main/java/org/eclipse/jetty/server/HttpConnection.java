@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritePendingException;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.LongAdder;
 
@@ -46,6 +47,7 @@ import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IteratingCallback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.thread.Scheduler;
 
 /**
  * <p>A {@link Connection} that handles the HTTP protocol.</p>
@@ -73,6 +75,7 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     private final BlockingReadCallback _blockingReadCallback = new BlockingReadCallback();
     private final AsyncReadCallback _asyncReadCallback = new AsyncReadCallback();
     private final SendCallback _sendCallback = new SendCallback();
+    private final DelayedFlusher _delayedFlusher;
     private final boolean _recordHttpComplianceViolations;
     private final LongAdder bytesIn = new LongAdder();
     private final LongAdder bytesOut = new LongAdder();
@@ -107,6 +110,7 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
         _input = _channel.getRequest().getHttpInput();
         _parser = newHttpParser(compliance);
         _recordHttpComplianceViolations = recordComplianceViolations;
+        _delayedFlusher = _config.getOutputFlushDelay() > 0 && _config.getOutputFlushDelaySize() > 0 ? new DelayedFlusher() : null;
         if (LOG.isDebugEnabled())
             LOG.debug("New HTTP Connection {}", this);
     }
@@ -504,6 +508,8 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     @Override
     public void onClose()
     {
+        if (_delayedFlusher != null)
+            _delayedFlusher.close();
         _sendCallback.close();
         super.onClose();
     }
@@ -516,6 +522,14 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
 
     @Override
     public void send(MetaData.Response info, boolean head, ByteBuffer content, boolean lastContent, Callback callback)
+    {
+        if (_delayedFlusher != null)
+            _delayedFlusher.send(info, head, content, lastContent, callback);
+        else
+            doSend(info, head, content, lastContent, callback);
+    }
+
+    private void doSend(MetaData.Response info, boolean head, ByteBuffer content, boolean lastContent, Callback callback)
     {
         if (info == null)
         {
@@ -675,6 +689,196 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
         }
     }
 
+    /**
+     * Aggregates small writes of committed response content for up to
+     * {@link HttpConfiguration#getOutputFlushDelay()}, so that many small
+     * flushes (and chunks) are sent as fewer, larger ones.
+     * <p>
+     * Aggregated content is copied and its callback succeeded immediately. It is
+     * sent before any content that cannot be aggregated, or by a timer once the delay expires.
+     */
+    private class DelayedFlusher implements Runnable
+    {
+        private final long _delay = _config.getOutputFlushDelay();
+        private final int _maxSize = _config.getOutputFlushDelaySize();
+        private ByteBuffer _aggregate;
+        private Scheduler.Task _task;
+        private boolean _flushing;
+        private Runnable _pending;
+        private Throwable _failure;
+
+        private void send(MetaData.Response info, boolean head, ByteBuffer content, boolean lastContent, Callback callback)
+        {
+            ByteBuffer aggregate = null;
+            boolean aggregated = false;
+            Throwable failure;
+            synchronized (this)
+            {
+                failure = _failure;
+                if (failure == null)
+                {
+                    int length = BufferUtil.length(content);
+                    if (info == null && !head && !lastContent && length > 0 && BufferUtil.length(_aggregate) + length <= _maxSize)
+                    {
+                        if (_aggregate == null)
+                            _aggregate = _bufferPool.acquire(_maxSize, false);
+                        BufferUtil.append(_aggregate, content);
+                        if (_task == null && !_flushing)
+                            _task = getConnector().getScheduler().schedule(this, _delay, TimeUnit.MILLISECONDS);
+                        aggregated = true;
+                    }
+                    else if (_flushing)
+                    {
+                        // Wait for the delayed flush to complete before sending
+                        _pending = () -> send(info, head, content, lastContent, callback);
+                        return;
+                    }
+                    else
+                    {
+                        aggregate = take();
+                    }
+                }
+            }
+
+            if (failure != null)
+                callback.failed(failure);
+            else if (aggregated)
+                callback.succeeded();
+            else if (aggregate == null)
+                doSend(info, head, content, lastContent, callback);
+            else if (info == null && BufferUtil.space(aggregate) >= BufferUtil.length(content))
+            {
+                // Send the aggregated content together with the last content
+                BufferUtil.append(aggregate, content);
+                doSend(null, head, aggregate, lastContent, new ReleaseCallback(aggregate, callback));
+            }
+            else
+            {
+                doSend(null, head, aggregate, false, new ReleaseCallback(aggregate, new Callback()
+                {
+                    @Override
+                    public void succeeded()
+                    {
+                        doSend(info, head, content, lastContent, callback);
+                    }
+
+                    @Override
+                    public void failed(Throwable x)
+                    {
+                        callback.failed(x);
+                    }
+                }));
+            }
+        }
+
+        private ByteBuffer take()
+        {
+            if (_task != null)
+                _task.cancel();
+            _task = null;
+            ByteBuffer aggregate = _aggregate;
+            _aggregate = null;
+            if (BufferUtil.hasContent(aggregate))
+                return aggregate;
+            if (aggregate != null)
+                _bufferPool.release(aggregate);
+            return null;
+        }
+
+        /**
+         * Flush the aggregated content once the delay has expired.
+         */
+        @Override
+        public void run()
+        {
+            ByteBuffer aggregate;
+            synchronized (this)
+            {
+                _task = null;
+                if (_flushing || _failure != null)
+                    return;
+                aggregate = take();
+                if (aggregate == null)
+                    return;
+                _flushing = true;
+            }
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("delayed flush {} {}", BufferUtil.toDetailString(aggregate), HttpConnection.this);
+            doSend(null, false, aggregate, false, new ReleaseCallback(aggregate, new Callback()
+            {
+                @Override
+                public void succeeded()
+                {
+                    flushed(null);
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    flushed(x);
+                }
+            }));
+        }
+
+        private void flushed(Throwable failure)
+        {
+            Runnable pending;
+            synchronized (this)
+            {
+                _flushing = false;
+                if (failure != null)
+                    _failure = failure;
+                else if (BufferUtil.hasContent(_aggregate) && _task == null)
+                    _task = getConnector().getScheduler().schedule(this, _delay, TimeUnit.MILLISECONDS);
+                pending = _pending;
+                _pending = null;
+            }
+
+            if (failure != null)
+                abort(failure);
+            if (pending != null)
+                pending.run();
+        }
+
+        private void close()
+        {
+            synchronized (this)
+            {
+                ByteBuffer aggregate = take();
+                if (aggregate != null)
+                    _bufferPool.release(aggregate);
+                if (_failure == null)
+                    _failure = new EofException("Closed");
+            }
+        }
+    }
+
+    private class ReleaseCallback extends Callback.Nested
+    {
+        private final ByteBuffer _buffer;
+
+        private ReleaseCallback(ByteBuffer buffer, Callback callback)
+        {
+            super(callback);
+            _buffer = buffer;
+        }
+
+        @Override
+        public void succeeded()
+        {
+            _bufferPool.release(_buffer);
+            super.succeeded();
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            _bufferPool.release(_buffer);
+            super.failed(x);
+        }
+    }
+
     private class SendCallback extends IteratingCallback
     {
         private MetaData.Response _info;
@@ -739,6 +739,28 @@ public class HttpOutput extends ServletOutputStream implements Runnable
         }
     }
 
+    /**
+     * Blocking send of whole content as a sequence of buffers.
+     *
+     * @param content The buffers of the whole content to send
+     * @throws IOException if the send fails
+     */
+    public void sendContent(ByteBuffer[] content) throws IOException
+    {
+        try (Blocker blocker = _writeBlocker.acquire())
+        {
+            new ByteBuffersWritingCB(content, blocker).iterate();
+            blocker.block();
+        }
+        catch (Throwable failure)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug(failure);
+            abort(failure);
+            throw failure;
+        }
+    }
+
     /**
      * Blocking send of HTTP content.
      *
@@ -821,6 +843,22 @@ public class HttpOutput extends ServletOutputStream implements Runnable
         new ReadableByteChannelWritingCB(in, callback).iterate();
     }
 
+    /**
+     * Asynchronous send of whole content as a sequence of buffers.
+     * The buffers are written in turn without being copied, so they
+     * may be slices of a larger buffer such as a cached file.
+     *
+     * @param content  The buffers of the whole content to send
+     * @param callback The callback to use to notify success or failure
+     */
+    public void sendContent(ByteBuffer[] content, Callback callback)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("sendContent(buffers={},{})", content.length, callback);
+
+        new ByteBuffersWritingCB(content, callback).iterate();
+    }
+
     /**
      * Asynchronous send of HTTP content.
      *
@@ -1392,6 +1430,46 @@ public class HttpOutput extends ServletOutputStream implements Runnable
         }
     }
 
+    /**
+     * An iterating callback that will write a sequence of buffers
+     * to the {@link HttpChannel}, the last with complete set to true.
+     */
+    private class ByteBuffersWritingCB extends IteratingNestedCallback
+    {
+        private final ByteBuffer[] _buffers;
+        private int _index;
+
+        public ByteBuffersWritingCB(ByteBuffer[] buffers, Callback callback)
+        {
+            super(callback);
+            _buffers = buffers;
+        }
+
+        @Override
+        protected Action process() throws Exception
+        {
+            if (_index == _buffers.length)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("EOF of {}", this);
+                closed();
+                return Action.SUCCEEDED;
+            }
+
+            ByteBuffer buffer = _buffers[_index++];
+            _written += buffer.remaining();
+            write(buffer, _index == _buffers.length, this);
+            return Action.SCHEDULED;
+        }
+
+        @Override
+        public void onCompleteFailure(Throwable x)
+        {
+            abort(x);
+            super.onCompleteFailure(x);
+        }
+    }
+
     private static class WriteBlocker extends SharedBlockingCallback
     {
         private final HttpChannel _channel;
@@ -18,16 +18,26 @@
 
 package org.eclipse.jetty.server;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.Selector;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ManagedSelector;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.Name;
@@ -55,8 +65,20 @@ import org.eclipse.jetty.util.thread.ThreadPool;
  * <li>If {@link #setMaxConnections(int)} is non zero then low resources is dected if the total number
  * of connections exceeds {@link #getMaxConnections()}.  This feature is deprecated and replaced by
  * {@link ConnectionLimit}</li>
+ * <li>If {@link #setMaxQueueLatency(long)} is non zero then low resources is detected if a probe task
+ * submitted to the server {@link ThreadPool} waits longer than {@link #getMaxQueueLatency()} to run.</li>
+ * <li>If {@link #setMaxSelectorLag(long)} is non zero then a connector is low on resources if a probe
+ * submitted to one of its {@link ManagedSelector}s waits longer than {@link #getMaxSelectorLag()}
+ * to be processed by the selector loop.</li>
+ * <li>If {@link #setMaxGcPauseRatio(double)} is non zero then low resources is detected if the
+ * fraction of the last period spent in garbage collection exceeds {@link #getMaxGcPauseRatio()}.</li>
  * </ul>
  * <p>
+ * Queue latency and selector lag rise before threads or memory are exhausted, so they allow
+ * load to be shed before latency becomes unbounded. Connector specific signals (connector
+ * thread pool and selector lag) only put that connector in the low resources state, while the
+ * other signals apply to all the monitored connectors.</p>
+ * <p>
  * Once low resources state is detected, the cause is logged and all existing connections returned
  * by {@link Connector#getConnectedEndPoints()} have {@link EndPoint#setIdleTimeout(long)} set
  * to {@link #getLowResourcesIdleTimeout()}.  New connections are not affected, however if the low
@@ -66,6 +88,10 @@ import org.eclipse.jetty.util.thread.ThreadPool;
  * <p>
  * If {@link #setAcceptingInLowResources(boolean)} is set to false (Default is true), then no new connections 
  * are accepted when in low resources state.
+ * <p>
+ * If {@link #setRejectingInLowResources(boolean)} is set to true (Default is false), then new requests
+ * received by a connector in low resources state are answered with a 503 response and a
+ * {@code Retry-After} header of {@link #getRetryAfter()} seconds, without being dispatched to the handlers.
  */
 @ManagedObject ("Monitor for low resource conditions and activate a low resource mode if detected")
 public class LowResourceMonitor extends AbstractLifeCycle
@@ -86,6 +112,31 @@ public class LowResourceMonitor extends AbstractLifeCycle
     private String _reasons;
     private long _lowStarted;
     private boolean _acceptingInLowResources = true;
+    private volatile boolean _rejectingInLowResources;
+    private int _retryAfter = 1;
+    private long _maxQueueLatency;
+    private long _maxSelectorLag;
+    private double _maxGcPauseRatio;
+    private final Set<Connector> _lowConnectors = ConcurrentHashMap.newKeySet();
+    private final LowResourcesCustomizer _customizer = new LowResourcesCustomizer();
+    private final AtomicLong _queueProbeSubmitted = new AtomicLong();
+    private volatile long _queueLatency;
+    private final Map<ManagedSelector, SelectorProbe> _selectorProbes = new ConcurrentHashMap<>();
+    private volatile long _selectorLag;
+    private long _lastGcTime = -1;
+    private long _lastGcCheck;
+    private volatile double _gcPauseRatio;
+
+    private final Runnable _queueProbe = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            long submitted = _queueProbeSubmitted.getAndSet(0);
+            if (submitted != 0)
+                _queueLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted);
+        }
+    };
 
     private final Runnable _monitor = new Runnable()
     {
@@ -153,6 +204,104 @@ public class LowResourceMonitor extends AbstractLifeCycle
         _acceptingInLowResources = acceptingInLowResources;
     }
     
+    @ManagedAttribute("If true, new requests are rejected with a 503 while in low resources")
+    public boolean isRejectingInLowResources()
+    {
+        return _rejectingInLowResources;
+    }
+
+    /**
+     * @param rejectingInLowResources If true, new requests received by a connector in the low resources
+     * state are answered with a 503 response, without being handled.
+     */
+    public void setRejectingInLowResources(boolean rejectingInLowResources)
+    {
+        _rejectingInLowResources = rejectingInLowResources;
+    }
+
+    @ManagedAttribute("The Retry-After in seconds of requests rejected in low resources")
+    public int getRetryAfter()
+    {
+        return _retryAfter;
+    }
+
+    /**
+     * @param retryAfterSeconds The value of the Retry-After header of rejected requests, or 0 for no header
+     */
+    public void setRetryAfter(int retryAfterSeconds)
+    {
+        _retryAfter = retryAfterSeconds;
+    }
+
+    @ManagedAttribute("The maximum time in ms a task may wait in the thread pool queue before low resources is triggered")
+    public long getMaxQueueLatency()
+    {
+        return _maxQueueLatency;
+    }
+
+    /**
+     * @param maxQueueLatencyMS The maximum time in ms a probe task may wait to be run by the server thread pool, or 0 to not monitor queue latency
+     */
+    public void setMaxQueueLatency(long maxQueueLatencyMS)
+    {
+        _maxQueueLatency = maxQueueLatencyMS;
+    }
+
+    @ManagedAttribute("The last measured thread pool queue latency in ms")
+    public long getQueueLatency()
+    {
+        return _queueLatency;
+    }
+
+    @ManagedAttribute("The maximum time in ms a selector may take to process a submitted update before its connector is low on resources")
+    public long getMaxSelectorLag()
+    {
+        return _maxSelectorLag;
+    }
+
+    /**
+     * @param maxSelectorLagMS The maximum time in ms a probe may wait to be processed by a selector loop, or 0 to not monitor selectors
+     */
+    public void setMaxSelectorLag(long maxSelectorLagMS)
+    {
+        _maxSelectorLag = maxSelectorLagMS;
+    }
+
+    @ManagedAttribute("The last measured maximum selector lag in ms")
+    public long getSelectorLag()
+    {
+        return _selectorLag;
+    }
+
+    @ManagedAttribute("The maximum fraction of time spent in garbage collection before low resources is triggered")
+    public double getMaxGcPauseRatio()
+    {
+        return _maxGcPauseRatio;
+    }
+
+    /**
+     * @param maxGcPauseRatio The maximum fraction (between 0 and 1) of a monitor period that may be spent in garbage collection, or 0 to not monitor garbage collection
+     */
+    public void setMaxGcPauseRatio(double maxGcPauseRatio)
+    {
+        _maxGcPauseRatio = maxGcPauseRatio;
+    }
+
+    @ManagedAttribute("The fraction of the last monitor period spent in garbage collection")
+    public double getGcPauseRatio()
+    {
+        return _gcPauseRatio;
+    }
+
+    /**
+     * @param connector the connector
+     * @return whether the connector is in the low resources state
+     */
+    public boolean isLowOnResources(Connector connector)
+    {
+        return _low.get() && _lowConnectors.contains(connector);
+    }
+
     @ManagedAttribute("The monitor period in ms")
     public int getPeriod()
     {
@@ -259,6 +408,19 @@ public class LowResourceMonitor extends AbstractLifeCycle
         }
         super.doStart();
 
+        for (Connector connector : getMonitoredOrServerConnectors())
+        {
+            for (ConnectionFactory factory : connector.getConnectionFactories())
+            {
+                if (factory instanceof HttpConfiguration.ConnectionFactory)
+                {
+                    HttpConfiguration configuration = ((HttpConfiguration.ConnectionFactory)factory).getHttpConfiguration();
+                    if (!configuration.getCustomizers().contains(_customizer))
+                        configuration.addCustomizer(_customizer);
+                }
+            }
+        }
+
         _scheduler.schedule(_monitor,_period,TimeUnit.MILLISECONDS);
     }
 
@@ -267,6 +429,17 @@ public class LowResourceMonitor extends AbstractLifeCycle
     {
         if (_scheduler instanceof LRMScheduler)
             _scheduler.stop();
+        for (Connector connector : getMonitoredOrServerConnectors())
+        {
+            for (ConnectionFactory factory : connector.getConnectionFactories())
+            {
+                if (factory instanceof HttpConfiguration.ConnectionFactory)
+                    ((HttpConfiguration.ConnectionFactory)factory).getHttpConfiguration().getCustomizers().remove(_customizer);
+            }
+        }
+        _selectorProbes.clear();
+        _queueProbeSubmitted.set(0);
+        _lastGcTime = -1;
         super.doStop();
     }
 
@@ -282,15 +455,31 @@ public class LowResourceMonitor extends AbstractLifeCycle
         String reasons=null;
         String cause="";
         int connections=0;
+        boolean allLow=false;
 
         ThreadPool serverThreads = _server.getThreadPool();
         if (_monitorThreads && serverThreads.isLowOnThreads())
         {
             reasons=low(reasons,"Server low on threads: "+serverThreads);
             cause+="S";
+            allLow=true;
         }
 
-        for(Connector connector : getMonitoredOrServerConnectors())
+        if (_maxQueueLatency>0)
+        {
+            long latency=probeQueueLatency(serverThreads);
+            if (latency>_maxQueueLatency)
+            {
+                reasons=low(reasons,"Max queue latency exceeded: "+latency+">"+_maxQueueLatency);
+                cause+="Q";
+                allLow=true;
+            }
+        }
+
+        Connector[] connectors = getMonitoredOrServerConnectors();
+        Set<Connector> lowConnectors = new HashSet<>();
+        long maxLag=0;
+        for(Connector connector : connectors)
         {
             connections+=connector.getConnectedEndPoints().size();
 
@@ -302,14 +491,29 @@ public class LowResourceMonitor extends AbstractLifeCycle
                 {
                     reasons=low(reasons,"Connector low on threads: "+connectorThreads);
                     cause+="T";
+                    lowConnectors.add(connector);
+                }
+            }
+
+            if (_maxSelectorLag>0 && connector instanceof ServerConnector)
+            {
+                long lag=probeSelectorLag((ServerConnector)connector);
+                maxLag=Math.max(maxLag,lag);
+                if (lag>_maxSelectorLag)
+                {
+                    reasons=low(reasons,"Max selector lag exceeded: "+lag+">"+_maxSelectorLag+" in "+connector);
+                    cause+="L";
+                    lowConnectors.add(connector);
                 }
             }
         }
+        _selectorLag=maxLag;
 
         if (_maxConnections>0 && connections>_maxConnections)
         {
             reasons=low(reasons,"Max Connections exceeded: "+connections+">"+_maxConnections);
             cause+="C";
+            allLow=true;
         }
 
         long memory=Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory();
@@ -317,8 +521,23 @@ public class LowResourceMonitor extends AbstractLifeCycle
         {
             reasons=low(reasons,"Max memory exceeded: "+memory+">"+_maxMemory);
             cause+="M";
+            allLow=true;
         }
 
+        if (_maxGcPauseRatio>0)
+        {
+            double ratio=probeGcPauseRatio();
+            if (ratio>_maxGcPauseRatio)
+            {
+                reasons=low(reasons,String.format("Max GC pause ratio exceeded: %.3f>%.3f",ratio,_maxGcPauseRatio));
+                cause+="G";
+                allLow=true;
+            }
+        }
+
+        if (allLow)
+            lowConnectors.addAll(Arrays.asList(connectors));
+
         if (reasons!=null)
         {
             // Log the reasons if there is any change in the cause
@@ -327,14 +546,31 @@ public class LowResourceMonitor extends AbstractLifeCycle
                 LOG.warn("Low Resources: {}",reasons);
                 _cause=cause;
             }
+            _reasons=reasons;
 
             // Enter low resources state?
             if (_low.compareAndSet(false,true))
             {
-                _reasons=reasons;
+                _lowConnectors.addAll(lowConnectors);
                 _lowStarted=System.currentTimeMillis();
                 setLowResources();
             }
+            else
+            {
+                // Apply the changes to the set of connectors low on resources.
+                for (Connector connector : connectors)
+                {
+                    if (lowConnectors.contains(connector))
+                    {
+                        if (_lowConnectors.add(connector))
+                            setLowResources(connector);
+                    }
+                    else if (_lowConnectors.remove(connector))
+                    {
+                        clearLowResources(connector);
+                    }
+                }
+            }
 
             // Too long in low resources state?
             if (_maxLowResourcesTime>0 && (System.currentTimeMillis()-_lowStarted)>_maxLowResourcesTime)
@@ -349,37 +585,113 @@ public class LowResourceMonitor extends AbstractLifeCycle
                 _lowStarted=0;
                 _cause=null;
                 clearLowResources();
+                _lowConnectors.clear();
             }
         }
     }
 
+    /**
+     * Submits a probe task to the thread pool, unless the previous probe is still queued.
+     * @param threadPool the thread pool to probe
+     * @return the time in ms the last probe waited, or has been waiting, to be run
+     */
+    private long probeQueueLatency(ThreadPool threadPool)
+    {
+        long now=System.nanoTime();
+        long pending=_queueProbeSubmitted.get();
+        if (pending!=0)
+            return Math.max(_queueLatency,TimeUnit.NANOSECONDS.toMillis(now-pending));
+
+        _queueProbeSubmitted.set(now);
+        try
+        {
+            threadPool.execute(_queueProbe);
+        }
+        catch (RejectedExecutionException x)
+        {
+            LOG.ignore(x);
+            _queueProbeSubmitted.set(0);
+            return Long.MAX_VALUE;
+        }
+        return _queueLatency;
+    }
+
+    /**
+     * Submits a probe to each selector of the connector, unless the previous probe is still pending.
+     * @param connector the connector to probe
+     * @return the maximum time in ms the last probes waited, or have been waiting, to be processed
+     */
+    private long probeSelectorLag(ServerConnector connector)
+    {
+        long lag=0;
+        for (ManagedSelector selector : connector.getSelectorManager().getBeans(ManagedSelector.class))
+        {
+            SelectorProbe probe=_selectorProbes.computeIfAbsent(selector,s -> new SelectorProbe());
+            lag=Math.max(lag,probe.probe(selector));
+        }
+        return lag;
+    }
+
+    /**
+     * @return the fraction of time spent in garbage collection since the last call
+     */
+    private double probeGcPauseRatio()
+    {
+        long gcTime=0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            gcTime+=Math.max(0,gc.getCollectionTime());
+        long now=System.nanoTime();
+
+        double ratio=0;
+        if (_lastGcTime>=0)
+        {
+            long elapsed=TimeUnit.NANOSECONDS.toMillis(now-_lastGcCheck);
+            if (elapsed>0)
+                ratio=Math.min(1.0,(double)(gcTime-_lastGcTime)/elapsed);
+        }
+        _lastGcTime=gcTime;
+        _lastGcCheck=now;
+        _gcPauseRatio=ratio;
+        return ratio;
+    }
+
     protected void setLowResources()
     {
         for(Connector connector : getMonitoredOrServerConnectors())
         {
-            if (connector instanceof AbstractConnector)
+            if (_lowConnectors.contains(connector))
+                setLowResources(connector);
+        }
+    }
+
+    /**
+     * Applies the low resources state to a connector.
+     * @param connector the connector that is low on resources
+     */
+    protected void setLowResources(Connector connector)
+    {
+        if (connector instanceof AbstractConnector)
+        {
+            AbstractConnector c = (AbstractConnector)connector;
+            if (!isAcceptingInLowResources() && c.isAccepting())
             {
-                AbstractConnector c = (AbstractConnector)connector;
-                if (!isAcceptingInLowResources() && c.isAccepting())
-                {
-                    _acceptingConnectors.add(c);
-                    c.setAccepting(false);
-                }
+                _acceptingConnectors.add(c);
+                c.setAccepting(false);
             }
-            
-            for (EndPoint endPoint : connector.getConnectedEndPoints())
-                endPoint.setIdleTimeout(_lowResourcesIdleTimeout);
         }
+
+        for (EndPoint endPoint : connector.getConnectedEndPoints())
+            endPoint.setIdleTimeout(_lowResourcesIdleTimeout);
     }
 
     protected void clearLowResources()
     {
         for(Connector connector : getMonitoredOrServerConnectors())
         {
-            for (EndPoint endPoint : connector.getConnectedEndPoints())
-                endPoint.setIdleTimeout(connector.getIdleTimeout());
+            if (_lowConnectors.contains(connector))
+                clearLowResources(connector);
         }
-        
+
         for (AbstractConnector connector : _acceptingConnectors)
         {
             connector.setAccepting(true);
@@ -387,6 +699,19 @@ public class LowResourceMonitor extends AbstractLifeCycle
         _acceptingConnectors.clear();
     }
 
+    /**
+     * Clears the low resources state of a connector.
+     * @param connector the connector that is no longer low on resources
+     */
+    protected void clearLowResources(Connector connector)
+    {
+        for (EndPoint endPoint : connector.getConnectedEndPoints())
+            endPoint.setIdleTimeout(connector.getIdleTimeout());
+
+        if (connector instanceof AbstractConnector && _acceptingConnectors.remove(connector))
+            ((AbstractConnector)connector).setAccepting(true);
+    }
+
     private String low(String reasons, String newReason)
     {
         if (reasons==null)
@@ -398,4 +723,45 @@ public class LowResourceMonitor extends AbstractLifeCycle
     private static class LRMScheduler extends ScheduledExecutorScheduler
     {
     }
+
+    private static class SelectorProbe implements ManagedSelector.SelectorUpdate
+    {
+        private final AtomicLong _submitted = new AtomicLong();
+        private volatile long _lag;
+
+        private long probe(ManagedSelector selector)
+        {
+            long now=System.nanoTime();
+            long pending=_submitted.get();
+            if (pending!=0)
+                return Math.max(_lag,TimeUnit.NANOSECONDS.toMillis(now-pending));
+            _submitted.set(now);
+            selector.submit(this);
+            return _lag;
+        }
+
+        @Override
+        public void update(Selector selector)
+        {
+            long submitted=_submitted.getAndSet(0);
+            if (submitted!=0)
+                _lag=TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-submitted);
+        }
+    }
+
+    private class LowResourcesCustomizer implements HttpConfiguration.Customizer
+    {
+        @Override
+        public void customize(Connector connector, HttpConfiguration channelConfig, Request request)
+        {
+            if (!_rejectingInLowResources || !isLowOnResources(connector))
+                return;
+
+            Response response = request.getResponse();
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE_503);
+            if (_retryAfter>0)
+                response.setHeader(HttpHeader.RETRY_AFTER.asString(),Integer.toString(_retryAfter));
+            request.setHandled(true);
+        }
+    }
 }
@@ -0,0 +1,537 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.http.CompressedContentFormat;
+import org.eclipse.jetty.http.DateGenerator;
+import org.eclipse.jetty.http.HttpContent;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.http.ResourceHttpContent;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.resource.ResourceFactory;
+
+/**
+ * A {@link HttpContent.ContentFactory} that stores the content of static resources off heap,
+ * in large memory mapped segment files.
+ * <p>
+ * The content of each file is appended to the current segment file of the store directory and
+ * served as a read only slice of the mapped segment, so that many small files share a few mappings
+ * and the content does not occupy the Java heap. The location of every stored file is appended to an
+ * index file, which is read when the store is started, so that content stored by a previous run is
+ * served without being read again.
+ * </p>
+ * <p>
+ * Stored content is validated against the last modified time and length of the resource on each
+ * request. Modified resources are appended again and the space of the previous copy is not
+ * reclaimed; the store directory may be deleted while the store is stopped to compact it.
+ * Resources larger than {@link #setMaxEntrySize(int)}, or that do not fit once the store has reached
+ * {@link #setMaxStoreSize(long)}, are served as transient {@link ResourceHttpContent}.
+ * </p>
+ */
+@ManagedObject("Memory mapped static content store")
+public class MappedContentStore extends AbstractLifeCycle implements HttpContent.ContentFactory
+{
+    private static final Logger LOG = Log.getLogger(MappedContentStore.class);
+    private static final String INDEX = "index";
+
+    private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<>();
+    private final List<MappedByteBuffer> _segments = new ArrayList<>();
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final ResourceFactory _factory;
+    private final MimeTypes _mimeTypes;
+    private final CompressedContentFormat[] _precompressedFormats;
+    private final Path _directory;
+    private int _segmentSize = 64 * 1024 * 1024;
+    private int _maxEntrySize = 1024 * 1024;
+    private long _maxStoreSize = -1;
+    private FileChannel _index;
+    private int _position;
+    private long _storeSize;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param factory the factory of the resources to store
+     * @param mimeTypes the mime types used to look up the content type of resources
+     * @param precompressedFormats the formats of precompressed resources to look for
+     * @param directory the directory of the segment and index files
+     */
+    public MappedContentStore(ResourceFactory factory, MimeTypes mimeTypes, CompressedContentFormat[] precompressedFormats, Path directory)
+    {
+        _factory = factory;
+        _mimeTypes = mimeTypes;
+        _precompressedFormats = precompressedFormats;
+        _directory = directory;
+    }
+
+    /* ------------------------------------------------------------ */
+    public Path getDirectory()
+    {
+        return _directory;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("size in bytes of newly created segment files")
+    public int getSegmentSize()
+    {
+        return _segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param segmentSize the size in bytes of newly created segment files
+     */
+    public void setSegmentSize(int segmentSize)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        _segmentSize = segmentSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("maximum size in bytes of a stored file")
+    public int getMaxEntrySize()
+    {
+        return _maxEntrySize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxEntrySize the maximum size in bytes of a stored file, which is limited to the segment size
+     */
+    public void setMaxEntrySize(int maxEntrySize)
+    {
+        _maxEntrySize = maxEntrySize;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("maximum size in bytes of all segment files, or -1 for no limit")
+    public long getMaxStoreSize()
+    {
+        return _maxStoreSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param maxStoreSize the maximum size in bytes of all segment files, or -1 for no limit
+     */
+    public void setMaxStoreSize(long maxStoreSize)
+    {
+        _maxStoreSize = maxStoreSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("size in bytes of all segment files")
+    public synchronized long getStoreSize()
+    {
+        return _storeSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of stored files")
+    public int getStoredFiles()
+    {
+        return _entries.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of segment files")
+    public synchronized int getSegments()
+    {
+        return _segments.size();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of requests served from the store")
+    public long getHits()
+    {
+        return _hits.sum();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of requests for content that had to be stored or was not storable")
+    public long getMisses()
+    {
+        return _misses.sum();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected synchronized void doStart() throws Exception
+    {
+        Files.createDirectories(_directory);
+        for (int i = 0;; i++)
+        {
+            Path segment = segmentPath(i);
+            if (!Files.exists(segment))
+                break;
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE))
+            {
+                _segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+                _storeSize += channel.size();
+            }
+        }
+
+        _index = FileChannel.open(_directory.resolve(INDEX), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long valid = load();
+        if (valid < _index.size())
+        {
+            LOG.warn("Truncating index of {} at {}", this, valid);
+            _index.truncate(valid);
+        }
+        _index.position(valid);
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Loaded {} entries in {} segments from {}", _entries.size(), _segments.size(), _directory);
+        super.doStart();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Reads the index records, later records of a resource replacing earlier ones.
+     * @return the length of the valid records, excluding any partially written last record
+     */
+    private long load() throws IOException
+    {
+        ByteBuffer index = _index.map(FileChannel.MapMode.READ_ONLY, 0, _index.size());
+        long valid = 0;
+        try
+        {
+            while (index.hasRemaining())
+            {
+                byte[] name = new byte[Short.toUnsignedInt(index.getShort())];
+                index.get(name);
+                int segment = index.getInt();
+                int offset = index.getInt();
+                int length = index.getInt();
+                long lastModified = index.getLong();
+                if (segment < 0 || segment >= _segments.size() || offset < 0 || length < 0 || offset + length > _segments.get(segment).capacity())
+                    break;
+
+                _entries.put(new String(name, StandardCharsets.UTF_8), new Entry(segment, offset, length, lastModified));
+                if (segment == _segments.size() - 1)
+                    _position = Math.max(_position, offset + length);
+                valid = index.position();
+            }
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            LOG.ignore(e);
+        }
+        return valid;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected synchronized void doStop() throws Exception
+    {
+        super.doStop();
+        _index.close();
+        _index = null;
+        _entries.clear();
+        // Mapped buffers are unmapped once they and any slices still in use are garbage collected.
+        _segments.clear();
+        _position = 0;
+        _storeSize = 0;
+    }
+
+    /* ------------------------------------------------------------ */
+    private Path segmentPath(int segment)
+    {
+        return _directory.resolve(String.format("segment-%05d", segment));
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public HttpContent getContent(String pathInContext, int maxBufferSize) throws IOException
+    {
+        Resource resource = _factory.getResource(pathInContext);
+        if (resource == null)
+            return null;
+        Attributes attributes = Attributes.of(resource);
+        if (attributes == null)
+            return null;
+
+        if (attributes._directory)
+            return new ResourceHttpContent(resource, _mimeTypes.getMimeByExtension(resource.toString()), maxBufferSize);
+
+        String mt = _mimeTypes.getMimeByExtension(pathInContext);
+        if (_precompressedFormats.length > 0)
+        {
+            Map<CompressedContentFormat, HttpContent> compressedContents = new HashMap<>(_precompressedFormats.length);
+            for (CompressedContentFormat format : _precompressedFormats)
+            {
+                String compressedPathInContext = pathInContext + format._extension;
+                Resource compressedResource = _factory.getResource(compressedPathInContext);
+                Attributes compressedAttributes = compressedResource == null ? null : Attributes.of(compressedResource);
+                if (compressedAttributes != null && !compressedAttributes._directory
+                        && compressedAttributes._lastModified >= attributes._lastModified
+                        && compressedAttributes._length < attributes._length)
+                    compressedContents.put(format, newContent(compressedResource, compressedAttributes, _mimeTypes.getMimeByExtension(compressedPathInContext), maxBufferSize, null));
+            }
+            if (!compressedContents.isEmpty())
+                return newContent(resource, attributes, mt, maxBufferSize, compressedContents);
+        }
+        return newContent(resource, attributes, mt, maxBufferSize, null);
+    }
+
+    /* ------------------------------------------------------------ */
+    private HttpContent newContent(Resource resource, Attributes attributes, String contentType, int maxBufferSize, Map<CompressedContentFormat, HttpContent> precompressed)
+    {
+        Entry entry = getEntry(resource, attributes);
+        if (entry == null)
+            return new ResourceHttpContent(resource, contentType, maxBufferSize, precompressed);
+        return new MappedHttpContent(resource, contentType, precompressed, entry);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param resource the resource
+     * @param attributes the attributes of the resource, read once for this lookup
+     * @return the stored entry of the resource, or null if the resource cannot be stored
+     */
+    private Entry getEntry(Resource resource, Attributes attributes)
+    {
+        String name = resource.toString();
+        long lastModified = attributes._lastModified;
+        long length = attributes._length;
+
+        Entry entry = _entries.get(name);
+        if (entry != null && entry._lastModified == lastModified && entry._length == length)
+        {
+            _hits.increment();
+            return entry;
+        }
+
+        _misses.increment();
+        if (length <= 0 || length > _maxEntrySize || length > _segmentSize)
+            return null;
+
+        try
+        {
+            return store(name, resource, (int)length, lastModified);
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Could not store " + resource, e);
+            return null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private synchronized Entry store(String name, Resource resource, int length, long lastModified) throws IOException
+    {
+        if (!isRunning())
+            return null;
+
+        // Another thread may have stored the resource while we waited for the lock.
+        Entry entry = _entries.get(name);
+        if (entry != null && entry._lastModified == lastModified && entry._length == length)
+            return entry;
+
+        if (_segments.isEmpty() || _position + length > _segments.get(_segments.size() - 1).capacity())
+        {
+            if (_maxStoreSize >= 0 && _storeSize + _segmentSize > _maxStoreSize)
+                return null;
+            Path path = segmentPath(_segments.size());
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE))
+            {
+                _segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, _segmentSize));
+            }
+            _storeSize += _segmentSize;
+            _position = 0;
+        }
+
+        int segment = _segments.size() - 1;
+        ByteBuffer target = _segments.get(segment).duplicate();
+        target.position(_position);
+        target.limit(_position + length);
+        try (ReadableByteChannel channel = resource.getReadableByteChannel())
+        {
+            while (target.hasRemaining())
+            {
+                if (channel.read(target) < 0)
+                    throw new EOFException("Resource shorter than " + length + ": " + resource);
+            }
+        }
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(2 + bytes.length + 4 + 4 + 4 + 8);
+        record.putShort((short)bytes.length).put(bytes).putInt(segment).putInt(_position).putInt(length).putLong(lastModified).flip();
+        while (record.hasRemaining())
+            _index.write(record);
+
+        entry = new Entry(segment, _position, length, lastModified);
+        _entries.put(name, entry);
+        _position += length;
+        return entry;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,files=%d,segments=%d}", getClass().getSimpleName(), hashCode(), _directory, _entries.size(), _segments.size());
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private class Entry
+    {
+        private final long _lastModified;
+        private final int _length;
+        private final ByteBuffer _buffer;
+
+        private Entry(int segment, int offset, int length, long lastModified)
+        {
+            ByteBuffer buffer = _segments.get(segment).duplicate();
+            buffer.position(offset);
+            buffer.limit(offset + length);
+            _buffer = buffer.slice().asReadOnlyBuffer();
+            _length = length;
+            _lastModified = lastModified;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static class MappedHttpContent extends ResourceHttpContent
+    {
+        private final ByteBuffer _buffer;
+        private final long _lastModified;
+
+        private MappedHttpContent(Resource resource, String contentType, Map<CompressedContentFormat, HttpContent> precompressed, Entry entry)
+        {
+            super(resource, contentType, -1, precompressed);
+            _buffer = entry._buffer;
+            _lastModified = entry._lastModified;
+        }
+
+        @Override
+        public HttpField getLastModified()
+        {
+            return _lastModified >= 0 ? new HttpField(HttpHeader.LAST_MODIFIED, DateGenerator.formatDate(_lastModified)) : null;
+        }
+
+        @Override
+        public String getLastModifiedValue()
+        {
+            return _lastModified >= 0 ? DateGenerator.formatDate(_lastModified) : null;
+        }
+
+        @Override
+        public HttpField getContentLength()
+        {
+            return new HttpField.LongValueHttpField(HttpHeader.CONTENT_LENGTH, _buffer.remaining());
+        }
+
+        @Override
+        public long getContentLengthValue()
+        {
+            return _buffer.remaining();
+        }
+
+        @Override
+        public ByteBuffer getDirectBuffer()
+        {
+            return _buffer.slice();
+        }
+
+        @Override
+        public ByteBuffer getIndirectBuffer()
+        {
+            return _buffer.slice();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /**
+     * The attributes of a resource, read together so that the validity check and
+     * the cache key of a lookup see the same version of a concurrently replaced file.
+     */
+    private static class Attributes
+    {
+        private final boolean _directory;
+        private final long _lastModified;
+        private final long _length;
+
+        private Attributes(boolean directory, long lastModified, long length)
+        {
+            _directory = directory;
+            _lastModified = lastModified;
+            _length = length;
+        }
+
+        /**
+         * @param resource the resource
+         * @return the attributes of the resource, or null if it does not exist
+         */
+        private static Attributes of(Resource resource)
+        {
+            try
+            {
+                File file = resource.getFile();
+                if (file != null)
+                {
+                    BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                    return new Attributes(attributes.isDirectory(), attributes.lastModifiedTime().toMillis(), attributes.size());
+                }
+            }
+            catch (IOException e)
+            {
+                // The file does not exist or cannot be read.
+                LOG.ignore(e);
+                return null;
+            }
+
+            // Not a file, for example a jar entry, whose attributes do not change.
+            if (!resource.exists())
+                return null;
+            return new Attributes(resource.isDirectory(), resource.lastModified(), resource.length());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.http.MultiPartStreamParser;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.IteratingCallback;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * An asynchronous reader of multipart/form-data request content.
+ * <p>
+ * The request content is read with a {@link ReadListener} into a buffer acquired from the
+ * connector {@link ByteBufferPool} and parsed by a {@link MultiPartStreamParser}, which passes
+ * slices of that buffer to a {@link MultiPartStreamParser.Listener}. No further content is read
+ * until the listener completes the callback of each slice, so a slow destination applies
+ * backpressure to the client rather than the content being buffered in memory or temporary files.
+ * <p>
+ * The request must be in async mode (see {@link HttpServletRequest#startAsync()}) before
+ * {@link #start()} is called, and the application remains responsible for completing the
+ * response once {@link MultiPartStreamParser.Listener#onComplete()} or
+ * {@link MultiPartStreamParser.Listener#onFailure(Throwable)} has been called.
+ */
+public class MultiPartContentReader implements ReadListener
+{
+    private static final Logger LOG = Log.getLogger(MultiPartContentReader.class);
+
+    private final ServletInputStream _input;
+    private final MultiPartStreamParser _parser;
+    private final MultiPartStreamParser.Listener _listener;
+    private final ByteBufferPool _bufferPool;
+    private final int _bufferSize;
+    private final Reader _reader = new Reader();
+    private ByteBuffer _buffer;
+    private boolean _eof;
+
+    public MultiPartContentReader(HttpServletRequest request, MultiPartStreamParser.Listener listener) throws IOException
+    {
+        this(request, listener, 16 * 1024);
+    }
+
+    public MultiPartContentReader(HttpServletRequest request, MultiPartStreamParser.Listener listener, int bufferSize) throws IOException
+    {
+        Request baseRequest = Request.getBaseRequest(request);
+        _input = request.getInputStream();
+        _parser = new MultiPartStreamParser(request.getContentType(), listener);
+        _listener = listener;
+        _bufferPool = baseRequest == null ? null : baseRequest.getHttpChannel().getByteBufferPool();
+        _bufferSize = bufferSize;
+    }
+
+    /**
+     * @return the parser of the request content
+     */
+    public MultiPartStreamParser getParser()
+    {
+        return _parser;
+    }
+
+    /**
+     * Start reading the request content by setting this as the {@link ReadListener} of the request input.
+     */
+    public void start()
+    {
+        _input.setReadListener(this);
+    }
+
+    @Override
+    public void onDataAvailable()
+    {
+        _reader.iterate();
+    }
+
+    @Override
+    public void onAllDataRead()
+    {
+        _reader.iterate();
+    }
+
+    @Override
+    public void onError(Throwable failure)
+    {
+        _reader.failed(failure);
+    }
+
+    private ByteBuffer acquire()
+    {
+        // The parser needs array backed buffers
+        return _bufferPool == null ? BufferUtil.allocate(_bufferSize) : _bufferPool.acquire(_bufferSize, false);
+    }
+
+    private void release()
+    {
+        ByteBuffer buffer = _buffer;
+        _buffer = null;
+        if (buffer != null && _bufferPool != null)
+            _bufferPool.release(buffer);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,eof=%b}", getClass().getSimpleName(), hashCode(), _parser, _eof);
+    }
+
+    private class Reader extends IteratingCallback
+    {
+        @Override
+        protected Action process() throws Throwable
+        {
+            while (true)
+            {
+                if (BufferUtil.hasContent(_buffer))
+                {
+                    // Parse until the listener has been passed a slice of the buffer
+                    if (_parser.parse(_buffer, false, this))
+                        return Action.SCHEDULED;
+                    continue;
+                }
+
+                if (_eof)
+                {
+                    _parser.parse(BufferUtil.EMPTY_BUFFER, true, this);
+                    return Action.SUCCEEDED;
+                }
+
+                // Only read when the previous content has been consumed by the listener,
+                // so that the buffer can be reused without copying.
+                if (!_input.isReady())
+                    return Action.IDLE;
+
+                if (_buffer == null)
+                    _buffer = acquire();
+                BufferUtil.clear(_buffer);
+                int read = _input.read(_buffer.array(), _buffer.arrayOffset(), _buffer.capacity());
+                if (LOG.isDebugEnabled())
+                    LOG.debug("read {} {}", read, MultiPartContentReader.this);
+                if (read < 0)
+                    _eof = true;
+                else
+                    _buffer.limit(read);
+            }
+        }
+
+        @Override
+        protected void onCompleteSuccess()
+        {
+            release();
+        }
+
+        @Override
+        protected void onCompleteFailure(Throwable cause)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("failed " + MultiPartContentReader.this, cause);
+            // The listener may still hold a slice of the buffer, so it is not returned to the pool
+            _buffer = null;
+            _listener.onFailure(cause);
+        }
+    }
+}
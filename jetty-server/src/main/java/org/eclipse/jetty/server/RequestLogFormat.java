@@ -0,0 +1,424 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.SSLSession;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.ssl.SslConnection;
+import org.eclipse.jetty.util.DateCache;
+
+/**
+ * A structured request log format, compiled once into an array of field writers.
+ * <p>
+ * The format is a list of field names separated by whitespace or commas, for example
+ * {@code "date method uri status latency bytesIn bytesOut tlsProtocol streamId"}.
+ * A field may be renamed in the output with {@code key=field}, and the following
+ * prefixed fields are also supported:
+ * </p>
+ * <ul>
+ * <li>{@code requestHeader:<name>} the value of a request header</li>
+ * <li>{@code responseHeader:<name>} the value of a response header</li>
+ * <li>{@code attribute:<name>} the string value of a request attribute</li>
+ * </ul>
+ * <p>
+ * Applications may register additional fields with {@link #addStringField(String, StringField)}
+ * and {@link #addLongField(String, LongField)} before the format is compiled.
+ * Entries are rendered either as a JSON object or as logfmt {@code key=value} pairs.
+ * </p>
+ *
+ * @see AbstractNCSARequestLog#setLogFormat(RequestLogFormat)
+ */
+public class RequestLogFormat
+{
+    public enum Style
+    {
+        JSON, LOGFMT
+    }
+
+    /**
+     * A field with a string value.
+     */
+    @FunctionalInterface
+    public interface StringField
+    {
+        /**
+         * @param request the request to log
+         * @param response the response to log
+         * @return the value of the field, or null if it has no value
+         */
+        String getValue(Request request, Response response);
+    }
+
+    /**
+     * A field with a numeric value.
+     */
+    @FunctionalInterface
+    public interface LongField
+    {
+        /**
+         * @param request the request to log
+         * @param response the response to log
+         * @return the value of the field, or a negative number if it has no value
+         */
+        long getValue(Request request, Response response);
+    }
+
+    @FunctionalInterface
+    private interface FieldWriter
+    {
+        void write(StringBuilder b, Request request, Response response);
+    }
+
+    private static final String REQUEST_HEADER = "requestHeader:";
+    private static final String RESPONSE_HEADER = "responseHeader:";
+    private static final String ATTRIBUTE = "attribute:";
+    private static final Map<String, Object> STANDARD_FIELDS = new HashMap<>();
+
+    static
+    {
+        STANDARD_FIELDS.put("timestamp", (LongField)(request, response) -> request.getTimeStamp());
+        STANDARD_FIELDS.put("serverName", (StringField)(request, response) -> request.getServerName());
+        STANDARD_FIELDS.put("remoteAddr", (StringField)(request, response) -> request.getRemoteAddr());
+        STANDARD_FIELDS.put("remotePort", (LongField)(request, response) -> request.getRemotePort());
+        STANDARD_FIELDS.put("localAddr", (StringField)(request, response) -> request.getLocalAddr());
+        STANDARD_FIELDS.put("localPort", (LongField)(request, response) -> request.getLocalPort());
+        STANDARD_FIELDS.put("scheme", (StringField)(request, response) -> request.getScheme());
+        STANDARD_FIELDS.put("method", (StringField)(request, response) -> request.getMethod());
+        STANDARD_FIELDS.put("uri", (StringField)(request, response) -> request.getOriginalURI());
+        STANDARD_FIELDS.put("protocol", (StringField)(request, response) -> request.getProtocol());
+        STANDARD_FIELDS.put("status", (LongField)(request, response) -> response.getCommittedMetaData().getStatus());
+        STANDARD_FIELDS.put("bytesIn", (LongField)(request, response) -> request.getContentRead());
+        STANDARD_FIELDS.put("bytesOut", (LongField)(request, response) -> response.getHttpChannel().getBytesWritten());
+        STANDARD_FIELDS.put("latency", (LongField)(request, response) -> System.currentTimeMillis() - request.getTimeStamp());
+        STANDARD_FIELDS.put("user", (StringField)(request, response) ->
+        {
+            Authentication authentication = request.getAuthentication();
+            if (authentication instanceof Authentication.User)
+                return ((Authentication.User)authentication).getUserIdentity().getUserPrincipal().getName();
+            return null;
+        });
+        STANDARD_FIELDS.put("referer", (StringField)(request, response) -> request.getHeader(HttpHeader.REFERER.asString()));
+        STANDARD_FIELDS.put("userAgent", (StringField)(request, response) -> request.getHeader(HttpHeader.USER_AGENT.asString()));
+        STANDARD_FIELDS.put("tlsProtocol", (StringField)(request, response) ->
+        {
+            SSLSession session = getSSLSession(request);
+            return session == null ? null : session.getProtocol();
+        });
+        STANDARD_FIELDS.put("tlsCipher", (StringField)(request, response) ->
+        {
+            SSLSession session = getSSLSession(request);
+            return session == null ? null : session.getCipherSuite();
+        });
+        STANDARD_FIELDS.put("streamId", (LongField)(request, response) -> request.getHttpChannel().getStreamId());
+    }
+
+    private final Map<String, Object> _fields = new HashMap<>();
+    private final Style _style;
+    private final String _format;
+    private DateCache _dateCache;
+    private FieldWriter[] _writers;
+
+    /**
+     * @param style the output style
+     * @param format the list of fields to log
+     */
+    public RequestLogFormat(Style style, String format)
+    {
+        _style = style;
+        _format = format;
+    }
+
+    public Style getStyle()
+    {
+        return _style;
+    }
+
+    public String getFormat()
+    {
+        return _format;
+    }
+
+    /**
+     * Register a string field that may be named in the format.
+     * @param name the name of the field
+     * @param field the field
+     */
+    public void addStringField(String name, StringField field)
+    {
+        addField(name, (Object)field);
+    }
+
+    /**
+     * Register a numeric field that may be named in the format.
+     * @param name the name of the field
+     * @param field the field
+     */
+    public void addLongField(String name, LongField field)
+    {
+        addField(name, (Object)field);
+    }
+
+    private synchronized void addField(String name, Object field)
+    {
+        if (_writers != null)
+            throw new IllegalStateException("Compiled");
+        _fields.put(name, field);
+    }
+
+    /**
+     * Resolve the fields of the format into field writers.
+     * <p>Compiling an already compiled format has no effect.</p>
+     * @throws IllegalArgumentException if the format names an unknown field
+     */
+    public synchronized void compile()
+    {
+        if (_writers != null)
+            return;
+
+        List<FieldWriter> writers = new ArrayList<>();
+        for (String spec : _format.split("[\\s,]+"))
+        {
+            String name = spec.trim();
+            if (name.isEmpty())
+                continue;
+            String key = name;
+            int eq = name.indexOf('=');
+            if (eq > 0)
+            {
+                key = name.substring(0, eq);
+                name = name.substring(eq + 1);
+            }
+
+            String prefix = prefix(key, writers.isEmpty());
+            Object field = resolve(name);
+            if (field instanceof LongField)
+                writers.add(newLongWriter(prefix, (LongField)field));
+            else
+                writers.add(newStringWriter(prefix, (StringField)field));
+        }
+        _writers = writers.toArray(new FieldWriter[writers.size()]);
+    }
+
+    /**
+     * Format a request log entry, compiling the format first if needed.
+     * @param b the builder to append the entry to
+     * @param request the request to log
+     * @param response the response to log
+     */
+    public void format(StringBuilder b, Request request, Response response)
+    {
+        FieldWriter[] writers = _writers;
+        if (writers == null)
+        {
+            compile();
+            writers = _writers;
+        }
+
+        if (_style == Style.JSON)
+            b.append('{');
+        for (FieldWriter writer : writers)
+            writer.write(b, request, response);
+        if (_style == Style.JSON)
+            b.append('}');
+    }
+
+    private Object resolve(String name)
+    {
+        Object field = _fields.get(name);
+        if (field == null)
+            field = STANDARD_FIELDS.get(name);
+        if (field != null)
+            return field;
+
+        if ("date".equals(name))
+        {
+            if (_dateCache == null)
+                _dateCache = new DateCache("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US, "GMT");
+            DateCache dateCache = _dateCache;
+            return (StringField)(request, response) -> dateCache.format(request.getTimeStamp());
+        }
+        if (name.startsWith(REQUEST_HEADER))
+        {
+            String header = name.substring(REQUEST_HEADER.length());
+            return (StringField)(request, response) -> request.getHeader(header);
+        }
+        if (name.startsWith(RESPONSE_HEADER))
+        {
+            String header = name.substring(RESPONSE_HEADER.length());
+            return (StringField)(request, response) -> response.getHeader(header);
+        }
+        if (name.startsWith(ATTRIBUTE))
+        {
+            String attribute = name.substring(ATTRIBUTE.length());
+            return (StringField)(request, response) ->
+            {
+                Object value = request.getAttribute(attribute);
+                return value == null ? null : value.toString();
+            };
+        }
+        throw new IllegalArgumentException("Unknown request log field: " + name);
+    }
+
+    private String prefix(String key, boolean first)
+    {
+        StringBuilder prefix = new StringBuilder();
+        if (_style == Style.JSON)
+        {
+            if (!first)
+                prefix.append(',');
+            appendJson(prefix, key);
+            prefix.append(':');
+        }
+        else
+        {
+            if (!first)
+                prefix.append(' ');
+            prefix.append(key).append('=');
+        }
+        return prefix.toString();
+    }
+
+    private FieldWriter newLongWriter(String prefix, LongField field)
+    {
+        String absent = _style == Style.JSON ? "null" : "";
+        return (b, request, response) ->
+        {
+            b.append(prefix);
+            long value = field.getValue(request, response);
+            if (value < 0)
+                b.append(absent);
+            else
+                b.append(value);
+        };
+    }
+
+    private FieldWriter newStringWriter(String prefix, StringField field)
+    {
+        if (_style == Style.JSON)
+        {
+            return (b, request, response) ->
+            {
+                b.append(prefix);
+                String value = field.getValue(request, response);
+                if (value == null)
+                    b.append("null");
+                else
+                    appendJson(b, value);
+            };
+        }
+        return (b, request, response) ->
+        {
+            b.append(prefix);
+            String value = field.getValue(request, response);
+            if (value != null)
+                appendLogfmt(b, value);
+        };
+    }
+
+    private static SSLSession getSSLSession(Request request)
+    {
+        EndPoint endPoint = request.getHttpChannel().getEndPoint();
+        if (endPoint instanceof SslConnection.DecryptedEndPoint)
+            return ((SslConnection.DecryptedEndPoint)endPoint).getSslConnection().getSSLEngine().getSession();
+        return null;
+    }
+
+    private static void appendJson(StringBuilder b, String value)
+    {
+        b.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    b.append("\\\"");
+                    break;
+                case '\\':
+                    b.append("\\\\");
+                    break;
+                case '\n':
+                    b.append("\\n");
+                    break;
+                case '\r':
+                    b.append("\\r");
+                    break;
+                case '\t':
+                    b.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                    {
+                        b.append("\\u00");
+                        b.append(Character.forDigit(c >> 4, 16));
+                        b.append(Character.forDigit(c & 0xF, 16));
+                    }
+                    else
+                    {
+                        b.append(c);
+                    }
+            }
+        }
+        b.append('"');
+    }
+
+    private static void appendLogfmt(StringBuilder b, String value)
+    {
+        boolean quote = value.isEmpty();
+        for (int i = 0; !quote && i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            quote = c <= ' ' || c == '"' || c == '=' || c == '\\';
+        }
+        if (!quote)
+        {
+            b.append(value);
+            return;
+        }
+
+        b.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+                b.append('\\').append(c);
+            else if (c == '\n')
+                b.append("\\n");
+            else if (c < ' ')
+                b.append(' ');
+            else
+                b.append(c);
+        }
+        b.append('"');
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,%s}", getClass().getSimpleName(), hashCode(), _style, _format);
+    }
+}
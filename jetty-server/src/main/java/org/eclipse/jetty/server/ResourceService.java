@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.List;
@@ -268,6 +269,10 @@ public class ResourceService
             // Conditional response?
             if (!included && !passConditionalHeaders(request,response,content))
                 return true;
+
+            // Send the whole content if the range is of a different version?
+            if (reqRanges!=null && !passIfRange(request,content))
+                reqRanges=null;
                 
             // Precompressed variant available?
             Map<CompressedContentFormat,? extends HttpContent> precompressedContents = checkPrecompressedVariants?content.getPrecompressedContents():null;
@@ -473,6 +478,30 @@ public class ResourceService
         response.flushBuffer();
     }
     
+    /* ------------------------------------------------------------ */
+    /* Check the If-Range header, so that ranges are only sent of the version of the content the client has.
+     */
+    protected boolean passIfRange(HttpServletRequest request, HttpContent content)
+    {
+        String ifr=request.getHeader(HttpHeader.IF_RANGE.asString());
+        if (ifr==null)
+            return true;
+
+        // If-Range requires a strong comparison (RFC 7233 3.2), so weak or
+        // compressed variant tags never select a range.
+        if (ifr.startsWith("W/"))
+            return false;
+
+        if (ifr.startsWith("\""))
+        {
+            String etag=content.getETagValue();
+            return _etags && etag!=null && etag.equals(ifr);
+        }
+
+        String lm=content.getLastModifiedValue();
+        return lm!=null && lm.equals(ifr);
+    }
+
     /* ------------------------------------------------------------ */
     /* Check modification date headers.
      */
@@ -701,32 +730,7 @@ public class ResourceService
                     final AsyncContext context = request.startAsync();
                     context.setTimeout(0);
 
-                    ((HttpOutput)out).sendContent(content,new Callback()
-                    {
-                        @Override
-                        public void succeeded()
-                        {   
-                            context.complete();
-                            content.release();
-                        }
-
-                        @Override
-                        public void failed(Throwable x)
-                        {
-                            if (x instanceof IOException)
-                                LOG.debug(x);
-                            else
-                                LOG.warn(x);
-                            context.complete();
-                            content.release();
-                        }
-                        
-                        @Override
-                        public String toString() 
-                        {
-                            return String.format("ResourceService@%x$CB", ResourceService.this.hashCode());
-                        }
-                    });
+                    ((HttpOutput)out).sendContent(content,new AsyncContentCallback(context,content));
                     return false;
                 }
                 // otherwise write content blocking
@@ -760,6 +764,12 @@ public class ResourceService
                     response.addDateHeader(HttpHeader.DATE.asString(),System.currentTimeMillis());
                 response.setHeader(HttpHeader.CONTENT_RANGE.asString(),
                         singleSatisfiableRange.toHeaderRangeString(content_length));
+
+                // send a slice of the content buffer if there is one
+                ByteBuffer buffer = written?null:getContentBuffer(out,content);
+                if (buffer!=null)
+                    return sendContent(request,response,(HttpOutput)out,content,new ByteBuffer[]{slice(buffer,singleSatisfiableRange)});
+
                 content.getResource().writeTo(out,singleSatisfiableRange.getFirst(),singleLength);
                 return true;
             }
@@ -787,6 +797,28 @@ public class ResourceService
                 ctp = "multipart/byteranges; boundary=";
             response.setContentType(ctp+multi.getBoundary());
 
+            // send the part headers and slices of the content buffer if there is one
+            ByteBuffer buffer = written?null:getContentBuffer(out,content);
+            if (buffer!=null)
+            {
+                ByteBuffer[] buffers = new ByteBuffer[ranges.size()*2+1];
+                int i = 0;
+                for (InclusiveByteRange ibr:ranges)
+                {
+                    String part = (i>0?"\r\n":"")+"--"+multi.getBoundary()+"\r\n"+
+                        (mimetype==null?"":HttpHeader.CONTENT_TYPE.asString()+": "+mimetype)+"\r\n"+
+                        HttpHeader.CONTENT_RANGE.asString()+": "+ibr.toHeaderRangeString(content_length)+"\r\n\r\n";
+                    buffers[i++]=BufferUtil.toBuffer(part,StandardCharsets.ISO_8859_1);
+                    buffers[i++]=slice(buffer,ibr);
+                }
+                buffers[i]=BufferUtil.toBuffer("\r\n--"+multi.getBoundary()+"--\r\n",StandardCharsets.ISO_8859_1);
+                long length=0;
+                for (ByteBuffer b:buffers)
+                    length+=b.remaining();
+                response.setContentLengthLong(length);
+                return sendContent(request,response,(HttpOutput)out,content,buffers);
+            }
+
             InputStream in=content.getResource().getInputStream();
             long pos=0;
 
@@ -847,6 +879,54 @@ public class ResourceService
         return true;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the buffer of the whole content, if the content has one and can be sent directly to the output
+     */
+    private ByteBuffer getContentBuffer(OutputStream out, HttpContent content)
+    {
+        if (!(out instanceof HttpOutput))
+            return null;
+        ByteBuffer buffer = ((HttpOutput)out).getHttpChannel().useDirectBuffers()?content.getDirectBuffer():null;
+        if (buffer==null)
+            buffer=content.getIndirectBuffer();
+        if (buffer==null || buffer.remaining()!=content.getContentLengthValue())
+            return null;
+        return buffer;
+    }
+
+    /* ------------------------------------------------------------ */
+    private static ByteBuffer slice(ByteBuffer buffer, InclusiveByteRange range)
+    {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(buffer.position()+(int)range.getFirst());
+        slice.limit(slice.position()+(int)range.getSize());
+        return slice;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Send buffers of the content, asynchronously if they do not fit in the response buffer.
+     * @return true if the content may be released
+     */
+    private boolean sendContent(HttpServletRequest request, HttpServletResponse response, HttpOutput out, HttpContent content, ByteBuffer[] buffers)
+        throws IOException
+    {
+        long length=0;
+        for (ByteBuffer buffer:buffers)
+            length+=buffer.remaining();
+
+        if (request.isAsyncSupported() && length>response.getBufferSize())
+        {
+            AsyncContext context = request.startAsync();
+            context.setTimeout(0);
+            out.sendContent(buffers,new AsyncContentCallback(context,content));
+            return false;
+        }
+        out.sendContent(buffers);
+        return true;
+    }
+
     /* ------------------------------------------------------------ */
     protected void putHeaders(HttpServletResponse response,HttpContent content, long contentLength)
     {
@@ -886,4 +966,42 @@ public class ResourceService
       String getWelcomeFile(String pathInContext);
 
     }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private class AsyncContentCallback implements Callback
+    {
+        private final AsyncContext _context;
+        private final HttpContent _content;
+
+        private AsyncContentCallback(AsyncContext context, HttpContent content)
+        {
+            _context=context;
+            _content=content;
+        }
+
+        @Override
+        public void succeeded()
+        {
+            _context.complete();
+            _content.release();
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            if (x instanceof IOException)
+                LOG.debug(x);
+            else
+                LOG.warn(x);
+            _context.complete();
+            _content.release();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("ResourceService@%x$CB", ResourceService.this.hashCode());
+        }
+    }
 }
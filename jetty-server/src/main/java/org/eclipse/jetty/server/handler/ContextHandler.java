@@ -392,6 +392,8 @@ public class ContextHandler extends ScopedHandler implements Attributes, Gracefu
             }
 
         }
+
+        mapContexts();
     }
 
     /* ------------------------------------------------------------ */
@@ -1576,6 +1578,16 @@ public class ContextHandler extends ScopedHandler implements Attributes, Gracefu
         _contextPath = contextPath;
         _contextPathEncoded = URIUtil.encodePath(contextPath);
 
+        mapContexts();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Update the mappings of the {@link ContextHandlerCollection}s of a started server,
+     * which route requests by context path and virtual host.
+     */
+    private void mapContexts()
+    {
         if (getServer() != null && (getServer().isStarting() || getServer().isStarted()))
         {
             Handler[] contextCollections = getServer().getChildHandlersByClass(ContextHandlerCollection.class);
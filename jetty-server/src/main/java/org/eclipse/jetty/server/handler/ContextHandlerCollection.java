@@ -19,9 +19,11 @@
 package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -37,6 +39,7 @@ import org.eclipse.jetty.server.HttpChannelState;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.util.ArrayTernaryTrie;
 import org.eclipse.jetty.util.ArrayUtil;
+import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.Trie;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
@@ -52,7 +55,11 @@ import org.eclipse.jetty.util.log.Logger;
  * The contexts do not need to be directly contained, only children of the contained handlers.
  * Multiple contexts may have the same context path and they are called in order until one
  * handles the request.
- *
+ * <p>
+ * The branches of each context path are indexed by the virtual hosts of their contexts, so that
+ * a request is only passed to the contexts that may accept its host, found with a lookup of the
+ * host name rather than by comparing it to the virtual hosts of every context.
+ * </p>
  */
 @ManagedObject("Context Handler Collection")
 public class ContextHandlerCollection extends HandlerCollection
@@ -60,7 +67,7 @@ public class ContextHandlerCollection extends HandlerCollection
     private static final Logger LOG = Log.getLogger(ContextHandlerCollection.class);
 
     private final ConcurrentMap<ContextHandler,Handler> _contextBranches = new ConcurrentHashMap<>();
-    private volatile Trie<Map.Entry<String,Branch[]>> _pathBranches;
+    private volatile Trie<Map.Entry<String,Branches>> _pathBranches;
     private Class<? extends ContextHandler> _contextClass = ContextHandler.class;
 
     /* ------------------------------------------------------------ */
@@ -108,6 +115,8 @@ public class ContextHandlerCollection extends HandlerCollection
         }
         
         // Sort the branches so those with virtual hosts are considered before those without
+        // and index them by virtual host
+        Map<String,Branches> index = new HashMap<>();
         for (Map.Entry<String,Branch[]> entry: map.entrySet())
         {
             Branch[] branches=entry.getValue();
@@ -119,16 +128,16 @@ public class ContextHandlerCollection extends HandlerCollection
             for (Branch branch:branches)
                 if (!branch.hasVirtualHost())
                     sorted[i++]=branch;
-            entry.setValue(sorted);
+            index.put(entry.getKey(),new Branches(sorted));
         }
         
         // Loop until we have a big enough trie to hold all the context paths
         int capacity=512;
-        Trie<Map.Entry<String,Branch[]>> trie;
+        Trie<Map.Entry<String,Branches>> trie;
         loop: while(true)
         {
             trie=new ArrayTernaryTrie<>(false,capacity);
-            for (Map.Entry<String,Branch[]> entry: map.entrySet())
+            for (Map.Entry<String,Branches> entry: index.entrySet())
             {
                 if (!trie.put(entry.getKey().substring(1),entry))
                 {
@@ -143,7 +152,7 @@ public class ContextHandlerCollection extends HandlerCollection
         if (LOG.isDebugEnabled())
         {
             for (String ctx : trie.keySet())
-                LOG.debug("{}->{}",ctx,Arrays.asList(trie.get(ctx).getValue()));
+                LOG.debug("{}->{}",ctx,trie.get(ctx).getValue());
         }
         _pathBranches=trie;
     }
@@ -202,11 +211,12 @@ public class ContextHandlerCollection extends HandlerCollection
         if (target.startsWith("/"))
         {
             int limit = target.length()-1;
+            String host = null;
 
             while (limit>=0)
             {
                 // Get best match
-                Map.Entry<String,Branch[]> branches = _pathBranches.getBest(target,1,limit);
+                Map.Entry<String,Branches> branches = _pathBranches.getBest(target,1,limit);
                 
                 
                 if (branches==null)
@@ -215,7 +225,10 @@ public class ContextHandlerCollection extends HandlerCollection
                 int l=branches.getKey().length();
                 if (l==1 || target.length()==l || target.charAt(l)=='/')
                 {
-                    for (Branch branch : branches.getValue())
+                    Branches index = branches.getValue();
+                    if (host==null && index.isIndexed())
+                        host=normalizeHostname(baseRequest.getServerName());
+                    for (Branch branch : index.getBranches(host))
                     {
                         branch.getHandler().handle(target,baseRequest, request, response);
                         if (baseRequest.isHandled())
@@ -238,6 +251,31 @@ public class ContextHandlerCollection extends HandlerCollection
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @param host the host name
+     * @return the lower case host name without any trailing dot, as the virtual hosts are indexed
+     */
+    private static String normalizeHostname(String host)
+    {
+        if (host==null)
+            return null;
+        if (host.endsWith("."))
+            host=host.substring(0,host.length()-1);
+        return StringUtil.asciiToLowerCase(host);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param host a normalized host name
+     * @return the domain matched by a wildcard virtual host, ie the host name from its first dot
+     */
+    private static String wildcardDomain(String host)
+    {
+        int dot=host.indexOf('.');
+        return dot<0?null:host.substring(dot);
+    }
+
     /* ------------------------------------------------------------ */
     /** Add a context handler.
      * @param contextPath  The context path to add
@@ -291,6 +329,9 @@ public class ContextHandlerCollection extends HandlerCollection
     {
         private final Handler _handler;
         private final ContextHandler[] _contexts;
+        private final Set<String> _hosts = new HashSet<>();
+        private final Set<String> _wildcardDomains = new HashSet<>();
+        private final boolean _indexed;
         
         Branch(Handler handler)
         {
@@ -308,6 +349,41 @@ public class ContextHandlerCollection extends HandlerCollection
             }
             else
                 _contexts = new ContextHandler[0];
+
+            // The branch can only be indexed by host if all its contexts only accept the listed hosts,
+            // on any connector.
+            boolean indexed=_contexts.length>0;
+            for (ContextHandler context:_contexts)
+            {
+                String[] vhosts=context.getVirtualHosts();
+                if (vhosts==null || vhosts.length==0)
+                {
+                    indexed=false;
+                    continue;
+                }
+                for (String vhost:vhosts)
+                {
+                    if (vhost==null)
+                        continue;
+                    if (vhost.indexOf('@')>=0)
+                        indexed=false;
+                    else if (vhost.startsWith("*."))
+                        _wildcardDomains.add(normalizeHostname(vhost.substring(1)));
+                    else
+                        _hosts.add(normalizeHostname(vhost));
+                }
+            }
+            _indexed=indexed;
+        }
+
+        boolean isIndexed()
+        {
+            return _indexed;
+        }
+
+        boolean accepts(String host, String wildcardDomain)
+        {
+            return !_indexed || host!=null && _hosts.contains(host) || wildcardDomain!=null && _wildcardDomains.contains(wildcardDomain);
         }
         
         Set<String> getContextPaths()
@@ -343,5 +419,69 @@ public class ContextHandlerCollection extends HandlerCollection
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /**
+     * The branches of a context path, indexed by the virtual hosts of their contexts.
+     * The branches for each host are precomputed in the order in which they are called,
+     * and include the branches that cannot be indexed because they accept any host or
+     * depend on the connector.
+     */
+    private final static class Branches
+    {
+        private final Branch[] _branches;
+        private final Map<String,Branch[]> _hosts = new HashMap<>();
+        private final Map<String,Branch[]> _wildcardDomains = new HashMap<>();
+        private final Branch[] _default;
+
+        Branches(Branch[] branches)
+        {
+            _branches=branches;
+            for (Branch branch:branches)
+            {
+                if (!branch.isIndexed())
+                    continue;
+                for (String domain:branch._wildcardDomains)
+                    _wildcardDomains.computeIfAbsent(domain,d->select(null,d));
+                for (String host:branch._hosts)
+                    _hosts.computeIfAbsent(host,h->select(h,wildcardDomain(h)));
+            }
+            _default=select(null,null);
+        }
+
+        private Branch[] select(String host, String wildcardDomain)
+        {
+            List<Branch> selected = new ArrayList<>();
+            for (Branch branch:_branches)
+                if (branch.accepts(host,wildcardDomain))
+                    selected.add(branch);
+            return selected.toArray(new Branch[selected.size()]);
+        }
 
+        boolean isIndexed()
+        {
+            return !_hosts.isEmpty() || !_wildcardDomains.isEmpty();
+        }
+
+        Branch[] getBranches(String host)
+        {
+            if (host==null)
+                return _default;
+            Branch[] branches=_hosts.get(host);
+            if (branches==null)
+            {
+                String domain=wildcardDomain(host);
+                if (domain!=null)
+                    branches=_wildcardDomains.get(domain);
+            }
+            return branches==null?_default:branches;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s{hosts=%d,wildcards=%d}",Arrays.asList(_branches),_hosts.size(),_wildcardDomains.size());
+        }
+    }
 }
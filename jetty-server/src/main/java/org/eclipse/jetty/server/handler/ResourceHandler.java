@@ -19,6 +19,7 @@
 package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -32,6 +33,7 @@ import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.http.PreEncodedHttpField;
+import org.eclipse.jetty.server.MappedContentStore;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.ResourceContentFactory;
 import org.eclipse.jetty.server.ResourceService;
@@ -58,6 +60,8 @@ public class ResourceHandler extends HandlerWrapper implements ResourceFactory,W
 
     Resource _baseResource;
     ContextHandler _context;
+    Path _contentStoreDirectory;
+    MappedContentStore _contentStore;
     Resource _defaultStylesheet;
     MimeTypes _mimeTypes;
     private final ResourceService _resourceService;
@@ -112,12 +116,59 @@ public class ResourceHandler extends HandlerWrapper implements ResourceFactory,W
         if (_mimeTypes==null)
             _mimeTypes = _context == null?new MimeTypes():_context.getMimeTypes();
 
-        _resourceService.setContentFactory(new ResourceContentFactory(this,_mimeTypes,_resourceService.getPrecompressedFormats()));
+        if (_contentStoreDirectory==null)
+            _resourceService.setContentFactory(new ResourceContentFactory(this,_mimeTypes,_resourceService.getPrecompressedFormats()));
+        else
+        {
+            _contentStore = new MappedContentStore(this,_mimeTypes,_resourceService.getPrecompressedFormats(),_contentStoreDirectory);
+            addBean(_contentStore);
+            _resourceService.setContentFactory(_contentStore);
+        }
         _resourceService.setWelcomeFactory(this);
 
         super.doStart();
     }
 
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        if (_contentStore!=null)
+        {
+            removeBean(_contentStore);
+            _contentStore=null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the directory of the {@link MappedContentStore} used to serve content, or null if content is read from the resources
+     */
+    public Path getContentStoreDirectory()
+    {
+        return _contentStoreDirectory;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param directory the directory of a {@link MappedContentStore} to serve content from memory mapped segment files,
+     *            or null (default) to read content from the resources
+     */
+    public void setContentStoreDirectory(Path directory)
+    {
+        _contentStoreDirectory = directory;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the content store while the handler is started with a content store directory, otherwise null
+     */
+    public MappedContentStore getContentStore()
+    {
+        return _contentStore;
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @return Returns the resourceBase.
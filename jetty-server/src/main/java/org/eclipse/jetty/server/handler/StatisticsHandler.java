@@ -19,6 +19,12 @@
 package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -38,6 +44,7 @@ import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.HttpChannelState;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.server.UserIdentity;
 import org.eclipse.jetty.util.FutureCallback;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
@@ -46,6 +53,7 @@ import org.eclipse.jetty.util.component.Graceful;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 @ManagedObject("Request Statistics Gathering")
@@ -59,6 +67,12 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
     private final CounterStatistic _dispatchedStats = new CounterStatistic();
     private final SampleStatistic _dispatchedTimeStats = new SampleStatistic();
     private final CounterStatistic _asyncWaitStats = new CounterStatistic();
+    private final HistogramStatistic _requestTimeHistogram = new HistogramStatistic();
+    private final HistogramStatistic _dispatchedTimeHistogram = new HistogramStatistic();
+    private final HistogramStatistic _asyncTimeHistogram = new HistogramStatistic();
+    private final ConcurrentMap<String, PathStatistics> _pathStats = new ConcurrentHashMap<>();
+    private final PathStatistics _otherPathStats = new PathStatistics("*");
+    private volatile int _maxPathStatistics;
 
     private final LongAdder _asyncDispatches = new LongAdder();
     private final LongAdder _expires = new LongAdder();
@@ -74,50 +88,6 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
     
     private final AtomicBoolean _wrapWarning = new AtomicBoolean();
     
-    private final AsyncListener _onCompletion = new AsyncListener()
-    {
-        @Override
-        public void onTimeout(AsyncEvent event) throws IOException
-        {
-            _expires.increment();
-        }
-        
-        @Override
-        public void onStartAsync(AsyncEvent event) throws IOException
-        {
-            event.getAsyncContext().addListener(this);
-        }
-        
-        @Override
-        public void onError(AsyncEvent event) throws IOException
-        {
-        }
-
-        @Override
-        public void onComplete(AsyncEvent event) throws IOException
-        {
-            HttpChannelState state = ((AsyncContextEvent)event).getHttpChannelState();
-
-            Request request = state.getBaseRequest();
-            final long elapsed = System.currentTimeMillis()-request.getTimeStamp();
-
-            long d=_requestStats.decrement();
-            _requestTimeStats.record(elapsed);
-
-            updateResponse(request);
-
-            _asyncWaitStats.decrement();
-            
-            // If we have no more dispatches, should we signal shutdown?
-            if (d==0)
-            {
-                FutureCallback shutdown = _shutdown.get();
-                if (shutdown!=null)
-                    shutdown.succeeded();
-            }   
-        }
-    };
-
     /**
      * Resets the current request statistics.
      */
@@ -131,6 +101,11 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         _dispatchedStats.reset();
         _dispatchedTimeStats.reset();
         _asyncWaitStats.reset();
+        _requestTimeHistogram.reset();
+        _dispatchedTimeHistogram.reset();
+        _asyncTimeHistogram.reset();
+        _pathStats.clear();
+        _otherPathStats.reset();
 
         _asyncDispatches.reset();
         _expires.reset();
@@ -185,12 +160,13 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
 
             _dispatchedStats.decrement();
             _dispatchedTimeStats.record(dispatched);
+            _dispatchedTimeHistogram.record(dispatched);
 
             if (state.isSuspended())
             {
                 if (state.isInitial())
                 {
-                    state.addListener(_onCompletion);
+                    state.addListener(new AsyncCompletionListener(now));
                     _asyncWaitStats.increment();
                 }
             }
@@ -198,6 +174,8 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
             {
                 long d=_requestStats.decrement();
                 _requestTimeStats.record(dispatched);
+                _requestTimeHistogram.record(dispatched);
+                updatePathStatistics(baseRequest, dispatched);
                 updateResponse(baseRequest);
                 
                 // If we have no more dispatches, should we signal shutdown?
@@ -213,6 +191,38 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         }
     }
 
+    /**
+     * Records the request time of a completed request in the statistics of the
+     * servlet that handled it, if per servlet statistics are enabled.
+     * @param request the completed request
+     * @param elapsed the request time in milliseconds
+     * @see #setMaxPathStatistics(int)
+     */
+    protected void updatePathStatistics(Request request, long elapsed)
+    {
+        int max = _maxPathStatistics;
+        if (max == 0)
+            return;
+
+        // The ServletHandler leaves the holder of the servlet mapped to the request as its identity scope.
+        UserIdentity.Scope scope = request.getUserIdentityScope();
+        if (scope == null)
+            return;
+
+        // Key by name rather than by holder, so that the statistics
+        // of a redeployed context do not retain its old holders.
+        String name = scope.getContextPath() + "|" + scope.getName();
+        PathStatistics stats = _pathStats.get(name);
+        if (stats == null)
+        {
+            if (max > 0 && _pathStats.size() >= max)
+                stats = _otherPathStats;
+            else
+                stats = _pathStats.computeIfAbsent(name, PathStatistics::new);
+        }
+        stats.record(elapsed);
+    }
+
     protected void updateResponse(Request request)
     {
         Response response = request.getResponse();
@@ -245,6 +255,50 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         _responsesTotalBytes.add(response.getContentCount());
     }
 
+    /**
+     * @return the maximum number of servlets for which request times are recorded separately
+     * @see #setMaxPathStatistics(int)
+     */
+    @ManagedAttribute("maximum number of servlets with separate request statistics")
+    public int getMaxPathStatistics()
+    {
+        return _maxPathStatistics;
+    }
+
+    /**
+     * <p>Enables request time statistics per servlet mapping.</p>
+     * <p>Requests are grouped by the servlet that was mapped to handle them, so the
+     * number of groups is bounded by the number of servlets. Once {@code max} groups
+     * exist, requests to further servlets are recorded in a single "*" group.</p>
+     *
+     * @param max the maximum number of servlets, 0 to disable, negative for no limit
+     */
+    public void setMaxPathStatistics(int max)
+    {
+        _maxPathStatistics = max;
+    }
+
+    /**
+     * @return the request time statistics per servlet, keyed by context path and servlet name
+     * @see #setMaxPathStatistics(int)
+     */
+    public Map<String, PathStatistics> getPathStatistics()
+    {
+        Map<String, PathStatistics> result = new TreeMap<>(_pathStats);
+        if (_otherPathStats.getRequests() > 0)
+            result.put(_otherPathStats.getName(), _otherPathStats);
+        return result;
+    }
+
+    @ManagedAttribute("request time percentiles per servlet (in ms)")
+    public String[] getPathRequestTimes()
+    {
+        List<String> result = new ArrayList<>();
+        for (PathStatistics stats : getPathStatistics().values())
+            result.add(stats.toString());
+        return result.toArray(new String[result.size()]);
+    }
+
     @Override
     protected void doStart() throws Exception
     {
@@ -339,6 +393,36 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         return _requestTimeStats.getStdDev();
     }
 
+    /**
+     * @return the median time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("50th percentile of request handling time (in ms)")
+    public long getRequestTimeP50()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(50);
+    }
+
+    /**
+     * @return the 99th percentile time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("99th percentile of request handling time (in ms)")
+    public long getRequestTimeP99()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(99);
+    }
+
+    /**
+     * @return the 99.9th percentile time (in milliseconds) of request handling
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("99.9th percentile of request handling time (in ms)")
+    public long getRequestTimeP999()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(99.9);
+    }
+
     /**
      * @return the number of dispatches seen by this handler
      * since {@link #statsReset()} was last called, excluding
@@ -416,6 +500,66 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         return _dispatchedTimeStats.getStdDev();
     }
 
+    /**
+     * @return the median time (in milliseconds) of dispatch handling
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("50th percentile of dispatch handling time (in ms)")
+    public long getDispatchedTimeP50()
+    {
+        return _dispatchedTimeHistogram.getValueAtPercentile(50);
+    }
+
+    /**
+     * @return the 99th percentile time (in milliseconds) of dispatch handling
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("99th percentile of dispatch handling time (in ms)")
+    public long getDispatchedTimeP99()
+    {
+        return _dispatchedTimeHistogram.getValueAtPercentile(99);
+    }
+
+    /**
+     * @return the 99.9th percentile time (in milliseconds) of dispatch handling
+     * since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("99.9th percentile of dispatch handling time (in ms)")
+    public long getDispatchedTimeP999()
+    {
+        return _dispatchedTimeHistogram.getValueAtPercentile(99.9);
+    }
+
+    /**
+     * @return the median time (in milliseconds) from the end of the initial dispatch
+     * of an async request until its completion, since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("50th percentile of async completion time (in ms)")
+    public long getAsyncTimeP50()
+    {
+        return _asyncTimeHistogram.getValueAtPercentile(50);
+    }
+
+    /**
+     * @return the 99th percentile time (in milliseconds) from the end of the initial dispatch
+     * of an async request until its completion, since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("99th percentile of async completion time (in ms)")
+    public long getAsyncTimeP99()
+    {
+        return _asyncTimeHistogram.getValueAtPercentile(99);
+    }
+
+    /**
+     * @return the 99.9th percentile time (in milliseconds) from the end of the initial dispatch
+     * of an async request until its completion, since {@link #statsReset()} was last called.
+     */
+    @ManagedAttribute("99.9th percentile of async completion time (in ms)")
+    public long getAsyncTimeP999()
+    {
+        return _asyncTimeHistogram.getValueAtPercentile(99.9);
+    }
+
     /**
      * @return the number of requests handled by this handler
      * since {@link #statsReset()} was last called, including
@@ -550,6 +694,8 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         sb.append("Mean request time: ").append(getRequestTimeMean()).append("<br />\n");
         sb.append("Max request time: ").append(getRequestTimeMax()).append("<br />\n");
         sb.append("Request time standard deviation: ").append(getRequestTimeStdDev()).append("<br />\n");
+        sb.append("Request time percentiles (50/99/99.9): ").append(getRequestTimeP50()).append('/')
+            .append(getRequestTimeP99()).append('/').append(getRequestTimeP999()).append("<br />\n");
 
 
         sb.append("<h2>Dispatches:</h2>\n");
@@ -560,6 +706,8 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         sb.append("Mean dispatched time: ").append(getDispatchedTimeMean()).append("<br />\n");
         sb.append("Max dispatched time: ").append(getDispatchedTimeMax()).append("<br />\n");
         sb.append("Dispatched time standard deviation: ").append(getDispatchedTimeStdDev()).append("<br />\n");
+        sb.append("Dispatched time percentiles (50/99/99.9): ").append(getDispatchedTimeP50()).append('/')
+            .append(getDispatchedTimeP99()).append('/').append(getDispatchedTimeP999()).append("<br />\n");
 
 
         sb.append("Total requests suspended: ").append(getAsyncRequests()).append("<br />\n");
@@ -588,4 +736,115 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
             shutdown.succeeded();
         return shutdown;
     }
+
+    private class AsyncCompletionListener implements AsyncListener
+    {
+        private final long _suspendedAt;
+
+        private AsyncCompletionListener(long suspendedAt)
+        {
+            _suspendedAt = suspendedAt;
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException
+        {
+            _expires.increment();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException
+        {
+            event.getAsyncContext().addListener(this);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException
+        {
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException
+        {
+            HttpChannelState state = ((AsyncContextEvent)event).getHttpChannelState();
+
+            Request request = state.getBaseRequest();
+            final long now = System.currentTimeMillis();
+            final long elapsed = now-request.getTimeStamp();
+
+            long d=_requestStats.decrement();
+            _requestTimeStats.record(elapsed);
+            _requestTimeHistogram.record(elapsed);
+            _asyncTimeHistogram.record(now-_suspendedAt);
+            updatePathStatistics(request, elapsed);
+
+            updateResponse(request);
+
+            _asyncWaitStats.decrement();
+
+            // If we have no more dispatches, should we signal shutdown?
+            if (d==0)
+            {
+                FutureCallback shutdown = _shutdown.get();
+                if (shutdown!=null)
+                    shutdown.succeeded();
+            }
+        }
+    }
+
+    /**
+     * Request time statistics of the requests handled by one servlet.
+     */
+    public static class PathStatistics
+    {
+        private final String _name;
+        private final HistogramStatistic _requestTime = new HistogramStatistic();
+
+        private PathStatistics(String name)
+        {
+            _name = name;
+        }
+
+        private void record(long elapsed)
+        {
+            _requestTime.record(elapsed);
+        }
+
+        private void reset()
+        {
+            _requestTime.reset();
+        }
+
+        /**
+         * @return the context path and name of the servlet, or "*" for servlets beyond the configured maximum
+         */
+        public String getName()
+        {
+            return _name;
+        }
+
+        /**
+         * @return the number of completed requests
+         */
+        public long getRequests()
+        {
+            return _requestTime.getCount();
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return the request time (in milliseconds) at the given percentile
+         */
+        public long getRequestTimeAtPercentile(double percentile)
+        {
+            return _requestTime.getValueAtPercentile(percentile);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s requests=%d p50=%d p99=%d p999=%d max=%d", _name, getRequests(),
+                getRequestTimeAtPercentile(50), getRequestTimeAtPercentile(99), getRequestTimeAtPercentile(99.9), _requestTime.getMax());
+        }
+    }
 }
@@ -0,0 +1,555 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.CompressedContentFormat;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.QuotedCSV;
+import org.eclipse.jetty.server.Authentication;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * A cache of compressed responses for {@link GzipHandler}.
+ * <p>
+ * Dynamic responses that are identical across many requests are recorded by the
+ * {@link GzipHttpOutputInterceptor} as they are compressed, and subsequent requests for
+ * the same URI that negotiate the same encoding are served with the cached bytes, bypassing
+ * both the wrapped handler and the compressor. A request with an {@code If-None-Match}
+ * header matching the cached {@code ETag} is answered with a 304.
+ * </p>
+ * <p>
+ * Requests with {@code Authorization} or {@code Cookie} headers, or with an authenticated
+ * user, are never served from, nor recorded in, the cache. Since cached responses are served
+ * before the wrapped handler runs, a response is not recorded if the wrapped handler performed
+ * the security checks of the request, so that the cache is only used when those checks have
+ * already passed, for example when the {@link GzipHandler} is inside the security handler of
+ * its context. Only successful {@code GET} responses that do not set cookies
+ * and are not marked {@code no-store}, {@code no-cache} or {@code private} are cached.
+ * A cached response is only served to requests with the same values of the headers listed
+ * in its {@code Vary} header, compared as lists of comma separated elements. Entries expire after the freshness lifetime given by the
+ * {@code Cache-Control} or {@code Expires} headers of the response, but no later than
+ * {@link #getMaxAge()} milliseconds, and the least recently used entries are evicted to
+ * keep the cache within {@link #getMaxCacheSize()} bytes.
+ * </p>
+ */
+public class CompressedResponseCache
+{
+    private static final Logger LOG = Log.getLogger(CompressedResponseCache.class);
+
+    private final Map<String,Entry> _cache = new LinkedHashMap<>(16,0.75f,true);
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private long _maxAge = 1000;
+    private int _maxEntrySize = 256*1024;
+    private long _maxCacheSize = 32*1024*1024;
+    private long _cachedSize;
+
+    /**
+     * @return the time in ms that a response is cached for
+     */
+    public long getMaxAge()
+    {
+        return _maxAge;
+    }
+
+    /**
+     * @param maxAge the time in ms that a response is cached for
+     */
+    public void setMaxAge(long maxAge)
+    {
+        _maxAge = maxAge;
+    }
+
+    /**
+     * @return the maximum size in bytes of a compressed response that may be cached
+     */
+    public int getMaxEntrySize()
+    {
+        return _maxEntrySize;
+    }
+
+    /**
+     * @param maxEntrySize the maximum size in bytes of a compressed response that may be cached
+     */
+    public void setMaxEntrySize(int maxEntrySize)
+    {
+        _maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * @return the maximum total size in bytes of the cached compressed responses
+     */
+    public long getMaxCacheSize()
+    {
+        return _maxCacheSize;
+    }
+
+    /**
+     * @param maxCacheSize the maximum total size in bytes of the cached compressed responses
+     */
+    public void setMaxCacheSize(long maxCacheSize)
+    {
+        _maxCacheSize = maxCacheSize;
+        synchronized (this)
+        {
+            shrink();
+        }
+    }
+
+    /**
+     * @return the total size in bytes of the cached compressed responses
+     */
+    public synchronized long getCachedSize()
+    {
+        return _cachedSize;
+    }
+
+    /**
+     * @return the number of cached responses
+     */
+    public synchronized int getCachedResponses()
+    {
+        return _cache.size();
+    }
+
+    public long getHits()
+    {
+        return _hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return _misses.sum();
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public synchronized void clear()
+    {
+        _cache.clear();
+        _cachedSize = 0;
+    }
+
+    /**
+     * Remove the cached responses for a URI, in all encodings.
+     *
+     * @param host the server name of the request
+     * @param uri the request URI, including any query string
+     */
+    public synchronized void invalidate(String host, String uri)
+    {
+        String suffix = ' ' + host + uri;
+        for (Iterator<Map.Entry<String,Entry>> i = _cache.entrySet().iterator(); i.hasNext();)
+        {
+            Map.Entry<String,Entry> e = i.next();
+            if (e.getKey().endsWith(suffix))
+            {
+                _cachedSize -= e.getValue()._content.length;
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the cache key of a request.
+     *
+     * @param request the request
+     * @param encoding the negotiated content encoding
+     * @return the cache key, or null if the request may not be served from the cache
+     */
+    protected String getKey(Request request, String encoding)
+    {
+        if (!HttpMethod.GET.is(request.getMethod()))
+            return null;
+        if (request.getAuthentication() instanceof Authentication.User)
+            return null;
+
+        HttpFields fields = request.getHttpFields();
+        if (fields.contains(HttpHeader.AUTHORIZATION) ||
+            fields.contains(HttpHeader.COOKIE) ||
+            fields.contains(HttpHeader.RANGE) ||
+            fields.contains(HttpHeader.IF_MATCH) ||
+            fields.contains(HttpHeader.IF_RANGE) ||
+            fields.contains(HttpHeader.IF_MODIFIED_SINCE) ||
+            fields.contains(HttpHeader.IF_UNMODIFIED_SINCE))
+            return null;
+
+        String query = request.getQueryString();
+        String uri = query==null?request.getRequestURI():request.getRequestURI()+'?'+query;
+        return encoding + ' ' + request.getServerName() + uri;
+    }
+
+    /**
+     * Send a cached response if there is one for the request.
+     *
+     * @param request the request
+     * @param key the key from {@link #getKey(Request, String)}
+     * @param ifNoneMatch the {@code If-None-Match} header of the request as received, or null
+     * @return true if the response was sent from the cache
+     * @throws IOException if the response could not be sent
+     */
+    public boolean send(Request request, String key, String ifNoneMatch) throws IOException
+    {
+        Entry entry;
+        synchronized (this)
+        {
+            entry = _cache.get(key);
+            if (entry!=null && entry._expires-System.nanoTime()<0)
+            {
+                _cache.remove(key);
+                _cachedSize -= entry._content.length;
+                entry = null;
+            }
+        }
+
+        if (entry==null || !entry.isVariant(request))
+        {
+            _misses.increment();
+            return false;
+        }
+        _hits.increment();
+
+        Response response = request.getResponse();
+        boolean notModified = etagMatches(entry._fields.get(HttpHeader.ETAG),ifNoneMatch);
+        for (HttpField field : entry._fields)
+        {
+            if (field.getHeader()==HttpHeader.CONTENT_TYPE)
+                response.setContentType(field.getValue());
+            else
+                response.getHttpFields().add(field);
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("{} hit {} notModified={}",this,key,notModified);
+
+        if (notModified)
+        {
+            response.getHttpFields().remove(HttpHeader.CONTENT_ENCODING);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            response.closeOutput();
+        }
+        else
+        {
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentLength(entry._content.length);
+            response.getHttpOutput().sendContent(ByteBuffer.wrap(entry._content));
+        }
+        request.setHandled(true);
+        return true;
+    }
+
+    /**
+     * @param request the request
+     * @param key the key from {@link #getKey(Request, String)}
+     * @param encoding the negotiated content encoding
+     * @return a Recorder of the compressed response
+     */
+    public Recorder newRecorder(Request request, String key, String encoding)
+    {
+        return new Recorder(request,key,encoding);
+    }
+
+    /**
+     * @param etag the {@code ETag} of the cached response, or null
+     * @param ifNoneMatch the {@code If-None-Match} header of the request, or null
+     * @return true if any of the entity tags of the header weakly matches the {@code ETag}
+     */
+    protected static boolean etagMatches(String etag, String ifNoneMatch)
+    {
+        if (etag==null || ifNoneMatch==null)
+            return false;
+        if ("*".equals(ifNoneMatch.trim()))
+            return true;
+
+        etag = opaqueTag(etag);
+        for (String tag : new QuotedCSV(true,ifNoneMatch))
+        {
+            if (CompressedContentFormat.tagEquals(etag,opaqueTag(tag)))
+                return true;
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String tag)
+    {
+        return tag.startsWith("W/")?tag.substring(2):tag;
+    }
+
+    protected boolean isCacheable(Response response)
+    {
+        if (response.getStatus()!=HttpServletResponse.SC_OK)
+            return false;
+
+        HttpFields fields = response.getHttpFields();
+        if (fields.contains(HttpHeader.SET_COOKIE) || fields.contains(HttpHeader.SET_COOKIE2))
+            return false;
+
+        for (String value : fields.getCSV(HttpHeader.CACHE_CONTROL,false))
+        {
+            value = StringUtil.asciiToLowerCase(value);
+            if (value.startsWith("no-store") || value.startsWith("no-cache") || value.startsWith("private"))
+                return false;
+        }
+
+        for (String value : fields.getCSV(HttpHeader.VARY,false))
+        {
+            if ("*".equals(value))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the time a response may be cached for, from its {@code s-maxage} or {@code max-age}
+     * {@code Cache-Control} directives, or else from its {@code Expires} header, limited
+     * to {@link #getMaxAge()}.
+     *
+     * @param response the response
+     * @return the time in ms that the response may be cached for, or 0 if it is already stale
+     */
+    protected long getFreshness(Response response)
+    {
+        HttpFields fields = response.getHttpFields();
+        long maxAge = -1;
+        long sharedMaxAge = -1;
+        try
+        {
+            for (String value : fields.getCSV(HttpHeader.CACHE_CONTROL,false))
+            {
+                value = StringUtil.asciiToLowerCase(value);
+                if (value.startsWith("s-maxage="))
+                    sharedMaxAge = TimeUnit.SECONDS.toMillis(Long.parseLong(value.substring(9).trim()));
+                else if (value.startsWith("max-age="))
+                    maxAge = TimeUnit.SECONDS.toMillis(Long.parseLong(value.substring(8).trim()));
+            }
+
+            long freshness = sharedMaxAge>=0?sharedMaxAge:maxAge;
+            if (freshness<0)
+            {
+                long expires = fields.getDateField(HttpHeader.EXPIRES.asString());
+                if (expires>=0)
+                {
+                    long date = fields.getDateField(HttpHeader.DATE.asString());
+                    freshness = Math.max(0,expires-(date>=0?date:System.currentTimeMillis()));
+                }
+            }
+            return freshness<0?_maxAge:Math.min(freshness,_maxAge);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Invalid directives or dates are treated as already stale.
+            LOG.ignore(e);
+            return 0;
+        }
+    }
+
+    /**
+     * Get the value of a request header as the list of its comma separated elements,
+     * so that values differing only by whitespace or by being split across multiple
+     * fields are equal.
+     *
+     * @param fields the request fields
+     * @param header the header name
+     * @return the normalized value, or null if the header is not present
+     */
+    private static String getVaryValue(HttpFields fields, String header)
+    {
+        List<String> values = fields.getValuesList(header);
+        if (values.isEmpty())
+            return null;
+        return String.join(",",new QuotedCSV(true,values.toArray(new String[values.size()])).getValues());
+    }
+
+    private synchronized void put(String key, Entry entry)
+    {
+        Entry old = _cache.put(key,entry);
+        if (old!=null)
+            _cachedSize -= old._content.length;
+        _cachedSize += entry._content.length;
+        shrink();
+    }
+
+    private void shrink()
+    {
+        for (Iterator<Entry> i = _cache.values().iterator(); _cachedSize>_maxCacheSize && i.hasNext();)
+        {
+            _cachedSize -= i.next()._content.length;
+            i.remove();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{entries=%d,size=%d,hits=%d,misses=%d}",getClass().getSimpleName(),hashCode(),
+            getCachedResponses(),getCachedSize(),getHits(),getMisses());
+    }
+
+    private static class Entry
+    {
+        private final HttpFields _fields;
+        private final Map<String,String> _vary;
+        private final byte[] _content;
+        private final long _expires;
+
+        private Entry(HttpFields fields, Map<String,String> vary, byte[] content, long expires)
+        {
+            _fields = fields;
+            _vary = vary;
+            _content = content;
+            _expires = expires;
+        }
+
+        private boolean isVariant(Request request)
+        {
+            HttpFields fields = request.getHttpFields();
+            for (Map.Entry<String,String> e : _vary.entrySet())
+            {
+                String value = getVaryValue(fields,e.getKey());
+                if (value==null?e.getValue()!=null:!value.equals(e.getValue()))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Records the compressed content of a single response.
+     */
+    public class Recorder
+    {
+        private final Request _request;
+        private final String _key;
+        private final String _encoding;
+        private final Authentication _authentication;
+        private ByteArrayOutputStream _content = new ByteArrayOutputStream();
+        private long _freshness;
+
+        private Recorder(Request request, String key, String encoding)
+        {
+            _request = request;
+            _key = key;
+            _encoding = encoding;
+            _authentication = request.getAuthentication();
+        }
+
+        /**
+         * @param response the response being compressed
+         * @param encoding the content encoding of the compressed response
+         * @return true if the response is being recorded
+         */
+        public boolean start(Response response, String encoding)
+        {
+            if (!_encoding.equalsIgnoreCase(encoding) || !isCacheable(response))
+                _content = null;
+            else
+            {
+                _freshness = getFreshness(response);
+                if (_freshness<=0)
+                    _content = null;
+            }
+            return _content!=null;
+        }
+
+        /**
+         * @param buffer compressed content about to be written, which is not consumed
+         */
+        public void record(ByteBuffer buffer)
+        {
+            if (_content==null)
+                return;
+            if (_content.size()+buffer.remaining()>_maxEntrySize)
+            {
+                _content = null;
+                return;
+            }
+            _content.write(buffer.array(),buffer.arrayOffset()+buffer.position(),buffer.remaining());
+        }
+
+        /**
+         * @param response the completely compressed response
+         */
+        public void complete(Response response)
+        {
+            if (_content==null)
+                return;
+
+            // The wrapped handler checked the security of the request, which
+            // serving the response from the cache would bypass.
+            if (_request.getAuthentication()!=_authentication)
+            {
+                _content = null;
+                if (LOG.isDebugEnabled())
+                    LOG.debug("{} not caching {} authenticated by the wrapped handler",CompressedResponseCache.this,_key);
+                return;
+            }
+
+            HttpFields fields = new HttpFields(response.getHttpFields().size());
+            for (HttpField field : response.getHttpFields())
+            {
+                HttpHeader header = field.getHeader();
+                if (header==HttpHeader.CONTENT_LENGTH || header==HttpHeader.DATE ||
+                    header==HttpHeader.CONNECTION || header==HttpHeader.TRANSFER_ENCODING)
+                    continue;
+                fields.add(field);
+            }
+            if (response.getContentType()!=null && !fields.contains(HttpHeader.CONTENT_TYPE))
+                fields.add(HttpHeader.CONTENT_TYPE,response.getContentType());
+
+            // Remember the request values of the headers the response varies on.
+            Map<String,String> vary = Collections.emptyMap();
+            for (String header : fields.getCSV(HttpHeader.VARY,false))
+            {
+                if (vary.isEmpty())
+                    vary = new HashMap<>();
+                vary.put(header,getVaryValue(_request.getHttpFields(),header));
+            }
+
+            long expires = System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(_freshness);
+            put(_key,new Entry(fields,vary,_content.toByteArray(),expires));
+            _content = null;
+            if (LOG.isDebugEnabled())
+                LOG.debug("{} cached {}",CompressedResponseCache.this,_key);
+        }
+    }
+}
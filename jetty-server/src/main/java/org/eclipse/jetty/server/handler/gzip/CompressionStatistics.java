@@ -0,0 +1,124 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compression statistics of a single content encoding, recorded by {@link GzipHandler}
+ * as each compressed response completes.
+ */
+public class CompressionStatistics
+{
+    private final String _encoding;
+    private final LongAdder _responses = new LongAdder();
+    private final LongAdder _bytesIn = new LongAdder();
+    private final LongAdder _bytesOut = new LongAdder();
+    private final LongAdder _nanos = new LongAdder();
+
+    public CompressionStatistics(String encoding)
+    {
+        _encoding = encoding;
+    }
+
+    /**
+     * @param bytesIn the uncompressed size of the response content
+     * @param bytesOut the compressed size of the response content
+     * @param nanos the time spent compressing the response content
+     */
+    public void record(long bytesIn, long bytesOut, long nanos)
+    {
+        _responses.increment();
+        _bytesIn.add(bytesIn);
+        _bytesOut.add(bytesOut);
+        _nanos.add(nanos);
+    }
+
+    public String getEncoding()
+    {
+        return _encoding;
+    }
+
+    /**
+     * @return the number of responses compressed
+     */
+    public long getResponses()
+    {
+        return _responses.sum();
+    }
+
+    /**
+     * @return the total number of uncompressed bytes
+     */
+    public long getBytesIn()
+    {
+        return _bytesIn.sum();
+    }
+
+    /**
+     * @return the total number of compressed bytes
+     */
+    public long getBytesOut()
+    {
+        return _bytesOut.sum();
+    }
+
+    /**
+     * @return the compressed size as a ratio of the uncompressed size, or 1.0 if nothing was compressed
+     */
+    public double getCompressionRatio()
+    {
+        long in = getBytesIn();
+        return in==0?1.0:(double)getBytesOut()/in;
+    }
+
+    /**
+     * @return the total time spent compressing, in milliseconds
+     */
+    public long getCompressionTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_nanos.sum());
+    }
+
+    /**
+     * @return the mean time spent compressing each uncompressed MiB, in nanoseconds
+     */
+    public long getNanosPerMiB()
+    {
+        long in = getBytesIn();
+        return in==0?0:(long)(_nanos.sum()*(1024.0*1024.0)/in);
+    }
+
+    public void reset()
+    {
+        _responses.reset();
+        _bytesIn.reset();
+        _bytesOut.reset();
+        _nanos.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s{%s,responses=%d,in=%d,out=%d,ratio=%.3f,ms=%d}",getClass().getSimpleName(),
+            _encoding,getResponses(),getBytesIn(),getBytesOut(),getCompressionRatio(),getCompressionTime());
+    }
+}
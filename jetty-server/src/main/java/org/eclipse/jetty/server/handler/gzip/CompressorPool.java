@@ -0,0 +1,138 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of the {@link ContentEncoder.Compressor}s of a single {@link ContentEncoder},
+ * with the same capacity semantics as {@link org.eclipse.jetty.server.DeflaterPool}.
+ */
+public class CompressorPool
+{
+    private final ContentEncoder _encoder;
+    private final Queue<ContentEncoder.Compressor> _pool;
+    private final AtomicInteger _numCompressors = new AtomicInteger(0);
+    private final int _capacity;
+    private volatile boolean _closed;
+
+    /**
+     * @param encoder the encoder used to create new Compressors
+     * @param capacity maximum number of Compressors which can be contained in the pool,
+     * zero for no pooling or negative for no size restriction
+     */
+    public CompressorPool(ContentEncoder encoder, int capacity)
+    {
+        _encoder = encoder;
+        _capacity = capacity;
+        _pool = _capacity==0?null:new ConcurrentLinkedQueue<>();
+    }
+
+    public ContentEncoder getContentEncoder()
+    {
+        return _encoder;
+    }
+
+    /**
+     * @return Compressor taken from the pool if it is not empty or a newly created Compressor
+     */
+    public ContentEncoder.Compressor acquire()
+    {
+        if (_capacity == 0)
+            return _encoder.newCompressor();
+
+        ContentEncoder.Compressor compressor = _pool.poll();
+        if (compressor == null)
+            return _encoder.newCompressor();
+        if (_capacity > 0)
+            _numCompressors.decrementAndGet();
+        return compressor;
+    }
+
+    /**
+     * @param compressor returns this Compressor to the pool or calls compressor.end() if the pool is full.
+     */
+    public void release(ContentEncoder.Compressor compressor)
+    {
+        if (compressor == null)
+            return;
+
+        if (_capacity == 0 || _closed)
+        {
+            compressor.end();
+        }
+        else if (_capacity < 0)
+        {
+            compressor.reset();
+            _pool.add(compressor);
+        }
+        else
+        {
+            while (true)
+            {
+                int c = _numCompressors.get();
+
+                if (c >= _capacity)
+                {
+                    compressor.end();
+                    break;
+                }
+
+                if (_numCompressors.compareAndSet(c, c + 1))
+                {
+                    compressor.reset();
+                    _pool.add(compressor);
+                    break;
+                }
+            }
+        }
+
+        // A Compressor released concurrently with close() may have been added after the drain.
+        if (_closed)
+            close();
+    }
+
+    /**
+     * Ends all the pooled Compressors. Compressors released after the pool
+     * is closed are ended rather than pooled.
+     */
+    public void close()
+    {
+        _closed = true;
+        if (_pool == null)
+            return;
+
+        ContentEncoder.Compressor compressor;
+        while ((compressor = _pool.poll()) != null)
+        {
+            if (_capacity > 0)
+                _numCompressors.decrementAndGet();
+            compressor.end();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,capacity=%d}",getClass().getSimpleName(),hashCode(),_encoder.getFormat()._encoding,_capacity);
+    }
+}
@@ -0,0 +1,111 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import org.eclipse.jetty.http.CompressedContentFormat;
+
+/**
+ * A dynamic content encoder that may be used by {@link GzipHandler} in addition to gzip.
+ * <p>
+ * Encoders are registered with {@link GzipHandler#addContentEncoder(ContentEncoder)} or are
+ * discovered with the {@link java.util.ServiceLoader} when the handler is started, so that an
+ * encoder for {@code br} or {@code zstd} is available whenever a module wrapping the native library
+ * is on the classpath. The handler selects an encoder by negotiating the request
+ * {@code Accept-Encoding} header and pools the {@link Compressor}s of each encoder.
+ * </p>
+ */
+public interface ContentEncoder
+{
+    /**
+     * @return the format of the content produced, whose encoding is the content-coding token
+     * used in {@code Accept-Encoding} and {@code Content-Encoding} headers.
+     */
+    CompressedContentFormat getFormat();
+
+    /**
+     * @return a new Compressor, which may be reused after {@link Compressor#reset()}
+     */
+    Compressor newCompressor();
+
+    /**
+     * A stream compressor with {@link java.util.zip.Deflater} like semantics.
+     */
+    interface Compressor
+    {
+        /**
+         * @return the format of the content produced by this compressor
+         */
+        CompressedContentFormat getFormat();
+
+        /**
+         * Set input data for compression. The array is not copied and must not be modified
+         * until {@link #needsInput()} returns true.
+         * @param b the input data
+         * @param off the offset of the data
+         * @param len the length of the data
+         */
+        void setInput(byte[] b, int off, int len);
+
+        /**
+         * @return true if the input is consumed and more input may be set
+         */
+        boolean needsInput();
+
+        /**
+         * Indicate that the compression should end with the current input.
+         */
+        void finish();
+
+        /**
+         * @return true if the end of the compressed stream, including any trailer, has been produced
+         */
+        boolean finished();
+
+        /**
+         * Produce compressed data into the passed array.
+         * @param b the array to fill
+         * @param off the offset to start filling
+         * @param len the maximum number of bytes to produce
+         * @param flush true if all pending output should be flushed so that it may be decoded
+         * @return the number of bytes produced
+         */
+        int compress(byte[] b, int off, int len, boolean flush);
+
+        /**
+         * @return the total number of uncompressed bytes consumed since the last reset
+         */
+        long getBytesRead();
+
+        /**
+         * @return the total number of compressed bytes produced since the last reset
+         */
+        long getBytesWritten();
+
+        /**
+         * Reset the compressor so that a new stream may be compressed.
+         */
+        void reset();
+
+        /**
+         * Release any resources held by the compressor.
+         */
+        void end();
+    }
+}
@@ -0,0 +1,147 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.http.CompressedContentFormat;
+
+/**
+ * A {@link ContentEncoder.Compressor} that produces the gzip format from a
+ * {@link Deflater} created with {@code nowrap}, adding the gzip header and trailer.
+ */
+public class GzipCompressor implements ContentEncoder.Compressor
+{
+    private final static byte[] GZIP_HEADER = new byte[] { (byte)0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    private final static int TRAILER_SIZE = 8;
+
+    private final CRC32 _crc = new CRC32();
+    private final byte[] _trailer = new byte[TRAILER_SIZE];
+    private final Deflater _deflater;
+    private int _header;
+    private int _trailerIndex = -1;
+
+    public GzipCompressor(Deflater deflater)
+    {
+        _deflater = deflater;
+    }
+
+    public Deflater getDeflater()
+    {
+        return _deflater;
+    }
+
+    @Override
+    public CompressedContentFormat getFormat()
+    {
+        return CompressedContentFormat.GZIP;
+    }
+
+    @Override
+    public void setInput(byte[] b, int off, int len)
+    {
+        _crc.update(b,off,len);
+        _deflater.setInput(b,off,len);
+    }
+
+    @Override
+    public boolean needsInput()
+    {
+        return _deflater.needsInput();
+    }
+
+    @Override
+    public void finish()
+    {
+        _deflater.finish();
+    }
+
+    @Override
+    public boolean finished()
+    {
+        return _trailerIndex==TRAILER_SIZE;
+    }
+
+    @Override
+    public int compress(byte[] b, int off, int len, boolean flush)
+    {
+        int produced=0;
+        while (_header<GZIP_HEADER.length && produced<len)
+            b[off+produced++]=GZIP_HEADER[_header++];
+
+        if (!_deflater.finished() && produced<len)
+            produced+=_deflater.deflate(b,off+produced,len-produced,flush?Deflater.SYNC_FLUSH:Deflater.NO_FLUSH);
+
+        if (_deflater.finished())
+        {
+            if (_trailerIndex<0)
+            {
+                putInt(_trailer,0,(int)_crc.getValue());
+                putInt(_trailer,4,(int)_deflater.getBytesRead());
+                _trailerIndex=0;
+            }
+            while (_trailerIndex<TRAILER_SIZE && produced<len)
+                b[off+produced++]=_trailer[_trailerIndex++];
+        }
+        return produced;
+    }
+
+    private static void putInt(byte[] b, int i, int v)
+    {
+        b[i++]=(byte)(v & 0xFF);
+        b[i++]=(byte)((v>>>8) & 0xFF);
+        b[i++]=(byte)((v>>>16) & 0xFF);
+        b[i]=(byte)((v>>>24) & 0xFF);
+    }
+
+    @Override
+    public long getBytesRead()
+    {
+        return _deflater.getBytesRead();
+    }
+
+    @Override
+    public long getBytesWritten()
+    {
+        return _header+_deflater.getBytesWritten()+Math.max(0,_trailerIndex);
+    }
+
+    @Override
+    public void reset()
+    {
+        _deflater.reset();
+        _crc.reset();
+        _header=0;
+        _trailerIndex=-1;
+    }
+
+    @Override
+    public void end()
+    {
+        _deflater.end();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s}",getClass().getSimpleName(),hashCode(),_deflater);
+    }
+}
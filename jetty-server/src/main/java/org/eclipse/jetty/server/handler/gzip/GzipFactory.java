@@ -20,6 +20,7 @@ package org.eclipse.jetty.server.handler.gzip;
 
 import java.util.zip.Deflater;
 
+import org.eclipse.jetty.http.CompressedContentFormat;
 import org.eclipse.jetty.server.Request;
 
 public interface GzipFactory
@@ -29,4 +30,35 @@ public interface GzipFactory
     boolean isMimeTypeGzipable(String mimetype);
 
     void recycle(Deflater deflater);
+
+    /**
+     * @param request the request to compress a response for
+     * @param content_length the response content length if known, or -1
+     * @return a Compressor for the encoding negotiated for the request, or null if the response is not to be compressed
+     */
+    default ContentEncoder.Compressor getCompressor(Request request, long content_length)
+    {
+        Deflater deflater = getDeflater(request,content_length);
+        return deflater==null?null:new GzipCompressor(deflater);
+    }
+
+    /**
+     * @param compressor the compressor obtained from {@link #getCompressor(Request, long)}
+     * @param nanos the time spent compressing, for statistics
+     */
+    default void recycle(ContentEncoder.Compressor compressor, long nanos)
+    {
+        if (compressor instanceof GzipCompressor)
+            recycle(((GzipCompressor)compressor).getDeflater());
+        else if (compressor!=null)
+            compressor.end();
+    }
+
+    /**
+     * @return the formats of the content that may be produced, used to match ETag suffixes
+     */
+    default CompressedContentFormat[] getCompressedContentFormats()
+    {
+        return new CompressedContentFormat[]{CompressedContentFormat.GZIP};
+    }
 }
@@ -20,10 +20,16 @@ package org.eclipse.jetty.server.handler.gzip;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.zip.Deflater;
 import javax.servlet.DispatcherType;
@@ -38,11 +44,14 @@ import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.http.PreEncodedHttpField;
+import org.eclipse.jetty.http.QuotedQualityCSV;
 import org.eclipse.jetty.http.pathmap.PathSpecSet;
 import org.eclipse.jetty.server.DeflaterPool;
 import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.server.handler.IPAccessHandler;
+import org.eclipse.jetty.server.handler.InetAccessHandler;
 import org.eclipse.jetty.util.IncludeExclude;
 import org.eclipse.jetty.util.RegexSet;
 import org.eclipse.jetty.util.StringUtil;
@@ -99,6 +108,14 @@ import org.eclipse.jetty.util.log.Logger;
  *     </li>
  * </ol>
  * <p>
+ *     Encodings other than gzip (eg {@code br} or {@code zstd}) may be provided by
+ *     {@link ContentEncoder}s that are either added with {@link #addContentEncoder(ContentEncoder)}
+ *     or discovered with the {@link ServiceLoader} on start. If any are available, the
+ *     {@code Accept-Encoding} quality values are used to select an encoding, with encoders of equal
+ *     quality preferred in the order they were added and before gzip. Compression ratio and
+ *     time statistics are kept per encoding, see {@link #getCompressionStatistics()}.
+ * </p>
+ * <p>
  *     When you encounter a configurable filter in the GzipHandler (method, paths, user-agent,
  *     mime-types, etc) that has both Included and Excluded values, note that the Included
  *     values always win over the Excluded values.
@@ -160,6 +177,16 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
 
     private int POOL_CAPACITY = -1;
     private DeflaterPool _deflaterPool = null;
+    private final List<ContentEncoder> _encoders = new ArrayList<>();
+    private final Map<String,CompressorPool> _compressorPools = new ConcurrentHashMap<>();
+    private final Map<String,CompressionStatistics> _statistics = new ConcurrentHashMap<>();
+    private final Map<String,String> _encodingCache = new ConcurrentHashMap<>();
+    private int _encodingCacheSize = 100;
+    private boolean _discoverContentEncoders = true;
+    private String[] _preferredEncodings;
+    private CompressedResponseCache _responseCache;
+    private boolean _cacheResponses;
+    private CompressedContentFormat[] _formats;
 
     private int _minGzipSize=DEFAULT_MIN_GZIP_SIZE;
     private int _compressionLevel=Deflater.DEFAULT_COMPRESSION;
@@ -406,10 +433,152 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
     protected void doStart() throws Exception
     {
         _deflaterPool = newDeflaterPool(POOL_CAPACITY);
+
+        List<ContentEncoder> encoders = new ArrayList<>(_encoders);
+        if (_discoverContentEncoders)
+        {
+            for (ContentEncoder encoder : ServiceLoader.load(ContentEncoder.class))
+                encoders.add(encoder);
+        }
+
+        List<String> preferred = new ArrayList<>();
+        List<CompressedContentFormat> formats = new ArrayList<>();
+        for (ContentEncoder encoder : encoders)
+        {
+            CompressedContentFormat format = encoder.getFormat();
+            String encoding = StringUtil.asciiToLowerCase(format._encoding);
+            if (GZIP.equals(encoding) || _compressorPools.containsKey(encoding))
+                continue;
+            LOG.debug("{} content encoder {}",this,encoder);
+            _compressorPools.put(encoding,newCompressorPool(encoder,POOL_CAPACITY));
+            preferred.add(encoding);
+            formats.add(format);
+        }
+        preferred.add(GZIP);
+        formats.add(CompressedContentFormat.GZIP);
+        _preferredEncodings = preferred.toArray(new String[preferred.size()]);
+        _formats = formats.toArray(new CompressedContentFormat[formats.size()]);
+        for (String encoding : _preferredEncodings)
+            _statistics.computeIfAbsent(encoding,CompressionStatistics::new);
         _vary=(_agentPatterns.size()>0)?GzipHttpOutputInterceptor.VARY_ACCEPT_ENCODING_USER_AGENT:GzipHttpOutputInterceptor.VARY_ACCEPT_ENCODING;
+        _cacheResponses = isResponseCacheable();
         super.doStart();
     }
 
+    /**
+     * Cached responses are served before the wrapped handler runs, so they are not used
+     * when the wrapped handler denies access by the address of the client.
+     *
+     * @return whether the compressed response cache may be used
+     */
+    private boolean isResponseCacheable()
+    {
+        if (_responseCache==null)
+            return false;
+        if (getChildHandlerByClass(InetAccessHandler.class)!=null || getChildHandlerByClass(IPAccessHandler.class)!=null)
+        {
+            LOG.warn("{} not caching responses of an access controlled handler",this);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        for (CompressorPool pool : _compressorPools.values())
+            pool.close();
+        _compressorPools.clear();
+        _encodingCache.clear();
+    }
+
+    /**
+     * Add a {@link ContentEncoder} for an encoding other than gzip.
+     * Encoders of equal quality are preferred in the order added.
+     *
+     * @param encoder the encoder to add
+     */
+    public void addContentEncoder(ContentEncoder encoder)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _encoders.add(encoder);
+    }
+
+    /**
+     * @return the ContentEncoders added to this handler
+     */
+    public List<ContentEncoder> getContentEncoders()
+    {
+        return _encoders;
+    }
+
+    /**
+     * @return true if {@link ContentEncoder}s are discovered with the {@link ServiceLoader} on start
+     */
+    public boolean isDiscoverContentEncoders()
+    {
+        return _discoverContentEncoders;
+    }
+
+    /**
+     * @param discover true if {@link ContentEncoder}s are discovered with the {@link ServiceLoader} on start
+     */
+    public void setDiscoverContentEncoders(boolean discover)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _discoverContentEncoders = discover;
+    }
+
+    /**
+     * @return the encodings that may be used for responses, in order of preference
+     */
+    public String[] getContentEncodings()
+    {
+        return _preferredEncodings==null?new String[]{GZIP}:_preferredEncodings.clone();
+    }
+
+    /**
+     * @return the compression statistics of each encoding
+     */
+    public Collection<CompressionStatistics> getCompressionStatistics()
+    {
+        return _statistics.values();
+    }
+
+    /**
+     * @param encoding the content encoding
+     * @return the compression statistics of the encoding, or null if the encoding is not used
+     */
+    public CompressionStatistics getCompressionStatistics(String encoding)
+    {
+        return _statistics.get(StringUtil.asciiToLowerCase(encoding));
+    }
+
+    /**
+     * @return the cache of compressed responses, or null if responses are not cached
+     */
+    public CompressedResponseCache getCompressedResponseCache()
+    {
+        return _responseCache;
+    }
+
+    /**
+     * Set a cache of compressed responses, so that identical dynamic responses are not
+     * regenerated and recompressed for every request.
+     *
+     * @param cache the cache of compressed responses, or null if responses are not cached
+     */
+    public void setCompressedResponseCache(CompressedResponseCache cache)
+    {
+        updateBean(_responseCache,cache);
+        _responseCache = cache;
+        if (isStarted())
+            _cacheResponses = isResponseCacheable();
+    }
+
     /**
      * @deprecated feature will be removed in Jetty 10.x, with no replacement.
      */
@@ -426,6 +595,39 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
     
     @Override
     public Deflater getDeflater(Request request, long content_length)
+    {
+        if (!GZIP.equals(getContentEncoding(request,content_length)))
+            return null;
+        return _deflaterPool.acquire();
+    }
+
+    @Override
+    public ContentEncoder.Compressor getCompressor(Request request, long content_length)
+    {
+        String encoding = getContentEncoding(request,content_length);
+        if (encoding==null)
+            return null;
+        if (GZIP.equals(encoding))
+            return new GzipCompressor(_deflaterPool.acquire());
+        // The pools are cleared when stopped, so a request racing with doStop() is not compressed.
+        CompressorPool pool = _compressorPools.get(encoding);
+        return pool==null?null:pool.acquire();
+    }
+
+    @Override
+    public CompressedContentFormat[] getCompressedContentFormats()
+    {
+        return _formats==null?GzipFactory.super.getCompressedContentFormats():_formats;
+    }
+
+    /**
+     * Get the encoding to compress a response with.
+     *
+     * @param request the request
+     * @param content_length the response content length if known, or -1
+     * @return the negotiated content encoding or null if the response is not to be compressed
+     */
+    protected String getContentEncoding(Request request, long content_length)
     {
         String ua = request.getHttpFields().get(HttpHeader.USER_AGENT);
         if (ua!=null && !isAgentGzipable(ua))
@@ -448,15 +650,45 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
             LOG.debug("{} excluded !accept {}",this,request);
             return null;
         }
-        boolean gzip = accept.contains("gzip");
+        if (_compressorPools.isEmpty())
+        {
+            if (!accept.contains(GZIP))
+            {
+                LOG.debug("{} excluded not gzip accept {}",this,request);
+                return null;
+            }
+            return GZIP;
+        }
 
-        if (!gzip)
+        String value = accept.getValue();
+        String encoding = _encodingCache.get(value);
+        if (encoding==null)
         {
-            LOG.debug("{} excluded not gzip accept {}",this,request);
-            return null;
+            encoding = "";
+            QuotedQualityCSV qualityCSV = new QuotedQualityCSV(_preferredEncodings);
+            qualityCSV.addValue(value);
+            for (String accepted : qualityCSV)
+            {
+                accepted = StringUtil.asciiToLowerCase(accepted);
+                if (GZIP.equals(accepted) || _compressorPools.containsKey(accepted))
+                {
+                    encoding = accepted;
+                    break;
+                }
+            }
+
+            // keep cache size in check even if we get strange/malicious input
+            if (_encodingCache.size()>_encodingCacheSize)
+                _encodingCache.clear();
+            _encodingCache.put(value,encoding);
         }
 
-        return _deflaterPool.acquire();
+        if (encoding.isEmpty())
+        {
+            LOG.debug("{} excluded no accepted encoding {}",this,request);
+            return null;
+        }
+        return encoding;
     }
 
     /**
@@ -668,18 +900,22 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
             if (field.getHeader()==HttpHeader.IF_NONE_MATCH || field.getHeader()==HttpHeader.IF_MATCH)
             {
                 String etag = field.getValue();
-                int i=etag.indexOf(CompressedContentFormat.GZIP._etagQuote);
-                if (i>0)
+                String original = etag;
+                for (CompressedContentFormat format : getCompressedContentFormats())
                 {
-                    baseRequest.setAttribute("o.e.j.s.h.gzip.GzipHandler.etag",etag);
-                    while (i>=0)
+                    int i=etag.indexOf(format._etagQuote);
+                    while (i>0)
                     {
-                        etag=etag.substring(0,i)+etag.substring(i+CompressedContentFormat.GZIP._etag.length());
-                        i=etag.indexOf(CompressedContentFormat.GZIP._etagQuote,i);
+                        etag=etag.substring(0,i)+etag.substring(i+format._etag.length());
+                        i=etag.indexOf(format._etagQuote,i);
                     }
-                    
+                }
+
+                if (!etag.equals(original))
+                {
+                    baseRequest.setAttribute("o.e.j.s.h.gzip.GzipHandler.etag",original);
                     fields.set(new HttpField(field.getHeader(),etag));
-                }   
+                }
             }
         }
         
@@ -730,11 +966,31 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
             }
         }
       
+        // Can the response be sent from, or recorded in, the compressed response cache?
+        CompressedResponseCache.Recorder recorder = null;
+        CompressedResponseCache cache = _cacheResponses?_responseCache:null;
+        if (cache!=null)
+        {
+            String encoding = getContentEncoding(baseRequest,-1);
+            String key = encoding==null?null:cache.getKey(baseRequest,encoding);
+            if (key!=null)
+            {
+                String ifNoneMatch = (String)baseRequest.getAttribute("o.e.j.s.h.gzip.GzipHandler.etag");
+                if (ifNoneMatch==null)
+                    ifNoneMatch = baseRequest.getHttpFields().get(HttpHeader.IF_NONE_MATCH);
+                if (cache.send(baseRequest,key,ifNoneMatch))
+                    return;
+                recorder = cache.newRecorder(baseRequest,key,encoding);
+            }
+        }
+
         HttpOutput.Interceptor orig_interceptor = out.getInterceptor();
         try
         {
             // install interceptor and handle
-            out.setInterceptor(new GzipHttpOutputInterceptor(this,getVaryField(),baseRequest.getHttpChannel(),orig_interceptor,isSyncFlush()));
+            GzipHttpOutputInterceptor gzipInterceptor = new GzipHttpOutputInterceptor(this,getVaryField(),baseRequest.getHttpChannel(),orig_interceptor,isSyncFlush());
+            gzipInterceptor.setRecorder(recorder);
+            out.setInterceptor(gzipInterceptor);
 
             if (_handler!=null)
                 _handler.handle(target,baseRequest, request, response);
@@ -793,6 +1049,29 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
         _deflaterPool.release(deflater);
     }
 
+    @Override
+    public void recycle(ContentEncoder.Compressor compressor, long nanos)
+    {
+        if (compressor==null)
+            return;
+
+        String encoding = StringUtil.asciiToLowerCase(compressor.getFormat()._encoding);
+        CompressionStatistics statistics = _statistics.get(encoding);
+        if (statistics!=null)
+            statistics.record(compressor.getBytesRead(),compressor.getBytesWritten(),nanos);
+
+        if (compressor instanceof GzipCompressor)
+            _deflaterPool.release(((GzipCompressor)compressor).getDeflater());
+        else
+        {
+            CompressorPool pool = _compressorPools.get(encoding);
+            if (pool==null)
+                compressor.end();
+            else
+                pool.release(compressor);
+        }
+    }
+
     /**
      * Set the Check if {@code *.gz} file for the incoming file exists.
      *
@@ -999,4 +1278,9 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
     {
         return new DeflaterPool(capacity, getCompressionLevel(), true);
     }
+
+    protected CompressorPool newCompressorPool(ContentEncoder encoder, int capacity)
+    {
+        return new CompressorPool(encoder, capacity);
+    }
 }
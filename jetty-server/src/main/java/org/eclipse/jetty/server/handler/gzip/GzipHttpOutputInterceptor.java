@@ -21,9 +21,8 @@ package org.eclipse.jetty.server.handler.gzip;
 import java.nio.ByteBuffer;
 import java.nio.channels.WritePendingException;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.zip.CRC32;
-import java.util.zip.Deflater;
 
+import org.eclipse.jetty.http.CompressedContentFormat;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
@@ -39,19 +38,15 @@ import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
-import static org.eclipse.jetty.http.CompressedContentFormat.GZIP;
-
 public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
 {
     public static Logger LOG = Log.getLogger(GzipHttpOutputInterceptor.class);
-    private final static byte[] GZIP_HEADER = new byte[] { (byte)0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
 
     public final static HttpField VARY_ACCEPT_ENCODING_USER_AGENT=new PreEncodedHttpField(HttpHeader.VARY,HttpHeader.ACCEPT_ENCODING+", "+HttpHeader.USER_AGENT);
     public final static HttpField VARY_ACCEPT_ENCODING=new PreEncodedHttpField(HttpHeader.VARY,HttpHeader.ACCEPT_ENCODING.asString());
 
     private enum GZState {  MIGHT_COMPRESS, NOT_COMPRESSING, COMMITTING, COMPRESSING, FINISHED};
     private final AtomicReference<GZState> _state = new AtomicReference<>(GZState.MIGHT_COMPRESS);
-    private final CRC32 _crc = new CRC32();
 
     private final GzipFactory _factory;
     private final HttpOutput.Interceptor _interceptor;
@@ -60,7 +55,9 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
     private final int _bufferSize;
     private final boolean _syncFlush;
 
-    private Deflater _deflater;
+    private CompressedResponseCache.Recorder _recorder;
+    private ContentEncoder.Compressor _compressor;
+    private long _nanos;
     private ByteBuffer _buffer;
 
     public GzipHttpOutputInterceptor(GzipFactory factory, HttpChannel channel, HttpOutput.Interceptor next,boolean syncFlush)
@@ -83,6 +80,14 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
         _syncFlush=syncFlush;
     }
 
+    /**
+     * @param recorder the recorder of the compressed response for a {@link CompressedResponseCache}, or null
+     */
+    public void setRecorder(CompressedResponseCache.Recorder recorder)
+    {
+        _recorder=recorder;
+    }
+
     @Override
     public HttpOutput.Interceptor getNextInterceptor()
     {
@@ -123,25 +128,6 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
         }
     }
 
-    private void addTrailer()
-    {
-        int i=_buffer.limit();
-        _buffer.limit(i+8);
-
-        int v=(int)_crc.getValue();
-        _buffer.put(i++,(byte)(v & 0xFF));
-        _buffer.put(i++,(byte)((v>>>8) & 0xFF));
-        _buffer.put(i++,(byte)((v>>>16) & 0xFF));
-        _buffer.put(i++,(byte)((v>>>24) & 0xFF));
-
-        v=_deflater.getTotalIn();
-        _buffer.put(i++,(byte)(v & 0xFF));
-        _buffer.put(i++,(byte)((v>>>8) & 0xFF));
-        _buffer.put(i++,(byte)((v>>>16) & 0xFF));
-        _buffer.put(i++,(byte)((v>>>24) & 0xFF));
-    }
-
-
     private void gzip(ByteBuffer content, boolean complete, final Callback callback)
     {
         if (content.hasRemaining() || complete)
@@ -166,9 +152,15 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
                 String response_etag = response.getHttpFields().get(HttpHeader.ETAG);
                 if (request_etags!=null && response_etag!=null)
                 {
-                    String response_etag_gzip=etagGzip(response_etag);
-                    if (request_etags.contains(response_etag_gzip))
-                        response.getHttpFields().put(HttpHeader.ETAG,response_etag_gzip);
+                    for (CompressedContentFormat format : _factory.getCompressedContentFormats())
+                    {
+                        String response_etag_compressed=etagCompressed(response_etag,format);
+                        if (request_etags.contains(response_etag_compressed))
+                        {
+                            response.getHttpFields().put(HttpHeader.ETAG,response_etag_compressed);
+                            break;
+                        }
+                    }
                 }
             }
             
@@ -217,28 +209,30 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
             if (content_length<0 && complete)
                 content_length=content.remaining();
 
-            _deflater = _factory.getDeflater(_channel.getRequest(),content_length);
+            _compressor = _factory.getCompressor(_channel.getRequest(),content_length);
 
-            if (_deflater==null)
+            if (_compressor==null)
             {
-                LOG.debug("{} exclude no deflater",this);
+                LOG.debug("{} exclude no compressor",this);
                 _state.set(GZState.NOT_COMPRESSING);
                 _interceptor.write(content, complete, callback);
                 return;
             }
 
-            fields.put(GZIP._contentEncoding);
-            _crc.reset();
+            CompressedContentFormat format = _compressor.getFormat();
+            fields.put(format._contentEncoding);
             _buffer=_channel.getByteBufferPool().acquire(_bufferSize,false);
-            BufferUtil.fill(_buffer,GZIP_HEADER,0,GZIP_HEADER.length);
 
             // Adjust headers
             response.setContentLength(-1);
             String etag=fields.get(HttpHeader.ETAG);
             if (etag!=null)
-                fields.put(HttpHeader.ETAG,etagGzip(etag));
+                fields.put(HttpHeader.ETAG,etagCompressed(etag,format));
 
-            LOG.debug("{} compressing {}",this,_deflater);
+            if (_recorder!=null && !_recorder.start(response,format._encoding))
+                _recorder=null;
+
+            LOG.debug("{} compressing {}",this,_compressor);
             _state.set(GZState.COMPRESSING);
 
             gzip(content,complete,callback);
@@ -247,10 +241,10 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
             callback.failed(new WritePendingException());
     }
 
-    private String etagGzip(String etag)
+    private String etagCompressed(String etag, CompressedContentFormat format)
     {
         int end = etag.length()-1;
-        return (etag.charAt(end)=='"')?etag.substring(0,end)+ GZIP._etag+'"':etag+GZIP._etag;
+        return (etag.charAt(end)=='"')?etag.substring(0,end)+format._etag+'"':etag+format._etag;
     }
     
     public void noCompression()
@@ -313,41 +307,40 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
 
         @Override
         protected void onCompleteFailure(Throwable x) {
-            _factory.recycle(_deflater);
-            _deflater=null;
+            _factory.recycle(_compressor,_nanos);
+            _compressor=null;
             super.onCompleteFailure(x);
         }
 
         @Override
         protected Action process() throws Exception
         {
-            if (_deflater==null)
+            if (_compressor==null)
+            {
+                // The compressor was recycled when it finished, so release the buffers once written
+                if (_buffer!=null)
+                {
+                    _channel.getByteBufferPool().release(_buffer);
+                    _buffer=null;
+                }
+                if (_copy!=null)
+                {
+                    _channel.getByteBufferPool().release(_copy);
+                    _copy=null;
+                }
                 return Action.SUCCEEDED;
+            }
 
-            if (_deflater.needsInput())
+            if (_compressor.needsInput())
             {
                 if (BufferUtil.isEmpty(_content))
                 {
-                    if (_deflater.finished())
-                    {
-                        _factory.recycle(_deflater);
-                        _deflater=null;
-                        _channel.getByteBufferPool().release(_buffer);
-                        _buffer=null;
-                        if (_copy!=null)
-                        {
-                            _channel.getByteBufferPool().release(_copy);
-                            _copy=null;
-                        }
-                        return Action.SUCCEEDED;
-                    }
-
                     if (!_last)
                     {
                         return Action.SUCCEEDED;
                     }
 
-                    _deflater.finish();
+                    _compressor.finish();
                 }
                 else if (_content.hasArray())
                 {
@@ -356,10 +349,9 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
                     int len=_content.remaining();
                     BufferUtil.clear(_content);
 
-                    _crc.update(array,off,len);
-                    _deflater.setInput(array,off,len);
+                    _compressor.setInput(array,off,len);
                     if (_last)
-                        _deflater.finish();
+                        _compressor.finish();
                 }
                 else
                 {
@@ -375,25 +367,35 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
                     int off=_copy.arrayOffset()+_copy.position();
                     int len=_copy.remaining();
 
-                    _crc.update(array,off,len);
-                    _deflater.setInput(array,off,len);
+                    _compressor.setInput(array,off,len);
                     if (_last && BufferUtil.isEmpty(_content))
-                        _deflater.finish();
+                        _compressor.finish();
                 }
             }
 
             BufferUtil.compact(_buffer);
             int off=_buffer.arrayOffset()+_buffer.limit();
-            int len=_buffer.capacity()-_buffer.limit() - (_last?8:0);
+            int len=_buffer.capacity()-_buffer.limit();
             if (len>0)
             {
-                int produced=_deflater.deflate(_buffer.array(),off,len,_syncFlush?Deflater.SYNC_FLUSH:Deflater.NO_FLUSH);
+                long start=System.nanoTime();
+                int produced=_compressor.compress(_buffer.array(),off,len,_syncFlush);
+                _nanos+=System.nanoTime()-start;
                 _buffer.limit(_buffer.limit()+produced);
             }
-            boolean finished=_deflater.finished();
-
+            boolean finished=_compressor.finished();
+            if (_recorder!=null)
+            {
+                _recorder.record(_buffer);
+                if (finished)
+                    _recorder.complete(_channel.getResponse());
+            }
             if (finished)
-                addTrailer();
+            {
+                // Recycle before the last write so that statistics are recorded before the response completes
+                _factory.recycle(_compressor,_nanos);
+                _compressor=null;
+            }
 
             _interceptor.write(_buffer,finished,this);
             return Action.SCHEDULED;
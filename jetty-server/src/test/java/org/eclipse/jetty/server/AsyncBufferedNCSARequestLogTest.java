@@ -0,0 +1,258 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.toolchain.test.TestingDir;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class AsyncBufferedNCSARequestLogTest
+{
+    @Rule
+    public TestingDir testdir = new TestingDir();
+
+    @Test
+    public void testRequestsAreLogged() throws Exception
+    {
+        File file = testdir.getPathFile("request.log").toFile();
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector(server);
+        server.addConnector(connector);
+        AsyncBufferedNCSARequestLog log = new AsyncBufferedNCSARequestLog(file.getAbsolutePath());
+        server.setRequestLog(log);
+        server.start();
+        try
+        {
+            // The request is logged after the response has been sent,
+            // so wait for each entry to keep them in order.
+            connector.getResponse("GET /foo HTTP/1.0\n\n");
+            awaitWrittenEntries(log, 1);
+            connector.getResponse("GET /caf%C3%A9 HTTP/1.0\nUser-Agent: caf\u00e9\n\n");
+            awaitWrittenEntries(log, 2);
+        }
+        finally
+        {
+            server.stop();
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines.size(), is(2));
+        assertThat(lines.get(0), containsString("\"GET /foo HTTP/1.0\" 404 "));
+        assertThat(lines.get(1), containsString("\"GET /caf%C3%A9 HTTP/1.0\" 404 "));
+        assertThat(log.getWrittenEntries(), is(2L));
+        assertThat(log.getDroppedEntries(), is(0L));
+    }
+
+    private void awaitWrittenEntries(AsyncBufferedNCSARequestLog log, long entries) throws InterruptedException
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (log.getWrittenEntries() < entries && System.nanoTime() < end)
+            Thread.sleep(10);
+    }
+
+    @Test
+    public void testEncoding() throws Exception
+    {
+        File file = testdir.getPathFile("encoding.log").toFile();
+        AsyncBufferedNCSARequestLog log = new AsyncBufferedNCSARequestLog(file.getAbsolutePath());
+        log.setEntryBufferSize(4);
+        log.start();
+        log.write("caf\u00e9 \u20ac \ud83d\ude00");
+        log.write("plain");
+        log.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines.size(), is(2));
+        assertThat(lines.get(0), is("caf\u00e9 \u20ac \ud83d\ude00"));
+        assertThat(lines.get(1), is("plain"));
+    }
+
+    @Test
+    public void testFullQueueDropsEntries() throws Exception
+    {
+        File file = testdir.getPathFile("dropped.log").toFile();
+        AsyncBufferedNCSARequestLog log = new AsyncBufferedNCSARequestLog(file.getAbsolutePath());
+        log.setCapacity(2);
+        log.start();
+
+        int threads = 8;
+        int entries = 5000;
+        AtomicInteger queued = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++)
+        {
+            int id = t;
+            new Thread(() ->
+            {
+                for (int i = 0; i < entries; i++)
+                {
+                    if (log.offer("thread " + id + " entry " + i))
+                        queued.incrementAndGet();
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        log.stop();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(log.getDroppedEntries(), greaterThan(0L));
+        assertThat(log.getWrittenEntries(), is((long)queued.get()));
+        assertThat(lines.size(), is(queued.get()));
+        assertThat(log.getDroppedEntries() + log.getWrittenEntries(), is((long)threads * entries));
+        for (String line : lines)
+            assertThat(line, containsString("thread "));
+    }
+
+    @Test
+    public void testOfferDuringStop() throws Exception
+    {
+        File file = testdir.getPathFile("stop.log").toFile();
+        AsyncBufferedNCSARequestLog log = new AsyncBufferedNCSARequestLog(file.getAbsolutePath());
+        log.start();
+
+        int threads = 4;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++)
+        {
+            new Thread(() ->
+            {
+                try
+                {
+                    // Keep offering until the log is stopped and entries are rejected.
+                    while (log.offer("entry") || !log.isStopped())
+                        Thread.yield();
+                }
+                catch (Throwable x)
+                {
+                    failure.set(x);
+                }
+                finally
+                {
+                    latch.countDown();
+                }
+            }).start();
+        }
+        Thread.sleep(100);
+        log.stop();
+
+        assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(failure.get(), nullValue());
+    }
+
+    @Test
+    public void testStopWithUnpublishedEntry() throws Exception
+    {
+        File file = testdir.getPathFile("unpublished.log").toFile();
+        AsyncBufferedNCSARequestLog log = new AsyncBufferedNCSARequestLog(file.getAbsolutePath());
+        log.setStopTimeout(1000);
+        log.start();
+        log.write("before");
+
+        // An entry that blocks while it is encoded, after its slot has been claimed.
+        CountDownLatch claimed = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CharSequence entry = new CharSequence()
+        {
+            @Override
+            public int length()
+            {
+                return 1;
+            }
+
+            @Override
+            public char charAt(int index)
+            {
+                claimed.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException x)
+                {
+                    throw new RuntimeException(x);
+                }
+                return 'x';
+            }
+
+            @Override
+            public CharSequence subSequence(int start, int end)
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        Thread producer = new Thread(() -> log.offer(entry));
+        producer.start();
+        assertThat(claimed.await(5, TimeUnit.SECONDS), is(true));
+
+        long start = System.nanoTime();
+        log.stop();
+        assertThat(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), lessThan(5L));
+        release.countDown();
+        producer.join(5000);
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertThat(lines.size(), is(1));
+        assertThat(lines.get(0), is("before"));
+        assertThat(log.getWrittenEntries(), is(1L));
+        assertThat(log.getDroppedEntries(), is(1L));
+    }
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        File file = testdir.getPathFile("reopen.log").toFile();
+        AsyncBufferedNCSARequestLog log = new AsyncBufferedNCSARequestLog(file.getAbsolutePath());
+        // Reopening a log that was never opened is a no-op.
+        log.reopen();
+        log.start();
+        log.write("first");
+        awaitWrittenEntries(log, 1);
+
+        File rotated = testdir.getPathFile("reopen.log.1").toFile();
+        Files.move(file.toPath(), rotated.toPath());
+        log.reopen();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!file.exists() && System.nanoTime() < end)
+            Thread.sleep(10);
+        log.write("second");
+        log.stop();
+
+        assertThat(Files.readAllLines(rotated.toPath(), StandardCharsets.UTF_8), contains("first"));
+        assertThat(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8), contains("second"));
+    }
+}
@@ -0,0 +1,163 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpTester;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpOutputFlushDelayTest
+{
+    private Server _server;
+    private ServerConnector _connector;
+    private final CountDownLatch _release = new CountDownLatch(1);
+
+    @Before
+    public void init() throws Exception
+    {
+        _server = new Server();
+        HttpConnectionFactory http = new HttpConnectionFactory();
+        http.getHttpConfiguration().setOutputFlushDelay(500);
+        http.getHttpConfiguration().setOutputFlushDelaySize(1024);
+        _connector = new ServerConnector(_server, http);
+        _server.addConnector(_connector);
+        _server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+            {
+                baseRequest.setHandled(true);
+                ServletOutputStream out = response.getOutputStream();
+                if ("/stream".equals(target))
+                {
+                    for (int i = 0; i < 100; i++)
+                    {
+                        out.write(("line " + i + "\n").getBytes(StandardCharsets.ISO_8859_1));
+                        out.flush();
+                    }
+                }
+                else if ("/wait".equals(target))
+                {
+                    // The first flush commits the response and is not delayed
+                    out.write("hello\n".getBytes(StandardCharsets.ISO_8859_1));
+                    out.flush();
+                    out.write("world\n".getBytes(StandardCharsets.ISO_8859_1));
+                    out.flush();
+                    try
+                    {
+                        _release.await(10, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        });
+        _server.start();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        _release.countDown();
+        _server.stop();
+    }
+
+    @Test
+    public void testFlushesAggregated() throws Exception
+    {
+        try (Socket socket = new Socket("localhost", _connector.getLocalPort()))
+        {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            socket.setSoTimeout(5000);
+            String raw = readUntil(socket.getInputStream(), new StringBuilder(), "\r\n0\r\n\r\n");
+            HttpTester.Response response = HttpTester.parseResponse(raw);
+            assertThat(response.getStatus(), is(200));
+            assertThat(response.getContent(), containsString("line 0\nline 1\n"));
+            assertThat(response.getContent(), containsString("line 99\n"));
+
+            // The 100 flushes are sent in chunks of at most 1024 bytes, rather than a chunk each
+            int chunks = 0;
+            for (String line : raw.substring(raw.indexOf("\r\n\r\n") + 4).split("\r\n"))
+            {
+                if (line.matches("[0-9A-Fa-f]+"))
+                    chunks++;
+            }
+            assertTrue("chunks=" + chunks, chunks <= 4);
+        }
+    }
+
+    @Test
+    public void testDelayedFlushSent() throws Exception
+    {
+        try (Socket socket = new Socket("localhost", _connector.getLocalPort()))
+        {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write("GET /wait HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            // The flushed content arrives after the delay, even though the handler has not returned
+            InputStream in = socket.getInputStream();
+            StringBuilder received = new StringBuilder();
+            readUntil(in, received, "world");
+            assertThat(received.toString(), containsString("hello\n"));
+            assertThat(received.toString(), containsString("world"));
+            assertThat(_release.getCount(), is(1L));
+
+            _release.countDown();
+            assertThat(readUntil(in, received, "\r\n0\r\n\r\n"), containsString("Transfer-Encoding: chunked"));
+        }
+    }
+
+    private static String readUntil(InputStream in, StringBuilder received, String end) throws IOException
+    {
+        while (received.indexOf(end) < 0)
+        {
+            int b = in.read();
+            if (b < 0)
+                break;
+            received.append((char)b);
+        }
+        return received.toString();
+    }
+}
@@ -27,6 +27,7 @@ import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 
 import org.eclipse.jetty.toolchain.test.AdvancedRunner;
+import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.util.thread.TimerScheduler;
 import org.hamcrest.Matchers;
@@ -166,6 +167,71 @@ public class LowResourcesMonitorTest
     }
     
 
+    @Test
+    public void testQueueLatency() throws Exception
+    {
+        _lowResourcesMonitor.setMonitorThreads(false);
+        _lowResourcesMonitor.setMaxQueueLatency(100);
+        Thread.sleep(1200);
+        Assert.assertFalse(_lowResourcesMonitor.isLowOnResources());
+        assertThat(_lowResourcesMonitor.getQueueLatency(), Matchers.lessThan(100L));
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        for (int i=0;i<100;i++)
+        {
+            _threadPool.execute(() ->
+            {
+                try
+                {
+                    latch.await();
+                }
+                catch (InterruptedException e)
+                {
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        Thread.sleep(2000);
+        Assert.assertTrue(_lowResourcesMonitor.isLowOnResources());
+        assertThat(_lowResourcesMonitor.getLowResourcesReasons(), Matchers.containsString("queue latency"));
+        Assert.assertTrue(_lowResourcesMonitor.isLowOnResources(_connector));
+
+        latch.countDown();
+        Thread.sleep(2000);
+        Assert.assertFalse(_lowResourcesMonitor.isLowOnResources());
+        Assert.assertFalse(_lowResourcesMonitor.isLowOnResources(_connector));
+    }
+
+    @Test
+    public void testRejectingInLowResources() throws Exception
+    {
+        _lowResourcesMonitor.setRejectingInLowResources(true);
+        _lowResourcesMonitor.setRetryAfter(5);
+        _lowResourcesMonitor.setMaxMemory(1);
+        Thread.sleep(1200);
+        Assert.assertTrue(_lowResourcesMonitor.isLowOnResources());
+
+        try (Socket socket = new Socket("localhost",_connector.getLocalPort()))
+        {
+            socket.getOutputStream().write("GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            String response = IO.toString(socket.getInputStream());
+            assertThat(response, Matchers.startsWith("HTTP/1.1 503 "));
+            assertThat(response, Matchers.containsString("Retry-After: 5"));
+        }
+
+        _lowResourcesMonitor.setMaxMemory(0);
+        Thread.sleep(1200);
+        Assert.assertFalse(_lowResourcesMonitor.isLowOnResources());
+
+        try (Socket socket = new Socket("localhost",_connector.getLocalPort()))
+        {
+            socket.getOutputStream().write("GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+            String response = IO.toString(socket.getInputStream());
+            assertThat(response, Matchers.startsWith("HTTP/1.1 200 "));
+        }
+    }
+
     @Ignore ("not reliable")
     @Test
     public void testLowOnMemory() throws Exception
@@ -0,0 +1,171 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.eclipse.jetty.http.CompressedContentFormat;
+import org.eclipse.jetty.http.DateGenerator;
+import org.eclipse.jetty.http.HttpContent;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.http.ResourceHttpContent;
+import org.eclipse.jetty.toolchain.test.TestingDir;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.resource.ResourceFactory;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MappedContentStoreTest
+{
+    @Rule
+    public TestingDir testdir = new TestingDir();
+
+    private Path _base;
+    private Path _store;
+
+    private MappedContentStore newStore(int segmentSize) throws Exception
+    {
+        _base = testdir.getPathFile("base");
+        _store = testdir.getPathFile("store");
+        Files.createDirectories(_base);
+        ResourceFactory factory = path -> Resource.newResource(_base.resolve(path.substring(1)).toFile());
+        MappedContentStore store = new MappedContentStore(factory, new MimeTypes(), CompressedContentFormat.NONE, _store);
+        store.setSegmentSize(segmentSize);
+        return store;
+    }
+
+    private static String toString(HttpContent content)
+    {
+        ByteBuffer buffer = content.getDirectBuffer();
+        assertThat(buffer.isDirect(), is(true));
+        assertThat(buffer.isReadOnly(), is(true));
+        return BufferUtil.toString(buffer, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testStoreAndReload() throws Exception
+    {
+        MappedContentStore store = newStore(64);
+        for (int i = 0; i < 10; i++)
+            Files.write(_base.resolve("file" + i + ".txt"), ("content of file " + i).getBytes(StandardCharsets.UTF_8));
+
+        store.start();
+        for (int i = 0; i < 10; i++)
+            assertThat(toString(store.getContent("/file" + i + ".txt", 0)), is("content of file " + i));
+        assertThat(store.getStoredFiles(), is(10));
+        assertThat(store.getSegments(), is(4));
+        assertThat(store.getMisses(), is(10L));
+
+        assertThat(toString(store.getContent("/file3.txt", 0)), is("content of file 3"));
+        assertThat(store.getHits(), is(1L));
+        store.stop();
+
+        // The restarted store serves the content without reading the files again.
+        store = newStore(64);
+        store.start();
+        assertThat(store.getStoredFiles(), is(10));
+        for (int i = 0; i < 10; i++)
+            assertThat(toString(store.getContent("/file" + i + ".txt", 0)), is("content of file " + i));
+        assertThat(store.getHits(), is(10L));
+        assertThat(store.getMisses(), is(0L));
+        assertThat(store.getSegments(), is(4));
+        store.stop();
+    }
+
+    @Test
+    public void testModifiedResource() throws Exception
+    {
+        MappedContentStore store = newStore(1024);
+        Path file = _base.resolve("file.txt");
+        Files.write(file, "original".getBytes(StandardCharsets.UTF_8));
+        store.start();
+        assertThat(toString(store.getContent("/file.txt", 0)), is("original"));
+
+        Files.write(file, "modified content".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        assertThat(toString(store.getContent("/file.txt", 0)), is("modified content"));
+        assertThat(store.getMisses(), is(2L));
+        store.stop();
+
+        // The later index record replaces the earlier one.
+        store = newStore(1024);
+        store.start();
+        assertThat(toString(store.getContent("/file.txt", 0)), is("modified content"));
+        assertThat(store.getHits(), is(1L));
+        store.stop();
+    }
+
+    @Test
+    public void testHeadersMatchStoredContent() throws Exception
+    {
+        MappedContentStore store = newStore(1024);
+        Path file = _base.resolve("file.txt");
+        Files.write(file, "original".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1000000000000L));
+        store.start();
+        HttpContent content = store.getContent("/file.txt", 0);
+
+        // The headers describe the stored bytes even if the file is replaced afterwards.
+        Files.write(file, "modified content".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(1000000005000L));
+        assertThat(content.getContentLengthValue(), is(8L));
+        assertThat(content.getLastModifiedValue(), is(DateGenerator.formatDate(1000000000000L)));
+        assertThat(toString(content), is("original"));
+        store.stop();
+    }
+
+    @Test
+    public void testUnstorableContent() throws Exception
+    {
+        MappedContentStore store = newStore(1024);
+        store.setMaxEntrySize(16);
+        store.setMaxStoreSize(1024);
+        Files.write(_base.resolve("large.txt"), "content larger than the entry size".getBytes(StandardCharsets.UTF_8));
+        Files.write(_base.resolve("small.txt"), "small content".getBytes(StandardCharsets.UTF_8));
+        Files.write(_base.resolve("empty.txt"), new byte[0]);
+        store.start();
+
+        assertThat(store.getContent("/missing.txt", 0), nullValue());
+        HttpContent large = store.getContent("/large.txt", 0);
+        assertThat(large.getClass(), is((Object)ResourceHttpContent.class));
+        assertThat(BufferUtil.toString(large.getIndirectBuffer(), StandardCharsets.UTF_8), is("content larger than the entry size"));
+        assertThat(store.getContent("/empty.txt", 0).getClass(), is((Object)ResourceHttpContent.class));
+        assertThat(store.getContent("/small.txt", 0).getClass(), not(is((Object)ResourceHttpContent.class)));
+        assertThat(store.getStoredFiles(), is(1));
+
+        // The store is full, so content that needs a new segment is not stored.
+        store.setMaxEntrySize(1024);
+        Files.write(_base.resolve("full.txt"), new byte[1020]);
+        assertThat(store.getContent("/full.txt", 0), instanceOf(ResourceHttpContent.class));
+        assertThat(store.getStoredFiles(), is(1));
+        assertThat(store.getSegments(), is(1));
+        store.stop();
+    }
+}
@@ -0,0 +1,199 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.MultiPartStreamParser;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.Callback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiPartContentReaderTest
+{
+    private Server _server;
+    private LocalConnector _connector;
+    private ExecutorService _executor;
+    private Path _dir;
+
+    @Before
+    public void before() throws Exception
+    {
+        _dir = Files.createTempDirectory("multipart");
+        _executor = Executors.newSingleThreadExecutor();
+        _server = new Server();
+        _connector = new LocalConnector(_server);
+        _server.addConnector(_connector);
+        _server.setHandler(new UploadHandler());
+        _server.start();
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        _server.stop();
+        _executor.shutdownNow();
+    }
+
+    @Test
+    public void testStreamToFile() throws Exception
+    {
+        StringBuilder file = new StringBuilder();
+        for (int i = 0; i < 4096; i++)
+            file.append("line ").append(i).append("\r\n");
+
+        String content = "--AaB03x\r\n" +
+            "Content-Disposition: form-data; name=\"field1\"\r\n" +
+            "\r\n" +
+            "Joe Blow\r\n" +
+            "--AaB03x\r\n" +
+            "Content-Disposition: form-data; name=\"upload\"; filename=\"upload.txt\"\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "\r\n" +
+            file +
+            "\r\n--AaB03x--\r\n";
+
+        String response = _connector.getResponse("POST / HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "Content-Type: multipart/form-data; boundary=AaB03x\r\n" +
+            "Content-Length: " + content.length() + "\r\n" +
+            "Connection: close\r\n" +
+            "\r\n" +
+            content);
+
+        assertThat(response, containsString(" 200 OK"));
+        assertThat(response, containsString("field1=8"));
+        assertThat(response, containsString("upload=" + file.length()));
+        assertThat(new String(Files.readAllBytes(_dir.resolve("upload")), StandardCharsets.ISO_8859_1), is(file.toString()));
+    }
+
+    @Test
+    public void testBadContent() throws Exception
+    {
+        String content = "--AaB03x\r\n" +
+            "Content-Type: text/plain\r\n" +
+            "\r\n" +
+            "no disposition\r\n" +
+            "--AaB03x--\r\n";
+
+        String response = _connector.getResponse("POST / HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "Content-Type: multipart/form-data; boundary=AaB03x\r\n" +
+            "Content-Length: " + content.length() + "\r\n" +
+            "Connection: close\r\n" +
+            "\r\n" +
+            content);
+
+        assertThat(response, containsString(" 400 "));
+    }
+
+    private class UploadHandler extends AbstractHandler
+    {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+        {
+            baseRequest.setHandled(true);
+            AsyncContext async = request.startAsync();
+            StringBuilder sizes = new StringBuilder();
+            MultiPartContentReader reader = new MultiPartContentReader(request, new MultiPartStreamParser.Listener()
+            {
+                private FileChannel channel;
+                private long size;
+
+                @Override
+                public void onPartBegin(MultiPartStreamParser.Part part)
+                {
+                    try
+                    {
+                        channel = FileChannel.open(_dir.resolve(part.getName()), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                        size = 0;
+                    }
+                    catch (IOException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public void onPartContent(MultiPartStreamParser.Part part, ByteBuffer content, boolean last, Callback callback)
+                {
+                    // Write from another thread to exercise the backpressure
+                    _executor.execute(() ->
+                    {
+                        try
+                        {
+                            while (content.hasRemaining())
+                                size += channel.write(content);
+                            if (last)
+                            {
+                                channel.close();
+                                sizes.append(part.getName()).append('=').append(size).append('\n');
+                            }
+                            callback.succeeded();
+                        }
+                        catch (IOException e)
+                        {
+                            callback.failed(e);
+                        }
+                    });
+                }
+
+                @Override
+                public void onComplete()
+                {
+                    try
+                    {
+                        response.getWriter().print(sizes);
+                    }
+                    catch (IOException e)
+                    {
+                        response.setStatus(500);
+                    }
+                    async.complete();
+                }
+
+                @Override
+                public void onFailure(Throwable failure)
+                {
+                    response.setStatus(400);
+                    async.complete();
+                }
+            });
+            reader.start();
+        }
+    }
+}
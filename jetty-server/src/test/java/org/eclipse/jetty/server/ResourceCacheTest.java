@@ -18,7 +18,10 @@
 
 package org.eclipse.jetty.server;
 
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
@@ -26,6 +29,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.http.CompressedContentFormat;
 import org.eclipse.jetty.http.HttpContent;
@@ -34,6 +40,7 @@ import org.eclipse.jetty.http.ResourceHttpContent;
 import org.eclipse.jetty.toolchain.test.AdvancedRunner;
 import org.eclipse.jetty.toolchain.test.OS;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.PathWatcher;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.resource.ResourceCollection;
 import org.junit.Test;
@@ -111,6 +118,115 @@ public class ResourceCacheTest
     }
 
 
+    @Test
+    public void testFrequencyAdmission() throws Exception
+    {
+        File dir = Files.createTempDirectory("admission").toFile();
+        dir.deleteOnExit();
+        String[] names = {"hot0.txt","hot1.txt","scan0.txt","scan1.txt","scan2.txt","scan3.txt"};
+        for (String name : names)
+        {
+            File file = new File(dir,name);
+            file.deleteOnExit();
+            try (OutputStream out = new FileOutputStream(file))
+            {
+                out.write(name.getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+
+        CachedContentFactory cache = new CachedContentFactory(null,Resource.newResource(dir),new MimeTypes(),false,false,CompressedContentFormat.NONE);
+        cache.setMaxCachedFiles(2);
+
+        for (int i=0;i<3;i++)
+        {
+            assertEquals("hot0.txt",getContent(cache,"hot0.txt"));
+            assertEquals("hot1.txt",getContent(cache,"hot1.txt"));
+        }
+        assertEquals(2,cache.getCachedFiles());
+        assertEquals(4,cache.getHits());
+        assertEquals(2,cache.getMisses());
+
+        // A scan of rarely requested files does not displace the hot files
+        for (int i=2;i<names.length;i++)
+        {
+            HttpContent content = cache.lookup(names[i]);
+            assertThat(content,not(instanceOf(CachedContentFactory.CachedHttpContent.class)));
+            assertEquals(names[i],BufferUtil.toString(content.getIndirectBuffer()));
+        }
+        assertEquals(2,cache.getCachedFiles());
+        assertEquals(4,cache.getRejections());
+        assertEquals(0,cache.getEvictions());
+        assertThat(cache.lookup("hot0.txt"),instanceOf(CachedContentFactory.CachedHttpContent.class));
+        assertThat(cache.lookup("hot1.txt"),instanceOf(CachedContentFactory.CachedHttpContent.class));
+
+        // Without the filter an entry is evicted
+        cache.setAdmissionFilter(false);
+        assertThat(cache.lookup("scan0.txt"),instanceOf(CachedContentFactory.CachedHttpContent.class));
+        assertEquals(2,cache.getCachedFiles());
+        assertEquals(1,cache.getEvictions());
+        cache.flushCache();
+    }
+
+    @Test
+    public void testRevalidationInterval() throws Exception
+    {
+        File dir = Files.createTempDirectory("revalidate").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir,"file.txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(),"one".getBytes(StandardCharsets.ISO_8859_1));
+
+        CachedContentFactory cache = new CachedContentFactory(null,Resource.newResource(dir),new MimeTypes(),false,false,CompressedContentFormat.NONE);
+        cache.setRevalidationInterval(TimeUnit.HOURS.toMillis(1));
+        assertEquals("one",getContent(cache,"file.txt"));
+
+        // The modification is not seen until the interval expires
+        Files.write(file.toPath(),"three".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals("one",getContent(cache,"file.txt"));
+
+        cache.setRevalidationInterval(0);
+        assertEquals("three",getContent(cache,"file.txt"));
+        cache.flushCache();
+    }
+
+    @Test
+    public void testPathWatcherInvalidation() throws Exception
+    {
+        File dir = Files.createTempDirectory("watched").toFile();
+        dir.deleteOnExit();
+        File file = new File(dir,"file.txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(),"one".getBytes(StandardCharsets.ISO_8859_1));
+
+        PathWatcher watcher = new PathWatcher();
+        PathWatcher.Config config = new PathWatcher.Config(dir.toPath());
+        config.setRecurseDepth(PathWatcher.Config.UNLIMITED_DEPTH);
+        watcher.watch(config);
+        watcher.setNotifyExistingOnStart(false);
+        watcher.setUpdateQuietTime(100,TimeUnit.MILLISECONDS);
+        CachedContentFactory cache = new CachedContentFactory(null,Resource.newResource(dir),new MimeTypes(),false,false,CompressedContentFormat.NONE);
+        cache.setPathWatcher(watcher);
+        watcher.start();
+        try
+        {
+            assertEquals("one",getContent(cache,"file.txt"));
+            assertEquals(1,cache.getCachedFiles());
+
+            Files.write(file.toPath(),"three".getBytes(StandardCharsets.ISO_8859_1));
+
+            long end = System.nanoTime()+TimeUnit.SECONDS.toNanos(10);
+            while (cache.getCachedFiles()>0 && System.nanoTime()<end)
+                Thread.sleep(50);
+            assertEquals(0,cache.getCachedFiles());
+            assertEquals("three",getContent(cache,"file.txt"));
+        }
+        finally
+        {
+            watcher.stop();
+            cache.flushCache();
+        }
+    }
+
     @Test
     public void testResourceCache() throws Exception
     {
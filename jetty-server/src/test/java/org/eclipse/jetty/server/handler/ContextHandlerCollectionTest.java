@@ -165,6 +165,58 @@ public class ContextHandlerCollectionTest
         }
     }
 
+    @Test
+    public void testVirtualHostIndex() throws Exception
+    {
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector(server);
+        server.setConnectors(new Connector[] { connector });
+
+        ContextHandlerCollection c = new ContextHandlerCollection();
+        IsHandledHandler[] handlers = new IsHandledHandler[100];
+        for (int i = 0; i < handlers.length; i++)
+        {
+            ContextHandler context = new ContextHandler("/");
+            context.setVirtualHosts(new String[] { "host" + i + ".example.com" });
+            handlers[i] = new IsHandledHandler("H" + i);
+            context.setHandler(handlers[i]);
+            c.addHandler(context);
+        }
+
+        ContextHandler wildcard = new ContextHandler("/");
+        wildcard.setVirtualHosts(new String[] { "*.example.com" });
+        IsHandledHandler wildcardHandler = new IsHandledHandler("W");
+        wildcard.setHandler(wildcardHandler);
+        c.addHandler(wildcard);
+
+        ContextHandler other = new ContextHandler("/");
+        IsHandledHandler otherHandler = new IsHandledHandler("O");
+        other.setHandler(otherHandler);
+        c.addHandler(other);
+
+        server.setHandler(c);
+
+        try
+        {
+            server.start();
+
+            assertThat(connector.getResponse("GET / HTTP/1.0\nHost: host42.example.com\n\n"), endsWith("H42"));
+            assertThat(connector.getResponse("GET / HTTP/1.0\nHost: HOST7.Example.COM.\n\n"), endsWith("H7"));
+            assertThat(connector.getResponse("GET / HTTP/1.0\nHost: host100.example.com\n\n"), endsWith("W"));
+            assertThat(connector.getResponse("GET / HTTP/1.0\nHost: example.com\n\n"), endsWith("O"));
+            assertThat(connector.getResponse("GET / HTTP/1.0\nHost: unknown.org\n\n"), endsWith("O"));
+
+            // The index is updated when the virtual hosts of a started context change.
+            ((ContextHandler)c.getHandlers()[5]).setVirtualHosts(new String[] { "renamed.example.org" });
+            assertThat(connector.getResponse("GET / HTTP/1.0\nHost: renamed.example.org\n\n"), endsWith("H5"));
+            assertThat(connector.getResponse("GET / HTTP/1.0\nHost: host5.example.com\n\n"), endsWith("W"));
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
     @Test
     public void testVirtualHostWildcard() throws Exception
     {
@@ -19,6 +19,9 @@
 package org.eclipse.jetty.server.handler;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertThat;
 
 import java.io.IOException;
@@ -35,6 +38,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.eclipse.jetty.server.AbstractNCSARequestLog;
 import org.eclipse.jetty.server.LocalConnector;
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLogFormat;
 import org.eclipse.jetty.server.Server;
 import org.junit.After;
 import org.junit.Before;
@@ -45,6 +49,7 @@ public class RequestLogTest
     Exchanger<String> _log;
     Server _server;
     LocalConnector _connector;
+    Log _requestLog;
     
 
     @Before
@@ -54,7 +59,8 @@ public class RequestLogTest
         _server = new Server();
         _connector = new LocalConnector(_server);
         _server.addConnector(_connector);
-        _server.setRequestLog(new Log());
+        _requestLog = new Log();
+        _server.setRequestLog(_requestLog);
         _server.setHandler(new TestHandler());
         _server.start();
     }
@@ -250,6 +256,39 @@ public class RequestLogTest
         assertThat(log,containsString(" 400 0 \"http://other.site\" \"Mozilla/5.0 (test)\" - "));
     }
 
+    @Test
+    public void testJsonFormat() throws Exception
+    {
+        RequestLogFormat format = new RequestLogFormat(RequestLogFormat.Style.JSON,
+            "method, uri status bytesOut agent=userAgent streamId tlsProtocol requestHeader:X-Id custom");
+        format.addStringField("custom", (request, response) -> "a \"quoted\"\tvalue");
+        _requestLog.setLogFormat(format);
+
+        _connector.getResponse("GET /foo?status=201 HTTP/1.0\nUser-Agent: Mozilla/5.0 (test)\nX-Id: 42\n\n");
+        String log = _log.exchange(null,5,TimeUnit.SECONDS);
+        assertThat(log,is("{\"method\":\"GET\",\"uri\":\"/foo?status=201\",\"status\":201,\"bytesOut\":0," +
+            "\"agent\":\"Mozilla/5.0 (test)\",\"streamId\":null,\"tlsProtocol\":null,\"requestHeader:X-Id\":\"42\"," +
+            "\"custom\":\"a \\\"quoted\\\"\\tvalue\"}"));
+    }
+
+    @Test
+    public void testLogfmtFormat() throws Exception
+    {
+        RequestLogFormat format = new RequestLogFormat(RequestLogFormat.Style.LOGFMT, "method uri status latency userAgent referer");
+        _requestLog.setLogFormat(format);
+
+        _connector.getResponse("GET /foo?status=200 HTTP/1.0\nUser-Agent: Mozilla/5.0 (test)\n\n");
+        String log = _log.exchange(null,5,TimeUnit.SECONDS);
+        assertThat(log,startsWith("method=GET uri=\"/foo?status=200\" status=200 latency="));
+        assertThat(log,endsWith(" userAgent=\"Mozilla/5.0 (test)\" referer="));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFormatField() throws Exception
+    {
+        new RequestLogFormat(RequestLogFormat.Style.JSON, "method unknown").compile();
+    }
+
     private class Log extends AbstractNCSARequestLog
     {
         {
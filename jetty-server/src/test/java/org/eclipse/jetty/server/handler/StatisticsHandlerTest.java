@@ -19,6 +19,7 @@
 package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.Future;
@@ -37,11 +38,14 @@ import org.eclipse.jetty.io.ConnectionStatistics;
 import org.eclipse.jetty.server.LocalConnector;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.UserIdentity;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -602,6 +606,64 @@ public class StatisticsHandlerTest
         assertTrue(_statsHandler.getDispatchedTimeTotal() < _statsHandler.getRequestTimeTotal());
         assertEquals(_statsHandler.getDispatchedTimeTotal(), _statsHandler.getDispatchedTimeMax());
         assertEquals(_statsHandler.getDispatchedTimeTotal(), _statsHandler.getDispatchedTimeMean(), 0.01);
+
+        assertEquals(_statsHandler.getRequestTimeMax(), _statsHandler.getRequestTimeP999());
+        assertEquals(_statsHandler.getDispatchedTimeMax(), _statsHandler.getDispatchedTimeP50());
+        assertThat(_statsHandler.getAsyncTimeP50(), greaterThanOrEqualTo(requestTime * 3 / 4));
+        assertThat(_statsHandler.getAsyncTimeP50(), lessThanOrEqualTo(_statsHandler.getRequestTimeP50()));
+    }
+
+    @Test
+    public void testPathStatistics() throws Exception
+    {
+        _statsHandler.setMaxPathStatistics(2);
+        _statsHandler.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String path, Request request, HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+            {
+                request.setHandled(true);
+                // A new scope for every request, as after a redeploy, is grouped by its names.
+                request.setUserIdentityScope(new UserIdentity.Scope()
+                {
+                    @Override
+                    public String getContextPath()
+                    {
+                        return "/ctx";
+                    }
+
+                    @Override
+                    public String getName()
+                    {
+                        return path.substring(1);
+                    }
+
+                    @Override
+                    public Map<String, String> getRoleRefMap()
+                    {
+                        return null;
+                    }
+                });
+            }
+        });
+        _server.start();
+
+        String[] paths = {"/a", "/a", "/b", "/c", "/d"};
+        _latchHandler.reset(paths.length);
+        for (String path : paths)
+            _connector.getResponse("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        assertTrue(_latchHandler.await());
+
+        Map<String, StatisticsHandler.PathStatistics> stats = _statsHandler.getPathStatistics();
+        assertThat(stats.keySet(), contains("*", "/ctx|a", "/ctx|b"));
+        assertEquals(2, stats.get("/ctx|a").getRequests());
+        assertEquals(1, stats.get("/ctx|b").getRequests());
+        assertEquals(2, stats.get("*").getRequests());
+        assertEquals(3, _statsHandler.getPathRequestTimes().length);
+        assertThat(_statsHandler.getRequestTimeP99(), lessThanOrEqualTo(_statsHandler.getRequestTimeMax()));
+
+        _statsHandler.statsReset();
+        assertTrue(_statsHandler.getPathStatistics().isEmpty());
     }
 
     @Test
@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.servlet;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -42,6 +43,7 @@ import org.eclipse.jetty.server.ResourceContentFactory;
 import org.eclipse.jetty.server.ResourceService;
 import org.eclipse.jetty.server.ResourceService.WelcomeFactory;
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.PathWatcher;
 import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
@@ -110,6 +112,14 @@ import org.eclipse.jetty.util.resource.ResourceFactory;
  *  maxCachedFileSize The maximum size of a file to cache
  *  maxCachedFiles    The maximum number of files to cache
  *
+ *  revalidationInterval
+ *                    The minimum interval in ms between checks that a cached file has not
+ *                    been modified, or 0 (the default) to check on every request.
+ *
+ *  watchResources    If true, cached files are invalidated by file system events from a
+ *                    PathWatcher of the resource base directory, rather than checked on
+ *                    each request. Default is false.
+ *
  *  useFileMappedBuffer
  *                    If set to true, it will use mapped file buffer to serve static content
  *                    when using NIO connector. Setting this value to false means that
@@ -143,6 +153,7 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory, Welc
     private boolean _welcomeExactServlets=false;
 
     private Resource _resourceBase;
+    private PathWatcher _pathWatcher;
     private CachedContentFactory _cache;
 
     private MimeTypes _mimeTypes;
@@ -267,6 +278,12 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory, Welc
                     _cache.setMaxCachedFileSize(max_cached_file_size);
                 if (max_cached_files>=-1)
                     _cache.setMaxCachedFiles(max_cached_files);
+                long revalidation_interval=getInitInt("revalidationInterval",0);
+                if (revalidation_interval>0)
+                    _cache.setRevalidationInterval(revalidation_interval);
+                if (getInitBoolean("watchResources",false))
+                    watchResources();
+                _contextHandler.addBean(_cache);
                 _servletContext.setAttribute(resourceCache==null?"resourceCache":resourceCache,_cache);
             }
         }
@@ -492,11 +509,46 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory, Welc
     @Override
     public void destroy()
     {
+        if (_pathWatcher!=null)
+        {
+            try
+            {
+                _pathWatcher.stop();
+            }
+            catch (Exception e)
+            {
+                LOG.ignore(e);
+            }
+            _pathWatcher=null;
+        }
         if (_cache!=null)
+        {
             _cache.flushCache();
+            _contextHandler.removeBean(_cache);
+        }
         super.destroy();
     }
 
+    /* ------------------------------------------------------------ */
+    private void watchResources() throws Exception
+    {
+        Resource base = getResource("/");
+        File dir = base==null?null:base.getFile();
+        if (dir==null || !dir.isDirectory())
+        {
+            LOG.warn("Cannot watch resources of {}",base);
+            return;
+        }
+
+        PathWatcher.Config config = new PathWatcher.Config(dir.toPath());
+        config.setRecurseDepth(PathWatcher.Config.UNLIMITED_DEPTH);
+        _pathWatcher = new PathWatcher();
+        _pathWatcher.watch(config);
+        _pathWatcher.setNotifyExistingOnStart(false);
+        _cache.setPathWatcher(_pathWatcher);
+        _pathWatcher.start();
+    }
+
     /* ------------------------------------------------------------ */
     @Override
     public String getWelcomeFile(String pathInContext)
@@ -45,6 +45,7 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.CompressedContentFormat;
 import org.eclipse.jetty.http.DateGenerator;
 import org.eclipse.jetty.http.HttpContent;
 import org.eclipse.jetty.http.HttpTester;
@@ -850,6 +851,141 @@ public class DefaultServletTest
 
 
 
+    @Test
+    public void testCachedRangeRequests() throws Exception
+    {
+        FS.ensureDirExists(docRoot);
+        File data = new File(docRoot, "data.txt");
+        createFile(data, "01234567890123456789012345678901234567890123456789012345678901234567890123456789");
+
+        ServletHolder defholder = context.addServlet(DefaultServlet.class, "/");
+        defholder.setInitParameter("dirAllowed", "false");
+        defholder.setInitParameter("redirectWelcome", "false");
+        defholder.setInitParameter("welcomeServlets", "false");
+        defholder.setInitParameter("gzip", "false");
+        defholder.setInitParameter("acceptRanges", "true");
+        defholder.setInitParameter("etags", "true");
+        defholder.setInitParameter("maxCacheSize", "1024000");
+
+        String response = connector.getResponse("GET /context/data.txt HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "\r\n");
+        assertResponseContains("200 OK", response);
+        String lastModified = getHeaderValue("Last-Modified", response);
+
+        response = connector.getResponse("GET /context/data.txt HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Range: bytes=5-14\r\n" +
+                "\r\n");
+        assertResponseContains("206 Partial", response);
+        assertResponseContains("Content-Length: 10", response);
+        assertResponseContains("Content-Range: bytes 5-14/80", response);
+        assertTrue(response.endsWith("\r\n\r\n5678901234"));
+
+        response = connector.getResponse("GET /context/data.txt HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Range: bytes=0-4,75-79\r\n" +
+                "\r\n");
+        int start = response.indexOf("--jetty");
+        String body = response.substring(start);
+        String boundary = body.substring(0, body.indexOf("\r\n"));
+        assertResponseContains("206 Partial", response);
+        assertResponseContains("Content-Length: " + body.length(), response);
+        assertThat(body, is(boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-4/80\r\n\r\n01234\r\n" +
+                boundary + "\r\nContent-Type: text/plain\r\nContent-Range: bytes 75-79/80\r\n\r\n56789\r\n" +
+                boundary + "--\r\n"));
+
+        // A matching Last-Modified If-Range sends the range
+        response = connector.getResponse("GET /context/data.txt HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Range: bytes=0-9\r\n" +
+                "If-Range: " + lastModified + "\r\n" +
+                "\r\n");
+        assertResponseContains("206 Partial", response);
+
+        // A different If-Range sends the whole content
+        response = connector.getResponse("GET /context/data.txt HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Range: bytes=0-9\r\n" +
+                "If-Range: W/\"other\"\r\n" +
+                "\r\n");
+        assertResponseContains("200 OK", response);
+        assertResponseContains("Content-Length: 80", response);
+        assertResponseNotContains("Content-Range", response);
+
+        response = connector.getResponse("GET /context/data.txt HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Range: bytes=0-9\r\n" +
+                "If-Range: Thu, 01 Jan 1970 00:00:00 GMT\r\n" +
+                "\r\n");
+        assertResponseContains("200 OK", response);
+        assertResponseContains("Content-Length: 80", response);
+    }
+
+    @Test
+    public void testWeakIfRange() throws Exception
+    {
+        FS.ensureDirExists(docRoot);
+        File data = new File(docRoot, "data.txt");
+        createFile(data, "01234567890123456789012345678901234567890123456789012345678901234567890123456789");
+
+        ServletHolder defholder = context.addServlet(DefaultServlet.class, "/");
+        defholder.setInitParameter("acceptRanges", "true");
+        defholder.setInitParameter("etags", "true");
+        defholder.setInitParameter("maxCacheSize", "1024000");
+
+        String response = connector.getResponse("GET /context/data.txt HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "\r\n");
+        assertResponseContains("200 OK", response);
+        String etag = getHeaderValue("ETag", response);
+        assertTrue(etag.startsWith("W/"));
+
+        // If-Range uses a strong comparison, so even the current weak tag sends the whole content
+        response = connector.getResponse("GET /context/data.txt HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Range: bytes=0-9\r\n" +
+                "If-Range: " + etag + "\r\n" +
+                "\r\n");
+        assertResponseContains("200 OK", response);
+        assertResponseContains("Content-Length: 80", response);
+        assertResponseNotContains("Content-Range", response);
+    }
+
+    @Test
+    public void testCompressedVariantIfRange() throws Exception
+    {
+        FS.ensureDirExists(docRoot);
+        File data = new File(docRoot, "data.txt");
+        createFile(data, "01234567890123456789012345678901234567890123456789012345678901234567890123456789");
+
+        ServletHolder defholder = context.addServlet(DefaultServlet.class, "/");
+        defholder.setInitParameter("acceptRanges", "true");
+        defholder.setInitParameter("etags", "true");
+        defholder.setInitParameter("maxCacheSize", "1024000");
+
+        String response = connector.getResponse("GET /context/data.txt HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "\r\n");
+        assertResponseContains("200 OK", response);
+        String etag = getHeaderValue("ETag", response);
+        String strong = etag.substring(2);
+        String variant = strong.substring(0, strong.length() - 1) + CompressedContentFormat.GZIP._etagQuote;
+
+        // A tag of the gzip variant must not select a range of the identity representation
+        for (String ifRange : new String[]{variant, "W/" + variant})
+        {
+            response = connector.getResponse("GET /context/data.txt HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Range: bytes=0-9\r\n" +
+                    "If-Range: " + ifRange + "\r\n" +
+                    "\r\n");
+            assertResponseContains("200 OK", response);
+            assertResponseContains("Content-Length: 80", response);
+            assertResponseNotContains("Content-Range", response);
+        }
+    }
+
     @Test
     public void testFiltered() throws Exception
     {
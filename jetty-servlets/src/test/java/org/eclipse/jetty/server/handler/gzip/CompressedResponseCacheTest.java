@@ -0,0 +1,277 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpTester;
+import org.eclipse.jetty.server.Authentication;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.server.handler.InetAccessHandler;
+import org.eclipse.jetty.servlet.ServletTester;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.IO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressedResponseCacheTest
+{
+    private static final AtomicInteger __requests = new AtomicInteger();
+    private static String __content;
+    static
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i=0;i<100;i++)
+            builder.append("{\"code\":").append(i).append(",\"country\":\"Lorem ipsum\"}\n");
+        __content = builder.toString();
+    }
+
+    private ServletTester tester;
+    private GzipHandler gzipHandler;
+    private CompressedResponseCache cache;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        __requests.set(0);
+        tester=new ServletTester("/context");
+        tester.getContext().addServlet(ReferenceServlet.class, "/reference");
+
+        gzipHandler = new GzipHandler();
+        cache = new CompressedResponseCache();
+        cache.setMaxAge(60000);
+        gzipHandler.setCompressedResponseCache(cache);
+        tester.getContext().insertHandler(gzipHandler);
+        tester.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        tester.stop();
+    }
+
+    @Test
+    public void testCachedResponse() throws Exception
+    {
+        HttpTester.Response first = request("/context/reference",null);
+        HttpTester.Response second = request("/context/reference",null);
+
+        assertThat(__requests.get(),is(1));
+        assertThat(cache.getHits(),is(1L));
+        assertThat(second.get("Content-Encoding"),is("gzip"));
+        assertThat(second.get("ETag"),is(first.get("ETag")));
+        assertThat(second.get("Vary"),is(first.get("Vary")));
+        assertThat(second.get("Content-Type"),is(first.get("Content-Type")));
+        assertThat(second.getContentBytes(),is(first.getContentBytes()));
+        assertThat(gunzip(second.getContentBytes()),is(__content));
+
+        request("/context/reference?other",null);
+        assertThat(__requests.get(),is(2));
+    }
+
+    @Test
+    public void testNotModified() throws Exception
+    {
+        HttpTester.Response first = request("/context/reference",null);
+        assertThat(first.get("ETag"),is("\"reference--gzip\""));
+
+        HttpTester.Response second = request("/context/reference",first.get("ETag"));
+        assertThat(second.getStatus(),is(HttpServletResponse.SC_NOT_MODIFIED));
+        assertThat(second.get("ETag"),is(first.get("ETag")));
+        assertThat(__requests.get(),is(1));
+    }
+
+    @Test
+    public void testNotModifiedList() throws Exception
+    {
+        HttpTester.Response first = request("/context/reference",null);
+
+        HttpTester.Response second = request("/context/reference","\"other\", W/"+first.get("ETag"));
+        assertThat(second.getStatus(),is(HttpServletResponse.SC_NOT_MODIFIED));
+
+        HttpTester.Response third = request("/context/reference","\"x"+first.get("ETag").substring(1));
+        assertThat(third.getStatus(),is(HttpServletResponse.SC_OK));
+        assertThat(__requests.get(),is(1));
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception
+    {
+        request("/context/reference?cookie",null);
+        request("/context/reference?cookie",null);
+        assertThat(__requests.get(),is(2));
+        assertThat(cache.getCachedResponses(),is(0));
+
+        request("/context/reference?stale",null);
+        request("/context/reference?stale",null);
+        assertThat(__requests.get(),is(4));
+        assertThat(cache.getCachedResponses(),is(0));
+    }
+
+    @Test
+    public void testCredentialsBypassCache() throws Exception
+    {
+        request("/context/reference",null);
+        request("/context/reference",null,"Authorization: Basic dXNlcjpwYXNz");
+        request("/context/reference",null,"Cookie: session=1234");
+        assertThat(__requests.get(),is(3));
+        assertThat(cache.getHits(),is(0L));
+    }
+
+    @Test
+    public void testVary() throws Exception
+    {
+        request("/context/reference?vary",null,"User-Agent: one");
+        request("/context/reference?vary",null,"User-Agent: one");
+        assertThat(__requests.get(),is(1));
+
+        request("/context/reference?vary",null,"User-Agent: two");
+        assertThat(__requests.get(),is(2));
+
+        // Values are compared as lists of elements.
+        request("/context/reference?vary",null,"User-Agent: one,  two");
+        assertThat(__requests.get(),is(3));
+        request("/context/reference?vary",null,"User-Agent: one,two");
+        request("/context/reference?vary",null,"User-Agent: one\r\nUser-Agent: two");
+        assertThat(__requests.get(),is(3));
+    }
+
+    @Test
+    public void testSecurityCheckedByWrappedHandler() throws Exception
+    {
+        tester.stop();
+        gzipHandler.insertHandler(new HandlerWrapper()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                // Simulates a security handler wrapped by the GzipHandler,
+                // which records the outcome of its checks in the request.
+                if ("secure".equals(baseRequest.getQueryString()))
+                    baseRequest.setAuthentication(new Authentication(){});
+                super.handle(target,baseRequest,request,response);
+            }
+        });
+        tester.start();
+
+        request("/context/reference?secure",null);
+        request("/context/reference?secure",null);
+        assertThat(__requests.get(),is(2));
+        assertThat(cache.getCachedResponses(),is(0));
+
+        request("/context/reference",null);
+        request("/context/reference",null);
+        assertThat(__requests.get(),is(3));
+    }
+
+    @Test
+    public void testNoCacheBeforeAccessHandler() throws Exception
+    {
+        tester.stop();
+        gzipHandler.insertHandler(new InetAccessHandler());
+        tester.start();
+
+        request("/context/reference",null);
+        request("/context/reference",null);
+        assertThat(__requests.get(),is(2));
+        assertThat(cache.getCachedResponses(),is(0));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception
+    {
+        request("/context/reference",null);
+        assertThat(cache.getCachedResponses(),is(1));
+        cache.invalidate("tester","/context/reference");
+        assertThat(cache.getCachedResponses(),is(0));
+        assertThat(cache.getCachedSize(),is(0L));
+        request("/context/reference",null);
+        assertThat(__requests.get(),is(2));
+    }
+
+    private HttpTester.Response request(String uri, String ifNoneMatch) throws Exception
+    {
+        return request(uri,ifNoneMatch,null);
+    }
+
+    private HttpTester.Response request(String uri, String ifNoneMatch, String header) throws Exception
+    {
+        ByteBuffer request=BufferUtil.toBuffer(
+            "GET "+uri+" HTTP/1.0\r\n"+
+            "Host: tester\r\n"+
+            "Accept-Encoding: gzip\r\n"+
+            (ifNoneMatch==null?"":"If-None-Match: "+ifNoneMatch+"\r\n")+
+            (header==null?"":header+"\r\n")+
+            "\r\n");
+
+        HttpTester.Response response=HttpTester.parseResponse(tester.getResponses(request));
+        if (response.getStatus()==HttpServletResponse.SC_OK)
+            assertThat(response.get("Set-Cookie"),nullValue());
+        return response;
+    }
+
+    private String gunzip(byte[] compressed) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IO.copy(new GZIPInputStream(new ByteArrayInputStream(compressed)),out);
+        return out.toString("ISO8859_1");
+    }
+
+    public static class ReferenceServlet extends HttpServlet
+    {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException
+        {
+            __requests.incrementAndGet();
+            String etag = "\"reference\"";
+            if (etag.equals(req.getHeader("If-None-Match")))
+            {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            if ("cookie".equals(req.getQueryString()))
+                resp.setHeader("Cache-Control","private");
+            else if ("stale".equals(req.getQueryString()))
+                resp.setHeader("Cache-Control","max-age=0");
+            else if ("vary".equals(req.getQueryString()))
+                resp.setHeader("Vary","User-Agent");
+            resp.setHeader("ETag",etag);
+            resp.setContentType("application/json");
+            resp.getOutputStream().write(__content.getBytes("ISO8859_1"));
+        }
+    }
+}
@@ -0,0 +1,256 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.CompressedContentFormat;
+import org.eclipse.jetty.http.HttpTester;
+import org.eclipse.jetty.servlet.ServletTester;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.IO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentEncoderTest
+{
+    private static final CompressedContentFormat DEFLATE = new CompressedContentFormat("deflate",".zz");
+
+    private static String __content;
+    static
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i=0;i<200;i++)
+            builder.append("{\"id\":").append(i).append(",\"name\":\"Lorem ipsum dolor sit amet\"}\n");
+        __content = builder.toString();
+    }
+
+    private ServletTester tester;
+    private GzipHandler gzipHandler;
+    private DeflateEncoder encoder;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        tester=new ServletTester("/context");
+        tester.getContext().addServlet(ContentServlet.class, "/content");
+
+        gzipHandler = new GzipHandler();
+        gzipHandler.setDiscoverContentEncoders(false);
+        encoder = new DeflateEncoder();
+        gzipHandler.addContentEncoder(encoder);
+        tester.getContext().insertHandler(gzipHandler);
+        tester.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        tester.stop();
+    }
+
+    @Test
+    public void testPreferredEncoder() throws Exception
+    {
+        assertThat(request("gzip, deflate"),is("deflate"));
+        assertThat(request("deflate, gzip"),is("deflate"));
+        assertThat(gzipHandler.getCompressionStatistics("deflate").getResponses(),is(2L));
+    }
+
+    @Test
+    public void testQualityNegotiation() throws Exception
+    {
+        assertThat(request("gzip;q=0.5, deflate"),is("deflate"));
+        assertThat(request("gzip, deflate;q=0.5"),is("gzip"));
+        assertThat(request("deflate;q=0, gzip"),is("gzip"));
+        assertThat(request("br"),is((String)null));
+    }
+
+    @Test
+    public void testStatistics() throws Exception
+    {
+        request("deflate");
+        request("gzip");
+
+        CompressionStatistics deflate = gzipHandler.getCompressionStatistics("deflate");
+        assertThat(deflate.getResponses(),is(1L));
+        assertThat(deflate.getBytesIn(),is((long)__content.length()));
+        assertThat(deflate.getCompressionRatio(),lessThan(0.5));
+
+        CompressionStatistics gzip = gzipHandler.getCompressionStatistics("gzip");
+        assertThat(gzip.getResponses(),is(1L));
+        assertThat(gzip.getBytesIn(),is((long)__content.length()));
+        assertThat(gzip.getBytesOut(),lessThan(gzip.getBytesIn()));
+    }
+
+    @Test
+    public void testStopEndsPooledCompressors() throws Exception
+    {
+        request("deflate");
+        assertThat(encoder.ended.get(),is(0));
+
+        tester.stop();
+        assertThat(encoder.ended.get(),is(1));
+    }
+
+    @Test
+    public void testReleaseAfterClose() throws Exception
+    {
+        CompressorPool pool = new CompressorPool(encoder,-1);
+        ContentEncoder.Compressor compressor = pool.acquire();
+        pool.close();
+        pool.release(compressor);
+        assertThat(encoder.ended.get(),is(1));
+    }
+
+    private String request(String acceptEncoding) throws Exception
+    {
+        ByteBuffer request=BufferUtil.toBuffer(
+            "GET /context/content HTTP/1.0\r\n"+
+            "Host: tester\r\n"+
+            "Accept-Encoding: "+acceptEncoding+"\r\n"+
+            "\r\n");
+
+        HttpTester.Response response=HttpTester.parseResponse(tester.getResponses(request));
+        assertThat(response.getStatus(),is(HttpServletResponse.SC_OK));
+
+        String encoding = response.get("Content-Encoding");
+        InputStream in = new ByteArrayInputStream(response.getContentBytes());
+        if ("gzip".equals(encoding))
+            in = new GZIPInputStream(in);
+        else if ("deflate".equals(encoding))
+            in = new InflaterInputStream(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IO.copy(in,out);
+        assertEquals(__content,out.toString("ISO8859_1"));
+        return encoding;
+    }
+
+    public static class ContentServlet extends HttpServlet
+    {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException
+        {
+            resp.setContentType("application/json");
+            resp.getOutputStream().write(__content.getBytes("ISO8859_1"));
+        }
+    }
+
+    /**
+     * The zlib format as an example of a pluggable encoder.
+     */
+    private static class DeflateEncoder implements ContentEncoder
+    {
+        private final AtomicInteger ended = new AtomicInteger();
+
+        @Override
+        public CompressedContentFormat getFormat()
+        {
+            return DEFLATE;
+        }
+
+        @Override
+        public Compressor newCompressor()
+        {
+            Deflater deflater = new Deflater();
+            return new Compressor()
+            {
+                @Override
+                public CompressedContentFormat getFormat()
+                {
+                    return DEFLATE;
+                }
+
+                @Override
+                public void setInput(byte[] b, int off, int len)
+                {
+                    deflater.setInput(b,off,len);
+                }
+
+                @Override
+                public boolean needsInput()
+                {
+                    return deflater.needsInput();
+                }
+
+                @Override
+                public void finish()
+                {
+                    deflater.finish();
+                }
+
+                @Override
+                public boolean finished()
+                {
+                    return deflater.finished();
+                }
+
+                @Override
+                public int compress(byte[] b, int off, int len, boolean flush)
+                {
+                    return deflater.deflate(b,off,len,flush?Deflater.SYNC_FLUSH:Deflater.NO_FLUSH);
+                }
+
+                @Override
+                public long getBytesRead()
+                {
+                    return deflater.getBytesRead();
+                }
+
+                @Override
+                public long getBytesWritten()
+                {
+                    return deflater.getBytesWritten();
+                }
+
+                @Override
+                public void reset()
+                {
+                    deflater.reset();
+                }
+
+                @Override
+                public void end()
+                {
+                    ended.incrementAndGet();
+                    deflater.end();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,151 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A lock-free histogram of non negative sampled values, from which percentiles can be read.</p>
+ * <p>Values are counted in log-linear buckets in the style of an HDR histogram: values below
+ * {@code 2^precisionBits} have their own bucket, and larger values are grouped in buckets whose
+ * width doubles with every power of two, keeping the relative error of any percentile below
+ * {@code 1/2^(precisionBits-1)}. Recording a value is a single atomic increment, and reading
+ * takes no locks, so percentiles read while values are being recorded are approximate.</p>
+ */
+public class HistogramStatistic
+{
+    private final int _precisionBits;
+    private final int _halfBucketCount;
+    private final AtomicLongArray _counts;
+    private final LongAdder _count = new LongAdder();
+    private final LongAccumulator _max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Creates a histogram with a relative error below 1.6%.
+     */
+    public HistogramStatistic()
+    {
+        this(7);
+    }
+
+    /**
+     * @param precisionBits the number of significant bits kept for each value, between 2 and 16
+     */
+    public HistogramStatistic(int precisionBits)
+    {
+        if (precisionBits < 2 || precisionBits > 16)
+            throw new IllegalArgumentException("precisionBits " + precisionBits);
+        _precisionBits = precisionBits;
+        _halfBucketCount = 1 << (precisionBits - 1);
+        _counts = new AtomicLongArray(indexOf(Long.MAX_VALUE) + 1);
+    }
+
+    /**
+     * Resets the statistics.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < _counts.length(); i++)
+            _counts.set(i, 0);
+        _count.reset();
+        _max.reset();
+    }
+
+    /**
+     * Records a sample value.
+     *
+     * @param sample the value to record; negative values are recorded as zero
+     */
+    public void record(long sample)
+    {
+        if (sample < 0)
+            sample = 0;
+        _counts.incrementAndGet(indexOf(sample));
+        _count.increment();
+        _max.accumulate(sample);
+    }
+
+    /**
+     * @return the number of samples recorded
+     */
+    public long getCount()
+    {
+        return _count.sum();
+    }
+
+    /**
+     * @return the max value of the recorded samples
+     */
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100, for example 99.9
+     * @return the highest value equivalent to the value at the given percentile, or zero if there are no samples
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile " + percentile);
+
+        long total = 0;
+        for (int i = 0; i < _counts.length(); i++)
+            total += _counts.get(i);
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100.0D * total));
+        long seen = 0;
+        for (int i = 0; i < _counts.length(); i++)
+        {
+            seen += _counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestValueOf(i), getMax());
+        }
+        return getMax();
+    }
+
+    private int indexOf(long value)
+    {
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (_precisionBits - 1);
+        if (shift <= 0)
+            return (int)value;
+        return shift * _halfBucketCount + (int)(value >>> shift);
+    }
+
+    private long highestValueOf(int index)
+    {
+        if (index < 2 * _halfBucketCount)
+            return index;
+        int shift = index / _halfBucketCount - 1;
+        long sub = index - shift * _halfBucketCount;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{count=%d,p50=%d,p99=%d,p999=%d,max=%d}", getClass().getSimpleName(), hashCode(),
+            getCount(), getValueAtPercentile(50), getValueAtPercentile(99), getValueAtPercentile(99.9), getMax());
+    }
+}
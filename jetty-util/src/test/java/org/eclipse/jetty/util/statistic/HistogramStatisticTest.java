@@ -0,0 +1,92 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2018 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+public class HistogramStatisticTest
+{
+    @Test
+    public void testEmpty()
+    {
+        HistogramStatistic histogram = new HistogramStatistic();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getValueAtPercentile(99), is(0L));
+    }
+
+    @Test
+    public void testSmallValuesAreExact()
+    {
+        HistogramStatistic histogram = new HistogramStatistic();
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i);
+
+        assertThat(histogram.getCount(), is(100L));
+        assertThat(histogram.getValueAtPercentile(0), is(1L));
+        assertThat(histogram.getValueAtPercentile(50), is(50L));
+        assertThat(histogram.getValueAtPercentile(99), is(99L));
+        assertThat(histogram.getValueAtPercentile(100), is(100L));
+        assertThat(histogram.getMax(), is(100L));
+    }
+
+    @Test
+    public void testRelativeError()
+    {
+        HistogramStatistic histogram = new HistogramStatistic();
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = ThreadLocalRandom.current().nextLong(1, 1L << 40);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[]{50, 90, 99, 99.9})
+        {
+            long expected = values[(int)Math.ceil(percentile / 100 * values.length) - 1];
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertThat(actual, greaterThanOrEqualTo(expected));
+            assertThat(actual, lessThanOrEqualTo(expected + expected / 64));
+        }
+    }
+
+    @Test
+    public void testReset()
+    {
+        HistogramStatistic histogram = new HistogramStatistic();
+        histogram.record(1000);
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-1);
+        assertThat(histogram.getValueAtPercentile(100), is(Long.MAX_VALUE));
+        assertThat(histogram.getValueAtPercentile(1), is(0L));
+
+        histogram.reset();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getMax(), is(0L));
+        assertThat(histogram.getValueAtPercentile(50), is(0L));
+    }
+}